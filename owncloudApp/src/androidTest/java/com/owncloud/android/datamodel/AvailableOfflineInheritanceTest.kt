@@ -0,0 +1,185 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.NOT_AVAILABLE_OFFLINE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Checks that available offline status is inherited through the remote paths of the tree after the
+ * folders are moved, renamed or deleted.
+ */
+@SmallTest
+class AvailableOfflineInheritanceTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var root: OCFile
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+        root = storageManager.getFileByPath(OCFile.ROOT_PATH)!!
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    @Test
+    fun newFilesInheritFromAnyAncestor() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val year = saveFolder("/Photos/2020/", photos)
+        val picture = saveFile("/Photos/2020/a.jpg", year)
+
+        assertStatus(AVAILABLE_OFFLINE_PARENT, year)
+        assertStatus(AVAILABLE_OFFLINE_PARENT, picture)
+    }
+
+    @Test
+    fun newFilesOutOfAvailableOfflineFolderDoNotInherit() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        // same prefix, different folder
+        val photosBackup = saveFolder("/Photos-backup/", root)
+        val picture = saveFile("/Photos-backup/a.jpg", photosBackup)
+
+        assertStatus(NOT_AVAILABLE_OFFLINE, photosBackup)
+        assertStatus(NOT_AVAILABLE_OFFLINE, picture)
+    }
+
+    @Test
+    fun moveIntoAvailableOfflineFolder() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val documents = saveFolder("/Documents/", root)
+        val report = saveFile("/Documents/report.pdf", documents)
+
+        storageManager.moveLocalFile(documents, "/Photos/Documents/", "/Photos/")
+
+        assertStatus(AVAILABLE_OFFLINE_PARENT, storageManager.getFileById(documents.fileId)!!)
+        assertStatus(AVAILABLE_OFFLINE_PARENT, storageManager.getFileById(report.fileId)!!)
+        assertEquals("/Photos/Documents/report.pdf", storageManager.getFileById(report.fileId)!!.remotePath)
+        val newFile = saveFile("/Photos/Documents/new.pdf", storageManager.getFileById(documents.fileId)!!)
+        assertStatus(AVAILABLE_OFFLINE_PARENT, newFile)
+    }
+
+    @Test
+    fun moveOutOfAvailableOfflineFolder() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val year = saveFolder("/Photos/2020/", photos)
+        val picture = saveFile("/Photos/2020/a.jpg", year)
+
+        storageManager.moveLocalFile(storageManager.getFileById(year.fileId), "/2020/", OCFile.ROOT_PATH)
+
+        assertStatus(NOT_AVAILABLE_OFFLINE, storageManager.getFileById(year.fileId)!!)
+        assertStatus(NOT_AVAILABLE_OFFLINE, storageManager.getFileById(picture.fileId)!!)
+        val newFile = saveFile("/2020/b.jpg", storageManager.getFileById(year.fileId)!!)
+        assertStatus(NOT_AVAILABLE_OFFLINE, newFile)
+    }
+
+    @Test
+    fun renameAvailableOfflineFolder() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val picture = saveFile("/Photos/a.jpg", photos)
+
+        storageManager.moveLocalFile(storageManager.getFileById(photos.fileId), "/Pictures/", OCFile.ROOT_PATH)
+
+        val renamed = storageManager.getFileById(photos.fileId)!!
+        assertEquals("/Pictures/", renamed.remotePath)
+        assertStatus(AVAILABLE_OFFLINE, renamed)
+        assertStatus(AVAILABLE_OFFLINE_PARENT, storageManager.getFileById(picture.fileId)!!)
+        assertStatus(AVAILABLE_OFFLINE_PARENT, saveFile("/Pictures/b.jpg", renamed))
+    }
+
+    @Test
+    fun deleteAvailableOfflineFolder() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val picture = saveFile("/Photos/a.jpg", photos)
+
+        storageManager.removeFolder(storageManager.getFileById(photos.fileId), true, false)
+
+        assertNull(storageManager.getFileById(photos.fileId))
+        assertNull(storageManager.getFileById(picture.fileId))
+        val newPhotos = saveFolder("/Photos/", root)
+        assertStatus(NOT_AVAILABLE_OFFLINE, newPhotos)
+        assertStatus(NOT_AVAILABLE_OFFLINE, saveFile("/Photos/a.jpg", newPhotos))
+    }
+
+    @Test
+    fun unsetAvailableOfflineFolder() {
+        val photos = saveFolder("/Photos/", root)
+        setAvailableOffline(photos, AVAILABLE_OFFLINE)
+        val picture = saveFile("/Photos/a.jpg", photos)
+
+        setAvailableOffline(storageManager.getFileById(photos.fileId)!!, NOT_AVAILABLE_OFFLINE)
+
+        assertStatus(NOT_AVAILABLE_OFFLINE, storageManager.getFileById(picture.fileId)!!)
+        assertStatus(NOT_AVAILABLE_OFFLINE, saveFile("/Photos/b.jpg", photos))
+    }
+
+    private fun saveFolder(path: String, parent: OCFile): OCFile =
+        OCFile(path).apply {
+            mimetype = MIME_DIR
+            parentId = parent.fileId
+            storageManager.saveFile(this)
+        }.let { storageManager.getFileById(it.fileId)!! }
+
+    private fun saveFile(path: String, parent: OCFile): OCFile =
+        OCFile(path).apply {
+            mimetype = "image/jpeg"
+            parentId = parent.fileId
+            storageManager.saveFile(this)
+        }.let { storageManager.getFileById(it.fileId)!! }
+
+    private fun setAvailableOffline(file: OCFile, status: AvailableOfflineStatus) {
+        file.availableOfflineStatus = status
+        storageManager.saveLocalAvailableOfflineStatus(file)
+    }
+
+    private fun assertStatus(expected: AvailableOfflineStatus, file: OCFile) {
+        assertEquals(file.remotePath, expected, storageManager.getFileById(file.fileId)!!.availableOfflineStatus)
+    }
+
+    companion object {
+        private const val ACCOUNT_NAME = "offline@server"
+    }
+}
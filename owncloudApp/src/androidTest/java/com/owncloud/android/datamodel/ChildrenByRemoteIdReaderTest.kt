@@ -0,0 +1,136 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.test.filters.MediumTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI_FILE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_REMOTE_ID
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Checks that the children of a folder are read in the order the merge of remote folders expects, through
+ * several pages and while new children are saved.
+ *
+ * Runs against the files database of the app under test, with an account of its own that is removed afterwards.
+ */
+@MediumTest
+class ChildrenByRemoteIdReaderTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+    private var folderId = 0L
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+        folderId = insert("/Merged/", 0, MIME_DIR, null)
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    @Test
+    fun childrenAreReadInOrderOfRemoteIdThroughPages() {
+        val remoteIds = (0 until CHILDREN).map { "%08docinstance".format(CHILDREN - it) }
+        remoteIds.forEach { insert("/Merged/file$it.jpg", folderId, "image/jpeg", it) }
+        insert("/Merged/legacy.jpg", folderId, "image/jpeg", null)
+
+        val read = readAll { }
+
+        assertEquals(remoteIds.sortedWith(storedOrder), read)
+    }
+
+    @Test
+    fun childrenSavedWhileReadingDoNotMakeReaderSkipOrRepeat() {
+        val remoteIds = (0 until CHILDREN).map { "%08docinstance".format(it * 2 + 1) }
+        remoteIds.forEach { insert("/Merged/file$it.jpg", folderId, "image/jpeg", it) }
+
+        // new children sort before the child being read, as new remote files do in the merge
+        val read = readAll { remoteId ->
+            val newRemoteId = "%08docinstance".format(remoteId.take(8).toInt() - 1)
+            insert("/Merged/new$newRemoteId.jpg", folderId, "image/jpeg", newRemoteId)
+        }
+
+        assertEquals(remoteIds, read)
+    }
+
+    @Test
+    fun textsAreComparedAsTheDatabaseSortsThem() {
+        // a supplementary character is sorted after U+FFFD by code point, before it by UTF-16 unit
+        val texts = listOf("a😀", "a�", "a", "ab", "B")
+        texts.forEachIndexed { index, text -> insert("/Merged/text$index", folderId, "text/plain", text) }
+
+        val read = readAll { }
+
+        assertEquals(texts.sortedWith(storedOrder), read)
+        assertEquals(listOf("B", "a", "ab", "a�", "a😀"), read)
+    }
+
+    private fun readAll(onRead: (String) -> Unit): List<String> {
+        val reader = storageManager.readChildrenByRemoteId(folderId)
+        val read = ArrayList<String>()
+        var child = reader.next()
+        while (child != null) {
+            read.add(child.remoteId)
+            onRead(child.remoteId)
+            child = reader.next()
+        }
+        return read
+    }
+
+    private fun insert(path: String, parentId: Long, mimeType: String, remoteId: String?): Long =
+        ContentUris.parseId(
+            contentResolver.insert(CONTENT_URI_FILE, ContentValues().apply {
+                put(FILE_PATH, path)
+                put(FILE_NAME, path.trimEnd('/').substringAfterLast('/'))
+                put(FILE_PARENT, parentId)
+                put(FILE_ACCOUNT_OWNER, ACCOUNT_NAME)
+                put(FILE_CONTENT_TYPE, mimeType)
+                put(FILE_REMOTE_ID, remoteId)
+            })!!
+        )
+
+    companion object {
+        private const val ACCOUNT_NAME = "merge@server"
+        // more than two pages of the reader
+        private const val CHILDREN = 1_200
+
+        private val storedOrder = Comparator<String> { a, b -> FileDataStorageManager.compareAsStored(a, b) }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI_FILE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Measures [FileDataStorageManager.searchFiles] in accounts of growing size, compared with a scan of the
+ * names with LIKE. Times are written to logcat.
+ *
+ * Runs against the files database of the app under test, with an account of its own that is removed afterwards.
+ */
+@LargeTest
+class FileNameSearchBenchmark {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    @Test
+    fun searchIn50kFiles() {
+        benchmarkSearch(50_000)
+    }
+
+    @Test
+    fun searchIn500kFiles() {
+        benchmarkSearch(500_000)
+    }
+
+    private fun benchmarkSearch(filesCount: Int) {
+        insertFiles(filesCount)
+
+        // every 1000th file is a report
+        val reports = filesCount / 1_000
+        assertEquals(reports, measure("prefix", filesCount) { storageManager.searchFiles("repo") })
+        assertEquals(reports, measure("two words", filesCount) { storageManager.searchFiles("annual report") })
+        measure("number", filesCount) { storageManager.searchFiles("IMG 4242") }
+        assertEquals(reports, measure("substring", filesCount) { storageManager.searchFiles("port") })
+        // all the reports are in the first folder
+        assertEquals(reports, measure("in folder", filesCount) {
+            storageManager.searchFiles("port", PARENT_ID_OFFSET)
+        })
+        assertEquals(0, measure("in other folder", filesCount) {
+            storageManager.searchFiles("port", PARENT_ID_OFFSET + 1)
+        })
+        measure("LIKE scan", filesCount) { searchWithLike("%repo%") }
+    }
+
+    private fun insertFiles(filesCount: Int) {
+        val chunk = ArrayList<ContentValues>(INSERT_CHUNK)
+        for (index in 0 until filesCount) {
+            val name = if (index % 1_000 == 0) "Annual_Report $index.pdf" else "IMG_$index.jpg"
+            val parent = index % 1_000
+            chunk.add(ContentValues().apply {
+                put(FILE_PATH, "/folder$parent/$name")
+                put(FILE_NAME, name)
+                put(FILE_PARENT, parent + PARENT_ID_OFFSET)
+                put(FILE_ACCOUNT_OWNER, ACCOUNT_NAME)
+                put(FILE_CONTENT_TYPE, if (name.endsWith(".pdf")) "application/pdf" else "image/jpeg")
+            })
+            if (chunk.size == INSERT_CHUNK || index == filesCount - 1) {
+                contentResolver.bulkInsert(CONTENT_URI_FILE, chunk.toTypedArray())
+                chunk.clear()
+            }
+        }
+    }
+
+    private fun searchWithLike(pattern: String): List<String> =
+        contentResolver.query(
+            CONTENT_URI,
+            arrayOf(FILE_NAME),
+            "$FILE_ACCOUNT_OWNER=? AND $FILE_NAME LIKE ?",
+            arrayOf(ACCOUNT_NAME, pattern),
+            null
+        )!!.use {
+            val names = ArrayList<String>()
+            while (it.moveToNext()) names.add(it.getString(0))
+            names
+        }
+
+    private fun measure(label: String, filesCount: Int, block: () -> List<*>): Int {
+        val start = SystemClock.elapsedRealtimeNanos()
+        val found = block().size
+        val elapsed = SystemClock.elapsedRealtimeNanos() - start
+        Log.i(TAG, "Search $label in $filesCount files: ${elapsed / 1_000_000} ms, $found found")
+        return found
+    }
+
+    companion object {
+        private const val TAG = "FileNameSearchBenchmark"
+        private const val ACCOUNT_NAME = "search@server"
+        private const val INSERT_CHUNK = 10_000
+        private const val PARENT_ID_OFFSET = 1_000_000L
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * Checks the files of a folder tree read to download them all at once, as when the folder is set as available
+ * offline.
+ */
+@SmallTest
+class FilesNotDownTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var root: OCFile
+    private lateinit var localCopy: File
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+        root = storageManager.getFileByPath(OCFile.ROOT_PATH)!!
+        localCopy = File.createTempFile("down", ".jpg", context.cacheDir)
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+        localCopy.delete()
+    }
+
+    @Test
+    fun filesAtAnyDepthWithoutLocalCopy() {
+        val photos = saveFolder("/Photos/", root)
+        val year = saveFolder("/Photos/2020/", photos)
+        saveFile("/Photos/a.jpg", photos)
+        saveFile("/Photos/b.jpg", photos, localCopy.absolutePath)
+        saveFile("/Photos/2020/c.jpg", year)
+        saveFile("/Photos/2020/d.jpg", year, "/not/there/anymore.jpg")
+
+        val filesNotDown = storageManager.getFilesNotDownIn(photos).map { it.remotePath }
+
+        assertEquals(listOf("/Photos/2020/c.jpg", "/Photos/2020/d.jpg", "/Photos/a.jpg"), filesNotDown)
+    }
+
+    @Test
+    fun filesOutOfFolderAreLeftOut() {
+        val photos = saveFolder("/Photos/", root)
+        // same prefix, different folder
+        val photosBackup = saveFolder("/Photos-backup/", root)
+        saveFile("/Photos/a.jpg", photos)
+        saveFile("/Photos-backup/a.jpg", photosBackup)
+        saveFile("/b.jpg", root)
+
+        val filesNotDown = storageManager.getFilesNotDownIn(photos).map { it.remotePath }
+
+        assertEquals(listOf("/Photos/a.jpg"), filesNotDown)
+    }
+
+    private fun saveFolder(path: String, parent: OCFile): OCFile =
+        OCFile(path).apply {
+            mimetype = MIME_DIR
+            parentId = parent.fileId
+            storageManager.saveFile(this)
+        }.let { storageManager.getFileById(it.fileId)!! }
+
+    private fun saveFile(path: String, parent: OCFile, localPath: String? = null): OCFile =
+        OCFile(path).apply {
+            mimetype = "image/jpeg"
+            parentId = parent.fileId
+            storagePath = localPath
+            storageManager.saveFile(this)
+        }.let { storageManager.getFileById(it.fileId)!! }
+
+    companion object {
+        private const val ACCOUNT_NAME = "notdown@server"
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_LENGTH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CREATION
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG_IN_CONFLICT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_DOWNLOADING
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_KEEP_IN_SYNC
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PERMISSIONS
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PRIVATE_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_REMOTE_ID
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_VIA_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_WITH_SHAREE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_STORAGE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_TREE_ETAG
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_UPDATE_THUMBNAIL
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta._ID
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Compares mapping cursor rows to [OCFile]s resolving the column indexes for every row, as it was done
+ * before, with [OCFileCursorMapper]. Time per row is written to logcat.
+ */
+@LargeTest
+class OCFileCursorMapperBenchmark {
+
+    @Test
+    fun mapAllColumns() {
+        val columns = arrayOf(
+            _ID, FILE_PARENT, FILE_PATH, FILE_CONTENT_TYPE, FILE_STORAGE_PATH, FILE_CONTENT_LENGTH, FILE_CREATION,
+            FILE_MODIFIED, FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA, FILE_LAST_SYNC_DATE, FILE_LAST_SYNC_DATE_FOR_DATA,
+            FILE_KEEP_IN_SYNC, FILE_ETAG, FILE_TREE_ETAG, FILE_SHARED_VIA_LINK, FILE_SHARED_WITH_SHAREE,
+            FILE_PERMISSIONS, FILE_REMOTE_ID, FILE_UPDATE_THUMBNAIL, FILE_IS_DOWNLOADING, FILE_ETAG_IN_CONFLICT,
+            FILE_PRIVATE_LINK
+        )
+        val cursor = buildCursor(columns)
+
+        measure("per row indexes, all columns", cursor) { mapResolvingIndexesPerRow(it) }
+        measure("mapper, all columns", cursor) { OCFileCursorMapper(it).let { mapper -> mapAll(it) { mapper.map(it) } } }
+    }
+
+    private fun buildCursor(columns: Array<String>): Cursor =
+        MatrixCursor(columns, ROWS).apply {
+            for (index in 0 until ROWS) {
+                addRow(columns.map { column ->
+                    when (column) {
+                        FILE_PATH -> "/folder/file$index.jpg"
+                        FILE_CONTENT_TYPE -> "image/jpeg"
+                        FILE_STORAGE_PATH, FILE_PRIVATE_LINK, FILE_ETAG_IN_CONFLICT -> null
+                        FILE_ETAG, FILE_TREE_ETAG, FILE_REMOTE_ID -> "value$index"
+                        FILE_PERMISSIONS -> "RDNVW"
+                        else -> index.toLong()
+                    }
+                })
+            }
+        }
+
+    private fun mapAll(cursor: Cursor, map: (Cursor) -> OCFile): Int {
+        var count = 0
+        if (cursor.moveToFirst()) {
+            do {
+                map(cursor)
+                count++
+            } while (cursor.moveToNext())
+        }
+        return count
+    }
+
+    /**
+     * Mapping as done before [OCFileCursorMapper], looking up every column index in every row.
+     */
+    private fun mapResolvingIndexesPerRow(cursor: Cursor): Int = mapAll(cursor) { c ->
+        OCFile(c.getString(c.getColumnIndex(FILE_PATH))).apply {
+            fileId = c.getLong(c.getColumnIndex(_ID))
+            parentId = c.getLong(c.getColumnIndex(FILE_PARENT))
+            mimetype = c.getString(c.getColumnIndex(FILE_CONTENT_TYPE))
+            storagePath = c.getString(c.getColumnIndex(FILE_STORAGE_PATH))
+            fileLength = c.getLong(c.getColumnIndex(FILE_CONTENT_LENGTH))
+            creationTimestamp = c.getLong(c.getColumnIndex(FILE_CREATION))
+            modificationTimestamp = c.getLong(c.getColumnIndex(FILE_MODIFIED))
+            modificationTimestampAtLastSyncForData = c.getLong(c.getColumnIndex(FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA))
+            lastSyncDateForProperties = c.getLong(c.getColumnIndex(FILE_LAST_SYNC_DATE))
+            lastSyncDateForData = c.getLong(c.getColumnIndex(FILE_LAST_SYNC_DATE_FOR_DATA))
+            availableOfflineStatus = OCFile.AvailableOfflineStatus.fromValue(c.getInt(c.getColumnIndex(FILE_KEEP_IN_SYNC)))
+            etag = c.getString(c.getColumnIndex(FILE_ETAG))
+            treeEtag = c.getString(c.getColumnIndex(FILE_TREE_ETAG))
+            isSharedViaLink = c.getInt(c.getColumnIndex(FILE_SHARED_VIA_LINK)) == 1
+            isSharedWithSharee = c.getInt(c.getColumnIndex(FILE_SHARED_WITH_SHAREE)) == 1
+            permissions = c.getString(c.getColumnIndex(FILE_PERMISSIONS))
+            remoteId = c.getString(c.getColumnIndex(FILE_REMOTE_ID))
+            setNeedsUpdateThumbnail(c.getInt(c.getColumnIndex(FILE_UPDATE_THUMBNAIL)) == 1)
+            isDownloading = c.getInt(c.getColumnIndex(FILE_IS_DOWNLOADING)) == 1
+            etagInConflict = c.getString(c.getColumnIndex(FILE_ETAG_IN_CONFLICT))
+            privateLink = c.getString(c.getColumnIndex(FILE_PRIVATE_LINK))
+        }
+    }
+
+    private fun measure(label: String, cursor: Cursor, block: (Cursor) -> Int) {
+        // warm up, so that the first measure is not penalized
+        block(cursor)
+        val start = SystemClock.elapsedRealtimeNanos()
+        val rows = block(cursor)
+        val elapsed = SystemClock.elapsedRealtimeNanos() - start
+        assertEquals(ROWS, rows)
+        Log.i(TAG, "Mapping $label: ${elapsed / 1_000_000} ms, ${elapsed / rows / 1_000.0} µs per row")
+    }
+
+    companion object {
+        private const val TAG = "OCFileCursorMapperBenchmark"
+        private const val ROWS = 10_000
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import androidx.core.util.Pair
+import androidx.test.filters.MediumTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.syncadapter.FolderTreeTraversal
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+/**
+ * Kills full synchronizations of an account at random points and checks that the next ones resume from the
+ * persisted frontier until the whole account is synchronized, without fetching again any folder whose visit was
+ * recorded. Also checks that synchronizations after a completed one still find the changes in the server.
+ *
+ * Every run drives the traversal as [com.owncloud.android.syncadapter.FileSyncAdapter] does, against the files
+ * database of the app under test, with an account of its own that is removed afterwards.
+ */
+@MediumTest
+class ResumableSyncTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var server: ScriptedServer
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+    }
+
+    @After
+    fun tearDown() {
+        deleteAccountFiles()
+    }
+
+    @Test
+    fun killedSynchronizationsResumeUntilCompletion() {
+        SEEDS.forEach { seed -> synchronizeWithKills(seed, maxFoldersInFlight = 1) }
+    }
+
+    @Test
+    fun killedParallelSynchronizationsResumeUntilCompletion() {
+        SEEDS.forEach { seed -> synchronizeWithKills(seed, maxFoldersInFlight = 4) }
+    }
+
+    @Test
+    fun completedSynchronizationLeavesNoFrontier() {
+        server = ScriptedServer()
+        synchronizeAccount(maxFoldersInFlight = 1, killer = Killer(Random(0), killsEnabled = false))
+
+        assertTrue(storageManager.getSyncFrontier().isEmpty())
+        assertEquals(TREE_SIZE, server.propfinds.get())
+    }
+
+    @Test
+    fun synchronizationAfterCompletedOneFindsChangesInServer() {
+        server = ScriptedServer()
+        assertTrue(synchronizeAccount(maxFoldersInFlight = 1, killer = Killer(Random(0), killsEnabled = false)))
+
+        val changedPath = "${OCFile.ROOT_PATH}folder1/folder2/"
+        server.change(changedPath)
+        val propfindsBefore = server.propfinds.get()
+        assertTrue(synchronizeAccount(maxFoldersInFlight = 1, killer = Killer(Random(0), killsEnabled = false)))
+
+        assertEquals(server.etagOf(changedPath), storageManager.getFileByPath(changedPath)!!.etag)
+        // the root, the changed folder and the folder between them
+        assertEquals(3, server.propfinds.get() - propfindsBefore)
+    }
+
+    private fun synchronizeWithKills(seed: Int, maxFoldersInFlight: Int) {
+        deleteAccountFiles()
+        server = ScriptedServer()
+        val random = Random(seed)
+
+        var runs = 0
+        do {
+            runs++
+            assertTrue("Seed $seed: not completed after $MAX_RUNS runs", runs <= MAX_RUNS)
+            val completed = synchronizeAccount(maxFoldersInFlight, Killer(random, killsEnabled = true))
+        } while (!completed)
+
+        assertTrue("Seed $seed: fetched again after recorded: ${server.refetched}", server.refetched.isEmpty())
+        assertTrue(storageManager.getSyncFrontier().isEmpty())
+
+        val propfindsBefore = server.propfinds.get()
+        assertTrue(synchronizeAccount(maxFoldersInFlight, Killer(random, killsEnabled = false)))
+        assertEquals(1, server.propfinds.get() - propfindsBefore)
+    }
+
+    /**
+     * Resumes from the frontier, if any, and goes on from the root while the account is not synchronized, as a
+     * manual synchronization does; without a frontier, starts from the root.
+     *
+     * @return 'True' if the root confirms that the whole account was synchronized.
+     */
+    private fun synchronizeAccount(maxFoldersInFlight: Int, killer: Killer): Boolean {
+        val traversal = FolderTreeTraversal(maxFoldersInFlight, FolderSynchronizer(killer), killer)
+        try {
+            val frontier = storageManager.getSyncFrontier()
+            if (frontier.isNotEmpty()) {
+                traversal.traverse(frontier)
+            }
+            if (!killer.shouldStop() && (frontier.isEmpty() || !isAccountSynchronized())) {
+                traversal.traverse(storageManager.getFileByPath(OCFile.ROOT_PATH)!!, false)
+            }
+        } catch (e: KilledException) {
+            return false
+        }
+        if (killer.shouldStop() || !isAccountSynchronized()) {
+            return false
+        }
+        storageManager.clearSyncFrontier()
+        return true
+    }
+
+    private fun isAccountSynchronized(): Boolean =
+        storageManager.getFileByPath(OCFile.ROOT_PATH)!!.let { it.etag.isNotEmpty() && it.etag == it.treeEtag }
+
+    private fun deleteAccountFiles() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    /**
+     * Ends a synchronization after a random number of visits, or in the middle of a visit, as if the process was
+     * killed.
+     */
+    private class Killer(random: Random, killsEnabled: Boolean) : FolderTreeTraversal.StopCondition {
+        private val visitsToLive = if (killsEnabled) random.nextInt(1, MAX_VISITS_TO_LIVE) else Int.MAX_VALUE
+        private val killInVisit = killsEnabled && random.nextBoolean()
+        private val visits = AtomicInteger()
+        private val killed = AtomicBoolean()
+
+        override fun shouldStop(): Boolean = killed.get()
+
+        /**
+         * Called in the middle of every visit, between saving the folder and recording the visit.
+         */
+        fun onVisit() {
+            if (visits.incrementAndGet() < visitsToLive) {
+                return
+            }
+            killed.set(true)
+            if (killInVisit) {
+                throw KilledException()
+            }
+        }
+    }
+
+    private class KilledException : RuntimeException()
+
+    /**
+     * Merges the subfolders of every visited folder as [com.owncloud.android.operations.SynchronizeFolderOperation]
+     * does and records the visit as [com.owncloud.android.syncadapter.FileSyncAdapter] does.
+     */
+    private inner class FolderSynchronizer(private val killer: Killer) : FolderTreeTraversal.FolderVisitor {
+        override fun visit(folder: OCFile, pushOnly: Boolean): List<Pair<OCFile, Boolean>> {
+            val subfolders = if (pushOnly) {
+                storageManager.getFolderContent(folder.fileId).filter { it.isFolder }.map { Pair(it, false) }
+            } else {
+                merge(folder)
+            }
+            killer.onVisit()
+            storageManager.advanceSyncFrontier(folder, subfolders)
+            server.recorded(folder.remotePath)
+            return subfolders
+        }
+
+        private fun merge(folder: OCFile): List<Pair<OCFile, Boolean>> {
+            val remoteSubfolders = server.propfind(folder.remotePath)
+            val updatedFolder = storageManager.getFileByPath(folder.remotePath)!!.apply {
+                etag = server.etagOf(remotePath)
+            }
+            var foldersToExpand = 0
+            val subfolders = remoteSubfolders.map { (path, remoteEtag) ->
+                val subfolder = storageManager.getFileByPath(path) ?: OCFile(path).apply {
+                    mimetype = MIME_DIR
+                    etag = ""
+                }
+                val serverUnchanged = subfolder.treeEtag == remoteEtag
+                if (!serverUnchanged) foldersToExpand++
+                Pair(subfolder, !serverUnchanged)
+            }
+
+            if (foldersToExpand == 0) {
+                updatedFolder.treeEtag = updatedFolder.etag
+            }
+            storageManager.saveFolder(updatedFolder, subfolders.map { it.first }, emptyList())
+            if (foldersToExpand == 0) {
+                storageManager.propagateTreeEtagUpFrom(updatedFolder)
+            }
+            return subfolders
+        }
+    }
+
+    /**
+     * Server with a tree of [FOLDERS_PER_FOLDER] subfolders in every folder, [TREE_DEPTH] levels down, that takes
+     * note of the folders fetched again after their visits were recorded.
+     */
+    private class ScriptedServer {
+        val propfinds = AtomicInteger()
+        val refetched: MutableList<String> = Collections.synchronizedList(ArrayList())
+        private val etags = HashMap<String, String>()
+        private val recorded = Collections.synchronizedSet(HashSet<String>())
+        private var version = 0
+
+        init {
+            fun create(path: String, depth: Int) {
+                etags[path] = "etag${version++}"
+                if (depth < TREE_DEPTH) {
+                    (0 until FOLDERS_PER_FOLDER).forEach { create("${path}folder$it/", depth + 1) }
+                }
+            }
+            create(OCFile.ROOT_PATH, 0)
+        }
+
+        /**
+         * @return Path and ETag of every subfolder of the folder.
+         */
+        fun propfind(path: String): List<kotlin.Pair<String, String>> {
+            propfinds.incrementAndGet()
+            if (recorded.contains(path)) refetched.add(path)
+            return etags.filterKeys { it.startsWith(path) && it.removePrefix(path).count { c -> c == '/' } == 1 }
+                .toList()
+        }
+
+        fun etagOf(path: String): String = etags[path]!!
+
+        /**
+         * Changes a file in the folder, which changes the ETags of the folder and of all its ancestors.
+         */
+        fun change(path: String) {
+            var ancestor = path
+            while (true) {
+                etags[ancestor] = "etag${version++}"
+                if (ancestor == OCFile.ROOT_PATH) break
+                ancestor = ancestor.dropLast(1).substringBeforeLast('/') + "/"
+            }
+        }
+
+        fun recorded(path: String) {
+            recorded.add(path)
+        }
+    }
+
+    companion object {
+        private const val ACCOUNT_NAME = "resumable@server"
+        private const val FOLDERS_PER_FOLDER = 3
+        private const val TREE_DEPTH = 3
+        private const val TREE_SIZE = 40 // 1 + 3 + 9 + 27
+        private const val MAX_VISITS_TO_LIVE = 8
+        private const val MAX_RUNS = 100
+        private val SEEDS = 1..10
+    }
+}
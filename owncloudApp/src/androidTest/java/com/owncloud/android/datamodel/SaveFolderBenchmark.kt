@@ -0,0 +1,104 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Measures [FileDataStorageManager.saveFolder] with folders of growing size, first inserting every child
+ * and then updating all of them, as a folder synchronization does. Time per row is written to logcat.
+ *
+ * Runs against the files database of the app under test, with an account of its own that is removed afterwards.
+ */
+@LargeTest
+class SaveFolderBenchmark {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    @Test
+    fun saveFolderWith1kChildren() {
+        benchmarkSaveFolder(1_000)
+    }
+
+    @Test
+    fun saveFolderWith10kChildren() {
+        benchmarkSaveFolder(10_000)
+    }
+
+    @Test
+    fun saveFolderWith100kChildren() {
+        benchmarkSaveFolder(100_000)
+    }
+
+    private fun benchmarkSaveFolder(childrenCount: Int) {
+        val folder = storageManager.getFileByPath(OCFile.ROOT_PATH)!!
+        val children = (0 until childrenCount).map { index ->
+            OCFile("${OCFile.ROOT_PATH}child$index/").apply {
+                mimetype = MIME_DIR
+                parentId = folder.fileId
+                etag = "etag$index"
+            }
+        }
+
+        measure("insert", childrenCount) { storageManager.saveFolder(folder, children, emptyList()) }
+        assertEquals(childrenCount, storageManager.getFolderContent(folder.fileId).size)
+
+        children.forEach { it.etag = "${it.etag}-updated" }
+        measure("update", childrenCount) { storageManager.saveFolder(folder, children, emptyList()) }
+        assertEquals(childrenCount, storageManager.getFolderContent(folder.fileId).size)
+    }
+
+    private fun measure(label: String, rows: Int, block: () -> Unit) {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        val elapsed = SystemClock.elapsedRealtimeNanos() - start
+        Log.i(TAG, "saveFolder $label of $rows children: ${elapsed / 1_000_000} ms, ${elapsed / rows / 1_000} µs per row")
+    }
+
+    companion object {
+        private const val TAG = "SaveFolderBenchmark"
+        private const val ACCOUNT_NAME = "benchmark@server"
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.accounts.Account
+import android.content.ContentResolver
+import androidx.core.util.Pair
+import androidx.test.filters.MediumTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.syncadapter.FolderTreeTraversal
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Counts the PROPFIND requests that full synchronizations of an account send to a scripted server, checking that
+ * subtrees without changes are not fetched again once their tree ETags were propagated towards the root.
+ *
+ * Every visit of a folder merges its subfolders into the database the way [com.owncloud.android.operations
+ * .SynchronizeFolderOperation] does, against the files database of the app under test, with an account of its
+ * own that is removed afterwards.
+ */
+@MediumTest
+class TreeEtagPropagationTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var server: ScriptedServer
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        contentResolver = context.contentResolver
+        storageManager = FileDataStorageManager(context, Account(ACCOUNT_NAME, MainApp.accountType), contentResolver)
+        server = ScriptedServer()
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(ACCOUNT_NAME))
+    }
+
+    @Test
+    fun unchangedAccountIsSynchronizedWithOnePropfind() {
+        assertEquals(TREE_SIZE, synchronizeAccount())
+
+        assertEquals(1, synchronizeAccount())
+        assertEquals(1, synchronizeAccount())
+    }
+
+    @Test
+    fun changeDeepInTreeFetchesOnlyItsBranchOnce() {
+        synchronizeAccount()
+
+        server.touch("/folder1/folder2/folder0/")
+
+        // the root, two intermediate folders and the changed one
+        assertEquals(4, synchronizeAccount())
+        assertEquals(1, synchronizeAccount())
+    }
+
+    @Test
+    fun newFolderIsFetchedOnce() {
+        synchronizeAccount()
+
+        server.add("/folder2/folder0/new/")
+
+        // the root, two ancestors and the new folder
+        assertEquals(4, synchronizeAccount())
+        assertEquals(1, synchronizeAccount())
+    }
+
+    @Test
+    fun interruptedSynchronizationDoesNotMarkUnvisitedSubtrees() {
+        val visits = AtomicInteger()
+        synchronizeAccount(stopCondition = { visits.incrementAndGet() > STOP_AFTER })
+
+        assertTrue(synchronizeAccount() > 1)
+        assertEquals(1, synchronizeAccount())
+    }
+
+    @Test
+    fun parallelSynchronizationConvergesToOnePropfind() {
+        assertEquals(TREE_SIZE, synchronizeAccount(maxFoldersInFlight = 4))
+
+        server.touch("/folder0/folder0/folder0/")
+        server.touch("/folder0/folder0/folder1/")
+        server.touch("/folder2/folder1/")
+
+        // the root, /folder0/, /folder0/folder0/ and its 2 changed subfolders; /folder2/ and /folder2/folder1/
+        assertEquals(7, synchronizeAccount(maxFoldersInFlight = 4))
+        assertEquals(1, synchronizeAccount(maxFoldersInFlight = 4))
+    }
+
+    /**
+     * @return Number of PROPFIND requests sent to the server.
+     */
+    private fun synchronizeAccount(
+        maxFoldersInFlight: Int = 1,
+        stopCondition: FolderTreeTraversal.StopCondition = FolderTreeTraversal.StopCondition { false }
+    ): Int {
+        val propfindsBefore = server.propfinds.get()
+        FolderTreeTraversal(maxFoldersInFlight, FolderSynchronizer(), stopCondition)
+            .traverse(storageManager.getFileByPath(OCFile.ROOT_PATH)!!, false)
+        return server.propfinds.get() - propfindsBefore
+    }
+
+    /**
+     * Merges the subfolders of every visited folder as [com.owncloud.android.operations.SynchronizeFolderOperation]
+     * does.
+     */
+    private inner class FolderSynchronizer : FolderTreeTraversal.FolderVisitor {
+        override fun visit(folder: OCFile, pushOnly: Boolean): List<Pair<OCFile, Boolean>> {
+            if (pushOnly) {
+                return storageManager.getFolderContent(folder.fileId).filter { it.isFolder }.map { Pair(it, false) }
+            }
+
+            val remoteSubfolders = server.propfind(folder.remotePath)
+            val updatedFolder = storageManager.getFileByPath(folder.remotePath)!!.apply {
+                etag = server.etagOf(remotePath)
+            }
+            var foldersToExpand = 0
+            val subfolders = remoteSubfolders.map { (path, remoteEtag) ->
+                // remote ETags of subfolders are saved when their own content is fetched
+                val subfolder = storageManager.getFileByPath(path) ?: OCFile(path).apply {
+                    mimetype = MIME_DIR
+                    etag = ""
+                }
+                val serverUnchanged = subfolder.treeEtag == remoteEtag
+                if (!serverUnchanged) foldersToExpand++
+                Pair(subfolder, !serverUnchanged)
+            }
+
+            if (foldersToExpand == 0) {
+                updatedFolder.treeEtag = updatedFolder.etag
+            }
+            storageManager.saveFolder(updatedFolder, subfolders.map { it.first }, emptyList())
+            if (foldersToExpand == 0) {
+                storageManager.propagateTreeEtagUpFrom(updatedFolder)
+            }
+            return subfolders
+        }
+    }
+
+    /**
+     * Server with a tree of [FOLDERS_PER_FOLDER] subfolders in every folder, [TREE_DEPTH] levels down. Changes in
+     * a folder change the ETags of all its ancestors, as real servers do.
+     */
+    private class ScriptedServer {
+        val propfinds = AtomicInteger()
+        private val etags = HashMap<String, String>()
+        private var version = 0
+
+        init {
+            fun create(path: String, depth: Int) {
+                etags[path] = "etag${version++}"
+                if (depth < TREE_DEPTH) {
+                    (0 until FOLDERS_PER_FOLDER).forEach { create("${path}folder$it/", depth + 1) }
+                }
+            }
+            create(OCFile.ROOT_PATH, 0)
+        }
+
+        /**
+         * @return Path and ETag of every subfolder of the folder.
+         */
+        @Synchronized
+        fun propfind(path: String): List<kotlin.Pair<String, String>> {
+            propfinds.incrementAndGet()
+            return etags.filterKeys { it.startsWith(path) && it.removePrefix(path).count { c -> c == '/' } == 1 }.toList()
+        }
+
+        @Synchronized
+        fun etagOf(path: String): String = etags[path]!!
+
+        @Synchronized
+        fun add(path: String) {
+            etags[path] = "etag${version++}"
+            touch(path.dropLast(1).substringBeforeLast('/') + "/")
+        }
+
+        @Synchronized
+        fun touch(path: String) {
+            var ancestor = path
+            while (true) {
+                etags[ancestor] = "etag${version++}"
+                if (ancestor == OCFile.ROOT_PATH) break
+                ancestor = ancestor.dropLast(1).substringBeforeLast('/') + "/"
+            }
+        }
+    }
+
+    companion object {
+        private const val ACCOUNT_NAME = "treeetag@server"
+        private const val FOLDERS_PER_FOLDER = 3
+        private const val TREE_DEPTH = 3
+        private const val TREE_SIZE = 40 // 1 + 3 + 9 + 27
+        private const val STOP_AFTER = 10
+    }
+}
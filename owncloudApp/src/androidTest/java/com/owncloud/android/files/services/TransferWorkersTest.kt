@@ -0,0 +1,173 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.files.services
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Uploads a backlog of small files, like the pictures of a camera, to a [MockWebDavServer] with a fixed round trip
+ * time, and downloads them, as the documents of an available offline folder, with one worker and with several. Times
+ * are written to logcat.
+ */
+@LargeTest
+class TransferWorkersTest {
+
+    @Test
+    fun severalWorkersUploadSmallFilesFaster() {
+        MockWebDavServer(RTT_MS).use { server ->
+            val oneWorker = uploadAll(server, TransferWorkers(NAME, 1, 1, null))
+            val severalWorkers = uploadAll(server, TransferWorkers(NAME, WORKERS, WORKERS, null))
+
+            Log.i(TAG, "$FILES files of $FILE_SIZE bytes: $oneWorker ms with 1 worker, " +
+                    "$severalWorkers ms with $WORKERS workers")
+            assertEquals(FILES * 2, server.requests.get())
+            assertTrue("$severalWorkers ms vs $oneWorker ms", severalWorkers * 2 < oneWorker)
+        }
+    }
+
+    @Test
+    fun severalWorkersDownloadSmallFilesFaster() {
+        MockWebDavServer(RTT_MS, FILE_SIZE).use { server ->
+            val oneWorker = downloadAll(server, TransferWorkers(NAME, 1, 1, null))
+            val severalWorkers = downloadAll(server, TransferWorkers(NAME, WORKERS, WORKERS, null))
+
+            Log.i(TAG, "$FILES files of $FILE_SIZE bytes: $oneWorker ms with 1 worker, " +
+                    "$severalWorkers ms with $WORKERS workers")
+            assertEquals(FILES * 2, server.requests.get())
+            assertTrue("$severalWorkers ms vs $oneWorker ms", severalWorkers * 2 < oneWorker)
+        }
+    }
+
+    @Test
+    fun transferSubmittedFirstStartsBeforeWaitingOnes() {
+        val started = mutableListOf<String>()
+        val finished = CountDownLatch(1)
+        val workers = TransferWorkers(NAME, 1, 1) { finished.countDown() }
+        val running = CountDownLatch(1)
+        val release = CountDownLatch(1)
+
+        workers.submit(ACCOUNTS.first()) {
+            running.countDown()
+            release.await()
+        }
+        running.await()
+        (1..3).forEach { i -> workers.submit(ACCOUNTS.first()) { synchronized(started) { started.add("folder$i") } } }
+        workers.submitFirst(ACCOUNTS.first()) { synchronized(started) { started.add("preview") } }
+        release.countDown()
+
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertEquals(listOf("preview", "folder1", "folder2", "folder3"), started)
+    }
+
+    @Test
+    fun workersNeverExceedLimits() {
+        val lock = Any()
+        val inFlight = mutableMapOf<String, Int>()
+        val maxInFlight = ConcurrentHashMap<String, Int>()
+        var maxInFlightTotal = 0
+        var inFlightTotal = 0
+        val finished = CountDownLatch(1)
+        val workers = TransferWorkers(NAME, WORKERS, WORKERS_PER_ACCOUNT) { finished.countDown() }
+
+        repeat(TRANSFERS_PER_ACCOUNT) {
+            ACCOUNTS.forEach { account ->
+                workers.submit(account) {
+                    synchronized(lock) {
+                        inFlight[account] = (inFlight[account] ?: 0) + 1
+                        maxInFlight[account] = maxOf(maxInFlight[account] ?: 0, inFlight.getValue(account))
+                        maxInFlightTotal = maxOf(maxInFlightTotal, ++inFlightTotal)
+                    }
+                    SystemClock.sleep(RTT_MS)
+                    synchronized(lock) {
+                        inFlight[account] = inFlight.getValue(account) - 1
+                        inFlightTotal--
+                    }
+                }
+            }
+        }
+
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertTrue(workers.isIdle)
+        assertEquals(WORKERS, maxInFlightTotal)
+        ACCOUNTS.forEach { assertEquals(WORKERS_PER_ACCOUNT, maxInFlight[it]) }
+    }
+
+    /**
+     * @return Milliseconds taken to upload all the files.
+     */
+    private fun uploadAll(server: MockWebDavServer, workers: TransferWorkers): Long {
+        val body = ByteArray(FILE_SIZE)
+        return transferAll(workers) { i ->
+            MockWebDavServer.put("${server.baseUrl}/remote.php/webdav/Photos/$i.jpg", body) == 201
+        }
+    }
+
+    /**
+     * @return Milliseconds taken to download all the files.
+     */
+    private fun downloadAll(server: MockWebDavServer, workers: TransferWorkers): Long =
+        transferAll(workers) { i ->
+            MockWebDavServer.get("${server.baseUrl}/remote.php/webdav/Documents/$i.pdf").size == FILE_SIZE
+        }
+
+    /**
+     * Runs [FILES] transfers in the workers and waits for all of them.
+     *
+     * @return Milliseconds taken to run all the transfers.
+     */
+    private fun transferAll(workers: TransferWorkers, transfer: (Int) -> Boolean): Long {
+        val failed = AtomicInteger()
+        val finished = CountDownLatch(FILES)
+        val start = SystemClock.elapsedRealtime()
+        repeat(FILES) { i ->
+            workers.submit(ACCOUNTS.first()) {
+                if (!transfer(i)) {
+                    failed.incrementAndGet()
+                }
+                finished.countDown()
+            }
+        }
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertEquals(0, failed.get())
+        return SystemClock.elapsedRealtime() - start
+    }
+
+    companion object {
+        private const val TAG = "TransferWorkersTest"
+        private const val NAME = "TransferWorkersTest"
+        private const val RTT_MS = 40L
+        private const val FILES = 2_000
+        private const val FILE_SIZE = 200 * 1024
+        private const val WORKERS = 4
+        private const val WORKERS_PER_ACCOUNT = 2
+        private const val TRANSFERS_PER_ACCOUNT = 10
+        private const val TIMEOUT_SECONDS = 600L
+        private val ACCOUNTS = listOf("user1@server", "user2@server", "user3@server")
+    }
+}
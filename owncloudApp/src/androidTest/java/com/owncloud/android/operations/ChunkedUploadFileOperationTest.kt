@@ -0,0 +1,184 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.accounts.Account
+import android.accounts.AccountManager
+import android.content.Context
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.datamodel.FileDataStorageManager
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.datamodel.OCUpload
+import com.owncloud.android.datamodel.UploadsStorageManager
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.files.services.FileUploader
+import com.owncloud.android.lib.common.OwnCloudAccount
+import com.owncloud.android.lib.common.OwnCloudClient
+import com.owncloud.android.lib.common.SingleSessionManager
+import com.owncloud.android.lib.common.accounts.AccountUtils
+import com.owncloud.android.lib.resources.files.FileUtils
+import com.owncloud.android.lib.resources.files.chunks.ChunkedUploadRemoteFileOperation
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * Retries a chunked upload against a [MockWebDavServer] holding some of its chunks, as [FileUploader] does with
+ * the upload stored in the database, and checks which chunks are sent again.
+ *
+ * Runs against the database of the app under test, with an account of its own that is removed afterwards. The
+ * chunks folder is added to the server as a folder in the root, as uploads and files share its paths.
+ */
+@LargeTest
+class ChunkedUploadFileOperationTest {
+
+    private lateinit var context: Context
+    private lateinit var server: MockWebDavServer
+    private lateinit var account: Account
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var uploadsStorageManager: UploadsStorageManager
+    private lateinit var client: OwnCloudClient
+    private lateinit var file: File
+
+    private val chunkSize = ChunkedUploadRemoteFileOperation.CHUNK_SIZE.toInt()
+
+    @Before
+    fun setUp() {
+        context = InstrumentationRegistry.getInstrumentation().targetContext
+        server = MockWebDavServer(RTT_MS)
+
+        account = Account("$USER_ID@127.0.0.1", MainApp.accountType)
+        AccountManager.get(context).apply {
+            addAccountExplicitly(account, PASSWORD, null)
+            setUserData(account, AccountUtils.Constants.KEY_OC_BASE_URL, server.baseUrl)
+            setUserData(account, AccountUtils.Constants.KEY_ID, USER_ID)
+        }
+        storageManager = FileDataStorageManager(context, account, context.contentResolver)
+        uploadsStorageManager = UploadsStorageManager(context.contentResolver)
+        client = SingleSessionManager.getDefaultSingleton().getClientFor(OwnCloudAccount(account, context), context)
+
+        // last chunk shorter than the others
+        file = File(context.cacheDir, "video.mp4")
+        file.writeBytes(ByteArray(CHUNKS * chunkSize - chunkSize / 2) { (it % 256).toByte() })
+        storageManager.saveFile(OCFile(OCFile.ROOT_PATH).apply { mimetype = MIME_DIR })
+        server.addFile(OCFile.ROOT_PATH, "root")
+        server.addFile(REMOTE_PATH, "video")
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        context.contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI_UPLOADS,
+            "${ProviderTableMeta.UPLOADS_ACCOUNT_NAME}=?",
+            arrayOf(account.name)
+        )
+        context.contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(account.name)
+        )
+        AccountManager.get(context).removeAccountExplicitly(account)
+        file.delete()
+    }
+
+    @Test
+    fun retryOfUnchangedFileSendsOnlyChunksMissingInServer() {
+        val upload = storeFailedUpload(CHUNKS_IN_SERVER)
+        assertTrue(upload.canResumeChunksOf(file))
+
+        val result = ChunkedUploadFileOperation(
+            account, null, upload, true, FileUploader.LOCAL_BEHAVIOUR_FORGET, context
+        ).execute(client, storageManager)
+
+        assertTrue(result.isSuccess)
+        val requests = server.requestLog.toList()
+        assertTrue(requests.contains("PROPFIND $UPLOADS_ROOT/$TRANSFER_ID"))
+        assertFalse(requests.any { it.startsWith("MKCOL") })
+        assertEquals(
+            (CHUNKS_IN_SERVER until CHUNKS).map { "PUT $UPLOADS_ROOT/$TRANSFER_ID/$it" }.toSet(),
+            requests.filter { it.startsWith("PUT") }.toSet()
+        )
+        assertTrue(requests.contains("MOVE $UPLOADS_ROOT/$TRANSFER_ID/${FileUtils.FINAL_CHUNKS_FILE}"))
+        assertEquals(TRANSFER_ID, readUpload().transferId)
+    }
+
+    @Test
+    fun retryOfFileModifiedSinceChunksWereUploadedSendsAllChunks() {
+        val upload = storeFailedUpload(CHUNKS_IN_SERVER)
+        // same size, different content
+        file.writeBytes(ByteArray(file.length().toInt()) { (255 - it % 256).toByte() })
+        file.setLastModified(upload.chunksLastModified + MODIFIED_AFTER_MS)
+        assertFalse(upload.canResumeChunksOf(file))
+
+        val result = ChunkedUploadFileOperation(
+            account, null, upload, true, FileUploader.LOCAL_BEHAVIOUR_FORGET, context
+        ).execute(client, storageManager)
+
+        assertTrue(result.isSuccess)
+        val requests = server.requestLog.toList()
+        assertFalse(requests.any { it.startsWith("PROPFIND $UPLOADS_ROOT") })
+        assertTrue(requests.any { it.startsWith("MKCOL $UPLOADS_ROOT/$TRANSFER_ID") })
+        assertEquals(CHUNKS, requests.count { it.startsWith("PUT") })
+        assertEquals(file.lastModified(), readUpload().chunksLastModified)
+    }
+
+    /**
+     * Stores a chunked upload that failed with the first [chunksInServer] chunks of the file in the server, and
+     * reads it back as a retry does.
+     */
+    private fun storeFailedUpload(chunksInServer: Int): OCUpload {
+        val upload = OCUpload(file.absolutePath, REMOTE_PATH, account.name).apply {
+            fileSize = file.length()
+            transferId = TRANSFER_ID
+        }
+        val id = uploadsStorageManager.storeUpload(upload)
+        uploadsStorageManager.updateChunksUploaded(id, chunksInServer, file.lastModified())
+
+        server.addFile("/$TRANSFER_ID/", TRANSFER_ID)
+        repeat(chunksInServer) { server.addFile("/$TRANSFER_ID/$it", "chunk$it") }
+
+        return readUpload().also {
+            assertEquals(chunksInServer, it.chunksUploaded)
+            assertEquals(file.lastModified(), it.chunksLastModified)
+        }
+    }
+
+    private fun readUpload(): OCUpload = uploadsStorageManager.getLastUploadFor(OCFile(REMOTE_PATH), account.name)
+
+    companion object {
+        private const val USER_ID = "admin"
+        private const val PASSWORD = "admin"
+        private const val RTT_MS = 20L
+        private const val CHUNKS = 4
+        private const val CHUNKS_IN_SERVER = 2
+        private const val REMOTE_PATH = "/video.mp4"
+        private const val TRANSFER_ID = "0123456789abcdef1612173600000"
+        private const val UPLOADS_ROOT = "/remote.php/dav/uploads/$USER_ID"
+        private const val MODIFIED_AFTER_MS = 10_000L
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener
+import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Uploads the chunks of a big file to a [MockWebDavServer] with a fixed round trip time, with one chunk in flight
+ * and with several, with chunks failing on the way, and resuming from chunks already in the server. Times are
+ * written to logcat.
+ */
+@LargeTest
+class ChunksUploaderTest {
+
+    private lateinit var file: File
+    private lateinit var server: MockWebDavServer
+
+    private val attempts = ConcurrentHashMap<Int, AtomicInteger>()
+    private val transferred = AtomicLong()
+    private val listeners = mutableSetOf<OnDatatransferProgressListener>(object : OnDatatransferProgressListener {
+        override fun onTransferProgress(
+            progressRate: Long,
+            totalTransferredSoFar: Long,
+            totalToTransfer: Long,
+            fileAbsoluteName: String
+        ) {
+            transferred.addAndGet(progressRate)
+        }
+    })
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        file = File.createTempFile("video", ".mp4", context.cacheDir)
+        // last chunk shorter than the others
+        file.writeBytes(ByteArray(CHUNKS * CHUNK_SIZE - CHUNK_SIZE / 2) { (it % 256).toByte() })
+        server = MockWebDavServer(RTT_MS)
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        file.delete()
+    }
+
+    @Test
+    fun severalChunksInFlightUploadFaster() {
+        val oneChunk = uploadTimed(1)
+        val severalChunks = uploadTimed(CHUNKS_IN_FLIGHT)
+
+        Log.i(TAG, "$CHUNKS chunks of $CHUNK_SIZE bytes: $oneChunk ms with 1 in flight, " +
+                "$severalChunks ms with $CHUNKS_IN_FLIGHT in flight")
+        assertEquals(CHUNKS * 2, server.requests.get())
+        assertTrue("$severalChunks ms vs $oneChunk ms", severalChunks * 2 < oneChunk)
+    }
+
+    @Test
+    fun failedChunkIsRetriedWithoutRestartingOthers() {
+        val dropped = AtomicBoolean(false)
+        val uploader = ChunksUploader(file, CHUNK_SIZE.toLong(), CHUNKS_IN_FLIGHT, AtomicBoolean(false), listeners)
+
+        val result = uploader.upload { chunk ->
+            if (chunk.index == FAILING_CHUNK && dropped.compareAndSet(false, true)) {
+                chunk.writeTo(BrokenOutputStream(chunk.length / 2))
+            }
+            send(chunk)
+        }
+
+        assertTrue(result.isSuccess)
+        assertTrue(dropped.get())
+        assertEquals(CHUNKS, uploader.chunksUploadedInOrder)
+        // every chunk reached the server once, the failed one included
+        assertEquals(CHUNKS, server.requests.get())
+        assertEquals(CHUNKS, attempts.size)
+        attempts.values.forEach { assertEquals(1, it.get()) }
+        // progress of the broken attempt was taken back
+        assertEquals(file.length(), transferred.get())
+    }
+
+    @Test
+    fun chunksInServerAreNotSentAgain() {
+        val chunksInServer = (0 until FAILING_CHUNK) + (CHUNKS - 1)
+        val notified = mutableListOf<Int>()
+        val uploader = ChunksUploader(file, CHUNK_SIZE.toLong(), CHUNKS_IN_FLIGHT, AtomicBoolean(false), listeners)
+        uploader.setChunksInServer(chunksInServer)
+        uploader.setOnChunksUploadedListener { notified.add(it) }
+
+        val result = uploader.upload { send(it) }
+
+        assertTrue(result.isSuccess)
+        assertEquals(CHUNKS - chunksInServer.size, server.requests.get())
+        chunksInServer.forEach { assertFalse(attempts.containsKey(it)) }
+        assertEquals(CHUNKS, uploader.chunksUploadedInOrder)
+        assertEquals(notified.sorted(), notified)
+        assertEquals(CHUNKS, notified.last())
+        assertEquals(file.length(), transferred.get())
+    }
+
+    @Test
+    fun chunkFailingForGoodStopsUpload() {
+        val uploader = ChunksUploader(file, CHUNK_SIZE.toLong(), CHUNKS_IN_FLIGHT, AtomicBoolean(false), listeners)
+
+        val result = uploader.upload { chunk ->
+            if (chunk.index == FAILING_CHUNK) {
+                attempts.getOrPut(chunk.index) { AtomicInteger() }.incrementAndGet()
+                RemoteOperationResult<Unit>(ResultCode.HOST_NOT_AVAILABLE)
+            } else {
+                send(chunk)
+            }
+        }
+
+        assertFalse(result.isSuccess)
+        assertEquals(ResultCode.HOST_NOT_AVAILABLE, result.code)
+        assertEquals(FAILING_CHUNK, uploader.chunksUploadedInOrder)
+        assertEquals(ChunksUploader.MAX_ATTEMPTS_PER_CHUNK, attempts.getValue(FAILING_CHUNK).get())
+        // no chunk started after the failure, beyond those already handed out to the other workers
+        assertTrue(attempts.size < FAILING_CHUNK + CHUNKS_IN_FLIGHT + 1)
+    }
+
+    @Test
+    fun cancelledUploadStopsSendingChunks() {
+        val cancellationRequested = AtomicBoolean(false)
+        val uploader = ChunksUploader(file, CHUNK_SIZE.toLong(), CHUNKS_IN_FLIGHT, cancellationRequested, listeners)
+
+        val result = uploader.upload { chunk ->
+            if (chunk.index == FAILING_CHUNK) {
+                cancellationRequested.set(true)
+            }
+            send(chunk)
+        }
+
+        assertFalse(result.isSuccess)
+        assertEquals(ResultCode.CANCELLED, result.code)
+        assertTrue(server.requests.get() < CHUNKS)
+    }
+
+    /**
+     * @return Milliseconds taken to upload all the chunks of the file.
+     */
+    private fun uploadTimed(chunksInFlight: Int): Long {
+        transferred.set(0)
+        val uploader = ChunksUploader(file, CHUNK_SIZE.toLong(), chunksInFlight, AtomicBoolean(false), listeners)
+        val start = SystemClock.elapsedRealtime()
+
+        val result = uploader.upload { send(it) }
+
+        val elapsed = SystemClock.elapsedRealtime() - start
+        assertTrue(result.isSuccess)
+        assertEquals(CHUNKS, uploader.chunksUploadedInOrder)
+        assertEquals(file.length(), transferred.get())
+        return elapsed
+    }
+
+    private fun send(chunk: ChunksUploader.Chunk): RemoteOperationResult<Unit> {
+        attempts.getOrPut(chunk.index) { AtomicInteger() }.incrementAndGet()
+        val status = MockWebDavServer.put("${server.baseUrl}/remote.php/dav/uploads/admin/$TRANSFER_ID/${chunk.index}",
+            chunk.length) { chunk.writeTo(it) }
+        return RemoteOperationResult(if (status == 201) ResultCode.OK else ResultCode.UNHANDLED_HTTP_CODE)
+    }
+
+    /**
+     * Accepts some bytes and then fails, as a connection dropped in the middle of a chunk.
+     */
+    private class BrokenOutputStream(private var bytesLeft: Long) : OutputStream() {
+        override fun write(b: Int) {
+            if (bytesLeft-- <= 0) throw IOException("Connection reset")
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChunksUploaderTest"
+        private const val RTT_MS = 100L
+        private const val CHUNKS = 40
+        private const val CHUNK_SIZE = 256 * 1024
+        private const val CHUNKS_IN_FLIGHT = 4
+        private const val FAILING_CHUNK = 3
+        private const val TRANSFER_ID = 1234
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.accounts.Account
+import android.accounts.AccountManager
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.lib.common.OwnCloudAccount
+import com.owncloud.android.lib.common.OwnCloudClient
+import com.owncloud.android.lib.common.SingleSessionManager
+import com.owncloud.android.lib.common.accounts.AccountUtils
+import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import com.owncloud.android.utils.FileStorageUtils
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import kotlin.concurrent.thread
+
+/**
+ * Cancels a download waiting for a [MockWebDavServer] that takes far longer to answer than the test waits, and
+ * removes the partial downloads left in the temporal folder of an account.
+ */
+@LargeTest
+class DownloadFileOperationTest {
+
+    private lateinit var context: Context
+    private lateinit var server: MockWebDavServer
+    private lateinit var account: Account
+    private lateinit var client: OwnCloudClient
+    private lateinit var tmpFolder: File
+
+    @Before
+    fun setUp() {
+        context = InstrumentationRegistry.getInstrumentation().targetContext
+        server = MockWebDavServer(STALLED_RTT_MS, FILE_SIZE)
+
+        account = Account("$USER_ID@127.0.0.1", MainApp.accountType)
+        AccountManager.get(context).apply {
+            addAccountExplicitly(account, PASSWORD, null)
+            setUserData(account, AccountUtils.Constants.KEY_OC_BASE_URL, server.baseUrl)
+            setUserData(account, AccountUtils.Constants.KEY_ID, USER_ID)
+        }
+        client = SingleSessionManager.getDefaultSingleton().getClientFor(OwnCloudAccount(account, context), context)
+        tmpFolder = File(FileStorageUtils.getTemporalPath(account.name))
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        AccountManager.get(context).removeAccountExplicitly(account)
+        tmpFolder.deleteRecursively()
+    }
+
+    @Test
+    fun cancelAbortsRequestInFlight() {
+        val operation = DownloadFileOperation(account, OCFile(REMOTE_PATH).apply { fileLength = FILE_SIZE.toLong() })
+        var result: RemoteOperationResult<*>? = null
+        val download = thread { result = operation.execute(client) }
+        SystemClock.sleep(REQUEST_SENT_MS)
+
+        val cancelledAt = SystemClock.elapsedRealtime()
+        operation.cancel()
+        download.join(STALLED_RTT_MS)
+
+        assertFalse(download.isAlive)
+        assertTrue(SystemClock.elapsedRealtime() - cancelledAt < STALLED_RTT_MS / 2)
+        assertTrue(result!!.isCancelled)
+        assertFalse(File(operation.tmpPath).exists())
+    }
+
+    @Test
+    fun partialDownloadsOfFolderAreRemovedAndOtherTemporalFilesKept() {
+        val partial = File(tmpFolder, "Videos/2021/holidays.mp4")
+        val partialEtag = File(partial.path + FileStorageUtils.PARTIAL_DOWNLOAD_ETAG_SUFFIX)
+        val uploadCopy = File(tmpFolder, "Videos/upload.mp4")
+        val otherPartial = File(tmpFolder, "Photos/beach.jpg")
+        val otherPartialEtag = File(otherPartial.path + FileStorageUtils.PARTIAL_DOWNLOAD_ETAG_SUFFIX)
+        listOf(partial, partialEtag, uploadCopy, otherPartial, otherPartialEtag).forEach {
+            it.parentFile!!.mkdirs()
+            it.writeText("\"1\"")
+        }
+
+        FileStorageUtils.deletePartialDownloads(account.name, OCFile("/Videos/").apply { mimetype = MIME_DIR })
+
+        assertFalse(partial.exists())
+        assertFalse(partialEtag.exists())
+        assertTrue(uploadCopy.exists())
+        assertTrue(otherPartial.exists())
+        assertTrue(otherPartialEtag.exists())
+    }
+
+    companion object {
+        private const val USER_ID = "admin"
+        private const val PASSWORD = "admin"
+        private const val STALLED_RTT_MS = 30_000L
+        private const val REQUEST_SENT_MS = 500L
+        private const val FILE_SIZE = 1024
+        private const val REMOTE_PATH = "/holidays.mp4"
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.os.SystemClock
+import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * Refreshes the same folder from several threads at the same time, as the list of files, the synchronization of
+ * folders and the documents provider do, with a fake request to the server taking a fixed latency.
+ */
+class FolderRefreshRegistryTest {
+
+    private val registry = FolderRefreshRegistry<Unit>()
+    private val requests = AtomicInteger()
+
+    @Volatile
+    private var inFlight: CountDownLatch? = null
+
+    @Test
+    fun concurrentRefreshesShareOneRequest() {
+        val results = ConcurrentLinkedQueue<RemoteOperationResult<Unit>>()
+
+        refreshWhileInFlight(
+            { results.add(registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.NOT_FRESH) { request() }) },
+            { results.add(registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.NOT_FRESH) { request() }) }
+        )
+
+        assertEquals(1, requests.get())
+        assertEquals(CALLERS + 1, results.size)
+        results.forEach { assertSame(results.first(), it) }
+    }
+
+    @Test
+    fun refreshesShareLeadingSynchronization() {
+        val results = ConcurrentLinkedQueue<RemoteOperationResult<Unit>>()
+
+        refreshWhileInFlight(
+            { results.add(registry.lead(ACCOUNT, FOLDER) { request() }) },
+            { results.add(registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.NOT_FRESH) { request() }) }
+        )
+
+        assertEquals(1, requests.get())
+        results.forEach { assertSame(results.first(), it) }
+    }
+
+    @Test
+    fun refreshesOfOtherFoldersAreNotShared() {
+        refreshWhileInFlight(
+            { registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.NOT_FRESH) { request() } },
+            { registry.refresh(ACCOUNT, "/other/", FolderRefreshRegistry.NOT_FRESH) { request() } }
+        )
+
+        assertEquals(1 + CALLERS, requests.get())
+    }
+
+    @Test
+    fun refreshesOfAccountsWithSameNameAndPathJoinedAreNotShared() {
+        // "user@server/Photos" + "/" and "user@server" + "/Photos/" read the same once joined
+        val first = registry.refresh(
+            "$ACCOUNT${FOLDER.trimEnd('/')}", "/", FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS
+        ) { request() }
+        val second = registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS) { request() }
+
+        assertEquals(2, requests.get())
+        assertTrue(first !== second)
+    }
+
+    @Test
+    fun recentRefreshIsServedWithoutRequest() {
+        val first = registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS) { request() }
+        val second = registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS) { request() }
+
+        assertEquals(1, requests.get())
+        assertSame(first, second)
+
+        registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.NOT_FRESH) { request() }
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun failedRefreshIsNotServedAgain() {
+        val failed = registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS) {
+            requests.incrementAndGet()
+            RemoteOperationResult<Unit>(ResultCode.FILE_NOT_FOUND)
+        }
+        val retried = registry.refresh(ACCOUNT, FOLDER, FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS) { request() }
+
+        assertEquals(2, requests.get())
+        assertFalse(failed.isSuccess)
+        assertTrue(retried.isSuccess)
+    }
+
+    /**
+     * Starts a first refresh and, once its request is in flight, [CALLERS] more from other threads; waits for all
+     * of them.
+     */
+    private fun refreshWhileInFlight(first: () -> Unit, next: () -> Unit) {
+        val started = CountDownLatch(1)
+        inFlight = started
+        val threads = listOf(thread { first() }).also { started.await() } + (1..CALLERS).map { thread { next() } }
+        threads.forEach { it.join() }
+        assertFalse(registry.isRefreshing(ACCOUNT, FOLDER))
+    }
+
+    private fun request(): RemoteOperationResult<Unit> {
+        requests.incrementAndGet()
+        inFlight?.countDown()
+        SystemClock.sleep(LATENCY_MS)
+        return RemoteOperationResult(ResultCode.OK)
+    }
+
+    companion object {
+        private const val ACCOUNT = "user@server"
+        private const val FOLDER = "/Photos/"
+        private const val CALLERS = 8
+        private const val LATENCY_MS = 500L
+    }
+}
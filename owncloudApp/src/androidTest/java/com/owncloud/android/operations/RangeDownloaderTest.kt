@@ -0,0 +1,154 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener
+import com.owncloud.android.lib.common.operations.RemoteOperationResult
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.InputStream
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.random.Random
+
+/**
+ * Downloads a big file from a [MockWebDavServer] that drops connections at random offsets, resuming every attempt
+ * from the bytes already received, and checks the result is byte-identical to the file in the server.
+ */
+@LargeTest
+class RangeDownloaderTest {
+
+    private lateinit var tmpFolder: File
+    private lateinit var tmpFile: File
+    private lateinit var server: MockWebDavServer
+
+    private val cancellationRequested = AtomicBoolean(false)
+    private val listeners = mutableSetOf<OnDatatransferProgressListener>()
+
+    @Before
+    fun setUp() {
+        tmpFolder = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "tmp")
+        tmpFile = File(tmpFolder, "Videos/holidays.mp4")
+        server = MockWebDavServer(RTT_MS, FILE_SIZE)
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        tmpFolder.deleteRecursively()
+    }
+
+    @Test
+    fun interruptedDownloadIsResumedUntilComplete() {
+        val random = Random(SEED)
+        var attempts = 0
+        do {
+            server.cutConnectionAfter = random.nextInt(FILE_SIZE / 4)
+            val result = RangeDownloader(tmpFile, cancellationRequested, listeners).download(UrlGetRequest())
+            attempts++
+        } while (!result.isSuccess && attempts < MAX_ATTEMPTS)
+
+        Log.i(TAG, "$FILE_SIZE bytes downloaded in $attempts attempts")
+        assertTrue(attempts > 1)
+        assertArrayEquals(server.content, tmpFile.readBytes())
+        // no byte was sent twice
+        assertEquals(FILE_SIZE.toLong(), server.bytesSent.get())
+    }
+
+    @Test
+    fun fileChangedInServerIsDownloadedFromStart() {
+        server.cutConnectionAfter = FILE_SIZE / 2
+        val interrupted = RangeDownloader(tmpFile, cancellationRequested, listeners).download(UrlGetRequest())
+        assertFalse(interrupted.isSuccess)
+        assertEquals(FILE_SIZE / 2L, tmpFile.length())
+
+        server.modifyFile()
+        server.cutConnectionAfter = null
+        val downloader = RangeDownloader(tmpFile, cancellationRequested, listeners)
+        val result = downloader.download(UrlGetRequest())
+
+        assertTrue(result.isSuccess)
+        assertEquals(server.etag.replace("\"", ""), downloader.etag)
+        assertArrayEquals(server.content, tmpFile.readBytes())
+        assertEquals(FILE_SIZE / 2L + FILE_SIZE, server.bytesSent.get())
+    }
+
+    @Test
+    fun cancelledDownloadRemovesPartialFile() {
+        listeners.add(object : OnDatatransferProgressListener {
+            override fun onTransferProgress(
+                progressRate: Long,
+                totalTransferredSoFar: Long,
+                totalToTransfer: Long,
+                fileAbsoluteName: String
+            ) {
+                if (totalTransferredSoFar > FILE_SIZE / 2) {
+                    cancellationRequested.set(true)
+                }
+            }
+        })
+
+        val result = RangeDownloader(tmpFile, cancellationRequested, listeners).download(UrlGetRequest())
+
+        assertEquals(ResultCode.CANCELLED, result.code)
+        assertFalse(tmpFile.exists())
+    }
+
+    /**
+     * GET request of the file in the server, through a connection kept alive for the next one.
+     */
+    private inner class UrlGetRequest : RangeDownloader.GetRequest {
+
+        private val connection =
+            URL("${server.baseUrl}/remote.php/webdav/Videos/holidays.mp4").openConnection() as HttpURLConnection
+
+        override fun execute(range: String?, ifRange: String?): Int {
+            range?.let { connection.setRequestProperty(RangeDownloader.RANGE_HEADER, it) }
+            ifRange?.let { connection.setRequestProperty(RangeDownloader.IF_RANGE_HEADER, it) }
+            return connection.responseCode
+        }
+
+        override fun getResponseHeader(name: String): String? = connection.getHeaderField(name)
+
+        override fun getResponseBodyAsStream(): InputStream = connection.inputStream
+
+        override fun createFailedResult(): RemoteOperationResult<*> =
+            RemoteOperationResult<Unit>(ResultCode.UNHANDLED_HTTP_CODE)
+    }
+
+    companion object {
+        private const val TAG = "RangeDownloaderTest"
+        private const val RTT_MS = 20L
+        private const val FILE_SIZE = 2 * 1024 * 1024
+        private const val SEED = 25
+        private const val MAX_ATTEMPTS = 100
+    }
+}
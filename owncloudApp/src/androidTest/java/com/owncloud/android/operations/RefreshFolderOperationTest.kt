@@ -0,0 +1,182 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.accounts.Account
+import android.accounts.AccountManager
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.datamodel.FileDataStorageManager
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.datamodel.UploadsStorageManager
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.lib.common.OwnCloudAccount
+import com.owncloud.android.lib.common.OwnCloudClient
+import com.owncloud.android.lib.common.SingleSessionManager
+import com.owncloud.android.lib.common.accounts.AccountUtils
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * Refreshes an available offline folder whose ETag did not change in a [MockWebDavServer], and checks the list of
+ * its files is neither fetched nor merged, while the file changed in the device is still sent to upload.
+ *
+ * Runs against the files database of the app under test, with an account of its own that is removed afterwards.
+ */
+@LargeTest
+class RefreshFolderOperationTest {
+
+    private lateinit var context: Context
+    private lateinit var server: MockWebDavServer
+    private lateinit var account: Account
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var uploadsStorageManager: UploadsStorageManager
+    private lateinit var client: OwnCloudClient
+    private lateinit var localFolder: File
+
+    @Before
+    fun setUp() {
+        context = InstrumentationRegistry.getInstrumentation().targetContext
+        server = MockWebDavServer(RTT_MS)
+
+        account = Account("$USER_ID@127.0.0.1", MainApp.accountType)
+        AccountManager.get(context).apply {
+            addAccountExplicitly(account, PASSWORD, null)
+            setUserData(account, AccountUtils.Constants.KEY_OC_BASE_URL, server.baseUrl)
+            setUserData(account, AccountUtils.Constants.KEY_ID, USER_ID)
+        }
+        storageManager = FileDataStorageManager(context, account, context.contentResolver)
+        uploadsStorageManager = UploadsStorageManager(context.contentResolver)
+        client = SingleSessionManager.getDefaultSingleton().getClientFor(OwnCloudAccount(account, context), context)
+        localFolder = File(context.cacheDir, "RefreshFolderOperationTest")
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        uploadsStorageManager.removeUploads(account.name)
+        context.contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(account.name))
+        AccountManager.get(context).removeAccountExplicitly(account)
+        localFolder.deleteRecursively()
+    }
+
+    @Test
+    fun unchangedFolderIsNotMergedButLocalChangesArePushed() {
+        val folder = createFolder()
+        // only in the server: would be saved if the list of files was merged
+        server.addFile(NEW_FILE_PATH, "new")
+        val hitsBefore = RefreshFolderOperation.getETagCheckHits()
+        val missesBefore = RefreshFolderOperation.getETagCheckMisses()
+
+        val result = RefreshFolderOperation(folder, false, account, context).execute(client, storageManager)
+
+        assertTrue(result.isSuccess)
+        // the ETag check alone, without the listing of the folder
+        assertEquals(1, server.propfinds.get())
+        assertEquals(hitsBefore + 1, RefreshFolderOperation.getETagCheckHits())
+        assertEquals(missesBefore, RefreshFolderOperation.getETagCheckMisses())
+        assertNull(storageManager.getFileByPath(NEW_FILE_PATH))
+        assertTrue("Changed file not sent to upload", waitForUpload(CHANGED_FILE_PATH))
+        assertFalse(isUploadStored(UNCHANGED_FILE_PATH))
+    }
+
+    /**
+     * Creates an available offline folder with a file changed in the device since it was downloaded, and other
+     * one not changed, with the same ETags in the server.
+     */
+    private fun createFolder(): OCFile {
+        localFolder.mkdirs()
+        server.addFile(OCFile.ROOT_PATH, "root")
+        server.addFile(FOLDER_PATH, "folder")
+        storageManager.saveFile(OCFile(OCFile.ROOT_PATH).apply {
+            mimetype = MIME_DIR
+            etag = "root"
+        })
+        val root = storageManager.getFileByPath(OCFile.ROOT_PATH)!!
+        storageManager.saveFile(OCFile(FOLDER_PATH).apply {
+            mimetype = MIME_DIR
+            parentId = root.fileId
+            etag = "folder"
+            availableOfflineStatus = OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE
+        })
+        val folder = storageManager.getFileByPath(FOLDER_PATH)!!
+
+        saveDownloadedFile(folder, CHANGED_FILE_PATH, System.currentTimeMillis() - SYNCED_BEFORE_WRITE_MS)
+        saveDownloadedFile(folder, UNCHANGED_FILE_PATH, System.currentTimeMillis() + SYNCED_AFTER_WRITE_MS)
+        return folder
+    }
+
+    private fun saveDownloadedFile(folder: OCFile, remotePath: String, syncedAt: Long) {
+        val etag = remotePath.hashCode().toString()
+        val localFile = File(localFolder, File(remotePath).name).apply { writeText(etag) }
+        server.addFile(remotePath, etag)
+        storageManager.saveFile(OCFile(remotePath).apply {
+            mimetype = "application/pdf"
+            parentId = folder.fileId
+            this.etag = etag
+            storagePath = localFile.absolutePath
+            fileLength = localFile.length()
+            lastSyncDateForData = syncedAt
+            availableOfflineStatus = OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
+        })
+    }
+
+    /**
+     * Uploads are stored by the upload service, after the refresh requests them.
+     */
+    private fun waitForUpload(remotePath: String): Boolean {
+        val deadline = SystemClock.elapsedRealtime() + UPLOAD_TIMEOUT_MS
+        while (SystemClock.elapsedRealtime() < deadline) {
+            if (isUploadStored(remotePath)) {
+                return true
+            }
+            SystemClock.sleep(RTT_MS)
+        }
+        return false
+    }
+
+    private fun isUploadStored(remotePath: String) = uploadsStorageManager.getAllStoredUploads().any {
+        it.accountName == account.name && it.remotePath == remotePath
+    }
+
+    companion object {
+        private const val USER_ID = "admin"
+        private const val PASSWORD = "admin"
+        private const val RTT_MS = 50L
+        private const val FOLDER_PATH = "/Documents/"
+        private const val CHANGED_FILE_PATH = "${FOLDER_PATH}changed.pdf"
+        private const val UNCHANGED_FILE_PATH = "${FOLDER_PATH}unchanged.pdf"
+        private const val NEW_FILE_PATH = "${FOLDER_PATH}new.pdf"
+        private const val SYNCED_BEFORE_WRITE_MS = 60_000L
+        private const val SYNCED_AFTER_WRITE_MS = 60_000L
+        private const val UPLOAD_TIMEOUT_MS = 10_000L
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations
+
+import android.accounts.Account
+import android.accounts.AccountManager
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.datamodel.FileDataStorageManager
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.lib.common.OwnCloudAccount
+import com.owncloud.android.lib.common.OwnCloudClient
+import com.owncloud.android.lib.common.SingleSessionManager
+import com.owncloud.android.lib.common.accounts.AccountUtils
+import com.owncloud.android.utils.MockWebDavServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * Synchronizes the available offline files of a folder against a [MockWebDavServer] with a fixed round trip time,
+ * with a [SynchronizeFileOperation] per file and with a single [SynchronizeFilesInFolderOperation], and checks the
+ * second one verifies all of them with a single PROPFIND. Requests and times are written to logcat.
+ *
+ * Runs against the files database of the app under test, with an account of its own that is removed afterwards.
+ */
+@LargeTest
+class SynchronizeFilesInFolderOperationTest {
+
+    private lateinit var context: Context
+    private lateinit var server: MockWebDavServer
+    private lateinit var account: Account
+    private lateinit var storageManager: FileDataStorageManager
+    private lateinit var client: OwnCloudClient
+    private lateinit var localFolder: File
+
+    @Before
+    fun setUp() {
+        context = InstrumentationRegistry.getInstrumentation().targetContext
+        server = MockWebDavServer(RTT_MS)
+
+        account = Account("$USER_ID@127.0.0.1", MainApp.accountType)
+        AccountManager.get(context).apply {
+            addAccountExplicitly(account, PASSWORD, null)
+            setUserData(account, AccountUtils.Constants.KEY_OC_BASE_URL, server.baseUrl)
+            setUserData(account, AccountUtils.Constants.KEY_ID, USER_ID)
+        }
+        storageManager = FileDataStorageManager(context, account, context.contentResolver)
+        client = SingleSessionManager.getDefaultSingleton().getClientFor(OwnCloudAccount(account, context), context)
+        localFolder = File(context.cacheDir, "SynchronizeFilesInFolderOperationTest")
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        context.contentResolver.delete(CONTENT_URI, "$FILE_ACCOUNT_OWNER=?", arrayOf(account.name))
+        AccountManager.get(context).removeAccountExplicitly(account)
+        localFolder.deleteRecursively()
+    }
+
+    @Test
+    fun availableOfflineFilesOfFolderAreVerifiedWithSingleListing() {
+        val folder = createFolder()
+        val files = storageManager.getFolderContent(folder)
+        assertEquals(FILES, files.size)
+
+        // before: every file verified alone
+        val startAlone = SystemClock.elapsedRealtime()
+        files.forEach { file ->
+            val result = SynchronizeFileOperation(file, null, account, false, context, false)
+                .execute(client, storageManager)
+            assertTrue(result.isSuccess)
+        }
+        val millisAlone = SystemClock.elapsedRealtime() - startAlone
+        val propfindsAlone = server.propfinds.getAndSet(0)
+
+        // after: all the files verified with the listing of the folder
+        val startInFolder = SystemClock.elapsedRealtime()
+        val operation = SynchronizeFilesInFolderOperation(folder, files, account, context, false)
+        val result = operation.execute(client, storageManager)
+        val millisInFolder = SystemClock.elapsedRealtime() - startInFolder
+        val propfindsInFolder = server.propfinds.get()
+
+        Log.i(TAG, "$FILES available offline files: $propfindsAlone PROPFINDs in $millisAlone ms alone, " +
+                "$propfindsInFolder PROPFINDs in $millisInFolder ms in folder")
+        assertTrue(result.isSuccess)
+        assertEquals(0, operation.failedFiles)
+        assertTrue(operation.filesInConflict.isEmpty())
+        assertEquals(FILES, propfindsAlone)
+        assertEquals(1, propfindsInFolder)
+    }
+
+    /**
+     * Creates an available offline folder with [FILES] files, downloaded and not changed in the device nor in the
+     * server since then.
+     */
+    private fun createFolder(): OCFile {
+        localFolder.mkdirs()
+        server.addFile(OCFile.ROOT_PATH, "root")
+        server.addFile(FOLDER_PATH, "folder")
+        storageManager.saveFile(OCFile(OCFile.ROOT_PATH).apply {
+            mimetype = MIME_DIR
+            etag = "root"
+        })
+        val root = storageManager.getFileByPath(OCFile.ROOT_PATH)!!
+        storageManager.saveFile(OCFile(FOLDER_PATH).apply {
+            mimetype = MIME_DIR
+            parentId = root.fileId
+            etag = "folder"
+            availableOfflineStatus = OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE
+        })
+        val folder = storageManager.getFileByPath(FOLDER_PATH)!!
+
+        val syncedAt = System.currentTimeMillis() + SYNCED_AFTER_WRITE_MS
+        repeat(FILES) { i ->
+            val etag = "etag$i"
+            val localFile = File(localFolder, fileName(i)).apply { writeText(etag) }
+            server.addFile("$FOLDER_PATH${fileName(i)}", etag)
+            storageManager.saveFile(OCFile("$FOLDER_PATH${fileName(i)}").apply {
+                mimetype = "application/pdf"
+                parentId = folder.fileId
+                this.etag = etag
+                storagePath = localFile.absolutePath
+                fileLength = localFile.length()
+                lastSyncDateForData = syncedAt
+                availableOfflineStatus = OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
+            })
+        }
+        return folder
+    }
+
+    private fun fileName(index: Int) = "document$index.pdf"
+
+    companion object {
+        private const val TAG = "SyncFilesInFolderTest"
+        private const val USER_ID = "admin"
+        private const val PASSWORD = "admin"
+        private const val RTT_MS = 50L
+        private const val FILES = 40
+        private const val FOLDER_PATH = "/Documents/"
+        private const val SYNCED_AFTER_WRITE_MS = 60_000L
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.providers
+
+import android.content.ContentProviderOperation
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.content.ContentValues
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+/**
+ * Checks that listing a folder does not wait for a big synchronization batch being written at the same time.
+ */
+@LargeTest
+class FileContentProviderConcurrencyTest {
+
+    private lateinit var contentResolver: ContentResolver
+
+    @Before
+    fun setUp() {
+        contentResolver = InstrumentationRegistry.getInstrumentation().targetContext.contentResolver
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(ACCOUNT)
+        )
+    }
+
+    @Test
+    fun folderListingKeepsLatencyWhileBatchCommits() {
+        val listedFolder = insert("/Listed/", 0, true)
+        contentResolver.bulkInsert(
+            ProviderTableMeta.CONTENT_URI_FILE,
+            Array(LISTED_FOLDER_SIZE) { fileValues("/Listed/file$it.jpg", listedFolder, false) }
+        )
+        val syncedFolder = insert("/Synced/", 0, true)
+        val operations = ArrayList<ContentProviderOperation>()
+        for (index in 0 until BATCH_SIZE) {
+            operations.add(
+                ContentProviderOperation.newInsert(ProviderTableMeta.CONTENT_URI)
+                    .withValues(fileValues("/Synced/file$index.jpg", syncedFolder, false))
+                    .build()
+            )
+        }
+
+        val idleLatencies = (0 until IDLE_LISTINGS).map { listFolder(listedFolder) }
+
+        val batchRunning = AtomicBoolean(true)
+        val batch = thread {
+            try {
+                contentResolver.applyBatch(MainApp.authority, operations)
+            } finally {
+                batchRunning.set(false)
+            }
+        }
+        val busyLatencies = ArrayList<Long>()
+        while (batchRunning.get()) {
+            val latency = listFolder(listedFolder)
+            if (batchRunning.get()) busyLatencies.add(latency)
+        }
+        batch.join()
+
+        val idleMedian = idleLatencies.sorted()[idleLatencies.size / 2]
+        Log.i(TAG, "Idle listing median: ${idleMedian / 1_000} µs")
+        assertTrue("No listing finished while the batch was running", busyLatencies.isNotEmpty())
+        val busyMedian = busyLatencies.sorted()[busyLatencies.size / 2]
+        Log.i(TAG, "Listing median during batch: ${busyMedian / 1_000} µs, ${busyLatencies.size} listings")
+        assertTrue(
+            "Listings took ${busyMedian / 1_000} µs during the batch, ${idleMedian / 1_000} µs out of it",
+            busyMedian <= idleMedian * MAX_SLOWDOWN + SLOWDOWN_MARGIN_NANOS
+        )
+    }
+
+    /**
+     * @return Nanoseconds taken to read the whole content of the folder.
+     */
+    private fun listFolder(folderId: Long): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        contentResolver.query(
+            ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, folderId),
+            null,
+            "${ProviderTableMeta.FILE_PARENT}=?",
+            arrayOf(folderId.toString()),
+            null
+        )!!.use { while (it.moveToNext()) it.getString(it.getColumnIndex(ProviderTableMeta.FILE_PATH)) }
+        return SystemClock.elapsedRealtimeNanos() - start
+    }
+
+    private fun insert(path: String, parentId: Long, isFolder: Boolean): Long =
+        ContentUris.parseId(
+            contentResolver.insert(ProviderTableMeta.CONTENT_URI_FILE, fileValues(path, parentId, isFolder))!!
+        )
+
+    private fun fileValues(path: String, parentId: Long, isFolder: Boolean) = ContentValues().apply {
+        put(ProviderTableMeta.FILE_PATH, path)
+        put(ProviderTableMeta.FILE_NAME, path.trimEnd('/').substringAfterLast('/'))
+        put(ProviderTableMeta.FILE_PARENT, parentId)
+        put(ProviderTableMeta.FILE_ACCOUNT_OWNER, ACCOUNT)
+        put(ProviderTableMeta.FILE_CONTENT_TYPE, if (isFolder) MIME_DIR else "image/jpeg")
+    }
+
+    companion object {
+        private const val TAG = "FileContentProviderConcurrencyTest"
+        private const val ACCOUNT = "concurrency@server"
+        private const val LISTED_FOLDER_SIZE = 500
+        private const val BATCH_SIZE = 50_000
+        private const val IDLE_LISTINGS = 20
+        // listings may slow down because of the CPU taken by the batch, but must not wait for it to commit
+        private const val MAX_SLOWDOWN = 4
+        private const val SLOWDOWN_MARGIN_NANOS = 20_000_000L
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.providers
+
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.content.ContentValues
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+@SmallTest
+class FileContentProviderDeleteTest {
+
+    private lateinit var contentResolver: ContentResolver
+
+    @Before
+    fun setUp() {
+        contentResolver = InstrumentationRegistry.getInstrumentation().targetContext.contentResolver
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(ACCOUNT)
+        )
+    }
+
+    @Test
+    fun deleteFolderRemovesWholeTree() {
+        val root = insert("/", 0, true)
+        val folder = insert("/Photos/", root, true)
+        val subfolder = insert("/Photos/2020/", folder, true)
+        insert("/Photos/a.jpg", folder, false)
+        insert("/Photos/2020/b.jpg", subfolder, false)
+        insert("/Documents/", root, true)
+
+        val deleted = contentResolver.delete(
+            ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, folder),
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND ${ProviderTableMeta.FILE_PATH}=?",
+            arrayOf(ACCOUNT, "/Photos/")
+        )
+
+        assertEquals(4, deleted)
+        assertEquals(2, countFilesOfAccount())
+    }
+
+    @Test
+    fun deleteFolderNotMatchingSelectionKeepsTree() {
+        val root = insert("/", 0, true)
+        val folder = insert("/Photos/", root, true)
+        insert("/Photos/a.jpg", folder, false)
+
+        val deleted = contentResolver.delete(
+            ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, folder),
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND ${ProviderTableMeta.FILE_PATH}=?",
+            arrayOf(ACCOUNT, "/Documents/")
+        )
+
+        assertEquals(0, deleted)
+        assertEquals(3, countFilesOfAccount())
+    }
+
+    private fun insert(path: String, parentId: Long, isFolder: Boolean): Long {
+        val values = ContentValues().apply {
+            put(ProviderTableMeta.FILE_PATH, path)
+            put(ProviderTableMeta.FILE_NAME, path.trimEnd('/').substringAfterLast('/'))
+            put(ProviderTableMeta.FILE_PARENT, parentId)
+            put(ProviderTableMeta.FILE_ACCOUNT_OWNER, ACCOUNT)
+            put(ProviderTableMeta.FILE_CONTENT_TYPE, if (isFolder) MIME_DIR else "image/jpeg")
+        }
+        return ContentUris.parseId(contentResolver.insert(ProviderTableMeta.CONTENT_URI_FILE, values)!!)
+    }
+
+    private fun countFilesOfAccount(): Int =
+        contentResolver.query(
+            ProviderTableMeta.CONTENT_URI,
+            null,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(ACCOUNT),
+            null
+        )!!.use { it.count }
+
+    companion object {
+        private const val ACCOUNT = "test@server"
+    }
+}
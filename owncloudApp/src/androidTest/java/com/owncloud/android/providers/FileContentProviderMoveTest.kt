@@ -0,0 +1,159 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.providers
+
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.content.ContentValues
+import android.os.Bundle
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.utils.FileStorageUtils
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+@SmallTest
+class FileContentProviderMoveTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private val savePath = FileStorageUtils.getSavePath(ACCOUNT)
+
+    @Before
+    fun setUp() {
+        contentResolver = InstrumentationRegistry.getInstrumentation().targetContext.contentResolver
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(ACCOUNT)
+        )
+    }
+
+    @Test
+    fun moveFolderRewritesPathsOfWholeTree() {
+        val root = insert("/", 0, true)
+        val folder = insert("/Photos/", root, true)
+        insert("/Photos/2020/b.jpg", insert("/Photos/2020/", folder, true), false, downloaded = true)
+        val target = insert("/Archive/", root, true)
+
+        val moved = moveFolder("/Photos/", "/Archive/Photos/", target)
+
+        assertEquals(3, moved)
+        assertMoved("/Archive/Photos/2020/b.jpg")
+        assertEquals(target, getParentId("/Archive/Photos/"))
+    }
+
+    @Test
+    fun moveFolderWithCharactersOutOfBmpRewritesPathsOfWholeTree() {
+        // every emoji takes two UTF-16 units, but a single character for SQLite
+        val root = insert("/", 0, true)
+        val folder = insert("/📷 Photos/", root, true)
+        val subfolder = insert("/📷 Photos/2020 🌴/", folder, true)
+        insert("/📷 Photos/2020 🌴/b.jpg", subfolder, false, downloaded = true)
+        val target = insert("/Archive 🗄/", root, true)
+
+        val moved = moveFolder("/📷 Photos/", "/Archive 🗄/📷 Photos/", target)
+
+        assertEquals(3, moved)
+        assertMoved("/Archive 🗄/📷 Photos/2020 🌴/")
+        assertMoved("/Archive 🗄/📷 Photos/2020 🌴/b.jpg")
+        assertEquals(target, getParentId("/Archive 🗄/📷 Photos/"))
+    }
+
+    private fun moveFolder(sourcePath: String, targetPath: String, targetParentId: Long): Int {
+        val extras = Bundle().apply {
+            putString(ProviderTableMeta.ARG_ACCOUNT_NAME, ACCOUNT)
+            putString(ProviderTableMeta.ARG_SOURCE_PATH, sourcePath)
+            putString(ProviderTableMeta.ARG_TARGET_PATH, targetPath)
+            putLong(ProviderTableMeta.ARG_TARGET_PARENT_ID, targetParentId)
+            putString(
+                ProviderTableMeta.ARG_SELECTION,
+                "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND " +
+                        "${ProviderTableMeta.FILE_PATH}>=? AND ${ProviderTableMeta.FILE_PATH}<?"
+            )
+            putStringArray(
+                ProviderTableMeta.ARG_SELECTION_ARGS,
+                arrayOf(ACCOUNT, sourcePath, sourcePath.dropLast(1) + (sourcePath.last() + 1))
+            )
+        }
+        return contentResolver.call(
+            ProviderTableMeta.CONTENT_URI,
+            ProviderTableMeta.METHOD_MOVE_FILE_TREE,
+            null,
+            extras
+        )!!.getInt(ProviderTableMeta.RESULT_COUNT)
+    }
+
+    /**
+     * Checks there is a file in the path, with its name unchanged and its local path, if any, following it.
+     */
+    private fun assertMoved(path: String) {
+        contentResolver.query(
+            ProviderTableMeta.CONTENT_URI,
+            arrayOf(ProviderTableMeta.FILE_NAME, ProviderTableMeta.FILE_STORAGE_PATH),
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND ${ProviderTableMeta.FILE_PATH}=?",
+            arrayOf(ACCOUNT, path),
+            null
+        )!!.use {
+            assertEquals(path, 1, it.count)
+            it.moveToFirst()
+            assertEquals(path.trimEnd('/').substringAfterLast('/'), it.getString(0))
+            if (!it.isNull(1)) {
+                assertEquals(savePath + path, it.getString(1))
+            }
+        }
+    }
+
+    private fun getParentId(path: String): Long =
+        contentResolver.query(
+            ProviderTableMeta.CONTENT_URI,
+            arrayOf(ProviderTableMeta.FILE_PARENT),
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND ${ProviderTableMeta.FILE_PATH}=?",
+            arrayOf(ACCOUNT, path),
+            null
+        )!!.use {
+            it.moveToFirst()
+            it.getLong(0)
+        }
+
+    private fun insert(path: String, parentId: Long, isFolder: Boolean, downloaded: Boolean = false): Long {
+        val values = ContentValues().apply {
+            put(ProviderTableMeta.FILE_PATH, path)
+            put(ProviderTableMeta.FILE_NAME, path.trimEnd('/').substringAfterLast('/'))
+            put(ProviderTableMeta.FILE_PARENT, parentId)
+            put(ProviderTableMeta.FILE_ACCOUNT_OWNER, ACCOUNT)
+            put(ProviderTableMeta.FILE_CONTENT_TYPE, if (isFolder) MIME_DIR else "image/jpeg")
+            if (downloaded) {
+                put(ProviderTableMeta.FILE_STORAGE_PATH, savePath + path)
+            }
+        }
+        return ContentUris.parseId(contentResolver.insert(ProviderTableMeta.CONTENT_URI_FILE, values)!!)
+    }
+
+    companion object {
+        private const val ACCOUNT = "test@server"
+    }
+}
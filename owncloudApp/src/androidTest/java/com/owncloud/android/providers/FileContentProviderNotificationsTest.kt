@@ -0,0 +1,151 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.providers
+
+import android.content.ContentProviderOperation
+import android.content.ContentResolver
+import android.content.ContentUris
+import android.content.ContentValues
+import android.database.ContentObserver
+import android.net.Uri
+import android.os.Handler
+import android.os.HandlerThread
+import androidx.test.filters.MediumTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.MainApp
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Checks that a batch of changes in the files table notifies observers once per changed folder, not once
+ * per change.
+ */
+@MediumTest
+class FileContentProviderNotificationsTest {
+
+    private lateinit var contentResolver: ContentResolver
+    private lateinit var handlerThread: HandlerThread
+    private lateinit var observer: CountingObserver
+
+    @Before
+    fun setUp() {
+        contentResolver = InstrumentationRegistry.getInstrumentation().targetContext.contentResolver
+        handlerThread = HandlerThread(javaClass.simpleName).apply { start() }
+        observer = CountingObserver(Handler(handlerThread.looper))
+    }
+
+    @After
+    fun tearDown() {
+        contentResolver.unregisterContentObserver(observer)
+        handlerThread.quit()
+        contentResolver.delete(
+            ProviderTableMeta.CONTENT_URI,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=?",
+            arrayOf(ACCOUNT)
+        )
+    }
+
+    @Test
+    fun batchOfInsertsNotifiesParentFolderOnce() {
+        val folder = insert("/Photos/", 0, true)
+        val operations = ArrayList<ContentProviderOperation>()
+        for (index in 0 until BATCH_SIZE) {
+            operations.add(
+                ContentProviderOperation.newInsert(ProviderTableMeta.CONTENT_URI)
+                    .withValues(fileValues("/Photos/file$index.jpg", folder, false))
+                    .build()
+            )
+        }
+
+        val notified = countNotifications { contentResolver.applyBatch(MainApp.authority, operations) }
+
+        assertEquals(listOf(ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, folder)), notified)
+    }
+
+    @Test
+    fun batchOfUpdatesNotifiesOnce() {
+        val folder = insert("/Photos/", 0, true)
+        val files = (0 until BATCH_SIZE).map { insert("/Photos/file$it.jpg", folder, false) }
+        val operations = ArrayList<ContentProviderOperation>()
+        files.forEach { id ->
+            operations.add(
+                ContentProviderOperation.newUpdate(ProviderTableMeta.CONTENT_URI)
+                    .withValue(ProviderTableMeta.FILE_ETAG, "etag$id")
+                    .withSelection("${ProviderTableMeta._ID}=?", arrayOf(id.toString()))
+                    .build()
+            )
+        }
+
+        val notified = countNotifications { contentResolver.applyBatch(MainApp.authority, operations) }
+
+        assertEquals(listOf(ProviderTableMeta.CONTENT_URI), notified)
+    }
+
+    /**
+     * @return URIs notified to an observer of the whole provider while [block] runs.
+     */
+    private fun countNotifications(block: () -> Unit): List<Uri> {
+        contentResolver.registerContentObserver(ProviderTableMeta.CONTENT_URI, true, observer)
+        block()
+        // notifications to an observer are delivered in order, so the sentinel arrives after any notification of the block
+        contentResolver.notifyChange(SENTINEL_URI, null)
+        assertTrue(observer.sentinelReceived.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        return observer.notifiedUris
+    }
+
+    private fun insert(path: String, parentId: Long, isFolder: Boolean): Long =
+        ContentUris.parseId(
+            contentResolver.insert(ProviderTableMeta.CONTENT_URI_FILE, fileValues(path, parentId, isFolder))!!
+        )
+
+    private fun fileValues(path: String, parentId: Long, isFolder: Boolean) = ContentValues().apply {
+        put(ProviderTableMeta.FILE_PATH, path)
+        put(ProviderTableMeta.FILE_NAME, path.trimEnd('/').substringAfterLast('/'))
+        put(ProviderTableMeta.FILE_PARENT, parentId)
+        put(ProviderTableMeta.FILE_ACCOUNT_OWNER, ACCOUNT)
+        put(ProviderTableMeta.FILE_CONTENT_TYPE, if (isFolder) MIME_DIR else "image/jpeg")
+    }
+
+    private class CountingObserver(handler: Handler) : ContentObserver(handler) {
+        val notifiedUris = ArrayList<Uri>()
+        val sentinelReceived = CountDownLatch(1)
+
+        override fun onChange(selfChange: Boolean, uri: Uri?) {
+            if (uri == SENTINEL_URI) {
+                sentinelReceived.countDown()
+            } else if (uri != null) {
+                notifiedUris.add(uri)
+            }
+        }
+    }
+
+    companion object {
+        private const val ACCOUNT = "notifications@server"
+        private const val BATCH_SIZE = 10_000
+        private const val TIMEOUT_SECONDS = 10L
+        private val SENTINEL_URI = ProviderTableMeta.CONTENT_URI.buildUpon().appendPath("sentinel").build()
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.providers
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.filters.SmallTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.owncloud.android.data.ProviderMeta
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_DEFAULT_SORT_ORDER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG_IN_CONFLICT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_AVAILABLE_OFFLINE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_CHECK_SCHEDULED
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_SHARED_VIA_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_SYNC_PENDING
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_KEEP_IN_SYNC
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME_SEARCH_TABLE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NEXT_CHECK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_REMOTE_ID
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_STORAGE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_TABLE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta._ID
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the selections used by
+ * [com.owncloud.android.datamodel.FileDataStorageManager] are resolved through an index of the files table, or of
+ * the name search table; both live in the Room database.
+ */
+@SmallTest
+class FileContentProviderQueryPlanTest {
+
+    private lateinit var database: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        // Let the provider create or upgrade the databases before inspecting the files table
+        context.contentResolver.query(CONTENT_URI, null, null, null, null)?.close()
+        database = SQLiteDatabase.openDatabase(
+            context.getDatabasePath(ProviderMeta.NEW_DB_NAME).path,
+            null,
+            SQLiteDatabase.OPEN_READONLY
+        )
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun getFolderContentUsesIndex() {
+        assertNoFullScan("$FILE_PARENT=1 AND ($FILE_PARENT=?)", "1")
+    }
+
+    @Test
+    fun getFileByPathUsesIndex() {
+        assertNoFullScan("$FILE_PATH=? AND $FILE_ACCOUNT_OWNER=?", "/Photos/", ACCOUNT)
+    }
+
+    @Test
+    fun getFileByIdUsesIndex() {
+        assertNoFullScan("$_ID=? AND $FILE_ACCOUNT_OWNER=?", "1", ACCOUNT)
+    }
+
+    @Test
+    fun getFileByRemoteIdUsesIndex() {
+        assertNoFullScan("$FILE_REMOTE_ID=? AND $FILE_ACCOUNT_OWNER=?", "00000001oc", ACCOUNT)
+    }
+
+    @Test
+    fun getFileByLocalPathUsesIndex() {
+        assertNoFullScan("$FILE_STORAGE_PATH=? AND $FILE_ACCOUNT_OWNER=?", "/sdcard/owncloud/a.jpg", ACCOUNT)
+    }
+
+    @Test
+    fun availableOfflineFilesFromEveryAccountUsesIndex() {
+        assertNoFullScan(FILE_IS_AVAILABLE_OFFLINE)
+    }
+
+    @Test
+    fun availableOfflineFilesFromCurrentAccountUsesIndex() {
+        assertNoFullScan(
+            "$FILE_IS_AVAILABLE_OFFLINE AND $FILE_KEEP_IN_SYNC = ? AND $FILE_ACCOUNT_OWNER = ? ",
+            "1",
+            ACCOUNT
+        )
+    }
+
+    @Test
+    fun sharedByLinkFilesFromCurrentAccountUsesIndex() {
+        assertNoFullScan("$FILE_IS_SHARED_VIA_LINK AND $FILE_ACCOUNT_OWNER = ? ", ACCOUNT)
+    }
+
+    @Test
+    fun treeQueryUsesIndex() {
+        assertNoFullScan("$FILE_ACCOUNT_OWNER=? AND $FILE_PATH>=? AND $FILE_PATH<?", ACCOUNT, "/Photos/", "/Photos0")
+    }
+
+    @Test
+    fun descendantsQueryUsesIndex() {
+        assertNoFullScan(
+            "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH>? AND $FILE_PATH<?",
+            ACCOUNT,
+            "/Photos/",
+            "/Photos0",
+            sortOrder = FILE_PATH
+        )
+    }
+
+    @Test
+    fun descendantsInConflictQueryUsesIndex() {
+        assertNoFullScan(
+            "$FILE_ETAG_IN_CONFLICT IS NOT NULL AND $FILE_CONTENT_TYPE != 'DIR' AND " +
+                    "$FILE_ACCOUNT_OWNER = ? AND $FILE_PATH >= ? AND $FILE_PATH < ?",
+            ACCOUNT,
+            "/Photos/",
+            "/Photos0"
+        )
+    }
+
+    @Test
+    fun childrenByRemoteIdQueryUsesIndex() {
+        assertNoFullScan(
+            "$FILE_PARENT=1 AND ($FILE_PARENT=? AND $FILE_REMOTE_ID IS NOT NULL)",
+            "1",
+            sortOrder = FILE_REMOTE_ID
+        )
+        assertNoFullScan(
+            "$FILE_PARENT=1 AND ($FILE_PARENT=? AND $FILE_REMOTE_ID>?)",
+            "1",
+            "00000001oc",
+            sortOrder = FILE_REMOTE_ID
+        )
+    }
+
+    @Test
+    fun searchInFolderUsesIndex() {
+        assertNoFullScan("$FILE_PARENT=? AND $FILE_NAME LIKE ? ESCAPE '\\'", "1", "%port%")
+    }
+
+    @Test
+    fun searchInAccountUsesIndexes() {
+        assertNoFullScan(
+            "$FILE_ACCOUNT_OWNER=? AND ($_ID IN (SELECT docid FROM $FILE_NAME_SEARCH_TABLE_NAME " +
+                    "WHERE $FILE_NAME_SEARCH_TABLE_NAME MATCH ?) OR $FILE_NAME LIKE ? ESCAPE '\\')",
+            ACCOUNT,
+            "\"port\"*",
+            "%port%"
+        )
+    }
+
+    @Test
+    fun syncFrontierQueryUsesIndex() {
+        assertNoFullScan("$FILE_ACCOUNT_OWNER=? AND $FILE_IS_SYNC_PENDING", ACCOUNT)
+    }
+
+    @Test
+    fun foldersDueForCheckQueryUsesIndex() {
+        assertNoFullScan(
+            "$FILE_ACCOUNT_OWNER=? AND $FILE_IS_CHECK_SCHEDULED AND $FILE_NEXT_CHECK<=?",
+            ACCOUNT,
+            "1600000000000",
+            sortOrder = "$FILE_PATH ASC"
+        )
+    }
+
+    @Test
+    fun nextFolderCheckQueryUsesIndex() {
+        assertNoFullScan(
+            "$FILE_ACCOUNT_OWNER=? AND $FILE_IS_CHECK_SCHEDULED",
+            ACCOUNT,
+            sortOrder = "$FILE_NEXT_CHECK ASC"
+        )
+    }
+
+    /**
+     * Scans of the name search table through its full text index, any index but 0, are not full scans.
+     */
+    private fun assertNoFullScan(
+        selection: String,
+        vararg selectionArgs: String,
+        sortOrder: String = FILE_DEFAULT_SORT_ORDER
+    ) {
+        val sql = "EXPLAIN QUERY PLAN SELECT * FROM $FILE_TABLE_NAME WHERE $selection ORDER BY $sortOrder"
+        database.rawQuery(sql, selectionArgs).use { cursor ->
+            val detailIndex = cursor.getColumnIndexOrThrow("detail")
+            while (cursor.moveToNext()) {
+                val detail = cursor.getString(detailIndex)
+                val fullTextSearch =
+                    detail.contains(VIRTUAL_TABLE_INDEX) && !detail.contains("${VIRTUAL_TABLE_INDEX}0:")
+                assertFalse(
+                    "Full scan in query plan for '$selection': $detail",
+                    detail.startsWith("SCAN") && !fullTextSearch
+                )
+            }
+        }
+    }
+
+    companion object {
+        private const val ACCOUNT = "admin@server"
+        private const val VIRTUAL_TABLE_INDEX = "VIRTUAL TABLE INDEX "
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.core.util.Pair
+import androidx.test.filters.LargeTest
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * Synchronizes several fake accounts at the same time, one of them much bigger than the rest, with folders taking
+ * turns in a [FolderSyncScheduler]. Every visit simulates the round trip of a PROPFIND with a fixed latency.
+ * Completion times of every account are written to logcat.
+ */
+@LargeTest
+class FolderSyncSchedulerTest {
+
+    @Test
+    fun smallAccountsAreNotDelayedByBigOne() {
+        val scheduler = FolderSyncScheduler(MAX_FOLDERS_IN_FLIGHT)
+        val accounts = mapOf(BIG_ACCOUNT to BIG_TREE) + (1..SMALL_ACCOUNTS).map { "small$it@server" to SMALL_TREE }
+
+        val latencies = synchronizeAll(scheduler, accounts)
+
+        val bigLatency = latencies.getValue(BIG_ACCOUNT)
+        latencies.forEach { (account, latency) -> Log.i(TAG, "Synchronization of $account took $latency ms") }
+        latencies.filterKeys { it != BIG_ACCOUNT }.forEach { (account, latency) ->
+            assertTrue("$account took $latency ms, $BIG_ACCOUNT $bigLatency ms", latency * 2 < bigLatency)
+        }
+    }
+
+    @Test
+    fun foldersInFlightNeverExceedLimit() {
+        val scheduler = FolderSyncScheduler(MAX_FOLDERS_IN_FLIGHT)
+        val lock = Any()
+        var inFlight = 0
+        var maxInFlight = 0
+        val accounts = (1..SMALL_ACCOUNTS + 1).map { "account$it@server" to SMALL_TREE }.toMap()
+
+        synchronizeAll(scheduler, accounts) {
+            synchronized(lock) { maxInFlight = maxOf(maxInFlight, ++inFlight) }
+            SystemClock.sleep(LATENCY_MS)
+            synchronized(lock) { inFlight-- }
+        }
+
+        assertEquals(MAX_FOLDERS_IN_FLIGHT, maxInFlight)
+    }
+
+    /**
+     * Synchronizes every account in a thread of its own, as the system does with parallel synchronizations.
+     *
+     * @param accounts Shape of the tree of every account, as subfolders per folder and levels.
+     * @return Milliseconds taken by the synchronization of every account.
+     */
+    private fun synchronizeAll(
+        scheduler: FolderSyncScheduler,
+        accounts: Map<String, kotlin.Pair<Int, Int>>,
+        roundTrip: () -> Unit = { SystemClock.sleep(LATENCY_MS) }
+    ): Map<String, Long> {
+        val latencies = ConcurrentHashMap<String, Long>()
+        val visited = accounts.mapValues { AtomicInteger() }
+        val start = SystemClock.elapsedRealtime()
+        accounts.map { (account, tree) ->
+            thread {
+                FolderTreeTraversal(
+                    FOLDERS_IN_FLIGHT_PER_ACCOUNT,
+                    FakeAccountTree(account, tree, scheduler, visited.getValue(account), roundTrip),
+                    { false }
+                ).traverse(folder(OCFile.ROOT_PATH), false)
+                latencies[account] = SystemClock.elapsedRealtime() - start
+            }
+        }.forEach { it.join() }
+
+        accounts.forEach { (account, tree) -> assertEquals(account, treeSize(tree), visited.getValue(account).get()) }
+        return latencies
+    }
+
+    /**
+     * Remote tree of an account where every folder down to a number of levels has the same number of subfolders,
+     * synchronized in the turns given by the scheduler.
+     */
+    private class FakeAccountTree(
+        private val account: String,
+        private val tree: kotlin.Pair<Int, Int>,
+        private val scheduler: FolderSyncScheduler,
+        private val visited: AtomicInteger,
+        private val roundTrip: () -> Unit
+    ) : FolderTreeTraversal.FolderVisitor {
+        override fun visit(folder: OCFile, pushOnly: Boolean): List<Pair<OCFile, Boolean>> {
+            scheduler.acquire(account)
+            try {
+                roundTrip()
+            } finally {
+                scheduler.release()
+            }
+            visited.incrementAndGet()
+
+            val (foldersPerFolder, depth) = tree
+            if (folder.remotePath.count { it == '/' } - 1 >= depth) {
+                return emptyList()
+            }
+            return (0 until foldersPerFolder).map { Pair(folder("${folder.remotePath}folder$it/"), true) }
+        }
+    }
+
+    companion object {
+        private const val TAG = "FolderSyncSchedulerTest"
+        private const val MAX_FOLDERS_IN_FLIGHT = 4
+        private const val FOLDERS_IN_FLIGHT_PER_ACCOUNT = 4
+        private const val LATENCY_MS = 5L
+        private const val BIG_ACCOUNT = "big@server"
+        private const val SMALL_ACCOUNTS = 4
+        private val BIG_TREE = 4 to 4 // 341 folders
+        private val SMALL_TREE = 3 to 2 // 13 folders
+
+        private fun treeSize(tree: kotlin.Pair<Int, Int>): Int =
+            (0..tree.second).sumBy { level -> (1..level).fold(1) { size, _ -> size * tree.first } }
+
+        private fun folder(path: String) = OCFile(path).apply { mimetype = MIME_DIR }
+    }
+}
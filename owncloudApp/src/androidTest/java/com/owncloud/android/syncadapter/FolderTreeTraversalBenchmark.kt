@@ -0,0 +1,103 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.core.util.Pair
+import androidx.test.filters.LargeTest
+import com.owncloud.android.datamodel.OCFile
+import com.owncloud.android.domain.files.MIME_DIR
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Compares the wall clock time of walking a synthetic tree of 11,111 folders one by one and with several folders
+ * in flight. Every visit simulates the round trip of a PROPFIND to a remote server with a fixed latency.
+ * Times are written to logcat.
+ */
+@LargeTest
+class FolderTreeTraversalBenchmark {
+
+    @Test
+    fun serialAndParallelTraversal() {
+        val serial = measure(1)
+        val parallel4 = measure(4)
+        val parallel8 = measure(8)
+
+        assertTrue("4 folders in flight took $parallel4 ms, one by one $serial ms", parallel4 < serial)
+        assertTrue("8 folders in flight took $parallel8 ms, one by one $serial ms", parallel8 < serial)
+    }
+
+    @Test
+    fun stopConditionEndsTraversal() {
+        val visited = AtomicInteger()
+        FolderTreeTraversal(
+            4,
+            FakeRemoteTree(visited),
+            { visited.get() >= STOP_AFTER }
+        ).traverse(folder(OCFile.ROOT_PATH), false)
+
+        // folders in flight when the condition is met are completed
+        assertTrue(visited.get() >= STOP_AFTER)
+        assertTrue(visited.get() < STOP_AFTER + 4)
+    }
+
+    private fun measure(maxFoldersInFlight: Int): Long {
+        val visited = AtomicInteger()
+        val start = SystemClock.elapsedRealtime()
+        FolderTreeTraversal(maxFoldersInFlight, FakeRemoteTree(visited), { false })
+            .traverse(folder(OCFile.ROOT_PATH), false)
+        val elapsed = SystemClock.elapsedRealtime() - start
+
+        assertEquals(TREE_SIZE, visited.get())
+        Log.i(TAG, "Traversal of $TREE_SIZE folders with $maxFoldersInFlight in flight: $elapsed ms")
+        return elapsed
+    }
+
+    /**
+     * Remote tree where every folder down to [TREE_DEPTH] levels has [FOLDERS_PER_FOLDER] subfolders.
+     */
+    private class FakeRemoteTree(private val visited: AtomicInteger) : FolderTreeTraversal.FolderVisitor {
+        override fun visit(folder: OCFile, pushOnly: Boolean): List<Pair<OCFile, Boolean>> {
+            // round trip to the server
+            SystemClock.sleep(LATENCY_MS)
+            visited.incrementAndGet()
+
+            val depth = folder.remotePath.count { it == '/' } - 1
+            if (depth >= TREE_DEPTH) {
+                return emptyList()
+            }
+            return (0 until FOLDERS_PER_FOLDER).map { Pair(folder("${folder.remotePath}folder$it/"), true) }
+        }
+    }
+
+    companion object {
+        private const val TAG = "FolderTreeTraversalBenchmark"
+        private const val FOLDERS_PER_FOLDER = 10
+        private const val TREE_DEPTH = 4
+        private const val TREE_SIZE = 11_111 // 1 + 10 + 100 + 1,000 + 10,000
+        private const val LATENCY_MS = 5L
+        private const val STOP_AFTER = 100
+
+        private fun folder(path: String) = OCFile(path).apply { mimetype = MIME_DIR }
+    }
+}
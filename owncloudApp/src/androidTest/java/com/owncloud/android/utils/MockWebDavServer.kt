@@ -0,0 +1,313 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.utils
+
+import android.os.SystemClock
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.HttpURLConnection
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.URL
+import java.net.URLDecoder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/**
+ * WebDAV server in the loopback interface answering every request after a fixed delay, to simulate the round trip
+ * to a remote server. PUT requests are read and discarded; GET requests get [fileSize] bytes of [content], or the
+ * part asked for with a Range header while If-Range, if any, matches the current [etag]. PROPFIND requests get the
+ * properties of the files added with [addFile], with those of their children for Depth 1. MKCOL and MOVE requests
+ * always succeed, without changing those files. Every request is kept in [requestLog].
+ *
+ * Connections are kept alive, as a real server does, unless [cutConnectionAfter] makes them drop in the middle of
+ * a response.
+ */
+class MockWebDavServer(private val rttMillis: Long, private val fileSize: Int = 0) : AutoCloseable {
+
+    private val serverSocket = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+    private val connections = mutableListOf<Socket>()
+
+    @Volatile
+    private var version = Version(1, fileSize)
+
+    val requests = AtomicInteger()
+
+    val propfinds = AtomicInteger()
+
+    /**
+     * Method and decoded path of every request received, as "METHOD /path".
+     */
+    val requestLog = ConcurrentLinkedQueue<String>()
+
+    /**
+     * ETags of the files answered to PROPFIND requests, by remote path; paths of folders end with '/'.
+     */
+    private val files = ConcurrentHashMap<String, String>()
+
+    /**
+     * Bytes of the body of every response sent to the clients.
+     */
+    val bytesSent = AtomicLong()
+
+    /**
+     * Bytes of the body of the next GET response sent before the connection is closed; null to send it whole.
+     */
+    @Volatile
+    var cutConnectionAfter: Int? = null
+
+    val etag: String
+        get() = version.etag
+
+    val content: ByteArray
+        get() = version.content
+
+    val baseUrl: String
+        get() = "http://127.0.0.1:${serverSocket.localPort}"
+
+    init {
+        thread(isDaemon = true, name = "MockWebDavServer") {
+            while (!serverSocket.isClosed) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: Exception) {
+                    return@thread
+                }
+                synchronized(connections) { connections.add(socket) }
+                thread(isDaemon = true) { serve(socket) }
+            }
+        }
+    }
+
+    /**
+     * Adds a file, or a folder if the path ends with '/', to those answered to PROPFIND requests. Its parent folder
+     * has to be added too.
+     *
+     * @param remotePath Path of the file below the WebDAV root of the user.
+     * @param etag       ETag of the file, without quotes.
+     */
+    fun addFile(remotePath: String, etag: String) {
+        files[remotePath] = etag
+    }
+
+    /**
+     * Changes the content of the file, and so its ETag.
+     */
+    fun modifyFile() {
+        version = Version(version.number + 1, fileSize)
+    }
+
+    override fun close() {
+        serverSocket.close()
+        synchronized(connections) { connections.forEach { it.close() } }
+    }
+
+    private fun serve(socket: Socket) = socket.use {
+        val input = BufferedInputStream(socket.getInputStream())
+        val output = socket.getOutputStream()
+        try {
+            while (true) {
+                val requestLine = readLine(input) ?: return
+                val headers = generateSequence { readLine(input)?.takeIf { it.isNotEmpty() } }
+                    .map { it.substringBefore(':').trim().toLowerCase() to it.substringAfter(':').trim() }
+                    .toMap()
+                skip(input, headers["content-length"]?.toLong() ?: 0)
+                requests.incrementAndGet()
+                SystemClock.sleep(rttMillis)
+                val (method, encodedPath) = requestLine.split(' ')
+                val path = URLDecoder.decode(encodedPath, "UTF-8")
+                requestLog.add("$method $path")
+                if (!respond(method, path, headers, output)) return
+            }
+        } catch (e: Exception) {
+            // connection closed by the client
+        }
+    }
+
+    /**
+     * @return false when the connection has to be closed.
+     */
+    private fun respond(method: String, path: String, headers: Map<String, String>, output: OutputStream): Boolean {
+        when (method) {
+            "PUT", "MKCOL", "MOVE" -> output.write("HTTP/1.1 201 Created\r\nContent-Length: 0\r\n\r\n".toByteArray())
+            "GET" -> return respondGet(headers, output)
+            "PROPFIND" -> respondPropfind(path, headers, output)
+            else -> output.write("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n".toByteArray())
+        }
+        output.flush()
+        return true
+    }
+
+    private fun respondGet(headers: Map<String, String>, output: OutputStream): Boolean {
+        val version = version
+        val start = headers["range"]
+            ?.takeIf { headers["if-range"]?.let { ifRange -> ifRange == version.etag } ?: true }
+            ?.removePrefix("bytes=")?.substringBefore('-')?.toIntOrNull()
+        when {
+            start == null -> output.write(
+                ("HTTP/1.1 200 OK\r\nETag: ${version.etag}\r\nContent-Length: $fileSize\r\n\r\n").toByteArray()
+            )
+            start < fileSize -> output.write(
+                ("HTTP/1.1 206 Partial Content\r\nETag: ${version.etag}\r\n" +
+                        "Content-Range: bytes $start-${fileSize - 1}/$fileSize\r\n" +
+                        "Content-Length: ${fileSize - start}\r\n\r\n").toByteArray()
+            )
+            else -> {
+                output.write("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Length: 0\r\n\r\n".toByteArray())
+                output.flush()
+                return true
+            }
+        }
+        val offset = start ?: 0
+        val cut = cutConnectionAfter
+        val length = if (cut != null) minOf(cut, fileSize - offset) else fileSize - offset
+        output.write(version.content, offset, length)
+        output.flush()
+        bytesSent.addAndGet(length.toLong())
+        return cut == null
+    }
+
+    /**
+     * Answers with the properties of the file in the path, whose first three segments after "/remote.php/dav/" are
+     * the WebDAV root of the user. Folders are found with or without the trailing '/'.
+     */
+    private fun respondPropfind(path: String, headers: Map<String, String>, output: OutputStream) {
+        propfinds.incrementAndGet()
+        val davRoot = path.split('/').take(DAV_ROOT_SEGMENTS).joinToString("/")
+        val remotePath = path.removePrefix(davRoot).let { if (files.containsKey(it)) it else "$it/" }
+        val etag = files[remotePath]
+        if (etag == null) {
+            output.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".toByteArray())
+            return
+        }
+        val children = if (remotePath.endsWith('/') && headers["depth"] == "1") {
+            files.filterKeys { it != remotePath && it.startsWith(remotePath) && isChild(it, remotePath) }.toSortedMap()
+        } else {
+            emptyMap()
+        }
+        val body = buildString {
+            append("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+            append("<d:multistatus xmlns:d=\"DAV:\" xmlns:oc=\"http://owncloud.org/ns\">")
+            append(propfindResponse(davRoot, remotePath, etag))
+            children.forEach { (childPath, childEtag) -> append(propfindResponse(davRoot, childPath, childEtag)) }
+            append("</d:multistatus>")
+        }.toByteArray()
+        output.write(
+            ("HTTP/1.1 207 Multi-Status\r\nContent-Type: application/xml; charset=utf-8\r\n" +
+                    "Content-Length: ${body.size}\r\n\r\n").toByteArray()
+        )
+        output.write(body)
+    }
+
+    private fun isChild(path: String, folderPath: String): Boolean =
+        !path.removePrefix(folderPath).trimEnd('/').contains('/')
+
+    private fun propfindResponse(davRoot: String, remotePath: String, etag: String): String {
+        val isFolder = remotePath.endsWith('/')
+        return "<d:response><d:href>$davRoot$remotePath</d:href><d:propstat><d:prop>" +
+                "<d:getetag>\"$etag\"</d:getetag>" +
+                "<d:getlastmodified>$LAST_MODIFIED</d:getlastmodified>" +
+                (if (isFolder) {
+                    "<d:resourcetype><d:collection/></d:resourcetype><oc:size>0</oc:size>"
+                } else {
+                    "<d:resourcetype/><d:getcontenttype>application/octet-stream</d:getcontenttype>" +
+                            "<d:getcontentlength>$fileSize</d:getcontentlength>"
+                }) +
+                "<oc:id>${remotePath.hashCode()}</oc:id><oc:permissions>RDNVW</oc:permissions>" +
+                "</d:prop><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>"
+    }
+
+    private class Version(val number: Int, fileSize: Int) {
+        val etag = "\"$number\""
+        val content: ByteArray = Random(number).nextBytes(fileSize)
+    }
+
+    private fun readLine(input: InputStream): String? {
+        val line = ByteArrayOutputStream()
+        while (true) {
+            when (val byte = input.read()) {
+                -1 -> return null
+                '\n'.toInt() -> return line.toString().trimEnd('\r')
+                else -> line.write(byte)
+            }
+        }
+    }
+
+    private fun skip(input: InputStream, bytes: Long) {
+        var left = bytes
+        while (left > 0) {
+            val skipped = input.skip(left)
+            if (skipped <= 0) {
+                if (input.read() == -1) return
+                left--
+            } else {
+                left -= skipped
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Segments of "/remote.php/dav/files/user" or "/remote.php/dav/uploads/user", split by '/' from an empty one.
+         */
+        private const val DAV_ROOT_SEGMENTS = 5
+        private const val LAST_MODIFIED = "Mon, 01 Feb 2021 10:00:00 GMT"
+
+        /**
+         * Uploads some bytes to a URL with a PUT request, keeping the connection alive for the next one.
+         *
+         * @return HTTP status of the response.
+         */
+        fun put(url: String, body: ByteArray): Int = put(url, body.size.toLong()) { it.write(body) }
+
+        /**
+         * Uploads [length] bytes written by [writeBody] to a URL with a PUT request, keeping the connection alive
+         * for the next one.
+         *
+         * @return HTTP status of the response.
+         */
+        fun put(url: String, length: Long, writeBody: (OutputStream) -> Unit): Int {
+            val connection = URL(url).openConnection() as HttpURLConnection
+            connection.requestMethod = "PUT"
+            connection.doOutput = true
+            connection.setFixedLengthStreamingMode(length)
+            connection.outputStream.use { writeBody(it) }
+            val status = connection.responseCode
+            connection.inputStream.use { it.readBytes() }
+            return status
+        }
+
+        /**
+         * Downloads a file with a GET request, keeping the connection alive for the next one.
+         *
+         * @return Bytes received.
+         */
+        fun get(url: String): ByteArray {
+            val connection = URL(url).openConnection() as HttpURLConnection
+            return connection.inputStream.use { it.readBytes() }
+        }
+    }
+}
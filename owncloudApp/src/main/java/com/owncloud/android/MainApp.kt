@@ -43,6 +43,7 @@ import com.owncloud.android.dependecyinjection.repositoryModule
 import com.owncloud.android.dependecyinjection.useCaseModule
 import com.owncloud.android.dependecyinjection.viewModelModule
 import com.owncloud.android.extensions.createNotificationChannel
+import com.owncloud.android.files.services.LocalFilesRepairJobService
 import com.owncloud.android.lib.common.OwnCloudClient
 import com.owncloud.android.lib.common.SingleSessionManager
 import com.owncloud.android.lib.common.utils.LoggingHelper
@@ -156,6 +157,9 @@ class MainApp : Application() {
         })
 
         initDependencyInjection()
+
+        // link files downloaded by previous versions with their local copies, out of the regular reads
+        LocalFilesRepairJobService.scheduleIfNeeded(appContext)
     }
 
     fun startLogIfDeveloper() {
@@ -0,0 +1,50 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.broadcastreceivers;
+
+import android.accounts.AccountManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.owncloud.android.authentication.AccountUtils;
+import com.owncloud.android.utils.FileStorageUtils;
+
+/**
+ * Receives the changes in the accounts of the device, from the app or from the system settings, and removes the
+ * partial downloads left to resume later by the accounts removed, that nothing would resume anymore.
+ */
+public class AccountsChangedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!AccountManager.LOGIN_ACCOUNTS_CHANGED_ACTION.equals(intent.getAction())) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        new Thread(() -> {
+            try {
+                FileStorageUtils.deletePartialDownloadsOfRemovedAccounts(AccountUtils.getAccounts(appContext));
+            } finally {
+                pendingResult.finish();
+            }
+        }).start();
+    }
+}
@@ -35,21 +35,37 @@ import android.content.Context
 import android.content.Intent
 import android.content.OperationApplicationException
 import android.database.Cursor
+import android.media.MediaScannerConnection
 import android.net.Uri
 import android.os.Build
+import android.os.Bundle
 import android.os.FileUriExposedException
 import android.os.RemoteException
 import android.provider.MediaStore
 import androidx.core.content.FileProvider
 import androidx.core.util.Pair
+import androidx.paging.PagingSource
 import com.owncloud.android.MainApp
 import com.owncloud.android.R
 import com.owncloud.android.authentication.AccountUtils
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus
 import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE
 import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
 import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.NOT_AVAILABLE_OFFLINE
-import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.fromValue
 import com.owncloud.android.datamodel.OCFile.ROOT_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_ACCOUNT_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_CHECK_INTERVAL
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_FILE_ID
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_KEEP_IN_SYNC
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_NEXT_CHECK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_SELECTION
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_SELECTION_ARGS
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_SOURCE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_SUBFOLDERS_CHANGED
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_SUBFOLDER_IDS
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_TARGET_PARENT_ID
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.ARG_TARGET_PATH
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CAPABILITIES_ACCOUNT_NAME
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CAPABILITIES_CORE_POLLINTERVAL
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CAPABILITIES_DAV_CHUNKING_VERSION
@@ -81,18 +97,25 @@ import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI_CAPABI
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI_DIR
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.CONTENT_URI_FILE
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CHECK_INTERVAL
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_LENGTH
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CREATION
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG_IN_CONFLICT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_AVAILABLE_OFFLINE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_CHECK_SCHEDULED
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_DOWNLOADING
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_SHARED_VIA_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_SYNC_PENDING
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_KEEP_IN_SYNC
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NAME_SEARCH_TABLE_NAME
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_NEXT_CHECK
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PERMISSIONS
@@ -101,13 +124,25 @@ import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_REMOTE_ID
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_VIA_LINK
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_WITH_SHAREE
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_STORAGE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SYNC_PENDING
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_TREE_ETAG
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_UPDATE_THUMBNAIL
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.METHOD_ADVANCE_SYNC_FRONTIER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.METHOD_CLEAR_SYNC_FRONTIER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.METHOD_MOVE_FILE_TREE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.METHOD_PROPAGATE_TREE_ETAG
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.METHOD_SCHEDULE_FOLDER_CHECK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.QUERY_PARAMETER_LIMIT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.RESULT_COUNT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.SYNC_PENDING_CHANGED_IN_SERVER
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta._COUNT
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta._ID
 import com.owncloud.android.domain.capabilities.model.CapabilityBooleanType
 import com.owncloud.android.domain.capabilities.model.OCCapability
 import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.domain.files.MIME_DIR_UNIX
 import com.owncloud.android.lib.resources.status.RemoteCapability
+import com.owncloud.android.syncadapter.FolderCheckSchedule
 import com.owncloud.android.utils.FileStorageUtils
 import timber.log.Timber
 import java.io.File
@@ -117,7 +152,7 @@ import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.util.ArrayList
-import java.util.HashSet
+import java.util.LinkedList
 import java.util.Vector
 
 class FileDataStorageManager {
@@ -157,20 +192,21 @@ class FileDataStorageManager {
             cursorOnKeptInSync = performQuery(
                 uri = CONTENT_URI,
                 projection = null,
-                selection = "$FILE_KEEP_IN_SYNC = ? OR $FILE_KEEP_IN_SYNC = ?",
-                selectionArgs = arrayOf(AVAILABLE_OFFLINE.value.toString(), AVAILABLE_OFFLINE_PARENT.value.toString()),
+                selection = FILE_IS_AVAILABLE_OFFLINE,
+                selectionArgs = arrayOf(),
                 sortOrder = null,
                 performWithContentProviderClient = false
             )
 
             if (cursorOnKeptInSync != null && cursorOnKeptInSync.moveToFirst()) {
-                var file: OCFile?
+                val mapper = OCFileCursorMapper(cursorOnKeptInSync)
+                val accountNameIndex = cursorOnKeptInSync.getColumnIndex(FILE_ACCOUNT_OWNER)
+                var file: OCFile
                 var accountName: String
                 do {
-                    file = createFileInstance(cursorOnKeptInSync)
-                    accountName =
-                        cursorOnKeptInSync.getString(cursorOnKeptInSync.getColumnIndex(FILE_ACCOUNT_OWNER))
-                    if (!file!!.isFolder && AccountUtils.exists(accountName, mContext)) {
+                    file = mapper.map(cursorOnKeptInSync)
+                    accountName = cursorOnKeptInSync.getString(accountNameIndex)
+                    if (!file.isFolder && AccountUtils.exists(accountName, mContext)) {
                         result.add(Pair(file, accountName))
                     }
                 } while (cursorOnKeptInSync.moveToNext())
@@ -203,21 +239,16 @@ class FileDataStorageManager {
                 cursorOnKeptInSync = performQuery(
                     uri = CONTENT_URI,
                     projection = null,
-                    selection = "($FILE_KEEP_IN_SYNC = ? AND NOT $FILE_KEEP_IN_SYNC = ? ) AND $FILE_ACCOUNT_OWNER = ? ",
-                    selectionArgs = arrayOf(
-                        AVAILABLE_OFFLINE.value.toString(),
-                        AVAILABLE_OFFLINE_PARENT.value.toString(),
-                        account.name
-                    ),
+                    selection = "$FILE_IS_AVAILABLE_OFFLINE AND $FILE_KEEP_IN_SYNC = ? AND $FILE_ACCOUNT_OWNER = ? ",
+                    selectionArgs = arrayOf(AVAILABLE_OFFLINE.value.toString(), account.name),
                     sortOrder = null,
                     performWithContentProviderClient = false
                 )
 
                 if (cursorOnKeptInSync != null && cursorOnKeptInSync.moveToFirst()) {
-                    var file: OCFile?
+                    val mapper = OCFileCursorMapper(cursorOnKeptInSync)
                     do {
-                        file = createFileInstance(cursorOnKeptInSync)
-                        result.add(file)
+                        result.add(mapper.map(cursorOnKeptInSync))
                     } while (cursorOnKeptInSync.moveToNext())
                 } else {
                     Timber.d("No available offline files found")
@@ -241,15 +272,14 @@ class FileDataStorageManager {
                 cursorOnShared = contentResolver?.query(
                     CONTENT_URI,
                     null,
-                    "$FILE_SHARED_VIA_LINK = ? AND $FILE_ACCOUNT_OWNER = ? ",
-                    arrayOf(1.toString(), account.name),
+                    "$FILE_IS_SHARED_VIA_LINK AND $FILE_ACCOUNT_OWNER = ? ",
+                    arrayOf(account.name),
                     null
                 )
                 if (cursorOnShared != null && cursorOnShared.moveToFirst()) {
-                    var file: OCFile?
+                    val mapper = OCFileCursorMapper(cursorOnShared)
                     do {
-                        file = createFileInstance(cursorOnShared)
-                        allSharedFiles.add(file)
+                        allSharedFiles.add(mapper.map(cursorOnShared))
                     } while (cursorOnShared.moveToNext())
                 }
             } catch (exception: Exception) {
@@ -420,7 +450,78 @@ class FileDataStorageManager {
     ) {
         Timber.d("Saving folder ${folder.remotePath} with ${updatedFiles.size} children and ${filesToRemove.size} files to remove")
 
-        val operations = ArrayList<ContentProviderOperation>(updatedFiles.size)
+        // known children are loaded at once instead of asking the provider about every file
+        val existingChildrenIds by lazy { getChildrenIdsByPath(folder.fileId) }
+        val operations = childrenOperations(folder, updatedFiles, filesToRemove) { file ->
+            existingChildrenIds[file.remotePath] ?: file.fileId.takeIf { it > 0 && fileExists(it) }
+        }
+
+        // update metadata of folder
+        val cv = ContentValues().apply {
+            put(FILE_MODIFIED, folder.modificationTimestamp)
+            put(FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA, folder.modificationTimestampAtLastSyncForData)
+            put(FILE_CREATION, folder.creationTimestamp)
+            put(FILE_CONTENT_LENGTH, folder.fileLength)
+            put(FILE_CONTENT_TYPE, folder.mimetype)
+            put(FILE_NAME, folder.fileName)
+            put(FILE_PARENT, folder.parentId)
+            put(FILE_PATH, folder.remotePath)
+            put(FILE_ACCOUNT_OWNER, account.name)
+            put(FILE_LAST_SYNC_DATE, folder.lastSyncDateForProperties)
+            put(FILE_LAST_SYNC_DATE_FOR_DATA, folder.lastSyncDateForData)
+            put(FILE_ETAG, folder.etag)
+            put(FILE_TREE_ETAG, folder.treeEtag)
+            put(FILE_SHARED_VIA_LINK, if (folder.isSharedViaLink) 1 else 0)
+            put(FILE_SHARED_WITH_SHAREE, if (folder.isSharedWithSharee) 1 else 0)
+            put(FILE_PERMISSIONS, folder.permissions)
+            put(FILE_REMOTE_ID, folder.remoteId)
+            put(FILE_PRIVATE_LINK, folder.privateLink)
+        }
+
+        operations.add(
+            ContentProviderOperation.newUpdate(CONTENT_URI).withValues(cv).withSelection(
+                "$_ID=?", arrayOf(folder.fileId.toString())
+            )
+                .build()
+        )
+
+        applyChildrenOperations(operations, updatedFiles)
+    }
+
+    /**
+     * Inserts or updates a part of the files contained in a given folder, leaving the folder untouched.
+     *
+     * Allows to save the content of big folders in chunks of bounded size. Files to update are identified by
+     * their id, that must be the one of an existing child of the folder; files without id are inserted.
+     *
+     * @param folder        Folder the files belong to.
+     * @param updatedFiles  Files to insert or update.
+     * @param filesToRemove Files to remove.
+     */
+    fun saveFolderChildren(folder: OCFile, updatedFiles: Collection<OCFile>, filesToRemove: Collection<OCFile>) {
+        Timber.d("Saving ${updatedFiles.size} children of ${folder.remotePath} and removing ${filesToRemove.size}")
+        val operations = childrenOperations(folder, updatedFiles, filesToRemove) { file ->
+            file.fileId.takeIf { it > 0 }
+        }
+        if (operations.isNotEmpty()) {
+            applyChildrenOperations(operations, updatedFiles)
+        }
+    }
+
+    /**
+     * @param existingIdOf Id of the stored row of a file to update, or null if the file is new.
+     * @return Operations to save the files in the folder and to remove the given ones.
+     */
+    private fun childrenOperations(
+        folder: OCFile,
+        updatedFiles: Collection<OCFile>,
+        filesToRemove: Collection<OCFile>,
+        existingIdOf: (OCFile) -> Long?
+    ): ArrayList<ContentProviderOperation> {
+        val operations = ArrayList<ContentProviderOperation>(updatedFiles.size + 1)
+
+        // new children share the same ancestors, so their initial status only needs to be resolved once
+        val initialAvailableOfflineStatus by lazy { getInitialAvailableOfflineStatusForChildrenOf(folder) }
 
         // prepare operations to insert or update files to save in the given folder
         for (file in updatedFiles) {
@@ -449,19 +550,19 @@ class FileDataStorageManager {
                 put(FILE_PRIVATE_LINK, file.privateLink)
             }
 
-            val existsByPath = fileExists(file.remotePath)
-            if (existsByPath || fileExists(file.fileId)) {
+            val existingId = existingIdOf(file)
+            if (existingId != null) {
                 // updating an existing file
                 operations.add(
                     ContentProviderOperation.newUpdate(CONTENT_URI).withValues(cv).withSelection(
                         "$_ID=?",
-                        arrayOf(file.fileId.toString())
+                        arrayOf(existingId.toString())
                     )
                         .build()
                 )
             } else {
                 // adding a new file
-                setInitialAvailableOfflineStatus(file, cv)
+                cv.put(FILE_KEEP_IN_SYNC, initialAvailableOfflineStatus.value)
                 operations.add(ContentProviderOperation.newInsert(CONTENT_URI).withValues(cv).build())
             }
         }
@@ -499,35 +600,19 @@ class FileDataStorageManager {
             }
         }
 
-        // update metadata of folder
-        val cv = ContentValues().apply {
-            put(FILE_MODIFIED, folder.modificationTimestamp)
-            put(FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA, folder.modificationTimestampAtLastSyncForData)
-            put(FILE_CREATION, folder.creationTimestamp)
-            put(FILE_CONTENT_LENGTH, folder.fileLength)
-            put(FILE_CONTENT_TYPE, folder.mimetype)
-            put(FILE_NAME, folder.fileName)
-            put(FILE_PARENT, folder.parentId)
-            put(FILE_PATH, folder.remotePath)
-            put(FILE_ACCOUNT_OWNER, account.name)
-            put(FILE_LAST_SYNC_DATE, folder.lastSyncDateForProperties)
-            put(FILE_LAST_SYNC_DATE_FOR_DATA, folder.lastSyncDateForData)
-            put(FILE_ETAG, folder.etag)
-            put(FILE_TREE_ETAG, folder.treeEtag)
-            put(FILE_SHARED_VIA_LINK, if (folder.isSharedViaLink) 1 else 0)
-            put(FILE_SHARED_WITH_SHAREE, if (folder.isSharedWithSharee) 1 else 0)
-            put(FILE_PERMISSIONS, folder.permissions)
-            put(FILE_REMOTE_ID, folder.remoteId)
-            put(FILE_PRIVATE_LINK, folder.privateLink)
-        }
-
-        operations.add(
-            ContentProviderOperation.newUpdate(CONTENT_URI).withValues(cv).withSelection(
-                "$_ID=?", arrayOf(folder.fileId.toString())
-            )
-                .build()
-        )
+        return operations
+    }
 
+    /**
+     * Applies the operations in a single batch, and sets the ids of the inserted files in them.
+     *
+     * @param operations   Operations for the updated files, first and in the same order, followed by any other.
+     * @param updatedFiles Files inserted or updated by the first operations.
+     */
+    private fun applyChildrenOperations(
+        operations: ArrayList<ContentProviderOperation>,
+        updatedFiles: Collection<OCFile>
+    ) {
         // apply operations in batch
         var results: Array<ContentProviderResult>? = null
         Timber.d("Sending ${operations.size} operations to FileContentProvider")
@@ -563,6 +648,146 @@ class FileDataStorageManager {
         }
     }
 
+    /**
+     * Reads the ids of the files currently stored as children of a folder with a single query.
+     *
+     * @param folderId Id of the parent folder.
+     * @return Map from remote path to id of every known child.
+     */
+    private fun getChildrenIdsByPath(folderId: Long): HashMap<String, Long> {
+        val childrenIds = HashMap<String, Long>()
+        val cursor: Cursor? =
+            try {
+                performQuery(
+                    uri = ContentUris.withAppendedId(CONTENT_URI_DIR, folderId),
+                    projection = arrayOf(_ID, FILE_PATH),
+                    selection = "$FILE_PARENT=?",
+                    selectionArgs = arrayOf(folderId.toString()),
+                    sortOrder = null
+                )
+            } catch (e: RemoteException) {
+                Timber.e(e, "Couldn't read children of folder $folderId: ${e.message}")
+                null
+            }
+        cursor?.use {
+            val idIndex = it.getColumnIndex(_ID)
+            val pathIndex = it.getColumnIndex(FILE_PATH)
+            while (it.moveToNext()) {
+                childrenIds[it.getString(pathIndex)] = it.getLong(idIndex)
+            }
+        }
+        return childrenIds
+    }
+
+    /**
+     * Starts reading the children of a folder that have a remote id, in order of remote id, without loading all
+     * of them at once.
+     *
+     * @param folderId Id of the folder.
+     * @return Reader of the children.
+     */
+    fun readChildrenByRemoteId(folderId: Long) = ChildrenByRemoteIdReader(folderId)
+
+    /**
+     * Reads the children of a folder that were stored without a remote id.
+     *
+     * @param folderId Id of the folder.
+     * @return Children without remote id; usually none.
+     */
+    fun getFolderContentWithoutRemoteId(folderId: Long): List<OCFile> {
+        val files = ArrayList<OCFile>()
+        val c: Cursor? = try {
+            performQuery(
+                uri = ContentUris.withAppendedId(CONTENT_URI_DIR, folderId),
+                projection = null,
+                selection = "$FILE_PARENT=? AND $FILE_REMOTE_ID IS NULL",
+                selectionArgs = arrayOf(folderId.toString()),
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read children without remote id of folder $folderId: ${e.message}")
+            null
+        }
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                do {
+                    files.add(mapper.map(it))
+                } while (it.moveToNext())
+            }
+        }
+        return files
+    }
+
+    /**
+     * Reads the children of a folder that have a remote id in order of remote id, a page at a time.
+     *
+     * Every page is read after the last remote id returned, so children saved in the folder while it is being
+     * read do not make the reader skip or repeat the stored ones.
+     */
+    inner class ChildrenByRemoteIdReader internal constructor(private val folderId: Long) {
+        private val page = LinkedList<OCFile>()
+        private var lastRemoteId: String? = null
+        private var lastPageRead = false
+
+        /**
+         * @return Next child in order of remote id, or null when all of them were read.
+         * @throws RemoteException If a page of children could not be read.
+         */
+        @Throws(RemoteException::class)
+        fun next(): OCFile? {
+            if (page.isEmpty() && !lastPageRead) {
+                readPage()
+            }
+            return page.pollFirst()
+        }
+
+        private fun readPage() {
+            val reqUri = ContentUris.withAppendedId(CONTENT_URI_DIR, folderId).buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, "0,$CHILDREN_PAGE_SIZE")
+                .build()
+            val c = performQuery(
+                uri = reqUri,
+                projection = null,
+                selection = if (lastRemoteId == null) {
+                    "$FILE_PARENT=? AND $FILE_REMOTE_ID IS NOT NULL"
+                } else {
+                    "$FILE_PARENT=? AND $FILE_REMOTE_ID>?"
+                },
+                selectionArgs = listOfNotNull(folderId.toString(), lastRemoteId).toTypedArray(),
+                sortOrder = FILE_REMOTE_ID
+            ) ?: throw RemoteException("Couldn't read children of folder $folderId")
+            c.use {
+                if (it.moveToFirst()) {
+                    val mapper = OCFileCursorMapper(it)
+                    do {
+                        page.add(mapper.map(it))
+                    } while (it.moveToNext())
+                }
+            }
+            lastPageRead = page.size < CHILDREN_PAGE_SIZE
+            page.peekLast()?.let { lastRemoteId = it.remoteId }
+        }
+    }
+
+    /**
+     * Computes the value for FILE_KEEP_IN_SYNC that new children of a folder start with.
+     *
+     * @param folder Parent folder of the new children.
+     * @return [AVAILABLE_OFFLINE_PARENT] if the folder or any of its ancestors is available offline,
+     * [NOT_AVAILABLE_OFFLINE] otherwise.
+     */
+    private fun getInitialAvailableOfflineStatusForChildrenOf(folder: OCFile): AvailableOfflineStatus {
+        val storedFolder = getFileById(folder.fileId)
+        return if (storedFolder != null && (storedFolder.availableOfflineStatus == AVAILABLE_OFFLINE ||
+                    isAnyAncestorAvailableOfflineFolder(storedFolder))
+        ) {
+            AVAILABLE_OFFLINE_PARENT
+        } else {
+            NOT_AVAILABLE_OFFLINE
+        }
+    }
+
     /**
      * Adds the appropriate initial value for FILE_KEEP_IN_SYNC to
      * passed [ContentValues] instance.
@@ -648,6 +873,9 @@ class FileDataStorageManager {
                 success = removeFolder(file, removeDBData, removeLocalCopy)
 
             } else {
+                if (removeDBData || removeLocalCopy) {
+                    FileStorageUtils.deletePartialDownloads(account.name, file)
+                }
                 if (removeDBData) {
                     val fileUri = ContentUris.withAppendedId(CONTENT_URI_FILE, file.fileId)
                     val where = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH=?"
@@ -684,6 +912,9 @@ class FileDataStorageManager {
     fun removeFolder(folder: OCFile?, removeDBData: Boolean, removeLocalContent: Boolean): Boolean {
         var success = true
         if (folder != null && folder.isFolder) {
+            if (removeDBData || removeLocalContent) {
+                FileStorageUtils.deletePartialDownloads(account.name, folder)
+            }
             if (removeDBData && folder.fileId != -1L) {
                 success = removeFolderInDb(folder)
             }
@@ -757,7 +988,6 @@ class FileDataStorageManager {
     /**
      * Updates database and file system for a file or folder that was moved to a different location.
      *
-     * TODO explore better (faster) implementations
      * TODO throw exceptions up !
      */
     fun moveLocalFile(file: OCFile?, targetPath: String, targetParentPath: String) {
@@ -769,87 +999,36 @@ class FileDataStorageManager {
                     "Parent folder of the target path does not exist!!"
                 )
 
-            /// 1. get all the descendants of the moved element in a single QUERY
-            val c: Cursor? =
-                try {
-                    performQuery(
-                        uri = CONTENT_URI,
-                        projection = null,
-                        selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH LIKE ? ",
-                        selectionArgs = arrayOf(account.name, "${file.remotePath}%"),
-                        sortOrder = "$FILE_PATH ASC "
-                    )
-                } catch (e: RemoteException) {
-                    Timber.e(e)
-                    null
-                }
-
-            val originalPathsToTriggerMediaScan = ArrayList<String>()
-            val newPathsToTriggerMediaScan = ArrayList<String>()
             val defaultSavePath = FileStorageUtils.getSavePath(account.name)
-
-            /// 2. prepare a batch of update operations to change all the descendants
-            if (c != null) {
-                val operations = ArrayList<ContentProviderOperation>(c.count)
-                if (c.moveToFirst()) {
-                    val lengthOfOldPath = file.remotePath.length
-                    val lengthOfOldStoragePath = defaultSavePath.length + lengthOfOldPath
-                    do {
-                        val cv = ContentValues() // keep construction in the loop
-                        val child = createFileInstance(c)
-                        cv.put(FILE_PATH, targetPath + child!!.remotePath.substring(lengthOfOldPath))
-                        if (child.storagePath != null && child.storagePath.startsWith(defaultSavePath)) {
-                            // update link to downloaded content - but local move is not done here!
-                            val targetLocalPath = defaultSavePath + targetPath +
-                                    child.storagePath.substring(lengthOfOldStoragePath)
-
-                            cv.put(FILE_STORAGE_PATH, targetLocalPath)
-
-                            originalPathsToTriggerMediaScan.add(child.storagePath)
-                            newPathsToTriggerMediaScan.add(targetLocalPath)
-
-                        }
-                        if (targetParent.availableOfflineStatus != NOT_AVAILABLE_OFFLINE) {
-                            // moving to an available offline subfolder
-                            cv.put(FILE_KEEP_IN_SYNC, AVAILABLE_OFFLINE_PARENT.value)
-                        } else {
-                            // moving to a not available offline subfolder - with care
-                            if (file.availableOfflineStatus == AVAILABLE_OFFLINE_PARENT) {
-                                cv.put(FILE_KEEP_IN_SYNC, NOT_AVAILABLE_OFFLINE.value)
-                            }
-                        }
-
-                        if (child.remotePath == file.remotePath) {
-                            cv.put(FILE_PARENT, targetParent.fileId)
-                        }
-                        operations.add(
-                            ContentProviderOperation.newUpdate(CONTENT_URI).withValues(cv).withSelection(
-                                "$_ID=?",
-                                arrayOf(child.fileId.toString())
-                            )
-                                .build()
-                        )
-
-                    } while (c.moveToNext())
-                }
-                c.close()
-
-                /// 3. apply updates in batch
-                try {
-                    if (contentResolver != null) {
-                        contentResolver!!.applyBatch(MainApp.authority, operations)
-
-                    } else {
-                        contentProviderClient!!.applyBatch(operations)
-                    }
-
-                } catch (e: Exception) {
-                    Timber.e(e, "Fail to update ${file.fileId} and descendants in database")
+            val selectTree = selectionForTreeOf(file)
+
+            /// 1. get the local paths of the downloaded files in the moved tree, to notify the media scanner later
+            val originalPathsToTriggerMediaScan = getStoragePaths(selectTree.first, selectTree.second)
+                .filter { it.startsWith(defaultSavePath) }
+
+            /// 2. rewrite the whole tree in a single UPDATE
+            val extras = Bundle().apply {
+                putString(ARG_ACCOUNT_NAME, account.name)
+                putString(ARG_SOURCE_PATH, file.remotePath)
+                putString(ARG_TARGET_PATH, targetPath)
+                putLong(ARG_TARGET_PARENT_ID, targetParent.fileId)
+                if (targetParent.availableOfflineStatus != NOT_AVAILABLE_OFFLINE) {
+                    // moving to an available offline subfolder
+                    putInt(ARG_KEEP_IN_SYNC, AVAILABLE_OFFLINE_PARENT.value)
+                } else if (file.availableOfflineStatus == AVAILABLE_OFFLINE_PARENT) {
+                    // moving to a not available offline subfolder - with care
+                    putInt(ARG_KEEP_IN_SYNC, NOT_AVAILABLE_OFFLINE.value)
                 }
-
+                putString(ARG_SELECTION, selectTree.first)
+                putStringArray(ARG_SELECTION_ARGS, selectTree.second)
+            }
+            try {
+                performCall(METHOD_MOVE_FILE_TREE, extras)
+            } catch (e: Exception) {
+                Timber.e(e, "Fail to update ${file.fileId} and descendants in database")
             }
 
-            /// 4. move in local file system
+            /// 3. move in local file system
             val originalLocalPath = FileStorageUtils.getDefaultSavePathFor(account.name, file)
             val targetLocalPath = defaultSavePath + targetPath
             val localFile = File(originalLocalPath)
@@ -863,17 +1042,13 @@ class FileDataStorageManager {
                 renamed = localFile.renameTo(targetFile)
             }
 
-            if (renamed) {
-                var it = originalPathsToTriggerMediaScan.iterator()
-                while (it.hasNext()) {
-                    // Notify MediaScanner about removed file
-                    deleteFileInMediaScan(it.next())
-                }
-                it = newPathsToTriggerMediaScan.iterator()
-                while (it.hasNext()) {
-                    // Notify MediaScanner about new file/folder
-                    triggerMediaScan(it.next())
+            if (renamed && originalPathsToTriggerMediaScan.isNotEmpty()) {
+                // a single scan of old and new paths; old ones are removed from the MediaStore as they don't exist
+                val lengthOfOldStoragePath = defaultSavePath.length + file.remotePath.length
+                val newPathsToTriggerMediaScan = originalPathsToTriggerMediaScan.map {
+                    defaultSavePath + targetPath + it.substring(lengthOfOldStoragePath)
                 }
+                triggerMediaScan(originalPathsToTriggerMediaScan + newPathsToTriggerMediaScan)
             }
         }
     }
@@ -970,9 +1145,9 @@ class FileDataStorageManager {
 
         c?.let {
             if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
                 do {
-                    val child = createFileInstance(it)
-                    ret.add(child)
+                    ret.add(mapper.map(it))
                 } while (it.moveToNext())
             }
             c.close()
@@ -981,6 +1156,178 @@ class FileDataStorageManager {
         return ret.apply { sort() }
     }
 
+    /**
+     * Reads the files below a folder, at any depth, without a local copy in the device, in a single query.
+     *
+     * @param folder Folder to read.
+     * @return Files in the folder and its subfolders that are not down, sorted by path; folders are left out.
+     */
+    fun getFilesNotDownIn(folder: OCFile): List<OCFile> {
+        val filesNotDown = ArrayList<OCFile>()
+        val selectDescendants = selectionForAllDescendantsOf(folder)
+
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = null,
+                selection = "${selectDescendants.first} AND NOT $SELECTION_IS_FOLDER",
+                selectionArgs = selectDescendants.second,
+                sortOrder = FILE_PATH
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e)
+            return filesNotDown
+        }
+
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                do {
+                    val file = mapper.map(it)
+                    if (!file.isDown) {
+                        filesNotDown.add(file)
+                    }
+                } while (it.moveToNext())
+            }
+        }
+        return filesNotDown
+    }
+
+    /**
+     * Counts the content of a folder without reading it.
+     *
+     * @param parentId    Id of the folder.
+     * @param justFolders 'true' to count only the folders in it.
+     * @return Number of children of the folder.
+     */
+    fun getFolderContentCount(parentId: Long, justFolders: Boolean): Int =
+        countFolderContent(parentId, if (justFolders) "$FILE_PARENT=? AND $SELECTION_IS_FOLDER" else "$FILE_PARENT=?")
+
+    /**
+     * Counts the files in a folder that are not hidden, leaving out folders.
+     *
+     * @param parentId Id of the folder.
+     * @return Number of visible files in the folder.
+     */
+    fun getFolderVisibleFilesCount(parentId: Long): Int =
+        countFolderContent(parentId, "$FILE_PARENT=? AND NOT $SELECTION_IS_FOLDER AND substr($FILE_NAME, 1, 1) != '.'")
+
+    private fun countFolderContent(parentId: Long, selection: String): Int {
+        val c: Cursor? = try {
+            performQuery(
+                uri = Uri.withAppendedPath(CONTENT_URI_DIR, parentId.toString()),
+                projection = arrayOf(_COUNT),
+                selection = selection,
+                selectionArgs = arrayOf(parentId.toString()),
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e)
+            return 0
+        }
+        return c?.use { if (it.moveToFirst()) it.getInt(0) else 0 } ?: 0
+    }
+
+    /**
+     * Reads the content of a folder a page at a time, in the same order [FileStorageUtils.sortFolder] gives to the
+     * whole content. The files table is read through Room; the source is invalidated when the files change.
+     *
+     * @param parentId    Id of the folder.
+     * @param sortOrder   One of [FileStorageUtils.SORT_NAME], [FileStorageUtils.SORT_DATE] or [FileStorageUtils.SORT_SIZE].
+     * @param ascending   Direction of the sort.
+     * @param justFolders 'true' to read only the folders in it.
+     * @return Source of the pages of children of the folder, keyed by position.
+     */
+    fun getFolderContentPagingSource(
+        parentId: Long,
+        sortOrder: Int,
+        ascending: Boolean,
+        justFolders: Boolean
+    ): PagingSource<Int, OCFile> =
+        OCFilePagingSource(
+            OwncloudDatabase.getDatabase(mContext!!).fileDao()
+                .getFolderContent(parentId, justFolders, folderContentSortOrder(sortOrder, ascending))
+        )
+
+    private fun folderContentSortOrder(sortOrder: Int, ascending: Boolean): String {
+        val direction = if (ascending) "ASC" else "DESC"
+        val byName = "$FILE_NAME COLLATE NOCASE"
+        // ties are broken as in the default order of the folder content: folders first, then by name
+        return when (sortOrder) {
+            FileStorageUtils.SORT_DATE -> "$FILE_MODIFIED $direction, $SELECTION_IS_FOLDER DESC, $byName"
+            FileStorageUtils.SORT_SIZE -> "$FILE_CONTENT_LENGTH $direction, $SELECTION_IS_FOLDER DESC, $byName"
+            else -> "$SELECTION_IS_FOLDER DESC, $byName $direction"
+        } + ", $_ID"
+    }
+
+    /**
+     * Searches the files of the account whose names contain the query, as the filter of the file list does, or
+     * words starting with the words in the query.
+     *
+     * Words are split by anything that is not a letter or a number, and compared regardless of case and
+     * diacritics through the name search index of the database; "rep 20" finds "Annual_Report 2020.pdf". The
+     * whole query is also searched anywhere in the names, regardless of ASCII case, so "port" finds it too.
+     *
+     * Searches in a folder compare only the names of its children, found through the index on the parent; searches
+     * in the whole account take the files found by the name search index plus those found scanning the names of
+     * the account.
+     *
+     * @param query    Text to search, as written by the user.
+     * @param parentId Id of the folder to restrict the search to its direct children; null to search the whole
+     * account.
+     * @return Files found.
+     */
+    @JvmOverloads
+    fun searchFiles(query: String, parentId: Long? = null): List<OCFile> {
+        val result = ArrayList<OCFile>()
+        if (query.isEmpty()) {
+            return result
+        }
+        val likePattern = toNameLikePattern(query)
+        val matchQuery = toNameSearchMatchQuery(query)
+
+        val selection: String
+        val selectionArgs: Array<String>
+        when {
+            parentId != null -> {
+                selection = "$FILE_PARENT=? AND $FILE_NAME LIKE ? ESCAPE '$LIKE_ESCAPE'"
+                selectionArgs = arrayOf(parentId.toString(), likePattern)
+            }
+            matchQuery != null -> {
+                selection = "$FILE_ACCOUNT_OWNER=? AND ($_ID IN (SELECT docid FROM $FILE_NAME_SEARCH_TABLE_NAME " +
+                        "WHERE $FILE_NAME_SEARCH_TABLE_NAME MATCH ?) OR $FILE_NAME LIKE ? ESCAPE '$LIKE_ESCAPE')"
+                selectionArgs = arrayOf(account.name, matchQuery, likePattern)
+            }
+            else -> {
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_NAME LIKE ? ESCAPE '$LIKE_ESCAPE'"
+                selectionArgs = arrayOf(account.name, likePattern)
+            }
+        }
+
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = null,
+                selection = selection,
+                selectionArgs = selectionArgs,
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't search files: ${e.message}")
+            return result
+        }
+
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                do {
+                    result.add(mapper.map(it))
+                } while (it.moveToNext())
+            }
+        }
+        return result
+    }
+
     /**
      * Checks if it is favorite or it is inside a favorite folder
      *
@@ -992,21 +1339,47 @@ class FileDataStorageManager {
     /**
      * Returns ancestor folder with available offline status AVAILABLE_OFFLINE.
      *
+     * Remote paths are materialized paths of the tree, so all the ancestors are checked with a single
+     * query on the path index instead of walking up the tree one level at a time.
+     *
      * @param file [OCFile] which ancestors will be searched.
-     * @return Ancestor folder with available offline status AVAILABLE_OFFLINE, or null if
+     * @return Closest ancestor folder with available offline status AVAILABLE_OFFLINE, or null if
      * does not exist.
      */
     private fun getAvailableOfflineAncestorOf(file: OCFile): OCFile? {
-        var avOffAncestor: OCFile? = null
-        val parent = getFileById(file.parentId)
-        if (parent != null && parent.isFolder) {  // file is null for the parent of the root folder
-            if (parent.availableOfflineStatus == AVAILABLE_OFFLINE) {
-                avOffAncestor = parent
-            } else if (parent.fileName != ROOT_PATH) {
-                avOffAncestor = getAvailableOfflineAncestorOf(parent)
-            }
+        val ancestorPaths = getAncestorPaths(file.remotePath)
+        if (ancestorPaths.isEmpty()) {
+            return null
+        }
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = null,
+                selection = "$FILE_IS_AVAILABLE_OFFLINE AND $FILE_KEEP_IN_SYNC=? AND $FILE_ACCOUNT_OWNER=? AND " +
+                        "$FILE_PATH IN (${ancestorPaths.joinToString(",") { "?" }})",
+                selectionArgs = arrayOf(AVAILABLE_OFFLINE.value.toString(), account.name) + ancestorPaths,
+                sortOrder = "length($FILE_PATH) DESC"
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e)
+            null
         }
-        return avOffAncestor
+        return c?.use { if (it.moveToFirst()) createFileInstance(it) else null }
+    }
+
+    /**
+     * @param remotePath Remote path of a file or folder.
+     * @return Remote paths of all the folders containing it, from the root folder down to its parent.
+     */
+    private fun getAncestorPaths(remotePath: String): Array<String> {
+        val ancestorPaths = ArrayList<String>()
+        var separatorIndex = remotePath.indexOf(File.separatorChar)
+        // the trailing separator of a folder ends its own path, not an ancestor's
+        while (separatorIndex in 0 until remotePath.length - 1) {
+            ancestorPaths.add(remotePath.substring(0, separatorIndex + 1))
+            separatorIndex = remotePath.indexOf(File.separatorChar, separatorIndex + 1)
+        }
+        return ancestorPaths.toTypedArray()
     }
 
     private fun createRootDir(): OCFile =
@@ -1051,42 +1424,264 @@ class FileDataStorageManager {
             null
         }
 
-    private fun createFileInstance(c: Cursor?): OCFile? = c?.let {
-        OCFile(it.getString(it.getColumnIndex(FILE_PATH))).apply {
-            fileId = it.getLong(it.getColumnIndex(_ID))
-            parentId = it.getLong(it.getColumnIndex(FILE_PARENT))
-            mimetype = it.getString(it.getColumnIndex(FILE_CONTENT_TYPE))
-            if (!isFolder) {
-                storagePath = it.getString(it.getColumnIndex(FILE_STORAGE_PATH))
-                if (storagePath == null) {
-                    // try to find existing file and bind it with current account;
-                    // with the current update of SynchronizeFolderOperation, this won't be
-                    // necessary anymore after a full synchronization of the account
-                    val f = File(FileStorageUtils.getDefaultSavePathFor(account.name, this))
-                    if (f.exists()) {
-                        storagePath = f.absolutePath
-                        lastSyncDateForData = f.lastModified()
+    private fun createFileInstance(c: Cursor?): OCFile? = c?.let { OCFileCursorMapper(it).map(it) }
+
+    /**
+     * Propagates the tree ETag of a folder whose whole subtree is synchronized, marking as synchronized the
+     * ancestors whose subfolders are all synchronized now, up to the root when possible.
+     *
+     * A folder with a tree ETag equal to its ETag is not expanded by the next synchronization while the server
+     * keeps the same ETag for it.
+     *
+     * @param folder Folder whose tree ETag was just saved equal to its ETag.
+     * @return Number of ancestors marked as synchronized.
+     */
+    fun propagateTreeEtagUpFrom(folder: OCFile): Int {
+        val extras = Bundle().apply { putLong(ARG_FILE_ID, folder.fileId) }
+        return try {
+            performCall(METHOD_PROPAGATE_TREE_ETAG, extras)?.getInt(RESULT_COUNT) ?: 0
+        } catch (e: Exception) {
+            Timber.e(e, "Fail to propagate tree ETag of ${folder.remotePath}")
+            0
+        }
+    }
+
+    /**
+     * Reads the synchronization frontier of the account: the folders still to visit by a full synchronization
+     * that was interrupted.
+     *
+     * @return Pending folders, each one with 'true' if it has changes to fetch from the server; empty if the last
+     * full synchronization was not interrupted.
+     */
+    fun getSyncFrontier(): List<Pair<OCFile, Boolean>> {
+        val frontier = ArrayList<Pair<OCFile, Boolean>>()
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = null,
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_IS_SYNC_PENDING",
+                selectionArgs = arrayOf(account.name),
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read synchronization frontier of ${account.name}: ${e.message}")
+            null
+        }
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                val syncPendingIndex = it.getColumnIndex(FILE_SYNC_PENDING)
+                do {
+                    frontier.add(Pair(mapper.map(it), it.getInt(syncPendingIndex) == SYNC_PENDING_CHANGED_IN_SERVER))
+                } while (it.moveToNext())
+            }
+        }
+        return frontier
+    }
+
+    /**
+     * Records the visit of a folder in a full synchronization, replacing it in the synchronization frontier with
+     * the subfolders to visit next.
+     *
+     * @param folder     Visited folder.
+     * @param subfolders Subfolders to visit, each one with 'true' if it has changes to fetch from the server.
+     */
+    fun advanceSyncFrontier(folder: OCFile, subfolders: List<Pair<OCFile, Boolean>>) {
+        val extras = Bundle().apply {
+            putLong(ARG_FILE_ID, folder.fileId)
+            putLongArray(ARG_SUBFOLDER_IDS, LongArray(subfolders.size) { subfolders[it].first.fileId })
+            putBooleanArray(ARG_SUBFOLDERS_CHANGED, BooleanArray(subfolders.size) { subfolders[it].second })
+        }
+        try {
+            performCall(METHOD_ADVANCE_SYNC_FRONTIER, extras)
+        } catch (e: Exception) {
+            Timber.e(e, "Fail to advance synchronization frontier from ${folder.remotePath}")
+        }
+    }
+
+    /**
+     * Discards the synchronization frontier of the account.
+     *
+     * @return Number of folders that were pending.
+     */
+    fun clearSyncFrontier(): Int {
+        val extras = Bundle().apply { putString(ARG_ACCOUNT_NAME, account.name) }
+        return try {
+            performCall(METHOD_CLEAR_SYNC_FRONTIER, extras)?.getInt(RESULT_COUNT) ?: 0
+        } catch (e: Exception) {
+            Timber.e(e, "Fail to clear synchronization frontier of ${account.name}")
+            0
+        }
+    }
+
+    /**
+     * Reads the folders of the account whose ETag should be checked in the server now; see [FolderCheckSchedule].
+     *
+     * The root folder is due also when it was never checked.
+     *
+     * @param now Current time, in milliseconds.
+     * @return Folders due, each one with the interval that led to this check, sorted by path, so that every
+     * folder goes after its ancestors.
+     */
+    fun getFoldersDueForCheck(now: Long): List<Pair<OCFile, Long>> {
+        val folders = ArrayList<Pair<OCFile, Long>>()
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = null,
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_IS_CHECK_SCHEDULED AND $FILE_NEXT_CHECK<=?",
+                selectionArgs = arrayOf(account.name, now.toString()),
+                sortOrder = "$FILE_PATH ASC"
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read folders to check of ${account.name}: ${e.message}")
+            null
+        }
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                val checkIntervalIndex = it.getColumnIndex(FILE_CHECK_INTERVAL)
+                do {
+                    folders.add(Pair(mapper.map(it), it.getLong(checkIntervalIndex)))
+                } while (it.moveToNext())
+            }
+        }
+        if (folders.firstOrNull()?.first?.remotePath != ROOT_PATH && getFolderCheck(ROOT_PATH)?.second == 0L) {
+            getFileByPath(ROOT_PATH)?.let { folders.add(0, Pair(it, FolderCheckSchedule.NOT_SCHEDULED)) }
+        }
+        return folders
+    }
+
+    /**
+     * @return Time of the next check of a folder of the account, in milliseconds; 0 if none is scheduled.
+     */
+    fun getNextFolderCheck(): Long {
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = arrayOf(FILE_NEXT_CHECK),
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_IS_CHECK_SCHEDULED",
+                selectionArgs = arrayOf(account.name),
+                sortOrder = "$FILE_NEXT_CHECK ASC"
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read next folder check of ${account.name}: ${e.message}")
+            null
+        }
+        return c?.use { if (it.moveToFirst()) it.getLong(0) else 0L } ?: 0L
+    }
+
+    /**
+     * Schedules the next check of the ETag of a folder, learning from the last one.
+     *
+     * @param folder   Folder just checked, or fetched, from the server.
+     * @param changed  'True' if its ETag changed since the previous check.
+     * @param schedule Policy deciding the time of the next check.
+     * @param now      Time of the last check, in milliseconds.
+     * @return Interval until the next check, in milliseconds; [FolderCheckSchedule.NOT_SCHEDULED] if the folder
+     * will not be checked on its own.
+     */
+    @JvmOverloads
+    fun scheduleFolderCheck(
+        folder: OCFile,
+        changed: Boolean,
+        schedule: FolderCheckSchedule = FolderCheckSchedule.getDefaultSchedule(),
+        now: Long = System.currentTimeMillis()
+    ): Long {
+        val interval = schedule.nextInterval(
+            getFolderCheck(folder.remotePath)?.first ?: FolderCheckSchedule.NOT_SCHEDULED,
+            changed,
+            ROOT_PATH == folder.remotePath
+        )
+        val extras = Bundle().apply {
+            putLong(ARG_FILE_ID, folder.fileId)
+            putLong(ARG_CHECK_INTERVAL, interval)
+            putLong(ARG_NEXT_CHECK, if (interval == FolderCheckSchedule.NOT_SCHEDULED) 0 else now + interval)
+        }
+        try {
+            performCall(METHOD_SCHEDULE_FOLDER_CHECK, extras)
+        } catch (e: Exception) {
+            Timber.e(e, "Fail to schedule next check of ${folder.remotePath}")
+        }
+        return interval
+    }
+
+    /**
+     * @return Interval and time of the next check of the folder in the given path, if it exists.
+     */
+    private fun getFolderCheck(path: String): Pair<Long, Long>? {
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = arrayOf(FILE_CHECK_INTERVAL, FILE_NEXT_CHECK),
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH=?",
+                selectionArgs = arrayOf(account.name, path),
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read check of $path: ${e.message}")
+            null
+        }
+        return c?.use { if (it.moveToFirst()) Pair(it.getLong(0), it.getLong(1)) else null }
+    }
+
+    /**
+     * Finds files of the account that are not linked to a local copy in the database, but have one in their
+     * default local path, and links them.
+     *
+     * Local copies may be missing in the database for files downloaded by old versions of the app; this
+     * repair is expected to run in background, out of the regular reads of files.
+     *
+     * @return Number of files linked to their local copy.
+     */
+    fun bindLostLocalFiles(): Int {
+        val operations = ArrayList<ContentProviderOperation>()
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = arrayOf(_ID, FILE_PATH, FILE_CONTENT_TYPE),
+                selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_STORAGE_PATH IS NULL AND NOT $SELECTION_IS_FOLDER",
+                selectionArgs = arrayOf(account.name),
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e, "Couldn't read files without local copy: ${e.message}")
+            null
+        }
+        c?.use {
+            if (it.moveToFirst()) {
+                val mapper = OCFileCursorMapper(it)
+                do {
+                    val file = mapper.map(it)
+                    val localFile = File(FileStorageUtils.getDefaultSavePathFor(account.name, file))
+                    if (localFile.exists()) {
+                        val cv = ContentValues().apply {
+                            put(FILE_STORAGE_PATH, localFile.absolutePath)
+                            put(FILE_LAST_SYNC_DATE_FOR_DATA, localFile.lastModified())
+                        }
+                        operations.add(
+                            ContentProviderOperation.newUpdate(CONTENT_URI).withValues(cv).withSelection(
+                                "$_ID=?", arrayOf(file.fileId.toString())
+                            ).build()
+                        )
                     }
+                } while (it.moveToNext())
+            }
+        }
+
+        if (operations.isNotEmpty()) {
+            try {
+                if (contentResolver != null) {
+                    contentResolver!!.applyBatch(MainApp.authority, operations)
+                } else {
+                    contentProviderClient!!.applyBatch(operations)
                 }
+            } catch (e: Exception) {
+                Timber.e(e, "Fail to link local copies of files in ${account.name}")
+                return 0
             }
-            fileLength = it.getLong(it.getColumnIndex(FILE_CONTENT_LENGTH))
-            creationTimestamp = it.getLong(it.getColumnIndex(FILE_CREATION))
-            modificationTimestamp = it.getLong(it.getColumnIndex(FILE_MODIFIED))
-            modificationTimestampAtLastSyncForData = it.getLong(it.getColumnIndex(FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA))
-            lastSyncDateForProperties = it.getLong(it.getColumnIndex(FILE_LAST_SYNC_DATE))
-            lastSyncDateForData = it.getLong(it.getColumnIndex(FILE_LAST_SYNC_DATE_FOR_DATA))
-            availableOfflineStatus = fromValue(it.getInt(it.getColumnIndex(FILE_KEEP_IN_SYNC)))
-            etag = it.getString(it.getColumnIndex(FILE_ETAG))
-            treeEtag = it.getString(it.getColumnIndex(FILE_TREE_ETAG))
-            isSharedViaLink = it.getInt(it.getColumnIndex(FILE_SHARED_VIA_LINK)) == 1
-            isSharedWithSharee = it.getInt(it.getColumnIndex(FILE_SHARED_WITH_SHAREE)) == 1
-            permissions = it.getString(it.getColumnIndex(FILE_PERMISSIONS))
-            remoteId = it.getString(it.getColumnIndex(FILE_REMOTE_ID))
-            setNeedsUpdateThumbnail(it.getInt(it.getColumnIndex(FILE_UPDATE_THUMBNAIL)) == 1)
-            isDownloading = it.getInt(it.getColumnIndex(FILE_IS_DOWNLOADING)) == 1
-            etagInConflict = it.getString(it.getColumnIndex(FILE_ETAG_IN_CONFLICT))
-            privateLink = it.getString(it.getColumnIndex(FILE_PRIVATE_LINK))
         }
+        return operations.size
     }
 
     @Suppress("DEPRECATION")
@@ -1116,6 +1711,17 @@ class FileDataStorageManager {
         }
     }
 
+    /**
+     * Asks the media scanner to scan several paths in one go.
+     *
+     * @param paths Local paths to scan; those that don't exist anymore are removed from the MediaStore.
+     */
+    fun triggerMediaScan(paths: List<String>) {
+        if (paths.isNotEmpty()) {
+            MediaScannerConnection.scanFile(MainApp.appContext, paths.toTypedArray(), null, null)
+        }
+    }
+
     @Suppress("DEPRECATION")
     fun deleteFileInMediaScan(path: String) {
 
@@ -1171,29 +1777,15 @@ class FileDataStorageManager {
         if (updated > 0) {
             if (eTagInConflict != null) {
                 /// set conflict in all ancestor folders
+                val ancestorPaths = getAncestorPaths(file.remotePath)
 
-                var parentId = file.parentId
-                val ancestorIds = HashSet<String>()
-                while (parentId != ROOT_PARENT_ID.toLong()) {
-                    ancestorIds.add(parentId.toString())
-                    parentId = getFileById(parentId)!!.parentId
-                }
-
-                if (ancestorIds.size > 0) {
-                    val whereBuffer = StringBuffer()
-                    whereBuffer.append(_ID).append(" IN (")
-                    for (i in 0 until ancestorIds.size - 1) {
-                        whereBuffer.append("?,")
-                    }
-                    whereBuffer.append("?")
-                    whereBuffer.append(")")
-
+                if (ancestorPaths.isNotEmpty()) {
                     try {
                         performUpdate(
                             uri = CONTENT_URI_FILE,
                             contentValues = cv,
-                            where = whereBuffer.toString(),
-                            selectionArgs = ancestorIds.toTypedArray()
+                            where = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH IN (${ancestorPaths.joinToString(",") { "?" }})",
+                            selectionArgs = arrayOf(account.name) + ancestorPaths
                         )
                     } catch (e: RemoteException) {
                         Timber.e(e, "Failed saving conflict in database ${e.message}")
@@ -1215,14 +1807,14 @@ class FileDataStorageManager {
                     val whereForDescendantsInConflict = FILE_ETAG_IN_CONFLICT + " IS NOT NULL AND " +
                             FILE_CONTENT_TYPE + " != 'DIR' AND " +
                             FILE_ACCOUNT_OWNER + " = ? AND " +
-                            FILE_PATH + " LIKE ?"
+                            FILE_PATH + " >= ? AND " + FILE_PATH + " < ?"
                     val descendantsInConflict: Cursor? =
                         try {
                             performQuery(
                                 uri = CONTENT_URI_FILE,
                                 projection = arrayOf(_ID),
                                 selection = whereForDescendantsInConflict,
-                                selectionArgs = arrayOf(account.name, "$parentPath%"),
+                                selectionArgs = arrayOf(account.name, parentPath, upperBoundOfPathsIn(parentPath)),
                                 sortOrder = null
                             )
                         } catch (e: RemoteException) {
@@ -1499,9 +2091,52 @@ class FileDataStorageManager {
         return capability
     }
 
+    /**
+     * Selects a file, or a folder and all its descendants, by a range of remote paths that the
+     * path index can serve. Unlike LIKE, the range is not confused by '_' or '%' in names.
+     */
+    private fun selectionForTreeOf(file: OCFile): Pair<String, Array<String>> =
+        if (file.isFolder) {
+            Pair(
+                "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH>=? AND $FILE_PATH<?",
+                arrayOf(account.name, file.remotePath, upperBoundOfPathsIn(file.remotePath))
+            )
+        } else {
+            Pair("$FILE_ACCOUNT_OWNER=? AND $FILE_PATH=?", arrayOf(account.name, file.remotePath))
+        }
+
+    /**
+     * @param folderPath Remote path of a folder, ending with '/'.
+     * @return Lowest path above the paths of every descendant of the folder; every descendant path sorts between
+     * "/a/" and "/a0".
+     */
+    private fun upperBoundOfPathsIn(folderPath: String): String = folderPath.dropLast(1) + (folderPath.last() + 1)
+
+    private fun getStoragePaths(selection: String, selectionArgs: Array<String>): List<String> {
+        val storagePaths = ArrayList<String>()
+        val c: Cursor? = try {
+            performQuery(
+                uri = CONTENT_URI,
+                projection = arrayOf(FILE_STORAGE_PATH),
+                selection = "$selection AND $FILE_STORAGE_PATH IS NOT NULL",
+                selectionArgs = selectionArgs,
+                sortOrder = null
+            )
+        } catch (e: RemoteException) {
+            Timber.e(e)
+            null
+        }
+        c?.use {
+            while (it.moveToNext()) {
+                storagePaths.add(it.getString(0))
+            }
+        }
+        return storagePaths
+    }
+
     private fun selectionForAllDescendantsOf(file: OCFile): Pair<String, Array<String>> {
-        val selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH LIKE ? "
-        val selectionArgs = arrayOf(account.name, "${file.remotePath}_%") // one or more characters after remote path
+        val selection = "$FILE_ACCOUNT_OWNER=? AND $FILE_PATH>? AND $FILE_PATH<?"
+        val selectionArgs = arrayOf(account.name, file.remotePath, upperBoundOfPathsIn(file.remotePath))
         return Pair(selection, selectionArgs)
     }
 
@@ -1523,6 +2158,16 @@ class FileDataStorageManager {
         }
     }
 
+    private fun performCall(method: String, extras: Bundle): Bundle? {
+        val withContentResolver = contentResolver != null
+        val withContentProvider = contentProviderClient != null
+        return when {
+            withContentResolver -> contentResolver?.call(CONTENT_URI, method, null, extras)
+            withContentProvider -> contentProviderClient?.call(method, null, extras)
+            else -> null
+        }
+    }
+
     private fun performUpdate(
         uri: Uri,
         contentValues: ContentValues?,
@@ -1570,5 +2215,49 @@ class FileDataStorageManager {
         private const val pathAudio = "audio/"
         private const val pathVideo = "video/"
         private const val pathImage = "image/"
+        private const val SELECTION_IS_FOLDER = "$FILE_CONTENT_TYPE IN ('$MIME_DIR', '$MIME_DIR_UNIX')"
+
+        private const val CHILDREN_PAGE_SIZE = 500
+
+        private val nonWordCharacters = Regex("[^\\p{L}\\p{N}]+")
+
+        private const val LIKE_ESCAPE = "\\"
+
+        /**
+         * Compares two texts in the order the database sorts them, that is the order of their code points.
+         */
+        @JvmStatic
+        fun compareAsStored(a: String, b: String): Int {
+            var i = 0
+            var j = 0
+            while (i < a.length && j < b.length) {
+                val codePointA = a.codePointAt(i)
+                val codePointB = b.codePointAt(j)
+                if (codePointA != codePointB) {
+                    return codePointA.compareTo(codePointB)
+                }
+                i += Character.charCount(codePointA)
+                j += Character.charCount(codePointB)
+            }
+            return (a.length - i).compareTo(b.length - j)
+        }
+
+        /**
+         * @return Full text query matching the names with words that start with every word in [query], or null
+         * if [query] has no words.
+         */
+        private fun toNameSearchMatchQuery(query: String): String? =
+            query.split(nonWordCharacters)
+                .filter { it.isNotEmpty() }
+                .takeIf { it.isNotEmpty() }
+                ?.joinToString(" ") { "\"$it\"*" }
+
+        /**
+         * @return LIKE pattern matching the names that contain [query], with its wildcards escaped.
+         */
+        private fun toNameLikePattern(query: String): String =
+            "%" + query.replace(LIKE_ESCAPE, LIKE_ESCAPE + LIKE_ESCAPE)
+                .replace("%", "$LIKE_ESCAPE%")
+                .replace("_", "${LIKE_ESCAPE}_") + "%"
     }
 }
@@ -0,0 +1,108 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import android.database.Cursor
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.fromValue
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_LENGTH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CONTENT_TYPE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_CREATION
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_ETAG_IN_CONFLICT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_IS_DOWNLOADING
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_KEEP_IN_SYNC
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PERMISSIONS
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_PRIVATE_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_REMOTE_ID
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_VIA_LINK
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_SHARED_WITH_SHAREE
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_STORAGE_PATH
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_TREE_ETAG
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta.FILE_UPDATE_THUMBNAIL
+import com.owncloud.android.db.ProviderMeta.ProviderTableMeta._ID
+
+/**
+ * Creates [OCFile]s from the rows of a cursor on the files table.
+ *
+ * Column indexes are resolved once, when the mapper is created for a cursor, instead of for every row.
+ * Columns not included in the projection of the cursor keep the default values of [OCFile]; only the
+ * remote path is mandatory.
+ */
+class OCFileCursorMapper(cursor: Cursor) {
+
+    private val pathIndex = cursor.getColumnIndexOrThrow(FILE_PATH)
+    private val idIndex = cursor.getColumnIndex(_ID)
+    private val parentIndex = cursor.getColumnIndex(FILE_PARENT)
+    private val mimeTypeIndex = cursor.getColumnIndex(FILE_CONTENT_TYPE)
+    private val storagePathIndex = cursor.getColumnIndex(FILE_STORAGE_PATH)
+    private val lengthIndex = cursor.getColumnIndex(FILE_CONTENT_LENGTH)
+    private val creationIndex = cursor.getColumnIndex(FILE_CREATION)
+    private val modifiedIndex = cursor.getColumnIndex(FILE_MODIFIED)
+    private val modifiedAtLastSyncForDataIndex = cursor.getColumnIndex(FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA)
+    private val lastSyncDateIndex = cursor.getColumnIndex(FILE_LAST_SYNC_DATE)
+    private val lastSyncDateForDataIndex = cursor.getColumnIndex(FILE_LAST_SYNC_DATE_FOR_DATA)
+    private val keepInSyncIndex = cursor.getColumnIndex(FILE_KEEP_IN_SYNC)
+    private val etagIndex = cursor.getColumnIndex(FILE_ETAG)
+    private val treeEtagIndex = cursor.getColumnIndex(FILE_TREE_ETAG)
+    private val sharedViaLinkIndex = cursor.getColumnIndex(FILE_SHARED_VIA_LINK)
+    private val sharedWithShareeIndex = cursor.getColumnIndex(FILE_SHARED_WITH_SHAREE)
+    private val permissionsIndex = cursor.getColumnIndex(FILE_PERMISSIONS)
+    private val remoteIdIndex = cursor.getColumnIndex(FILE_REMOTE_ID)
+    private val updateThumbnailIndex = cursor.getColumnIndex(FILE_UPDATE_THUMBNAIL)
+    private val isDownloadingIndex = cursor.getColumnIndex(FILE_IS_DOWNLOADING)
+    private val etagInConflictIndex = cursor.getColumnIndex(FILE_ETAG_IN_CONFLICT)
+    private val privateLinkIndex = cursor.getColumnIndex(FILE_PRIVATE_LINK)
+
+    /**
+     * @param cursor Cursor this mapper was created for, positioned on the row to map.
+     * @return New [OCFile] with the values of the current row.
+     */
+    fun map(cursor: Cursor): OCFile =
+        OCFile(cursor.getString(pathIndex)).apply {
+            if (idIndex != -1) fileId = cursor.getLong(idIndex)
+            if (parentIndex != -1) parentId = cursor.getLong(parentIndex)
+            if (mimeTypeIndex != -1) mimetype = cursor.getString(mimeTypeIndex)
+            if (storagePathIndex != -1 && !isFolder) storagePath = cursor.getString(storagePathIndex)
+            if (lengthIndex != -1) fileLength = cursor.getLong(lengthIndex)
+            if (creationIndex != -1) creationTimestamp = cursor.getLong(creationIndex)
+            if (modifiedIndex != -1) modificationTimestamp = cursor.getLong(modifiedIndex)
+            if (modifiedAtLastSyncForDataIndex != -1) {
+                modificationTimestampAtLastSyncForData = cursor.getLong(modifiedAtLastSyncForDataIndex)
+            }
+            if (lastSyncDateIndex != -1) lastSyncDateForProperties = cursor.getLong(lastSyncDateIndex)
+            if (lastSyncDateForDataIndex != -1) lastSyncDateForData = cursor.getLong(lastSyncDateForDataIndex)
+            if (keepInSyncIndex != -1) availableOfflineStatus = fromValue(cursor.getInt(keepInSyncIndex))
+            if (etagIndex != -1) etag = cursor.getString(etagIndex)
+            if (treeEtagIndex != -1) treeEtag = cursor.getString(treeEtagIndex)
+            if (sharedViaLinkIndex != -1) isSharedViaLink = cursor.getInt(sharedViaLinkIndex) == 1
+            if (sharedWithShareeIndex != -1) isSharedWithSharee = cursor.getInt(sharedWithShareeIndex) == 1
+            if (permissionsIndex != -1) permissions = cursor.getString(permissionsIndex)
+            if (remoteIdIndex != -1) remoteId = cursor.getString(remoteIdIndex)
+            if (updateThumbnailIndex != -1) setNeedsUpdateThumbnail(cursor.getInt(updateThumbnailIndex) == 1)
+            if (isDownloadingIndex != -1) isDownloading = cursor.getInt(isDownloadingIndex) == 1
+            if (etagInConflictIndex != -1) etagInConflict = cursor.getString(etagInConflictIndex)
+            if (privateLinkIndex != -1) privateLink = cursor.getString(privateLinkIndex)
+        }
+}
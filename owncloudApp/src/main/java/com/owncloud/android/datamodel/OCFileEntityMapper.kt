@@ -0,0 +1,59 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import com.owncloud.android.data.files.db.OCFileEntity
+import com.owncloud.android.datamodel.OCFile.AvailableOfflineStatus.fromValue
+
+/**
+ * Creates [OCFile]s from the records of the files table read through Room.
+ *
+ * Null columns get the same values as when read from the cursors of the content provider: zero, false or null.
+ */
+object OCFileEntityMapper {
+
+    /**
+     * @param entity Record of a file.
+     * @return New [OCFile] with the values of the record.
+     */
+    fun map(entity: OCFileEntity): OCFile =
+        OCFile(entity.remotePath).apply {
+            fileId = entity.id
+            parentId = entity.parentId ?: 0
+            mimetype = entity.mimeType
+            if (!isFolder) storagePath = entity.storagePath
+            fileLength = entity.length ?: 0
+            creationTimestamp = entity.creationTimestamp ?: 0
+            modificationTimestamp = entity.modificationTimestamp ?: 0
+            modificationTimestampAtLastSyncForData = entity.modificationTimestampAtLastSyncForData ?: 0
+            lastSyncDateForProperties = entity.lastSyncDateForProperties ?: 0
+            lastSyncDateForData = entity.lastSyncDateForData ?: 0
+            availableOfflineStatus = fromValue(entity.availableOfflineStatus ?: 0)
+            etag = entity.etag
+            treeEtag = entity.treeEtag
+            isSharedViaLink = entity.sharedViaLink == 1
+            isSharedWithSharee = entity.sharedWithSharee == 1
+            permissions = entity.permissions
+            remoteId = entity.remoteId
+            setNeedsUpdateThumbnail(entity.needsToUpdateThumbnail == 1)
+            isDownloading = entity.isDownloading == 1
+            etagInConflict = entity.etagInConflict
+            privateLink = entity.privateLink
+        }
+}
@@ -0,0 +1,57 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import com.owncloud.android.data.files.db.OCFileEntity
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+/**
+ * Source of pages of [OCFile]s reading the pages of records of a source in Room, and mapping them with
+ * [OCFileEntityMapper]. Both sources are invalidated together. Pages are always read out of the main thread.
+ */
+class OCFilePagingSource(private val source: PagingSource<Int, OCFileEntity>) : PagingSource<Int, OCFile>() {
+
+    init {
+        source.registerInvalidatedCallback { invalidate() }
+        registerInvalidatedCallback { source.invalidate() }
+    }
+
+    override val jumpingSupported: Boolean
+        get() = source.jumpingSupported
+
+    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, OCFile> = withContext(Dispatchers.IO) {
+        when (val result = source.load(params)) {
+            is LoadResult.Page -> LoadResult.Page(
+                data = result.data.map { OCFileEntityMapper.map(it) },
+                prevKey = result.prevKey,
+                nextKey = result.nextKey,
+                itemsBefore = result.itemsBefore,
+                itemsAfter = result.itemsAfter
+            )
+            // no records in any other result
+            else -> @Suppress("UNCHECKED_CAST") (result as LoadResult<Int, OCFile>)
+        }
+    }
+
+    // keys are positions in the content
+    override fun getRefreshKey(state: PagingState<Int, OCFile>): Int? = state.anchorPosition
+}
@@ -102,6 +102,17 @@ public class OCUpload implements Parcelable {
      */
     private String mTransferId;
 
+    /*
+     * Chunks of a chunked upload already in the server, from the first one without gaps
+     */
+    private int mChunksUploaded;
+
+    /*
+     * Last modification of the local file when its chunks were uploaded; chunks of a file modified since then are
+     * not reused
+     */
+    private long mChunksLastModified;
+
     /**
      * Main constructor
      *
@@ -151,6 +162,8 @@ public class OCUpload implements Parcelable {
         mLastResult = UploadResult.UNKNOWN;
         mCreatedBy = UploadFileOperation.CREATED_BY_USER;
         mTransferId = "";
+        mChunksUploaded = 0;
+        mChunksLastModified = 0;
     }
 
     // Getters & Setters
@@ -315,6 +328,32 @@ public class OCUpload implements Parcelable {
         return mTransferId;
     }
 
+    public void setChunksUploaded(int chunksUploaded) {
+        mChunksUploaded = chunksUploaded;
+    }
+
+    public int getChunksUploaded() {
+        return mChunksUploaded;
+    }
+
+    public void setChunksLastModified(long chunksLastModified) {
+        mChunksLastModified = chunksLastModified;
+    }
+
+    public long getChunksLastModified() {
+        return mChunksLastModified;
+    }
+
+    /**
+     * @param localFile Local file of the upload, as it is now.
+     * @return 'true' if some chunks of the file are already in the server, and the file did not change since they
+     * were uploaded, so that the upload can go on from them.
+     */
+    public boolean canResumeChunksOf(File localFile) {
+        return mChunksUploaded > 0 && mTransferId != null && !mTransferId.isEmpty() &&
+                localFile.length() == mFileSize && localFile.lastModified() == mChunksLastModified;
+    }
+
     /**
      * For debugging purposes only.
      */
@@ -376,6 +415,8 @@ public class OCUpload implements Parcelable {
         }
         mCreatedBy = source.readInt();
         mTransferId = source.readString();
+        mChunksUploaded = source.readInt();
+        mChunksLastModified = source.readLong();
     }
 
     @Override
@@ -398,6 +439,8 @@ public class OCUpload implements Parcelable {
         dest.writeString(((mLastResult == null) ? "" : mLastResult.name()));
         dest.writeInt(mCreatedBy);
         dest.writeString(mTransferId);
+        dest.writeInt(mChunksUploaded);
+        dest.writeLong(mChunksLastModified);
     }
 
     enum CanUploadFileNowStatus {NOW, LATER, FILE_GONE, ERROR}
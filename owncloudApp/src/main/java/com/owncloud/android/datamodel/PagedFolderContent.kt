@@ -0,0 +1,117 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.datamodel
+
+import androidx.paging.AsyncPagingDataDiffer
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.launch
+
+/**
+ * Sorted content of a folder that is read from the database one page at a time, when its positions are
+ * requested, so that big folders are never built in memory as a whole.
+ *
+ * Pages are loaded by a [Pager] from [FileDataStorageManager.getFolderContentPagingSource], out of the main
+ * thread; positions not loaded yet are null until their page arrives, and [onChanged] is run then, in the main
+ * thread. The content follows the changes in the folder until it is [close]d. Only the last pages used are kept.
+ */
+class PagedFolderContent(
+    private val storageManager: FileDataStorageManager,
+    private val folderId: Long,
+    sortOrder: Int,
+    ascending: Boolean,
+    private val justFolders: Boolean,
+    onChanged: Runnable
+) {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
+    private val differ = AsyncPagingDataDiffer(
+        diffCallback = DIFF_CALLBACK,
+        updateCallback = object : ListUpdateCallback {
+            override fun onInserted(position: Int, count: Int) = onChanged.run()
+            override fun onRemoved(position: Int, count: Int) = onChanged.run()
+            override fun onMoved(fromPosition: Int, toPosition: Int) = onChanged.run()
+            override fun onChanged(position: Int, count: Int, payload: Any?) = onChanged.run()
+        },
+        mainDispatcher = Dispatchers.Main,
+        workerDispatcher = Dispatchers.Default
+    )
+
+    init {
+        val pager = Pager(
+            PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = true, maxSize = PAGE_SIZE * MAX_CACHED_PAGES)
+        ) {
+            storageManager.getFolderContentPagingSource(folderId, sortOrder, ascending, justFolders)
+        }
+        scope.launch {
+            pager.flow.collectLatest { differ.submitData(it) }
+        }
+    }
+
+    /**
+     * Number of children in the content; zero until the first page is loaded.
+     */
+    val size: Int
+        get() = differ.itemCount
+
+    /**
+     * @param position Position of the child in the sorted content.
+     * @return Child in the given position, or null if its page is not loaded yet or the position is out of the
+     * content.
+     */
+    operator fun get(position: Int): OCFile? =
+        if (position in 0 until size) differ.getItem(position) else null
+
+    /**
+     * @return Number of folders in the content.
+     */
+    fun getFoldersCount(): Int =
+        storageManager.getFolderContentCount(folderId, justFolders = true)
+
+    /**
+     * @return Number of visible files, not folders, in the content.
+     */
+    fun getVisibleFilesCount(): Int =
+        if (justFolders) 0 else storageManager.getFolderVisibleFilesCount(folderId)
+
+    /**
+     * Stops loading pages and following the changes in the folder.
+     */
+    fun close() {
+        scope.cancel()
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 100
+        private const val MAX_CACHED_PAGES = 10
+
+        // the list is redrawn on every change, so every item is taken as changed
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<OCFile>() {
+            override fun areItemsTheSame(oldItem: OCFile, newItem: OCFile) = oldItem.fileId == newItem.fileId
+            override fun areContentsTheSame(oldItem: OCFile, newItem: OCFile) = false
+        }
+    }
+}
@@ -219,6 +219,27 @@ public class UploadsStorageManager extends Observable {
         return returnValue;
     }
 
+    /**
+     * Update the chunks of a chunked upload already in the server, so that the upload is resumed from them when
+     * retried. Observers are not notified, as nothing shown in the list of uploads changes.
+     *
+     * @param id             upload id.
+     * @param chunksUploaded chunks uploaded from the first one, without gaps; 0 to start the upload over.
+     * @param lastModified   last modification of the local file when the upload of its chunks started.
+     * @return 1 if the upload was updated, else 0.
+     */
+    public int updateChunksUploaded(long id, int chunksUploaded, long lastModified) {
+        ContentValues cv = new ContentValues();
+        cv.put(ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED, chunksUploaded);
+        cv.put(ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED, lastModified);
+
+        return getDB().update(ProviderTableMeta.CONTENT_URI_UPLOADS,
+                cv,
+                ProviderTableMeta._ID + "=?",
+                new String[]{String.valueOf(id)}
+        );
+    }
+
     /**
      * Should be called when some value of this DB was changed. All observers
      * are informed.
@@ -351,6 +372,10 @@ public class UploadsStorageManager extends Observable {
                     c.getInt(c.getColumnIndex(ProviderTableMeta.UPLOADS_LAST_RESULT))));
             upload.setCreatedBy(c.getInt(c.getColumnIndex(ProviderTableMeta.UPLOADS_CREATED_BY)));
             upload.setTransferId(c.getString(c.getColumnIndex(ProviderTableMeta.UPLOADS_TRANSFER_ID)));
+            upload.setChunksUploaded(c.getInt(c.getColumnIndex(ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED)));
+            upload.setChunksLastModified(
+                    c.getLong(c.getColumnIndex(ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED))
+            );
         }
         return upload;
     }
@@ -27,6 +27,7 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 import com.owncloud.android.MainApp;
+import com.owncloud.android.data.files.db.OCFileIndexes;
 
 /**
  * Meta-Class that holds various static field information
@@ -48,6 +49,8 @@ public class ProviderMeta {
         public static final String USER_AVATARS__TABLE_NAME = "user_avatars";
         public static final String CAMERA_UPLOADS_SYNC_TABLE_NAME = "camera_uploads_sync";
         public static final String USER_QUOTAS_TABLE_NAME = "user_quotas";
+        // Full text index on the names of the files in filelist table, kept up to date by triggers
+        public static final String FILE_NAME_SEARCH_TABLE_NAME = "filelist_name_search";
 
         public static final Uri CONTENT_URI = Uri.parse("content://"
                 + MainApp.Companion.getAuthority() + "/");
@@ -66,6 +69,29 @@ public class ProviderMeta {
         public static final Uri CONTENT_URI_QUOTAS = Uri.parse("content://"
                 + MainApp.Companion.getAuthority() + "/quotas");
 
+        // Query parameter of file URIs to read a window of the results, as "offset,count"
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // Methods of FileContentProvider#call and their arguments
+        public static final String METHOD_MOVE_FILE_TREE = "move_file_tree";
+        public static final String METHOD_PROPAGATE_TREE_ETAG = "propagate_tree_etag";
+        public static final String METHOD_ADVANCE_SYNC_FRONTIER = "advance_sync_frontier";
+        public static final String METHOD_CLEAR_SYNC_FRONTIER = "clear_sync_frontier";
+        public static final String METHOD_SCHEDULE_FOLDER_CHECK = "schedule_folder_check";
+        public static final String ARG_FILE_ID = "file_id";
+        public static final String ARG_SUBFOLDER_IDS = "subfolder_ids";
+        public static final String ARG_SUBFOLDERS_CHANGED = "subfolders_changed";
+        public static final String ARG_CHECK_INTERVAL = "check_interval";
+        public static final String ARG_NEXT_CHECK = "next_check";
+        public static final String ARG_ACCOUNT_NAME = "account_name";
+        public static final String ARG_SOURCE_PATH = "source_path";
+        public static final String ARG_TARGET_PATH = "target_path";
+        public static final String ARG_TARGET_PARENT_ID = "target_parent_id";
+        public static final String ARG_KEEP_IN_SYNC = "keep_in_sync";
+        public static final String ARG_SELECTION = "selection";
+        public static final String ARG_SELECTION_ARGS = "selection_args";
+        public static final String RESULT_COUNT = "count";
+
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.owncloud.file";
         public static final String CONTENT_TYPE_ITEM = "vnd.android.cursor.item/vnd.owncloud.file";
 
@@ -95,10 +121,25 @@ public class ProviderMeta {
         public static final String FILE_IS_DOWNLOADING = "is_downloading";
         public static final String FILE_ETAG_IN_CONFLICT = "etag_in_conflict";
         public static final String FILE_PRIVATE_LINK = "private_link";
+        public static final String FILE_SYNC_PENDING = "sync_pending";
+        public static final String FILE_CHECK_INTERVAL = "check_interval";
+        public static final String FILE_NEXT_CHECK = "next_check";
 
         public static final String FILE_DEFAULT_SORT_ORDER = FILE_NAME
                 + " collate nocase asc";
 
+        // Predicates of the partial indexes on filelist table; queries need to include them
+        // verbatim so that SQLite can choose the index
+        public static final String FILE_IS_AVAILABLE_OFFLINE = OCFileIndexes.IS_AVAILABLE_OFFLINE;
+        public static final String FILE_IS_SHARED_VIA_LINK = OCFileIndexes.IS_SHARED_VIA_LINK;
+        public static final String FILE_IS_SYNC_PENDING = OCFileIndexes.IS_SYNC_PENDING;
+        public static final String FILE_IS_CHECK_SCHEDULED = OCFileIndexes.IS_CHECK_SCHEDULED;
+
+        // Values of FILE_SYNC_PENDING; folders waiting to be visited by an interrupted full synchronization
+        public static final int SYNC_NOT_PENDING = 0;
+        public static final int SYNC_PENDING_PUSH_ONLY = 1;
+        public static final int SYNC_PENDING_CHANGED_IN_SERVER = 2;
+
         // @deprecated
         public static final String FILE_PUBLIC_LINK = "public_link";
 
@@ -172,6 +213,8 @@ public class ProviderMeta {
         public static final String UPLOADS_LAST_RESULT = "last_result";
         public static final String UPLOADS_CREATED_BY = "created_by";
         public static final String UPLOADS_TRANSFER_ID = "transfer_id";
+        public static final String UPLOADS_CHUNKS_UPLOADED = "chunks_uploaded";
+        public static final String UPLOADS_CHUNKS_LAST_MODIFIED = "chunks_last_modified";
 
         public static final String UPLOADS_DEFAULT_SORT_ORDER =
                 ProviderTableMeta._ID + " collate nocase desc";
@@ -31,13 +31,15 @@ import com.owncloud.android.MainApp;
 import com.owncloud.android.authentication.AccountUtils;
 import com.owncloud.android.datamodel.FileDataStorageManager;
 import com.owncloud.android.datamodel.OCFile;
-import com.owncloud.android.lib.common.operations.RemoteOperationResult;
-import com.owncloud.android.operations.SynchronizeFileOperation;
+import com.owncloud.android.operations.SynchronizeFilesInFolderOperation;
 import com.owncloud.android.utils.FileStorageUtils;
 import timber.log.Timber;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.owncloud.android.utils.NotificationUtils.notifyConflict;
 
@@ -96,6 +98,8 @@ public class AvailableOfflineSyncJobService extends JobService {
         }
 
         private void syncAvailableOfflineFiles(List<Pair<OCFile, String>> availableOfflineFilesForAccount) {
+            // files to synchronize, by account and folder, so that every folder is verified at once
+            Map<String, Map<Long, List<OCFile>>> filesToSync = new LinkedHashMap<>();
             for (Pair<OCFile, String> fileForAccount : availableOfflineFilesForAccount) {
 
                 String localPath = fileForAccount.first.getStoragePath();
@@ -116,21 +120,40 @@ public class AvailableOfflineSyncJobService extends JobService {
                     continue;
                 }
 
-                startSyncOperation(fileForAccount.first, fileForAccount.second);
+                Map<Long, List<OCFile>> filesOfAccount = filesToSync.get(fileForAccount.second);
+                if (filesOfAccount == null) {
+                    filesOfAccount = new LinkedHashMap<>();
+                    filesToSync.put(fileForAccount.second, filesOfAccount);
+                }
+                List<OCFile> filesOfFolder = filesOfAccount.get(fileForAccount.first.getParentId());
+                if (filesOfFolder == null) {
+                    filesOfFolder = new ArrayList<>();
+                    filesOfAccount.put(fileForAccount.first.getParentId(), filesOfFolder);
+                }
+                filesOfFolder.add(fileForAccount.first);
+            }
+
+            for (Map.Entry<String, Map<Long, List<OCFile>>> filesOfAccount : filesToSync.entrySet()) {
+                for (Map.Entry<Long, List<OCFile>> filesOfFolder : filesOfAccount.getValue().entrySet()) {
+                    startSyncOperation(filesOfFolder.getKey(), filesOfFolder.getValue(), filesOfAccount.getKey());
+                }
             }
         }
 
         /**
-         * Triggers an operation to synchronize the contents of a recently modified available offline file with
-         * its remote counterpart in the associated ownCloud account.
+         * Triggers an operation to synchronize the contents of recently modified available offline files with
+         * their remote counterparts in the associated ownCloud account.
          *
-         * @param availableOfflineFile file to synchronize
-         * @param accountName          account to synchronize the available offline file with
+         * @param folderId              id of the folder containing the files
+         * @param availableOfflineFiles files to synchronize
+         * @param accountName           account to synchronize the available offline files with
          */
-        private void startSyncOperation(OCFile availableOfflineFile, String accountName) {
+        private void startSyncOperation(long folderId, List<OCFile> availableOfflineFiles, String accountName) {
             if (MainApp.Companion.isDeveloper()) {
-                Timber.i("Requested synchronization for file %1s in account %2s",
-                        availableOfflineFile.getRemotePath(), accountName);
+                for (OCFile availableOfflineFile : availableOfflineFiles) {
+                    Timber.i("Requested synchronization for file %1s in account %2s",
+                            availableOfflineFile.getRemotePath(), accountName);
+                }
             }
 
             Account account = AccountUtils.getOwnCloudAccountByName(mAvailableOfflineJobService, accountName);
@@ -144,15 +167,20 @@ public class AvailableOfflineSyncJobService extends JobService {
                             mAvailableOfflineJobService, account, mAvailableOfflineJobService.getContentResolver()
                     );
 
-            SynchronizeFileOperation synchronizeFileOperation =
-                    new SynchronizeFileOperation(availableOfflineFile, null, account, false,
+            OCFile folder = storageManager.getFileById(folderId);
+            if (folder == null) {
+                Timber.w("Folder of available offline files not found, removed in the meantime");
+                return;
+            }
+
+            SynchronizeFilesInFolderOperation synchronizeFilesOperation =
+                    new SynchronizeFilesInFolderOperation(folder, availableOfflineFiles, account,
                             mAvailableOfflineJobService, true);
 
-            RemoteOperationResult result = synchronizeFileOperation.
-                    execute(storageManager, mAvailableOfflineJobService);
+            synchronizeFilesOperation.execute(storageManager, mAvailableOfflineJobService);
 
-            if (result.getCode() == RemoteOperationResult.ResultCode.SYNC_CONFLICT) {
-                notifyConflict(availableOfflineFile, account, mAvailableOfflineJobService);
+            for (OCFile fileInConflict : synchronizeFilesOperation.getFilesInConflict()) {
+                notifyConflict(fileInConflict, account, mAvailableOfflineJobService);
             }
         }
 
@@ -32,11 +32,8 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
 import android.util.Pair;
 
 import androidx.core.app.NotificationCompat;
@@ -60,42 +57,98 @@ import com.owncloud.android.ui.errorhandling.ErrorMessageAdapter;
 import com.owncloud.android.ui.preview.PreviewImageActivity;
 import com.owncloud.android.ui.preview.PreviewImageFragment;
 import com.owncloud.android.utils.Extras;
+import com.owncloud.android.utils.FileStorageUtils;
 import com.owncloud.android.utils.NotificationUtils;
 import timber.log.Timber;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
-import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.owncloud.android.utils.NotificationConstantsKt.DOWNLOAD_NOTIFICATION_CHANNEL_ID;
 
-public class FileDownloader extends Service
-        implements OnDatatransferProgressListener, OnAccountsUpdateListener {
+/**
+ * Service for downloading files. Invoke using context.startService(...), with a single file, or with several at
+ * once: all the files of a folder and its subfolders without a local copy, or a list of remote paths.
+ * <p>
+ * Several files are downloaded at the same time by a pool of {@link TransferWorkers}, up to a maximum in all the
+ * accounts and a lower one per account, both set in the resources of the app. A single notification shows the
+ * progress of all the downloads in progress.
+ * <p>
+ * Downloads of several files start in the order given by {@link #KEY_ORDER}. A single file requested by the user, as
+ * one to preview, starts before all the downloads waiting; available offline files and retries wait their turn.
+ */
+public class FileDownloader extends Service implements OnAccountsUpdateListener {
 
     public static final String KEY_ACCOUNT = "ACCOUNT";
     public static final String KEY_FILE = "FILE";
     public static final String KEY_IS_AVAILABLE_OFFLINE_FILE = "KEY_IS_AVAILABLE_OFFLINE_FILE";
     public static final String KEY_RETRY_DOWNLOAD = "KEY_RETRY_DOWNLOAD";
 
+    /**
+     * Remote path of a folder; every file in it or in its subfolders without a local copy is downloaded. Used
+     * instead of {@link #KEY_FILE}.
+     */
+    public static final String KEY_FOLDER = "FOLDER";
+
+    /**
+     * Remote paths of several files to download, as an array. Used instead of {@link #KEY_FILE}.
+     */
+    public static final String KEY_REMOTE_PATHS = "REMOTE_PATHS";
+
+    /**
+     * Order to start the downloads requested with {@link #KEY_FOLDER} or {@link #KEY_REMOTE_PATHS}; one of
+     * {@link #ORDER_BY_PATH} or {@link #ORDER_SMALLEST_FIRST}.
+     */
+    public static final String KEY_ORDER = "ORDER";
+
+    /**
+     * Downloads start in the order of their remote paths, as they are shown while browsing the folder.
+     */
+    public static final int ORDER_BY_PATH = 0;
+
+    /**
+     * Smallest files start first, so that most of the files are available as soon as possible.
+     */
+    public static final int ORDER_SMALLEST_FIRST = 1;
+
+    private static final Comparator<OCFile> SMALLEST_FIRST =
+            (file1, file2) -> Long.compare(file1.getFileLength(), file2.getFileLength());
+
     private static final String DOWNLOAD_ADDED_MESSAGE = "DOWNLOAD_ADDED";
     private static final String DOWNLOAD_FINISH_MESSAGE = "DOWNLOAD_FINISH";
 
-    private Looper mServiceLooper;
-    private ServiceHandler mServiceHandler;
+    private TransferWorkers mDownloadWorkers;
+    private Handler mMainHandler;
     private IBinder mBinder;
-    private OwnCloudClient mDownloadClient = null;
-    private Account mCurrentAccount = null;
-    private FileDataStorageManager mStorageManager;
 
     private IndexedForest<DownloadFileOperation> mPendingDownloads = new IndexedForest<>();
 
-    private DownloadFileOperation mCurrentDownload = null;
+    /**
+     * Downloads in progress, by key in mPendingDownloads
+     */
+    private final ConcurrentMap<String, DownloadFileOperation> mDownloadsInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Last command received; the service stops with it when all the downloads finish
+     */
+    private int mLastStartId;
 
     private NotificationManager mNotificationManager;
     private NotificationCompat.Builder mNotificationBuilder;
+
+    /**
+     * Bytes transferred and total bytes of every download in progress, for the notification; guarded by
+     * mNotificationBuilder
+     */
+    private final Map<DownloadFileOperation, long[]> mProgress = new HashMap<>();
     private int mLastPercent;
 
     private LocalBroadcastManager mLocalBroadcastManager;
@@ -116,11 +169,15 @@ public class FileDownloader extends Service
         super.onCreate();
         Timber.d("Creating service");
 
-        HandlerThread thread = new HandlerThread("FileDownloaderThread",
-                Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
-        mServiceLooper = thread.getLooper();
-        mServiceHandler = new ServiceHandler(mServiceLooper, this);
+        mNotificationBuilder = NotificationUtils.newNotificationBuilder(this, DOWNLOAD_NOTIFICATION_CHANNEL_ID);
+
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mDownloadWorkers = new TransferWorkers(
+                "FileDownloaderThread",
+                getResources().getInteger(R.integer.max_downloads_in_progress),
+                getResources().getInteger(R.integer.max_downloads_in_progress_per_account),
+                () -> mMainHandler.post(this::stopIfIdle)
+        );
         mBinder = new FileDownloaderBinder();
 
         // add AccountsUpdatedListener
@@ -138,9 +195,8 @@ public class FileDownloader extends Service
     public void onDestroy() {
         Timber.v("Destroying service");
         mBinder = null;
-        mServiceHandler = null;
-        mServiceLooper.quit();
-        mServiceLooper = null;
+        mDownloadWorkers.shutDown();
+        mMainHandler.removeCallbacksAndMessages(null);
         mNotificationManager = null;
 
         // remove AccountsUpdatedListener
@@ -170,44 +226,148 @@ public class FileDownloader extends Service
              * - Retry downloads in background, e.g. when recovering wifi connection
              */
             Timber.d("Starting FileDownloader service in foreground");
-            startForeground(1, getNotificationBuilder().build());
+            synchronized (mNotificationBuilder) {
+                startForeground(1, mNotificationBuilder.build());
+            }
         }
 
+        boolean severalFiles = intent.hasExtra(KEY_FOLDER) || intent.hasExtra(KEY_REMOTE_PATHS);
         if (!intent.hasExtra(KEY_ACCOUNT) ||
-                !intent.hasExtra(KEY_FILE)
+                !(intent.hasExtra(KEY_FILE) || severalFiles)
         ) {
             Timber.e("Not enough information provided in intent");
             return START_NOT_STICKY;
+        }
+
+        final Account account = intent.getParcelableExtra(KEY_ACCOUNT);
+        if (account == null) {
+            Timber.e("Not enough information provided in intent");
+            return START_NOT_STICKY;
+        }
+
+        boolean requested = false;
+        if (severalFiles) {
+            String folderPath = intent.getStringExtra(KEY_FOLDER);
+            String[] remotePaths = intent.getStringArrayExtra(KEY_REMOTE_PATHS);
+            int order = intent.getIntExtra(KEY_ORDER, ORDER_BY_PATH);
+            // files are read from the database out of the main thread, before the downloads waiting start
+            mDownloadWorkers.submitFirst(
+                    account.name,
+                    () -> requestDownloads(account, folderPath, remotePaths, order)
+            );
+            requested = true;
+
         } else {
-            final Account account = intent.getParcelableExtra(KEY_ACCOUNT);
             final OCFile file = intent.getParcelableExtra(KEY_FILE);
-            AbstractList<String> requestedDownloads = new Vector<>();
             try {
-                DownloadFileOperation newDownload = new DownloadFileOperation(account, file);
-                newDownload.addDatatransferProgressListener(this);
-                newDownload.addDatatransferProgressListener((FileDownloaderBinder) mBinder);
-                Pair<String, String> putResult = mPendingDownloads.putIfAbsent(
-                        account.name, file.getRemotePath(), newDownload);
-                if (putResult != null) {
-                    String downloadKey = putResult.first;
-                    requestedDownloads.add(downloadKey);
-                    sendBroadcastNewDownload(newDownload, putResult.second);
-                }   // else, file already in the queue of downloads; don't repeat the request
+                String downloadKey = addDownload(account, file);
+                if (isAvailableOfflineFile || retryDownload) {
+                    if (downloadKey != null) {
+                        mDownloadWorkers.submit(account.name, () -> downloadFile(downloadKey));
+                        requested = true;
+                    }   // else, file already in the queue of downloads; don't repeat the request
+
+                } else {
+                    // the user is waiting for it, maybe behind the downloads of a whole folder; the download
+                    // already in the queue, if any, runs only once
+                    String userDownloadKey = downloadKey != null ? downloadKey :
+                            mPendingDownloads.buildKey(account.name, file.getRemotePath());
+                    mDownloadWorkers.submitFirst(account.name, () -> downloadFile(userDownloadKey));
+                    requested = true;
+                }
 
             } catch (IllegalArgumentException e) {
                 Timber.e(e, "Not enough information provided in intent");
                 return START_NOT_STICKY;
             }
+        }
+
+        mLastStartId = startId;
+        if (!requested) {
+            stopIfIdle();
+        }
+        return START_NOT_STICKY;
+    }
 
-            if (requestedDownloads.size() > 0) {
-                Message msg = mServiceHandler.obtainMessage();
-                msg.arg1 = startId;
-                msg.obj = requestedDownloads;
-                mServiceHandler.sendMessage(msg);
+    /**
+     * Adds the downloads of several files of an account to the queue, in the order requested. Runs in a worker of
+     * {@link TransferWorkers}.
+     *
+     * @param account     ownCloud account holding the files.
+     * @param folderPath  Remote path of a folder whose files without a local copy are to be downloaded, or null.
+     * @param remotePaths Remote paths of the files to download, or null.
+     * @param order       One of {@link #ORDER_BY_PATH} or {@link #ORDER_SMALLEST_FIRST}.
+     */
+    private void requestDownloads(Account account, String folderPath, String[] remotePaths, int order) {
+        FileDataStorageManager storageManager = new FileDataStorageManager(this, account, getContentResolver());
+        List<OCFile> files = new ArrayList<>();
+        if (folderPath != null) {
+            OCFile folder = storageManager.getFileByPath(folderPath);
+            if (folder != null && folder.isFolder()) {
+                files.addAll(storageManager.getFilesNotDownIn(folder));
+            }
+        }
+        if (remotePaths != null) {
+            for (String remotePath : remotePaths) {
+                OCFile file = storageManager.getFileByPath(remotePath);
+                if (file != null && !file.isFolder()) {
+                    files.add(file);
+                }
             }
         }
+        if (order == ORDER_SMALLEST_FIRST) {
+            Collections.sort(files, SMALLEST_FIRST);
+        }
 
-        return START_NOT_STICKY;
+        int requested = 0;
+        for (OCFile file : files) {
+            String downloadKey = addDownload(account, file);
+            if (downloadKey != null) {
+                mDownloadWorkers.submit(account.name, () -> downloadFile(downloadKey));
+                requested++;
+            }
+        }
+        Timber.d("Requested %d downloads of %d files in %s", requested, files.size(), account.name);
+    }
+
+    /**
+     * Adds the download of a file to the queue of downloads, unless it is already there.
+     *
+     * @return Key of the new download in mPendingDownloads, or null if the file was already in the queue.
+     */
+    private String addDownload(Account account, OCFile file) {
+        DownloadFileOperation newDownload = new DownloadFileOperation(account, file);
+        addListeners(newDownload);
+        Pair<String, String> putResult = mPendingDownloads.putIfAbsent(
+                account.name, file.getRemotePath(), newDownload);
+        if (putResult == null) {
+            return null;
+        }
+        sendBroadcastNewDownload(newDownload, putResult.second);
+        return putResult.first;
+    }
+
+    /**
+     * Adds the listeners of the service to a download, so that its progress is notified with it.
+     */
+    private void addListeners(DownloadFileOperation download) {
+        download.addDatatransferProgressListener(
+                (progressRate, totalTransferredSoFar, totalToTransfer, filePath) ->
+                        onTransferProgress(download, totalTransferredSoFar, totalToTransfer)
+        );
+        download.addDatatransferProgressListener(((FileDownloaderBinder) mBinder).getListenerFor(download));
+    }
+
+    /**
+     * Stops the service if all the downloads requested finished, out of the foreground. Runs in the main thread, as
+     * every new command, so that none arrives in the middle.
+     */
+    private void stopIfIdle() {
+        if (mDownloadWorkers.isIdle()) {
+            Timber.d("Stopping after command with id %s", mLastStartId);
+            stopForeground(true);
+            stopSelf(mLastStartId);
+        }
     }
 
     /**
@@ -232,10 +392,11 @@ public class FileDownloader extends Service
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
-        //review the current download and cancel it if its account doesn't exist
-        if (mCurrentDownload != null &&
-                !AccountUtils.exists(mCurrentDownload.getAccount().name, getApplicationContext())) {
-            mCurrentDownload.cancel();
+        // Review current downloads, and cancel them if their account doesn't exist
+        for (DownloadFileOperation download : mDownloadsInProgress.values()) {
+            if (!AccountUtils.exists(download.getAccount().name, getApplicationContext())) {
+                download.cancel();
+            }
         }
         // The rest of downloads are cancelled when they try to start
     }
@@ -245,7 +406,7 @@ public class FileDownloader extends Service
      * <p/>
      * It provides by itself the available operations.
      */
-    public class FileDownloaderBinder extends Binder implements OnDatatransferProgressListener {
+    public class FileDownloaderBinder extends Binder {
 
         /**
          * Map of listeners that will be reported about progress of downloads from a
@@ -253,7 +414,7 @@ public class FileDownloader extends Service
          * instance.
          */
         private Map<Long, WeakReference<OnDatatransferProgressListener>> mBoundListeners =
-                new HashMap<>();
+                new ConcurrentHashMap<>();
 
         /**
          * Cancels a pending or current download of a remote file.
@@ -268,12 +429,15 @@ public class FileDownloader extends Service
             if (download != null) {
                 download.cancel();
             } else {
-                if (mCurrentDownload != null && mCurrentAccount != null &&
-                        mCurrentDownload.getRemotePath().startsWith(file.getRemotePath()) &&
-                        account.name.equals(mCurrentAccount.name)) {
-                    mCurrentDownload.cancel();
+                for (DownloadFileOperation downloadInProgress : mDownloadsInProgress.values()) {
+                    if (downloadInProgress.getRemotePath().startsWith(file.getRemotePath()) &&
+                            account.name.equals(downloadInProgress.getAccount().name)) {
+                        downloadInProgress.cancel();
+                    }
                 }
             }
+            // nothing left to resume the cancelled downloads later
+            FileStorageUtils.deletePartialDownloads(account.name, file);
         }
 
         /**
@@ -284,10 +448,10 @@ public class FileDownloader extends Service
         public void cancel(Account account) {
             Timber.d("Account= %s", account.name);
 
-            if (mCurrentDownload != null) {
-                Timber.d("Current Download Account= %s", mCurrentDownload.getAccount().name);
-                if (mCurrentDownload.getAccount().name.equals(account.name)) {
-                    mCurrentDownload.cancel();
+            for (DownloadFileOperation download : mDownloadsInProgress.values()) {
+                if (download.getAccount().name.equals(account.name)) {
+                    Timber.d("Cancelling download in progress %s", download.getRemotePath());
+                    download.cancel();
                 }
             }
             // Cancel pending downloads
@@ -350,101 +514,76 @@ public class FileDownloader extends Service
             }
         }
 
-        @Override
-        public void onTransferProgress(long progressRate, long totalTransferredSoFar,
-                                       long totalToTransfer, String fileName) {
-            WeakReference<OnDatatransferProgressListener> boundListenerRef =
-                    mBoundListeners.get(mCurrentDownload.getFile().getFileId());
-            if (boundListenerRef != null && boundListenerRef.get() != null) {
-                boundListenerRef.get().onTransferProgress(
-                        progressRate,
-                        totalTransferredSoFar,
-                        totalToTransfer,
-                        fileName
-                );
-            }
-        }
-
-    }
-
-    /**
-     * Download worker. Performs the pending downloads in the order they were requested.
-     * Created with the Looper of a new thread, started in {@link FileUploader#onCreate()}.
-     */
-    private static class ServiceHandler extends Handler {
-        // don't make it a final class, and don't remove the static ; lint will warn about a
-        // possible memory leak
-        FileDownloader mService;
-
-        public ServiceHandler(Looper looper, FileDownloader service) {
-            super(looper);
-            if (service == null) {
-                throw new IllegalArgumentException("Received invalid NULL in parameter 'service'");
-            }
-            mService = service;
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            @SuppressWarnings("unchecked")
-            AbstractList<String> requestedDownloads = (AbstractList<String>) msg.obj;
-            if (msg.obj != null) {
-                for (String next : requestedDownloads) {
-                    mService.downloadFile(next);
+        /**
+         * @return Listener reporting the progress of a download to the listener bound for its file.
+         */
+        private OnDatatransferProgressListener getListenerFor(DownloadFileOperation download) {
+            return (progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+                WeakReference<OnDatatransferProgressListener> boundListenerRef =
+                        mBoundListeners.get(download.getFile().getFileId());
+                if (boundListenerRef != null && boundListenerRef.get() != null) {
+                    boundListenerRef.get().onTransferProgress(
+                            progressRate,
+                            totalTransferredSoFar,
+                            totalToTransfer,
+                            fileName
+                    );
                 }
-            }
-            Timber.d("Stopping after command with id %s", msg.arg1);
-            mService.stopForeground(true);
-            mService.stopSelf(msg.arg1);
+            };
         }
+
     }
 
     /**
-     * Core download method: requests a file to download and stores it.
+     * Core download method: requests a file to download and stores it. Runs in a worker of {@link TransferWorkers},
+     * maybe at the same time as other downloads; does nothing if the download is already in progress.
      *
      * @param downloadKey Key to access the download to perform, contained in mPendingDownloads
      */
     private void downloadFile(String downloadKey) {
 
-        mCurrentDownload = mPendingDownloads.get(downloadKey);
+        DownloadFileOperation download = mPendingDownloads.get(downloadKey);
 
-        if (mCurrentDownload != null) {
+        if (download != null && mDownloadsInProgress.putIfAbsent(downloadKey, download) == null) {
+
+            if (mPendingDownloads.get(downloadKey) != download) {
+                // finished by other worker in the meantime
+                mDownloadsInProgress.remove(downloadKey);
+                return;
+            }
 
             /// Check account existence
-            if (!AccountUtils.exists(mCurrentDownload.getAccount().name, this)) {
-                Timber.w("Account " + mCurrentDownload.getAccount().name + " does not exist anymore -> cancelling all" +
-                        " its downloads");
-                cancelDownloadsForAccount(mCurrentDownload.getAccount());
+            Account account = download.getAccount();
+            if (!AccountUtils.exists(account.name, this)) {
+                Timber.w("Account " + account.name + " does not exist anymore -> cancelling all its downloads");
+                mDownloadsInProgress.remove(downloadKey);
+                cancelDownloadsForAccount(account);
                 return;
             }
 
-            notifyDownloadStart(mCurrentDownload);
+            notifyDownloadStart(download);
 
             RemoteOperationResult downloadResult = null;
 
             try {
                 /// prepare client object to send the request to the ownCloud server
-                if (mCurrentAccount == null ||
-                        !mCurrentAccount.equals(mCurrentDownload.getAccount())) {
-                    mCurrentAccount = mCurrentDownload.getAccount();
-                    mStorageManager = new FileDataStorageManager(
-                            this, mCurrentAccount,
-                            getContentResolver()
-                    );
-                }   // else, reuse storage manager from previous operation
+                FileDataStorageManager storageManager = new FileDataStorageManager(
+                        this, account,
+                        getContentResolver()
+                );
 
                 // always get client from client manager to get fresh credentials in case of update
                 OwnCloudAccount ocAccount = new OwnCloudAccount(
-                        mCurrentAccount,
+                        account,
                         this
                 );
-                mDownloadClient = SingleSessionManager.getDefaultSingleton().
+                OwnCloudClient downloadClient = SingleSessionManager.getDefaultSingleton().
                         getClientFor(ocAccount, this);
 
                 /// perform the download
-                downloadResult = mCurrentDownload.execute(mDownloadClient);
+                downloadResult = download.execute(downloadClient);
                 if (downloadResult.isSuccess()) {
-                    saveDownloadedFile();
+                    saveDownloadedFile(download, storageManager);
                 }
 
             } catch (Exception e) {
@@ -452,11 +591,13 @@ public class FileDownloader extends Service
                 downloadResult = new RemoteOperationResult(e);
 
             } finally {
+                // out of the queue before out of progress, so that it does not run twice
                 Pair<DownloadFileOperation, String> removeResult =
                         mPendingDownloads.removePayload(
-                                mCurrentAccount.name,
-                                mCurrentDownload.getRemotePath()
+                                account.name,
+                                download.getRemotePath()
                         );
+                mDownloadsInProgress.remove(downloadKey);
 
                 if (!downloadResult.isSuccess() && downloadResult.getException() != null) {
 
@@ -464,30 +605,30 @@ public class FileDownloader extends Service
                     TransferRequester requester = new TransferRequester();
                     if (requester.shouldScheduleRetry(this, downloadResult.getException())) {
                         int jobId = mPendingDownloads.buildKey(
-                                mCurrentAccount.name,
-                                mCurrentDownload.getRemotePath()
+                                account.name,
+                                download.getRemotePath()
                         ).hashCode();
                         requester.scheduleDownload(
                                 this,
                                 jobId,
-                                mCurrentAccount.name,
-                                mCurrentDownload.getRemotePath()
+                                account.name,
+                                download.getRemotePath()
                         );
                         downloadResult = new RemoteOperationResult(
                                 ResultCode.NO_NETWORK_CONNECTION);
                     } else {
                         Timber.v("Exception in download, network is OK, no retry scheduled for %1s in %2s",
-                                mCurrentDownload.getRemotePath(), mCurrentAccount.name);
+                                download.getRemotePath(), account.name);
                     }
                 } else {
-                    Timber.v("Success OR fail without exception for %1s in %2s", mCurrentDownload.getRemotePath(),
-                            mCurrentAccount.name);
+                    Timber.v("Success OR fail without exception for %1s in %2s", download.getRemotePath(),
+                            account.name);
                 }
 
                 /// notify result
-                notifyDownloadResult(mCurrentDownload, downloadResult);
+                notifyDownloadResult(download, downloadResult);
 
-                sendBroadcastDownloadFinished(mCurrentDownload, downloadResult, removeResult.second);
+                sendBroadcastDownloadFinished(download, downloadResult, removeResult.second);
             }
 
         }
@@ -498,22 +639,22 @@ public class FileDownloader extends Service
      * <p>
      * TODO move to DownloadFileOperation
      */
-    private void saveDownloadedFile() {
-        OCFile file = mStorageManager.getFileById(mCurrentDownload.getFile().getFileId());
+    private void saveDownloadedFile(DownloadFileOperation download, FileDataStorageManager storageManager) {
+        OCFile file = storageManager.getFileById(download.getFile().getFileId());
         long syncDate = System.currentTimeMillis();
         file.setLastSyncDateForProperties(syncDate);
         file.setLastSyncDateForData(syncDate);
         file.setNeedsUpdateThumbnail(true);
-        file.setModificationTimestamp(mCurrentDownload.getModificationTimestamp());
-        file.setModificationTimestampAtLastSyncForData(mCurrentDownload.getModificationTimestamp());
-        file.setEtag(mCurrentDownload.getEtag());
-        file.setMimetype(mCurrentDownload.getMimeType());
-        file.setStoragePath(mCurrentDownload.getSavePath());
-        file.setFileLength((new File(mCurrentDownload.getSavePath()).length()));
-        file.setRemoteId(mCurrentDownload.getFile().getRemoteId());
-        mStorageManager.saveFile(file);
-        mStorageManager.triggerMediaScan(file.getStoragePath());
-        mStorageManager.saveConflict(file, null);
+        file.setModificationTimestamp(download.getModificationTimestamp());
+        file.setModificationTimestampAtLastSyncForData(download.getModificationTimestamp());
+        file.setEtag(download.getEtag());
+        file.setMimetype(download.getMimeType());
+        file.setStoragePath(download.getSavePath());
+        file.setFileLength((new File(download.getSavePath()).length()));
+        file.setRemoteId(download.getFile().getRemoteId());
+        storageManager.saveFile(file);
+        storageManager.triggerMediaScan(file.getStoragePath());
+        storageManager.saveConflict(file, null);
     }
 
     /**
@@ -535,45 +676,74 @@ public class FileDownloader extends Service
         showDetailsIntent.putExtra(FileActivity.EXTRA_ACCOUNT, download.getAccount());
         showDetailsIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
 
-        /// create status notification with a progress bar
-        mLastPercent = 0;
-        getNotificationBuilder()
-                .setTicker(getString(R.string.downloader_download_in_progress_ticker))
-                .setContentTitle(getString(R.string.downloader_download_in_progress_ticker))
-                .setOngoing(true)
-                .setProgress(100, 0, download.getSize() < 0)
-                .setContentText(
-                        String.format(getString(R.string.downloader_download_in_progress_content), 0,
-                                new File(download.getSavePath()).getName()))
-                .setWhen(System.currentTimeMillis())
-                .setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(), showDetailsIntent
-                        , 0));
-
-        getNotificationManager().notify(
-                R.string.downloader_download_in_progress_ticker,
-                getNotificationBuilder().build()
-        );
-    }
+        synchronized (mNotificationBuilder) {
+            mProgress.put(download, new long[]{0, 0});
+            if (mProgress.size() == 1) {
+                /// create status notification with a progress bar
+                mLastPercent = 0;
+                mNotificationBuilder
+                        .setTicker(getString(R.string.downloader_download_in_progress_ticker))
+                        .setContentTitle(getString(R.string.downloader_download_in_progress_ticker))
+                        .setOngoing(true)
+                        .setProgress(100, 0, download.getSize() < 0)
+                        .setWhen(System.currentTimeMillis());
+            }
+            mNotificationBuilder
+                    .setContentText(getProgressText(new File(download.getSavePath()).getName()))
+                    .setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
+                            showDetailsIntent, 0));
 
-    /**
-     * Callback method to update the progress bar in the status notification.
-     */
-    @Override
-    public void onTransferProgress(long progressRate, long totalTransferredSoFar,
-                                   long totalToTransfer, String filePath) {
-        int percent = (int) (100.0 * ((double) totalTransferredSoFar) / ((double) totalToTransfer));
-        if (percent != mLastPercent) {
-            String fileName = filePath.substring(filePath.lastIndexOf(File.separator) + 1);
-            String text = String.format(getString(R.string.downloader_download_in_progress_content), percent, fileName);
-            getNotificationBuilder()
-                    .setProgress(100, percent, totalToTransfer < 0)
-                    .setContentText(text);
             getNotificationManager().notify(
                     R.string.downloader_download_in_progress_ticker,
-                    getNotificationBuilder().build()
+                    mNotificationBuilder.build()
             );
         }
-        mLastPercent = percent;
+    }
+
+    /**
+     * Callback method to update the progress bar in the status notification with the progress of a download, added
+     * to the rest of downloads in progress
+     */
+    private void onTransferProgress(DownloadFileOperation download, long totalTransferredSoFar,
+                                    long totalToTransfer) {
+        synchronized (mNotificationBuilder) {
+            long[] progress = mProgress.get(download);
+            if (progress == null) {
+                return;
+            }
+            progress[0] = totalTransferredSoFar;
+            progress[1] = totalToTransfer;
+            long transferred = 0;
+            long total = 0;
+            for (long[] progressOfDownload : mProgress.values()) {
+                transferred += progressOfDownload[0];
+                total += progressOfDownload[1];
+            }
+            int percent = (int) (100.0 * ((double) transferred) / ((double) total));
+            if (percent != mLastPercent) {
+                mLastPercent = percent;
+                mNotificationBuilder
+                        .setProgress(100, percent, totalToTransfer < 0)
+                        .setContentText(getProgressText(new File(download.getSavePath()).getName()));
+                getNotificationManager().notify(
+                        R.string.downloader_download_in_progress_ticker,
+                        mNotificationBuilder.build()
+                );
+            }
+        }
+    }
+
+    /**
+     * @param fileName Name of the file downloading, shown if it is the only one.
+     * @return Text for the status notification with the progress of all the downloads in progress. The lock of
+     * mNotificationBuilder must be held.
+     */
+    private String getProgressText(String fileName) {
+        if (mProgress.size() > 1) {
+            return String.format(getString(R.string.downloader_downloads_in_progress_content), mLastPercent,
+                    mProgress.size());
+        }
+        return String.format(getString(R.string.downloader_download_in_progress_content), mLastPercent, fileName);
     }
 
     /**
@@ -584,7 +754,13 @@ public class FileDownloader extends Service
      */
     private void notifyDownloadResult(DownloadFileOperation download,
                                       RemoteOperationResult downloadResult) {
-        getNotificationManager().cancel(R.string.downloader_download_in_progress_ticker);
+        synchronized (mNotificationBuilder) {
+            mProgress.remove(download);
+            if (mProgress.isEmpty()) {
+                getNotificationManager().cancel(R.string.downloader_download_in_progress_ticker);
+            }   // else the progress of the rest of downloads is notified with their next progress
+        }
+
         if (!downloadResult.isCancelled()) {
             int tickerId = (downloadResult.isSuccess()) ? R.string.downloader_download_succeeded_ticker :
                     R.string.downloader_download_failed_ticker;
@@ -593,7 +769,9 @@ public class FileDownloader extends Service
             tickerId = (needsToUpdateCredentials) ?
                     R.string.downloader_download_failed_credentials_error : tickerId;
 
-            getNotificationBuilder()
+            NotificationCompat.Builder resultNotificationBuilder =
+                    NotificationUtils.newNotificationBuilder(this, DOWNLOAD_NOTIFICATION_CHANNEL_ID);
+            resultNotificationBuilder
                     .setTicker(getString(tickerId))
                     .setContentTitle(getString(tickerId))
                     .setAutoCancel(true)
@@ -612,7 +790,7 @@ public class FileDownloader extends Service
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
                 updateAccountCredentials.addFlags(Intent.FLAG_FROM_BACKGROUND);
-                getNotificationBuilder()
+                resultNotificationBuilder
                         .setContentIntent(PendingIntent.getActivity(
                                 this, (int) System.currentTimeMillis(), updateAccountCredentials,
                                 PendingIntent.FLAG_ONE_SHOT));
@@ -620,17 +798,17 @@ public class FileDownloader extends Service
             } else {
                 // TODO put something smart in showDetailsIntent
                 Intent showDetailsIntent = new Intent();
-                getNotificationBuilder()
+                resultNotificationBuilder
                         .setContentIntent(PendingIntent.getActivity(
                                 this, (int) System.currentTimeMillis(), showDetailsIntent, 0));
             }
 
-            getNotificationBuilder().setContentText(
+            resultNotificationBuilder.setContentText(
                     ErrorMessageAdapter.Companion.getResultMessage(downloadResult, download,
                             getResources())
             );
 
-            getNotificationManager().notify(tickerId, getNotificationBuilder().build());
+            getNotificationManager().notify(tickerId, resultNotificationBuilder.build());
 
             // Remove success notification
             if (downloadResult.isSuccess()) {
@@ -699,11 +877,4 @@ public class FileDownloader extends Service
         }
         return mNotificationManager;
     }
-
-    private NotificationCompat.Builder getNotificationBuilder() {
-        if (mNotificationBuilder == null) {
-            mNotificationBuilder = NotificationUtils.newNotificationBuilder(this, DOWNLOAD_NOTIFICATION_CHANNEL_ID);
-        }
-        return mNotificationBuilder;
-    }
 }
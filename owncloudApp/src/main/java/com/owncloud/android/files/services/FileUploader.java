@@ -36,12 +36,9 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.os.Message;
 import android.os.Parcelable;
-import android.os.Process;
 import android.util.Pair;
 
 import androidx.core.app.NotificationCompat;
@@ -79,9 +76,9 @@ import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.AbstractList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.owncloud.android.operations.UploadFileOperation.CREATED_AS_CAMERA_UPLOAD_PICTURE;
 import static com.owncloud.android.operations.UploadFileOperation.CREATED_AS_CAMERA_UPLOAD_VIDEO;
@@ -97,10 +94,12 @@ import static com.owncloud.android.utils.NotificationConstantsKt.UPLOAD_NOTIFICA
  * fatal error occured.
  * <p>
  * Every file passed to this service is uploaded. No filtering is performed.
+ * <p>
+ * Several files are uploaded at the same time by a pool of {@link TransferWorkers}, up to a maximum in all the
+ * accounts and a lower one per account, both set in the resources of the app. A single notification shows the
+ * progress of all the uploads in progress.
  */
-public class FileUploader extends Service
-        implements OnDatatransferProgressListener, OnAccountsUpdateListener,
-        UploadFileOperation.OnRenameListener {
+public class FileUploader extends Service implements OnAccountsUpdateListener {
 
     private static final String UPLOADS_ADDED_MESSAGE = "UPLOADS_ADDED";
     private static final String UPLOAD_START_MESSAGE = "UPLOAD_START";
@@ -150,12 +149,9 @@ public class FileUploader extends Service
     public static final int LOCAL_BEHAVIOUR_MOVE = 1;
     public static final int LOCAL_BEHAVIOUR_FORGET = 2;
 
-    private Looper mServiceLooper;
-    private ServiceHandler mServiceHandler;
+    private TransferWorkers mUploadWorkers;
+    private Handler mMainHandler;
     private IBinder mBinder;
-    private OwnCloudClient mUploadClient = null;
-    private Account mCurrentAccount = null;
-    private FileDataStorageManager mStorageManager;
     //since there can be only one instance of an Android service, there also just one db connection.
     private UploadsStorageManager mUploadsStorageManager = null;
 
@@ -164,12 +160,23 @@ public class FileUploader extends Service
     private LocalBroadcastManager mLocalBroadcastManager;
 
     /**
-     * {@link UploadFileOperation} object of ongoing upload. Can be null. Note: There can only be one concurrent upload!
+     * Uploads in progress, by key in mPendingUploads
      */
-    private UploadFileOperation mCurrentUpload = null;
+    private final Map<String, UploadFileOperation> mUploadsInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Last command received; the service stops with it when all the uploads finish
+     */
+    private int mLastStartId;
 
     private NotificationManager mNotificationManager;
     private NotificationCompat.Builder mNotificationBuilder;
+
+    /**
+     * Bytes transferred and total bytes of every upload in progress, for the notification; guarded by
+     * mNotificationBuilder
+     */
+    private final Map<UploadFileOperation, long[]> mProgress = new HashMap<>();
     private int mLastPercent;
 
     public static String getUploadsAddedMessage() {
@@ -184,10 +191,9 @@ public class FileUploader extends Service
         return FileUploader.class.getName() + UPLOAD_FINISH_MESSAGE;
     }
 
-    @Override
-    public void onRenameUpload() {
-        mUploadsStorageManager.updateDatabaseUploadStart(mCurrentUpload);
-        sendBroadcastUploadStarted(mCurrentUpload);
+    private void onRenameUpload(UploadFileOperation upload) {
+        mUploadsStorageManager.updateDatabaseUploadStart(upload);
+        sendBroadcastUploadStarted(upload);
     }
 
     /**
@@ -200,11 +206,13 @@ public class FileUploader extends Service
 
         mNotificationBuilder = NotificationUtils.newNotificationBuilder(this, UPLOAD_NOTIFICATION_CHANNEL_ID);
 
-        HandlerThread thread = new HandlerThread("FileUploaderThread",
-                Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
-        mServiceLooper = thread.getLooper();
-        mServiceHandler = new ServiceHandler(mServiceLooper, this);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mUploadWorkers = new TransferWorkers(
+                "FileUploaderThread",
+                getResources().getInteger(R.integer.max_uploads_in_progress),
+                getResources().getInteger(R.integer.max_uploads_in_progress_per_account),
+                () -> mMainHandler.post(this::stopIfIdle)
+        );
         mBinder = new FileUploaderBinder();
 
         mUploadsStorageManager = new UploadsStorageManager(getContentResolver());
@@ -239,9 +247,8 @@ public class FileUploader extends Service
     public void onDestroy() {
         Timber.v("Destroying service");
         mBinder = null;
-        mServiceHandler = null;
-        mServiceLooper.quit();
-        mServiceLooper = null;
+        mUploadWorkers.shutDown();
+        mMainHandler.removeCallbacksAndMessages(null);
         mNotificationManager = null;
 
         // remove AccountsUpdatedListener
@@ -274,20 +281,24 @@ public class FileUploader extends Service
                 Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             Timber.d("Starting FileUploader service in foreground");
 
-            if (isCameraUploadFile) {
-                mNotificationBuilder.setContentTitle(getString(R.string.uploader_upload_camera_upload_files));
-            } else if (isAvailableOfflineFile) {
-                mNotificationBuilder.setContentTitle(getString(R.string.uploader_upload_available_offline_files));
-            } else if (isRequestedFromWifiBackEvent) {
-                mNotificationBuilder.setContentTitle(getString(R.string.uploader_upload_requested_from_wifi_files));
-            }
+            synchronized (mNotificationBuilder) {
+                if (isCameraUploadFile) {
+                    mNotificationBuilder.setContentTitle(getString(R.string.uploader_upload_camera_upload_files));
+                } else if (isAvailableOfflineFile) {
+                    mNotificationBuilder.setContentTitle(
+                            getString(R.string.uploader_upload_available_offline_files));
+                } else if (isRequestedFromWifiBackEvent) {
+                    mNotificationBuilder.setContentTitle(
+                            getString(R.string.uploader_upload_requested_from_wifi_files));
+                }
 
-            /*
-             * After calling startForegroundService method from {@link TransferRequester} for camera uploads or
-             * available offline, we have to call this within five seconds after the service is created to avoid
-             * an error
-             */
-            startForeground(141, mNotificationBuilder.build());
+                /*
+                 * After calling startForegroundService method from {@link TransferRequester} for camera uploads or
+                 * available offline, we have to call this within five seconds after the service is created to avoid
+                 * an error
+                 */
+                startForeground(141, mNotificationBuilder.build());
+            }
         }
 
         boolean retry = intent.getBooleanExtra(KEY_RETRY, false);
@@ -415,10 +426,7 @@ public class FileUploader extends Service
                     if (isCreateRemoteFolder) {
                         newUploadFileOperation.setRemoteFolderToBeCreated();
                     }
-                    newUploadFileOperation.addDatatransferProgressListener(this);
-                    newUploadFileOperation.addDatatransferProgressListener((FileUploaderBinder) mBinder);
-
-                    newUploadFileOperation.addRenameUploadListener(this);
+                    addListeners(newUploadFileOperation);
 
                     Pair<String, String> putResult = mPendingUploads.putIfAbsent(
                             account.name,
@@ -459,8 +467,14 @@ public class FileUploader extends Service
             UploadFileOperation newUploadFileOperation;
 
             if (upload.getFileSize() > ChunkedUploadRemoteFileOperation.CHUNK_SIZE) {
-                upload.setTransferId(
-                        SecurityUtils.stringToMD5Hash(upload.getRemotePath()) + System.currentTimeMillis());
+                // chunks already in the server are kept under the same transfer id, the upload goes on from them;
+                // chunks of a local file changed since then are left behind in their folder
+                if (!upload.canResumeChunksOf(new File(upload.getLocalPath()))) {
+                    upload.setTransferId(
+                            SecurityUtils.stringToMD5Hash(upload.getRemotePath()) + System.currentTimeMillis());
+                    upload.setChunksUploaded(0);
+                    upload.setChunksLastModified(0);
+                }
                 newUploadFileOperation = new ChunkedUploadFileOperation(
                         account,
                         null,
@@ -480,10 +494,7 @@ public class FileUploader extends Service
                 );
             }
 
-            newUploadFileOperation.addDatatransferProgressListener(this);
-            newUploadFileOperation.addDatatransferProgressListener((FileUploaderBinder) mBinder);
-
-            newUploadFileOperation.addRenameUploadListener(this);
+            addListeners(newUploadFileOperation);
 
             Pair<String, String> putResult = mPendingUploads.putIfAbsent(
                     account.name,
@@ -501,16 +512,42 @@ public class FileUploader extends Service
         }
         // *** TODO REWRITE END ***/
 
+        mLastStartId = startId;
         if (requestedUploads.size() > 0) {
-            Message msg = mServiceHandler.obtainMessage();
-            msg.arg1 = startId;
-            msg.obj = requestedUploads;
-            mServiceHandler.sendMessage(msg);
+            for (String uploadKey : requestedUploads) {
+                mUploadWorkers.submit(account.name, () -> uploadFile(uploadKey));
+            }
             sendBroadcastUploadsAdded();
+        } else {
+            stopIfIdle();
         }
         return Service.START_NOT_STICKY;
     }
 
+    /**
+     * Adds the listeners of the service to an upload, so that its progress and renames are notified with it.
+     */
+    private void addListeners(UploadFileOperation upload) {
+        upload.addDatatransferProgressListener(
+                (progressRate, totalTransferredSoFar, totalToTransfer, fileAbsoluteName) ->
+                        onTransferProgress(upload, totalTransferredSoFar, totalToTransfer)
+        );
+        upload.addDatatransferProgressListener(((FileUploaderBinder) mBinder).getListenerFor(upload));
+        upload.addRenameUploadListener(() -> onRenameUpload(upload));
+    }
+
+    /**
+     * Stops the service if all the uploads requested finished, out of the foreground. Runs in the main thread, as
+     * every new command, so that none arrives in the middle.
+     */
+    private void stopIfIdle() {
+        if (mUploadWorkers.isIdle()) {
+            Timber.d("Stopping after command with id %s", mLastStartId);
+            stopForeground(true);
+            stopSelf(mLastStartId);
+        }
+    }
+
     /**
      * Provides a binder object that clients can use to perform operations on
      * the queue of uploads, excepting the addition of new files.
@@ -534,10 +571,11 @@ public class FileUploader extends Service
 
     @Override
     public void onAccountsUpdated(Account[] accounts) {
-        // Review current upload, and cancel it if its account doen't exist
-        if (mCurrentUpload != null &&
-                !AccountUtils.exists(mCurrentUpload.getAccount().name, getApplicationContext())) {
-            mCurrentUpload.cancel();
+        // Review current uploads, and cancel them if their account doesn't exist
+        for (UploadFileOperation upload : mUploadsInProgress.values()) {
+            if (!AccountUtils.exists(upload.getAccount().name, getApplicationContext())) {
+                upload.cancel();
+            }
         }
         // The rest of uploads are cancelled when they try to start
     }
@@ -548,14 +586,14 @@ public class FileUploader extends Service
      * <p/>
      * It provides by itself the available operations.
      */
-    public class FileUploaderBinder extends Binder implements OnDatatransferProgressListener {
+    public class FileUploaderBinder extends Binder {
 
         /**
          * Map of listeners that will be reported about progress of uploads from a
          * {@link FileUploaderBinder} instance
          */
         private Map<String, WeakReference<OnDatatransferProgressListener>> mBoundListeners =
-                new HashMap<>();
+                new ConcurrentHashMap<>();
 
         /**
          * Cancels a pending or current upload of a remote file.
@@ -586,12 +624,14 @@ public class FileUploader extends Service
             Pair<UploadFileOperation, String> removeResult =
                     mPendingUploads.remove(accountName, remotePath);
             UploadFileOperation upload = removeResult.first;
-            if (upload == null &&
-                    mCurrentUpload != null && mCurrentAccount != null &&
-                    mCurrentUpload.getRemotePath().startsWith(remotePath) &&
-                    accountName.equals(mCurrentAccount.name)) {
-
-                upload = mCurrentUpload;
+            if (upload == null) {
+                for (UploadFileOperation uploadInProgress : mUploadsInProgress.values()) {
+                    if (uploadInProgress.getRemotePath().startsWith(remotePath) &&
+                            accountName.equals(uploadInProgress.getAccount().name)) {
+                        upload = uploadInProgress;
+                        break;
+                    }
+                }
             }
             if (upload != null) {
                 upload.cancel();
@@ -612,10 +652,10 @@ public class FileUploader extends Service
         public void cancel(Account account) {
             Timber.d("Account= %s", account.name);
 
-            if (mCurrentUpload != null) {
-                Timber.d("Current Upload Account= %s", mCurrentUpload.getAccount().name);
-                if (mCurrentUpload.getAccount().name.equals(account.name)) {
-                    mCurrentUpload.cancel();
+            for (UploadFileOperation upload : mUploadsInProgress.values()) {
+                if (upload.getAccount().name.equals(account.name)) {
+                    Timber.d("Cancelling upload in progress %s", upload.getRemotePath());
+                    upload.cancel();
                 }
             }
             // Cancel pending uploads
@@ -648,13 +688,16 @@ public class FileUploader extends Service
         }
 
         public boolean isUploadingNow(OCUpload upload) {
-            return (
-                    upload != null &&
-                            mCurrentAccount != null &&
-                            mCurrentUpload != null &&
-                            upload.getAccountName().equals(mCurrentAccount.name) &&
-                            upload.getRemotePath().equals(mCurrentUpload.getRemotePath())
-            );
+            if (upload == null) {
+                return false;
+            }
+            for (UploadFileOperation uploadInProgress : mUploadsInProgress.values()) {
+                if (upload.getAccountName().equals(uploadInProgress.getAccount().name) &&
+                        upload.getRemotePath().equals(uploadInProgress.getRemotePath())) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
@@ -747,128 +790,98 @@ public class FileUploader extends Service
             return accountName + remotePath;
         }
 
-        @Override
-        public void onTransferProgress(long read, long transferred, long total, String absolutePath) {
-            String key = buildRemoteName(mCurrentUpload.getAccount().name, mCurrentUpload.getFile().getRemotePath());
-            WeakReference<OnDatatransferProgressListener> boundListenerRef = mBoundListeners.get(key);
-            if (boundListenerRef != null && boundListenerRef.get() != null) {
-                boundListenerRef.get().onTransferProgress(read, transferred, total, absolutePath);
-            }
-        }
-    }
-
-    /**
-     * Upload worker. Performs the pending uploads in the order they were
-     * requested.
-     * <p>
-     * Created with the Looper of a new thread, started in
-     * {@link FileUploader#onCreate()}.
-     */
-    private static class ServiceHandler extends Handler {
-        // don't make it a final class, and don't remove the static ; lint will
-        // warn about a possible memory leak
-        FileUploader mService;
-
-        public ServiceHandler(Looper looper, FileUploader service) {
-            super(looper);
-            if (service == null) {
-                throw new IllegalArgumentException("Received invalid NULL in parameter 'service'");
-            }
-            mService = service;
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            @SuppressWarnings("unchecked")
-            AbstractList<String> requestedUploads = (AbstractList<String>) msg.obj;
-            if (msg.obj != null) {
-                Iterator<String> it = requestedUploads.iterator();
-                while (it.hasNext()) {
-                    mService.uploadFile(it.next());
+        /**
+         * @return Listener reporting the progress of an upload to the listeners bound for its file.
+         */
+        private OnDatatransferProgressListener getListenerFor(UploadFileOperation upload) {
+            return (read, transferred, total, absolutePath) -> {
+                String key = buildRemoteName(upload.getAccount().name, upload.getFile().getRemotePath());
+                WeakReference<OnDatatransferProgressListener> boundListenerRef = mBoundListeners.get(key);
+                if (boundListenerRef != null && boundListenerRef.get() != null) {
+                    boundListenerRef.get().onTransferProgress(read, transferred, total, absolutePath);
                 }
-            }
-            Timber.d("Stopping command after id %s", msg.arg1);
-            mService.stopForeground(true);
-            mService.stopSelf(msg.arg1);
+            };
         }
     }
 
     /**
-     * Core upload method: sends the file(s) to upload
+     * Core upload method: sends the file(s) to upload. Runs in a worker of {@link TransferWorkers}, maybe at the
+     * same time as other uploads.
      *
      * @param uploadKey Key to access the upload to perform, contained in mPendingUploads
      */
     public void uploadFile(String uploadKey) {
 
-        mCurrentUpload = mPendingUploads.get(uploadKey);
+        UploadFileOperation upload = mPendingUploads.get(uploadKey);
 
-        if (mCurrentUpload != null) {
+        if (upload != null) {
 
             /// Check account existence
-            if (!AccountUtils.exists(mCurrentUpload.getAccount().name, this)) {
-                Timber.w("Account " + mCurrentUpload.getAccount().name + " does not exist anymore -> cancelling all " +
-                        "its uploads");
-                cancelUploadsForAccount(mCurrentUpload.getAccount());
+            Account account = upload.getAccount();
+            if (!AccountUtils.exists(account.name, this)) {
+                Timber.w("Account " + account.name + " does not exist anymore -> cancelling all its uploads");
+                cancelUploadsForAccount(account);
                 return;
             }
 
             /// OK, let's upload
-            mUploadsStorageManager.updateDatabaseUploadStart(mCurrentUpload);
+            mUploadsInProgress.put(uploadKey, upload);
+
+            mUploadsStorageManager.updateDatabaseUploadStart(upload);
 
-            notifyUploadStart(mCurrentUpload);
+            notifyUploadStart(upload);
 
-            sendBroadcastUploadStarted(mCurrentUpload);
+            sendBroadcastUploadStarted(upload);
 
             RemoteOperationResult uploadResult = null;
+            OwnCloudClient uploadClient = null;
 
             try {
                 /// prepare client object to send the request to the ownCloud server
-                if (mCurrentAccount == null ||
-                        !mCurrentAccount.equals(mCurrentUpload.getAccount())) {
-                    mCurrentAccount = mCurrentUpload.getAccount();
-                    mStorageManager = new FileDataStorageManager(
-                            getApplicationContext(),
-                            mCurrentAccount,
-                            getContentResolver()
-                    );
-                }   // else, reuse storage manager from previous operation
+                FileDataStorageManager storageManager = new FileDataStorageManager(
+                        getApplicationContext(),
+                        account,
+                        getContentResolver()
+                );
 
                 // always get client from client manager to get fresh credentials in case of update
                 OwnCloudAccount ocAccount = new OwnCloudAccount(
-                        mCurrentAccount,
+                        account,
                         this
                 );
-                mUploadClient = SingleSessionManager.getDefaultSingleton().
+                uploadClient = SingleSessionManager.getDefaultSingleton().
                         getClientFor(ocAccount, this);
 
                 /// perform the upload
-                uploadResult = mCurrentUpload.execute(mUploadClient, mStorageManager);
+                uploadResult = upload.execute(uploadClient, storageManager);
 
             } catch (Exception e) {
                 Timber.e(e, "Error uploading");
                 uploadResult = new RemoteOperationResult(e);
 
             } finally {
+                mUploadsInProgress.remove(uploadKey);
+
                 Pair<UploadFileOperation, String> removeResult;
-                if (mCurrentUpload.wasRenamed()) {
+                if (upload.wasRenamed()) {
                     removeResult = mPendingUploads.removePayload(
-                            mCurrentAccount.name,
-                            mCurrentUpload.getOldFile().getRemotePath()
+                            account.name,
+                            upload.getOldFile().getRemotePath()
                     );
-                    /* TODO: grant that name is also updated for mCurrentUpload.getOCUploadId */
+                    /* TODO: grant that name is also updated for upload.getOCUploadId */
 
                 } else {
                     removeResult = mPendingUploads.removePayload(
-                            mCurrentAccount.name,
-                            mCurrentUpload.getRemotePath()
+                            account.name,
+                            upload.getRemotePath()
                     );
                 }
 
                 if (uploadResult != null && !uploadResult.isSuccess()) {
                     TransferRequester requester = new TransferRequester();
                     int jobId = mPendingUploads.buildKey(
-                            mCurrentAccount.name,
-                            mCurrentUpload.getRemotePath()
+                            account.name,
+                            upload.getRemotePath()
                     ).hashCode();
 
                     if (uploadResult.getException() != null) {
@@ -877,16 +890,16 @@ public class FileUploader extends Service
                             requester.scheduleUpload(
                                     this,
                                     jobId,
-                                    mCurrentAccount.name,
-                                    mCurrentUpload.getRemotePath()
+                                    account.name,
+                                    upload.getRemotePath()
                             );
                             uploadResult = new RemoteOperationResult(
                                     ResultCode.NO_NETWORK_CONNECTION);
                         } else {
                             String stringToLog = String.format(
                                     "Exception in upload, network is OK, no retry scheduled for %1s in %2s",
-                                    mCurrentUpload.getRemotePath(),
-                                    mCurrentAccount.name
+                                    upload.getRemotePath(),
+                                    account.name
                             );
                             Timber.v(stringToLog);
                         }
@@ -895,36 +908,36 @@ public class FileUploader extends Service
                         requester.scheduleUpload(
                                 this,
                                 jobId,
-                                mCurrentAccount.name,
-                                mCurrentUpload.getRemotePath()
+                                account.name,
+                                upload.getRemotePath()
                         );
                     }
                 } else {
                     String stringToLog = String.format(
                             "Success OR fail without exception for %1s in %2s",
-                            mCurrentUpload.getRemotePath(),
-                            mCurrentAccount.name
+                            upload.getRemotePath(),
+                            account.name
                     );
                     Timber.v(stringToLog);
                 }
 
                 if (uploadResult != null) {
-                    mUploadsStorageManager.updateDatabaseUploadResult(uploadResult, mCurrentUpload);
+                    mUploadsStorageManager.updateDatabaseUploadResult(uploadResult, upload);
                     /// notify result
-                    notifyUploadResult(mCurrentUpload, uploadResult);
+                    notifyUploadResult(upload, uploadResult, uploadClient);
                 }
 
-                sendBroadcastUploadFinished(mCurrentUpload, uploadResult, removeResult.second);
+                sendBroadcastUploadFinished(upload, uploadResult, removeResult.second);
             }
         }
     }
 
-    private void removeChunksFolder(long ocUploadId) {
+    private void removeChunksFolder(long ocUploadId, OwnCloudClient client) {
         RemoveChunksFolderOperation remoteChunksFolderOperation = new RemoveChunksFolderOperation(
                 String.valueOf(ocUploadId)
         );
 
-        RemoteOperationResult result = remoteChunksFolderOperation.execute(mUploadClient);
+        RemoteOperationResult result = remoteChunksFolderOperation.execute(client);
 
         if (!result.isSuccess()) {
             Timber.e("Error deleting chunks folder after cancelling chunked upload");
@@ -939,47 +952,76 @@ public class FileUploader extends Service
     private void notifyUploadStart(UploadFileOperation upload) {
         Timber.d("Notifying upload start");
 
-        // / create status notification with a progress bar
-        mLastPercent = 0;
-        mNotificationBuilder
-                .setOngoing(true)
-                .setTicker(getString(R.string.uploader_upload_in_progress_ticker))
-                .setContentTitle(getString(R.string.uploader_upload_in_progress_ticker))
-                .setProgress(100, 0, false)
-                .setContentText(
-                        String.format(getString(R.string.uploader_upload_in_progress_content), 0, upload.getFileName()))
-                .setWhen(System.currentTimeMillis());
-
-        /// includes a pending intent in the notification showing the details
-        Intent showUploadListIntent = new Intent(this, UploadListActivity.class);
-        showUploadListIntent.putExtra(FileActivity.EXTRA_FILE, upload.getFile());
-        showUploadListIntent.putExtra(FileActivity.EXTRA_ACCOUNT, upload.getAccount());
-        showUploadListIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        mNotificationBuilder.setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
-                showUploadListIntent, 0));
-
-        if (!upload.isCameraUploadsPicture() && !upload.isCameraUploadsVideo()) {
-            getNotificationManager().notify(R.string.uploader_upload_in_progress_ticker,
-                    mNotificationBuilder.build());
-        }// else wait until the upload really start (onTransferProgress is called), so that if it's discarded
-        // due to lack of Wifi, no notification is shown
+        synchronized (mNotificationBuilder) {
+            mProgress.put(upload, new long[]{0, 0});
+            if (mProgress.size() == 1) {
+                // / create status notification with a progress bar
+                mLastPercent = 0;
+                mNotificationBuilder
+                        .setOngoing(true)
+                        .setTicker(getString(R.string.uploader_upload_in_progress_ticker))
+                        .setContentTitle(getString(R.string.uploader_upload_in_progress_ticker))
+                        .setProgress(100, 0, false)
+                        .setWhen(System.currentTimeMillis());
+            }
+            mNotificationBuilder.setContentText(getProgressText(upload.getFileName()));
+
+            /// includes a pending intent in the notification showing the details
+            Intent showUploadListIntent = new Intent(this, UploadListActivity.class);
+            showUploadListIntent.putExtra(FileActivity.EXTRA_FILE, upload.getFile());
+            showUploadListIntent.putExtra(FileActivity.EXTRA_ACCOUNT, upload.getAccount());
+            showUploadListIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+            mNotificationBuilder.setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
+                    showUploadListIntent, 0));
+
+            if (!upload.isCameraUploadsPicture() && !upload.isCameraUploadsVideo()) {
+                getNotificationManager().notify(R.string.uploader_upload_in_progress_ticker,
+                        mNotificationBuilder.build());
+            }// else wait until the upload really start (onTransferProgress is called), so that if it's discarded
+            // due to lack of Wifi, no notification is shown
+        }
     }
 
     /**
-     * Callback method to update the progress bar in the status notification
+     * Callback method to update the progress bar in the status notification with the progress of an upload, added
+     * to the rest of uploads in progress
      */
-    @Override
-    public void onTransferProgress(long progressRate, long totalTransferredSoFar,
-                                   long totalToTransfer, String filePath) {
-        int percent = (int) (100.0 * ((double) totalTransferredSoFar) / ((double) totalToTransfer));
-        if (percent != mLastPercent) {
-            mNotificationBuilder.setProgress(100, percent, false);
-            String fileName = filePath.substring(filePath.lastIndexOf(File.separator) + 1);
-            String text = String.format(getString(R.string.uploader_upload_in_progress_content), percent, fileName);
-            mNotificationBuilder.setContentText(text);
-            getNotificationManager().notify(R.string.uploader_upload_in_progress_ticker, mNotificationBuilder.build());
+    private void onTransferProgress(UploadFileOperation upload, long totalTransferredSoFar, long totalToTransfer) {
+        synchronized (mNotificationBuilder) {
+            long[] progress = mProgress.get(upload);
+            if (progress == null) {
+                return;
+            }
+            progress[0] = totalTransferredSoFar;
+            progress[1] = totalToTransfer;
+            long transferred = 0;
+            long total = 0;
+            for (long[] progressOfUpload : mProgress.values()) {
+                transferred += progressOfUpload[0];
+                total += progressOfUpload[1];
+            }
+            int percent = (int) (100.0 * ((double) transferred) / ((double) total));
+            if (percent != mLastPercent) {
+                mLastPercent = percent;
+                mNotificationBuilder.setProgress(100, percent, false);
+                mNotificationBuilder.setContentText(getProgressText(upload.getFileName()));
+                getNotificationManager().notify(R.string.uploader_upload_in_progress_ticker,
+                        mNotificationBuilder.build());
+            }
         }
-        mLastPercent = percent;
+    }
+
+    /**
+     * @param fileName Name of the file uploading, shown if it is the only one.
+     * @return Text for the status notification with the progress of all the uploads in progress. The lock of
+     * mNotificationBuilder must be held.
+     */
+    private String getProgressText(String fileName) {
+        if (mProgress.size() > 1) {
+            return String.format(getString(R.string.uploader_uploads_in_progress_content), mLastPercent,
+                    mProgress.size());
+        }
+        return String.format(getString(R.string.uploader_upload_in_progress_content), mLastPercent, fileName);
     }
 
     /**
@@ -987,15 +1029,22 @@ public class FileUploader extends Service
      *
      * @param uploadResult Result of the upload operation.
      * @param upload       Finished upload operation
+     * @param uploadClient Client used by the upload, or null if it could not be created.
      */
     private void notifyUploadResult(UploadFileOperation upload,
-                                    RemoteOperationResult uploadResult) {
+                                    RemoteOperationResult uploadResult,
+                                    OwnCloudClient uploadClient) {
         Timber.d("NotifyUploadResult with resultCode: %s", uploadResult.getCode());
-        // / cancelled operation or success -> silent removal of progress notification
-        getNotificationManager().cancel(R.string.uploader_upload_in_progress_ticker);
+        synchronized (mNotificationBuilder) {
+            mProgress.remove(upload);
+            if (mProgress.isEmpty()) {
+                // / cancelled operation or success -> silent removal of progress notification
+                getNotificationManager().cancel(R.string.uploader_upload_in_progress_ticker);
+            }   // else the progress of the rest of uploads is notified with their next progress
+        }
 
-        if (uploadResult.isCancelled() && upload instanceof ChunkedUploadFileOperation) {
-            removeChunksFolder(upload.getOCUploadId());
+        if (uploadResult.isCancelled() && upload instanceof ChunkedUploadFileOperation && uploadClient != null) {
+            removeChunksFolder(upload.getOCUploadId(), uploadClient);
         }
 
         if (!uploadResult.isCancelled() &&
@@ -1012,7 +1061,9 @@ public class FileUploader extends Service
             tickerId = (needsToUpdateCredentials) ?
                     R.string.uploader_upload_failed_credentials_error : tickerId;
 
-            mNotificationBuilder
+            NotificationCompat.Builder resultNotificationBuilder =
+                    NotificationUtils.newNotificationBuilder(this, UPLOAD_NOTIFICATION_CHANNEL_ID);
+            resultNotificationBuilder
                     .setTicker(getString(tickerId))
                     .setContentTitle(getString(tickerId))
                     .setAutoCancel(true)
@@ -1037,7 +1088,7 @@ public class FileUploader extends Service
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
                 updateAccountCredentials.addFlags(Intent.FLAG_FROM_BACKGROUND);
-                mNotificationBuilder.setContentIntent(PendingIntent.getActivity(
+                resultNotificationBuilder.setContentIntent(PendingIntent.getActivity(
                         this,
                         (int) System.currentTimeMillis(),
                         updateAccountCredentials,
@@ -1045,7 +1096,7 @@ public class FileUploader extends Service
                 ));
 
             } else {
-                mNotificationBuilder.setContentText(content);
+                resultNotificationBuilder.setContentText(content);
             }
 
             if (!uploadResult.isSuccess() && !needsToUpdateCredentials) {
@@ -1054,13 +1105,13 @@ public class FileUploader extends Service
                 showUploadListIntent.putExtra(FileActivity.EXTRA_FILE, upload.getFile());
                 showUploadListIntent.putExtra(FileActivity.EXTRA_ACCOUNT, upload.getAccount());
                 showUploadListIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                mNotificationBuilder.setContentIntent(PendingIntent.getActivity(this, (int) System.currentTimeMillis(),
-                        showUploadListIntent, 0));
+                resultNotificationBuilder.setContentIntent(PendingIntent.getActivity(this,
+                        (int) System.currentTimeMillis(), showUploadListIntent, 0));
             }
 
-            mNotificationBuilder.setContentText(content);
+            resultNotificationBuilder.setContentText(content);
 
-            getNotificationManager().notify(tickerId, mNotificationBuilder.build());
+            getNotificationManager().notify(tickerId, resultNotificationBuilder.build());
 
             if (uploadResult.isSuccess()) {
                 mPendingUploads.remove(upload.getAccount().name, upload.getFile().getRemotePath());
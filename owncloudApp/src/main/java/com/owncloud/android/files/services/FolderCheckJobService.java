@@ -0,0 +1,98 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.files.services;
+
+import android.accounts.Account;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+
+import com.owncloud.android.MainApp;
+import com.owncloud.android.authentication.AccountUtils;
+import com.owncloud.android.utils.Extras;
+import timber.log.Timber;
+
+/**
+ * Job requesting an automatic synchronization of an account when the next of its folders is due for a check of
+ * its ETag; see {@link com.owncloud.android.syncadapter.FolderCheckSchedule}.
+ * <p>
+ * The system runs automatic synchronizations on a period of its own; this job brings the next one forward to the
+ * time the schedule of the folders asks for. The synchronization itself is still run by the sync adapter, so the
+ * automatic sync setting of the account is respected.
+ */
+public class FolderCheckJobService extends JobService {
+
+    private static final String JOB_ID_PREFIX = "folder_check:";
+
+    /**
+     * Schedules the next automatic synchronization of an account, replacing the one scheduled before, if any.
+     *
+     * @param context   Android context.
+     * @param account   Account to synchronize.
+     * @param checkTime Time when the next folder of the account is due for a check, in milliseconds.
+     */
+    public static void schedule(Context context, Account account, long checkTime) {
+        JobInfo.Builder builder = new JobInfo.Builder(
+                (JOB_ID_PREFIX + account.name).hashCode(),
+                new ComponentName(context, FolderCheckJobService.class)
+        );
+        builder.setMinimumLatency(Math.max(checkTime - System.currentTimeMillis(), 0));
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
+
+        // Persist job and prevent it from being deleted after a device restart
+        builder.setPersisted(true);
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(Extras.EXTRA_ACCOUNT_NAME, account.name);
+        builder.setExtras(extras);
+
+        Timber.d("Scheduling a FolderCheckJobService for %s in %d ms", account.name,
+                checkTime - System.currentTimeMillis());
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.schedule(builder.build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters jobParameters) {
+        String accountName = jobParameters.getExtras().getString(Extras.EXTRA_ACCOUNT_NAME);
+        Account account = AccountUtils.getOwnCloudAccountByName(this, accountName);
+        if (account == null) {
+            // the account was removed after scheduling the job
+            Timber.w("No account %s to check its folders", accountName);
+            return false;
+        }
+
+        Timber.d("Requesting synchronization of %s to check its folders due", accountName);
+        ContentResolver.requestSync(account, MainApp.Companion.getAuthority(), new Bundle());
+
+        return false;   // done here, the synchronization is run by the sync adapter
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        return false;
+    }
+}
@@ -38,6 +38,8 @@ import java.util.concurrent.ConcurrentMap;
  *  A map provides the indexation based in hashing.
  *
  *  A tree is created per account.
+ *
+ *  Changes in the trees are synchronized, so that transfers running in parallel can add and remove their files.
  */
 public class IndexedForest<V> {
 
@@ -96,7 +98,7 @@ public class IndexedForest<V> {
         }
     }
 
-    public /* synchronized */ Pair<String, String> putIfAbsent(String accountName, String remotePath, V value) {
+    public synchronized Pair<String, String> putIfAbsent(String accountName, String remotePath, V value) {
         String targetKey = buildKey(accountName, remotePath);
 
         Node<V> valuedNode = new Node(targetKey, value);
@@ -141,7 +143,7 @@ public class IndexedForest<V> {
         }
     }
 
-    public Pair<V, String> removePayload(String accountName, String remotePath) {
+    public synchronized Pair<V, String> removePayload(String accountName, String remotePath) {
         String targetKey = buildKey(accountName, remotePath);
         Node<V> target = mMap.get(targetKey);
         if (target != null) {
@@ -153,7 +155,7 @@ public class IndexedForest<V> {
         return new Pair<V, String>(null, null);
     }
 
-    public /* synchronized */ Pair<V, String> remove(String accountName, String remotePath) {
+    public synchronized Pair<V, String> remove(String accountName, String remotePath) {
         String targetKey = buildKey(accountName, remotePath);
         Node<V> firstRemoved = mMap.remove(targetKey);
         String unlinkedFrom = null;
@@ -219,7 +221,7 @@ public class IndexedForest<V> {
      * Remove the elements that contains account as a part of its key
      * @param accountName
      */
-    public void remove(String accountName) {
+    public synchronized void remove(String accountName) {
         Iterator<String> it = mMap.keySet().iterator();
         while (it.hasNext()) {
             String key = it.next();
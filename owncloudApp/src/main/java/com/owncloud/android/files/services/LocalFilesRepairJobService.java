@@ -0,0 +1,147 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.files.services;
+
+import android.accounts.Account;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+
+import com.owncloud.android.MainApp;
+import com.owncloud.android.authentication.AccountUtils;
+import com.owncloud.android.datamodel.FileDataStorageManager;
+import com.owncloud.android.db.PreferenceManager;
+import timber.log.Timber;
+
+/**
+ * Job to link files in the database with the local copies found in their default local paths, when the link
+ * is missing; this may happen with files downloaded by old versions of the app.
+ * <p>
+ * Formerly done every time a file was read from the database, it only needs to run once for every version of
+ * the app.
+ */
+public class LocalFilesRepairJobService extends JobService {
+
+    // It needs to be always the same so that a pending job is replaced instead of duplicated
+    private static final int JOB_ID_LOCAL_FILES_REPAIR = 3;
+
+    private static final String PREFERENCE_LAST_REPAIR_VERSION = "local_files_repair_last_version";
+
+    // Devices rarely idle, or stopping the job every time they wake up, still get it run
+    private static final long REPAIR_DEADLINE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private LocalFilesRepairJobTask mTask;
+
+    /**
+     * Schedule the job if it did not run yet for the current version of the app
+     */
+    public static void scheduleIfNeeded(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        if (preferences.getInt(PREFERENCE_LAST_REPAIR_VERSION, 0) == MainApp.Companion.getVersionCode()) {
+            return;
+        }
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID_LOCAL_FILES_REPAIR) {
+                // scheduling it again would push its deadline back
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(
+                JOB_ID_LOCAL_FILES_REPAIR,
+                new ComponentName(context, LocalFilesRepairJobService.class)
+        );
+        builder.setRequiresDeviceIdle(true);
+        builder.setOverrideDeadline(REPAIR_DEADLINE_MILLIS);
+
+        Timber.d("Scheduling a LocalFilesRepairJobService");
+
+        jobScheduler.schedule(builder.build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters jobParameters) {
+        Timber.d("Starting job to link files with their local copies");
+
+        mTask = new LocalFilesRepairJobTask(this);
+        mTask.execute(jobParameters);
+
+        return true; // True because we have a thread still running in background
+    }
+
+    private static class LocalFilesRepairJobTask extends AsyncTask<JobParameters, Void, JobParameters> {
+
+        private final JobService mLocalFilesRepairJobService;
+
+        public LocalFilesRepairJobTask(JobService localFilesRepairJobService) {
+            mLocalFilesRepairJobService = localFilesRepairJobService;
+        }
+
+        @Override
+        protected JobParameters doInBackground(JobParameters... jobParams) {
+            if (mLocalFilesRepairJobService.getContentResolver() == null) {
+                Timber.w("Content resolver is null, do not link local copies of files.");
+                return jobParams[0];
+            }
+
+            for (Account account : AccountUtils.getAccounts(mLocalFilesRepairJobService)) {
+                if (isCancelled()) {
+                    return jobParams[0];
+                }
+                FileDataStorageManager storageManager = new FileDataStorageManager(
+                        mLocalFilesRepairJobService, account, mLocalFilesRepairJobService.getContentResolver()
+                );
+                int linked = storageManager.bindLostLocalFiles();
+                Timber.d("Linked %d files with their local copies in account %s", linked, account.name);
+            }
+
+            PreferenceManager.getDefaultSharedPreferences(mLocalFilesRepairJobService).edit()
+                    .putInt(PREFERENCE_LAST_REPAIR_VERSION, MainApp.Companion.getVersionCode())
+                    .apply();
+
+            return jobParams[0];
+        }
+
+        @Override
+        protected void onPostExecute(JobParameters jobParameters) {
+            mLocalFilesRepairJobService.jobFinished(jobParameters, false);
+        }
+    }
+
+    @Override
+    /*
+     * Called by the system if the job is cancelled before being finished
+     */
+    public boolean onStopJob(JobParameters jobParameters) {
+        Timber.d("Job was cancelled before finishing.");
+        if (mTask != null) {
+            // stops before the next account; the repair is not marked as done, so it runs again when rescheduled
+            mTask.cancel(false);
+            mTask = null;
+        }
+        return true;
+    }
+}
@@ -42,6 +42,7 @@ import com.owncloud.android.utils.PowerUtils;
 import timber.log.Timber;
 
 import java.net.SocketTimeoutException;
+import java.util.List;
 
 import static com.owncloud.android.operations.UploadFileOperation.CREATED_AS_CAMERA_UPLOAD_PICTURE;
 import static com.owncloud.android.operations.UploadFileOperation.CREATED_AS_CAMERA_UPLOAD_VIDEO;
@@ -55,8 +56,6 @@ import static com.owncloud.android.operations.UploadFileOperation.CREATED_AS_CAM
  * {@link FileDownloader}.
  * <p>
  * Protects client objects from the verbosity of {@link android.content.Intent}s.
- * <p>
- * TODO add methods for {@link FileDownloader}, right now it's just about uploads
  */
 
 public class TransferRequester {
@@ -149,6 +148,34 @@ public class TransferRequester {
                 requestedFromAvOfflineJobService);
     }
 
+    /**
+     * Call to download, at once, all the files without a local copy in a folder and its subfolders, smallest first
+     */
+    public void downloadFolder(Context context, Account account, OCFile folder) {
+        Intent intent = new Intent(context, FileDownloader.class);
+
+        intent.putExtra(FileDownloader.KEY_ACCOUNT, account);
+        intent.putExtra(FileDownloader.KEY_FOLDER, folder.getRemotePath());
+        intent.putExtra(FileDownloader.KEY_ORDER, FileDownloader.ORDER_SMALLEST_FIRST);
+
+        Timber.d("Start to download the files in %s from foreground", folder.getRemotePath());
+        context.startService(intent);
+    }
+
+    /**
+     * Call to download several files at once, in the order of their remote paths
+     */
+    public void downloadFiles(Context context, Account account, List<String> remotePaths) {
+        Intent intent = new Intent(context, FileDownloader.class);
+
+        intent.putExtra(FileDownloader.KEY_ACCOUNT, account);
+        intent.putExtra(FileDownloader.KEY_REMOTE_PATHS, remotePaths.toArray(new String[0]));
+        intent.putExtra(FileDownloader.KEY_ORDER, FileDownloader.ORDER_BY_PATH);
+
+        Timber.d("Start to download %d files from foreground", remotePaths.size());
+        context.startService(intent);
+    }
+
     /**
      * Call to retry upload identified by remotePath
      */
@@ -0,0 +1,218 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.files.services;
+
+import android.os.Process;
+
+import timber.log.Timber;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Pool of threads running the transfers of files requested to a service, several at the same time.
+ * <p>
+ * Transfers start in the order they were submitted, up to a maximum at the same time, and up to a lower maximum for
+ * every account; a transfer of an account with all its workers busy waits, while the ones of other accounts behind
+ * it start. Transfers submitted with {@link #submitFirst(String, Runnable)} skip the ones waiting.
+ * <p>
+ * Workers are created when there are transfers ready to start, and finish when there are none.
+ */
+public class TransferWorkers {
+
+    /**
+     * Called when the last transfer finishes and there are no more waiting.
+     */
+    public interface OnIdleListener {
+        void onIdle();
+    }
+
+    private final String mName;
+    private final int mMaxWorkers;
+    private final int mMaxWorkersPerAccount;
+    private final OnIdleListener mOnIdleListener;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Transfers waiting to start, in the order they were submitted
+     */
+    private final LinkedList<Transfer> mWaiting = new LinkedList<>();
+
+    /**
+     * Transfers running, by account name
+     */
+    private final Map<String, Integer> mRunning = new HashMap<>();
+
+    private int mWorkers;
+    private int mLastWorkerId;
+    private boolean mShutDown;
+
+    /**
+     * @param name                 Name of the worker threads, followed by a number.
+     * @param maxWorkers           Maximum number of transfers running at the same time.
+     * @param maxWorkersPerAccount Maximum number of transfers of the same account running at the same time.
+     * @param onIdleListener       Listener to notify when all the transfers finished, or null.
+     */
+    public TransferWorkers(String name, int maxWorkers, int maxWorkersPerAccount, OnIdleListener onIdleListener) {
+        mName = name;
+        mMaxWorkers = Math.max(1, maxWorkers);
+        mMaxWorkersPerAccount = Math.max(1, Math.min(mMaxWorkers, maxWorkersPerAccount));
+        mOnIdleListener = onIdleListener;
+    }
+
+    public int getMaxWorkers() {
+        return mMaxWorkers;
+    }
+
+    public int getMaxWorkersPerAccount() {
+        return mMaxWorkersPerAccount;
+    }
+
+    /**
+     * Adds a transfer to run when a worker is free for its account.
+     *
+     * @param accountName Name of the account of the transfer.
+     * @param transfer    Transfer to run.
+     */
+    public void submit(String accountName, Runnable transfer) {
+        submit(accountName, transfer, false);
+    }
+
+    /**
+     * Adds a transfer to run before all the ones waiting, like one the user is waiting for.
+     *
+     * @param accountName Name of the account of the transfer.
+     * @param transfer    Transfer to run.
+     */
+    public void submitFirst(String accountName, Runnable transfer) {
+        submit(accountName, transfer, true);
+    }
+
+    private void submit(String accountName, Runnable transfer, boolean first) {
+        synchronized (mLock) {
+            if (mShutDown) {
+                Timber.w("Transfer of %s submitted after shut down, ignored", accountName);
+                return;
+            }
+            if (first) {
+                mWaiting.addFirst(new Transfer(accountName, transfer));
+            } else {
+                mWaiting.addLast(new Transfer(accountName, transfer));
+            }
+            if (mWorkers < mMaxWorkers && runningIn(accountName) < mMaxWorkersPerAccount) {
+                // this one or an older one can start; workers running take the rest when they finish
+                mWorkers++;
+                new Thread(this::work, mName + "-" + (++mLastWorkerId)).start();
+            }
+        }
+    }
+
+    /**
+     * Forgets the transfers waiting to start. Transfers running go on until they finish.
+     */
+    public void shutDown() {
+        synchronized (mLock) {
+            mShutDown = true;
+            mWaiting.clear();
+        }
+    }
+
+    /**
+     * @return 'True' if no transfer is running nor waiting.
+     */
+    public boolean isIdle() {
+        synchronized (mLock) {
+            return mWaiting.isEmpty() && mRunning.isEmpty();
+        }
+    }
+
+    private void work() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Transfer transfer = null;
+        while (true) {
+            boolean idle;
+            synchronized (mLock) {
+                if (transfer != null) {
+                    finished(transfer.mAccountName);
+                }
+                transfer = nextToStart();
+                if (transfer == null) {
+                    mWorkers--;
+                    idle = mWaiting.isEmpty() && mRunning.isEmpty();
+                } else {
+                    mRunning.put(transfer.mAccountName, runningIn(transfer.mAccountName) + 1);
+                    idle = false;
+                }
+            }
+            if (transfer == null) {
+                if (idle && mOnIdleListener != null) {
+                    mOnIdleListener.onIdle();
+                }
+                return;
+            }
+            try {
+                transfer.mRunnable.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "Transfer of %s failed unexpectedly", transfer.mAccountName);
+            }
+        }
+    }
+
+    /**
+     * Takes the first transfer waiting whose account has a worker free. The lock must be held.
+     */
+    private Transfer nextToStart() {
+        Iterator<Transfer> waiting = mWaiting.iterator();
+        while (waiting.hasNext()) {
+            Transfer transfer = waiting.next();
+            if (runningIn(transfer.mAccountName) < mMaxWorkersPerAccount) {
+                waiting.remove();
+                return transfer;
+            }
+        }
+        return null;
+    }
+
+    private void finished(String accountName) {
+        int running = runningIn(accountName) - 1;
+        if (running > 0) {
+            mRunning.put(accountName, running);
+        } else {
+            mRunning.remove(accountName);
+        }
+    }
+
+    private int runningIn(String accountName) {
+        Integer running = mRunning.get(accountName);
+        return running == null ? 0 : running;
+    }
+
+    private static class Transfer {
+        private final String mAccountName;
+        private final Runnable mRunnable;
+
+        private Transfer(String accountName, Runnable runnable) {
+            mAccountName = accountName;
+            mRunnable = runnable;
+        }
+    }
+}
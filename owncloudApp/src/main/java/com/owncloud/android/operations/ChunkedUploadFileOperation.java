@@ -22,27 +22,49 @@ package com.owncloud.android.operations;
 import android.accounts.Account;
 import android.content.Context;
 
+import com.owncloud.android.R;
 import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.datamodel.OCUpload;
+import com.owncloud.android.datamodel.UploadsStorageManager;
 import com.owncloud.android.lib.common.OwnCloudClient;
-import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.http.HttpConstants;
+import com.owncloud.android.lib.common.http.methods.webdav.DavConstants;
+import com.owncloud.android.lib.common.http.methods.webdav.DavUtils;
+import com.owncloud.android.lib.common.http.methods.webdav.PropfindMethod;
+import com.owncloud.android.lib.common.http.methods.webdav.PutMethod;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
 import com.owncloud.android.lib.resources.files.FileUtils;
 import com.owncloud.android.lib.resources.files.chunks.ChunkedUploadRemoteFileOperation;
 import com.owncloud.android.operations.common.SyncOperation;
+import at.bitfire.dav4jvm.Response;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import timber.log.Timber;
 
 import java.io.File;
-import java.util.Iterator;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class ChunkedUploadFileOperation extends UploadFileOperation {
 
     private String mTransferId;
+    private int mMaxChunksInProgress;
+    private OCUpload mUpload;
+    private UploadsStorageManager mUploadsStorageManager;
 
     public ChunkedUploadFileOperation(Account account, OCFile file, OCUpload upload, boolean forceOverwrite,
                                       int localBehaviour, Context context) {
         super(account, file, upload, forceOverwrite, localBehaviour, context);
         mTransferId = upload.getTransferId();
+        mMaxChunksInProgress = context.getResources().getInteger(R.integer.max_chunks_in_progress);
+        mUpload = upload;
+        mUploadsStorageManager = new UploadsStorageManager(context.getContentResolver());
     }
 
     @Override
@@ -51,27 +73,46 @@ public class ChunkedUploadFileOperation extends UploadFileOperation {
         try {
             RemoteOperationResult result;
 
-            // Step 1, create folder where we put the uploaded file chunks
-            result = createChunksFolder(String.valueOf(mTransferId));
-
-            if (!result.isSuccess()) {
-                return result;
+            File localFile = new File(mFile.getStoragePath());
+            long lastModified = originalFile.lastModified();
+            Set<Integer> chunksInServer = null;
+
+            // Step 1, find the chunks already in the server when resuming a previous attempt, as long as the local
+            // file did not change since they were uploaded; otherwise, create folder where we put the uploaded file
+            // chunks
+            if (mUpload.canResumeChunksOf(originalFile)) {
+                result = readChunksInServer(client);
+                if (result.isSuccess()) {
+                    chunksInServer = (Set<Integer>) result.getData();
+                } else if (result.getCode() != ResultCode.FILE_NOT_FOUND) {
+                    return result;
+                }
             }
 
-            // Step 2, start to upload chunks
-            mUploadOperation = new ChunkedUploadRemoteFileOperation(mTransferId, mFile.getStoragePath(),
-                    mFile.getRemotePath(), mFile.getMimetype(), mFile.getEtagInConflict(), timeStamp);
+            if (chunksInServer == null) {
+                result = createChunksFolder(String.valueOf(mTransferId));
+
+                if (!result.isSuccess()) {
+                    return result;
+                }
+            }
 
-            Iterator<OnDatatransferProgressListener> listener = mDataTransferListeners.iterator();
-            while (listener.hasNext()) {
-                mUploadOperation.addDatatransferProgressListener(listener.next());
+            // Step 2, upload chunks, several at the same time; cancel() gets to them through mCancellationRequested
+            ChunksUploader chunksUploader = new ChunksUploader(localFile,
+                    ChunkedUploadRemoteFileOperation.CHUNK_SIZE, mMaxChunksInProgress, mCancellationRequested,
+                    mDataTransferListeners);
+            if (chunksInServer != null) {
+                chunksUploader.setChunksInServer(chunksInServer);
             }
+            chunksUploader.setOnChunksUploadedListener(chunksUploaded ->
+                    mUploadsStorageManager.updateChunksUploaded(getOCUploadId(), chunksUploaded, lastModified)
+            );
 
             if (mCancellationRequested.get()) {
                 throw new OperationCancelledException();
             }
 
-            result = mUploadOperation.execute(client);
+            result = chunksUploader.upload(chunk -> uploadChunk(client, chunk));
 
             // File chunks not properly uploaded
             if (!result.isSuccess()) {
@@ -79,7 +120,15 @@ public class ChunkedUploadFileOperation extends UploadFileOperation {
             }
 
             // Step 3, move remote file to final remote destination
-            moveChunksFileToFinalDestination(timeStamp, mFile.getFileLength());
+            result = moveChunksFileToFinalDestination(timeStamp, mFile.getFileLength());
+
+            if (!result.isSuccess()) {
+                // the server refused to assemble the chunks; a retry has to send them all again
+                if (result.getException() == null) {
+                    mUploadsStorageManager.updateChunksUploaded(getOCUploadId(), 0, 0);
+                }
+                return result;
+            }
 
             // Step 4, move local file to final local destination
             moveTemporalOriginalFiles(temporalFile, originalFile, expectedPath, expectedFile);
@@ -90,6 +139,51 @@ public class ChunkedUploadFileOperation extends UploadFileOperation {
         }
     }
 
+    private RemoteOperationResult uploadChunk(OwnCloudClient client, ChunksUploader.Chunk chunk) throws Exception {
+        URL chunkUrl = new URL(client.getUploadsWebDavUri() + File.separator + mTransferId + File.separator +
+                chunk.getIndex());
+        PutMethod putMethod = new PutMethod(chunkUrl, new ChunkRequestBody(chunk, mFile.getMimetype()));
+
+        int status = client.executeHttpMethod(putMethod);
+        if (status == HttpConstants.HTTP_CREATED || status == HttpConstants.HTTP_NO_CONTENT) {
+            client.exhaustResponse(putMethod.getResponseBodyAsStream());
+            return new RemoteOperationResult<>(ResultCode.OK);
+        }
+        return new RemoteOperationResult<>(putMethod);
+    }
+
+    /**
+     * Lists the chunks folder of the transfer in the server.
+     *
+     * @return Indexes of the chunks in the folder as data of the result; FILE_NOT_FOUND if there is no such folder.
+     */
+    private RemoteOperationResult<Set<Integer>> readChunksInServer(OwnCloudClient client) throws Exception {
+        PropfindMethod propfindMethod = new PropfindMethod(
+                new URL(client.getUploadsWebDavUri() + File.separator + mTransferId),
+                DavConstants.DEPTH_1,
+                DavUtils.getAllPropset()
+        );
+
+        int status = client.executeHttpMethod(propfindMethod);
+        if (status != HttpConstants.HTTP_MULTI_STATUS) {
+            return new RemoteOperationResult<>(propfindMethod);
+        }
+
+        Set<Integer> chunksInServer = new HashSet<>();
+        for (Response member : propfindMethod.getMembers()) {
+            List<String> segments = member.getHref().pathSegments();
+            try {
+                chunksInServer.add(Integer.parseInt(segments.get(segments.size() - 1)));
+            } catch (NumberFormatException e) {
+                Timber.d("Not a chunk in %s: %s", mTransferId, member.getHref());
+            }
+        }
+
+        RemoteOperationResult<Set<Integer>> result = new RemoteOperationResult<>(ResultCode.OK);
+        result.setData(chunksInServer);
+        return result;
+    }
+
     private RemoteOperationResult createChunksFolder(String remoteChunksFolder) {
         SyncOperation syncOperation = new CreateChunksFolderOperation(remoteChunksFolder);
         return syncOperation.execute(getClient(), getStorageManager());
@@ -104,4 +198,33 @@ public class ChunkedUploadFileOperation extends UploadFileOperation {
         );
         return syncOperation.execute(getClient(), getStorageManager());
     }
-}
\ No newline at end of file
+
+    /**
+     * Body of the PUT request of a chunk, read straight from the local file.
+     */
+    private static class ChunkRequestBody extends RequestBody {
+
+        private final ChunksUploader.Chunk mChunk;
+        private final MediaType mMediaType;
+
+        ChunkRequestBody(ChunksUploader.Chunk chunk, String mimeType) {
+            mChunk = chunk;
+            mMediaType = (mimeType != null) ? MediaType.parse(mimeType) : null;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mMediaType;
+        }
+
+        @Override
+        public long contentLength() {
+            return mChunk.getLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            mChunk.writeTo(sink.outputStream());
+        }
+    }
+}
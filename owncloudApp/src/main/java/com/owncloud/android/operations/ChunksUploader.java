@@ -0,0 +1,330 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import timber.log.Timber;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads the chunks of a local file keeping several of them in flight at the same time, so that a single big
+ * upload fills links with a long round trip time.
+ *
+ * Chunks are handed out in order to, at most, the given number of workers. A chunk whose upload fails is retried by
+ * the same worker, up to {@link #MAX_ATTEMPTS_PER_CHUNK} times, while the others go on; when it fails for good, no
+ * new chunk is started and the failure is returned once the chunks in flight end.
+ *
+ * Finished chunks are tracked in order: {@link #getChunksUploadedInOrder()} is the number of chunks uploaded from
+ * the first one without gaps, notified as it grows to resume the upload later. Chunks already in the server from a
+ * previous attempt are not sent again. Progress of all the chunks is added up and reported to the listeners as if a
+ * single request were sending the whole file.
+ */
+public class ChunksUploader {
+
+    static final int MAX_ATTEMPTS_PER_CHUNK = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sends a single chunk to the server.
+     */
+    public interface ChunkSender {
+        /**
+         * @param chunk Chunk to send; its content must be written with {@link Chunk#writeTo(OutputStream)}.
+         * @return Result of the upload of the chunk.
+         */
+        RemoteOperationResult send(Chunk chunk) throws Exception;
+    }
+
+    /**
+     * Notified when the number of chunks uploaded from the first one, without gaps, grows.
+     */
+    public interface OnChunksUploadedListener {
+        void onChunksUploadedInOrder(int chunksUploaded);
+    }
+
+    private final File mFile;
+    private final long mFileLength;
+    private final long mChunkSize;
+    private final int mChunksCount;
+    private final int mMaxChunksInFlight;
+    private final AtomicBoolean mCancellationRequested;
+    private final Set<OnDatatransferProgressListener> mDataTransferListeners;
+
+    private final AtomicInteger mNextChunk = new AtomicInteger(0);
+    private final AtomicLong mTransferred = new AtomicLong(0);
+    private final boolean[] mUploaded;
+    private int mUploadedInOrder = 0;
+    private RemoteOperationResult mFailure;
+    private OnChunksUploadedListener mOnChunksUploadedListener;
+
+    /**
+     * @param file                  Local file to upload.
+     * @param chunkSize             Size of every chunk but the last one, that takes the rest of the file.
+     * @param maxChunksInFlight     Maximum number of chunks uploaded at the same time.
+     * @param cancellationRequested Flag checked while chunks are sent; when set, the upload ends as cancelled.
+     * @param dataTransferListeners Listeners to notify the progress of the whole upload; the set must be
+     *                              synchronized on to change it.
+     */
+    public ChunksUploader(File file, long chunkSize, int maxChunksInFlight, AtomicBoolean cancellationRequested,
+                          Set<OnDatatransferProgressListener> dataTransferListeners) {
+        mFile = file;
+        mFileLength = file.length();
+        mChunkSize = chunkSize;
+        mChunksCount = (int) Math.max(1, (mFileLength + chunkSize - 1) / chunkSize);
+        mMaxChunksInFlight = Math.max(1, Math.min(maxChunksInFlight, mChunksCount));
+        mCancellationRequested = cancellationRequested;
+        mDataTransferListeners = dataTransferListeners;
+        mUploaded = new boolean[mChunksCount];
+    }
+
+    public int getChunksCount() {
+        return mChunksCount;
+    }
+
+    public void setOnChunksUploadedListener(OnChunksUploadedListener listener) {
+        mOnChunksUploadedListener = listener;
+    }
+
+    /**
+     * Sets the chunks already in the server, that will not be sent again. To be called before {@link #upload}.
+     *
+     * @param chunkIndexes Indexes of the chunks in the server; those out of the file are ignored.
+     */
+    public void setChunksInServer(Collection<Integer> chunkIndexes) {
+        long bytesInServer = 0;
+        synchronized (this) {
+            for (int index : chunkIndexes) {
+                if (index >= 0 && index < mChunksCount && !mUploaded[index]) {
+                    mUploaded[index] = true;
+                    bytesInServer += getChunkLength(index);
+                }
+            }
+            while (mUploadedInOrder < mChunksCount && mUploaded[mUploadedInOrder]) {
+                mUploadedInOrder++;
+            }
+        }
+        Timber.d("%d chunks of %s already in the server", chunkIndexes.size(), mFile.getName());
+        onTransferProgress(bytesInServer);
+    }
+
+    /**
+     * @return Number of chunks uploaded from the first one, without gaps.
+     */
+    public synchronized int getChunksUploadedInOrder() {
+        return mUploadedInOrder;
+    }
+
+    /**
+     * Uploads all the chunks, blocking the calling thread until every one of them is uploaded or the upload fails.
+     *
+     * @param sender Sends every chunk; it is called from several threads at the same time.
+     * @return OK when all the chunks were uploaded; otherwise, the result of the chunk that failed for good.
+     */
+    public RemoteOperationResult upload(ChunkSender sender) {
+        List<Callable<Void>> workers = new ArrayList<>(mMaxChunksInFlight);
+        for (int i = 0; i < mMaxChunksInFlight; i++) {
+            workers.add(() -> {
+                uploadChunks(sender);
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(mMaxChunksInFlight,
+                runnable -> new Thread(runnable, "ChunksUploader-" + mFile.getName()));
+        try {
+            executor.invokeAll(workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new RemoteOperationResult(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (mCancellationRequested.get()) {
+            return new RemoteOperationResult(new OperationCancelledException());
+        }
+        synchronized (this) {
+            if (mFailure != null) {
+                return mFailure;
+            }
+        }
+        Timber.d("%d chunks of %s uploaded with %d in flight", mChunksCount, mFile.getName(), mMaxChunksInFlight);
+        return new RemoteOperationResult(ResultCode.OK);
+    }
+
+    /**
+     * Work of every worker: take the next chunk and upload it, until there are no more or one failed for good.
+     */
+    private void uploadChunks(ChunkSender sender) {
+        while (!mCancellationRequested.get() && !hasFailed()) {
+            int index = mNextChunk.getAndIncrement();
+            if (index >= mChunksCount) {
+                return;
+            }
+            if (isUploaded(index)) {
+                continue;
+            }
+            RemoteOperationResult result = uploadChunk(sender, index);
+            if (result.isSuccess()) {
+                onChunkUploaded(index);
+            } else if (!mCancellationRequested.get()) {
+                onChunkFailed(index, result);
+            }
+        }
+    }
+
+    private RemoteOperationResult uploadChunk(ChunkSender sender, int index) {
+        Chunk chunk = new Chunk(index, index * mChunkSize, getChunkLength(index));
+        RemoteOperationResult result = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS_PER_CHUNK && !mCancellationRequested.get(); attempt++) {
+            try {
+                result = sender.send(chunk);
+            } catch (Exception e) {
+                result = new RemoteOperationResult(e);
+            }
+            if (result.isSuccess()) {
+                return result;
+            }
+            // progress of the failed attempt is taken back, the chunk is sent again from its start
+            chunk.resetProgress();
+            Timber.w("Attempt %d to upload chunk %d of %s failed: %s", attempt, index, mFile.getName(),
+                    result.getLogMessage());
+        }
+        return (result != null) ? result : new RemoteOperationResult(new OperationCancelledException());
+    }
+
+    private long getChunkLength(int index) {
+        return Math.min(mChunkSize, mFileLength - index * mChunkSize);
+    }
+
+    private synchronized boolean isUploaded(int index) {
+        return mUploaded[index];
+    }
+
+    private synchronized boolean hasFailed() {
+        return mFailure != null;
+    }
+
+    private synchronized void onChunkUploaded(int index) {
+        mUploaded[index] = true;
+        int uploadedInOrder = mUploadedInOrder;
+        while (mUploadedInOrder < mChunksCount && mUploaded[mUploadedInOrder]) {
+            mUploadedInOrder++;
+        }
+        // notified in the lock, so that a listener never gets a count lower than a previous one
+        if (mUploadedInOrder > uploadedInOrder && mOnChunksUploadedListener != null) {
+            mOnChunksUploadedListener.onChunksUploadedInOrder(mUploadedInOrder);
+        }
+    }
+
+    private synchronized void onChunkFailed(int index, RemoteOperationResult result) {
+        Timber.e("Chunk %d of %s could not be uploaded, %d uploaded in order", index, mFile.getName(),
+                mUploadedInOrder);
+        if (mFailure == null) {
+            mFailure = result;
+        }
+    }
+
+    private void onTransferProgress(long sent) {
+        long transferred = mTransferred.addAndGet(sent);
+        synchronized (mDataTransferListeners) {
+            for (OnDatatransferProgressListener listener : mDataTransferListeners) {
+                listener.onTransferProgress(sent, transferred, mFileLength, mFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Part of the local file sent in a single request.
+     */
+    public class Chunk {
+
+        private final int mIndex;
+        private final long mOffset;
+        private final long mLength;
+        private long mSent = 0;
+
+        private Chunk(int index, long offset, long length) {
+            mIndex = index;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        /**
+         * @return Position of the chunk in the file, starting at 0; the server assembles chunks in this order.
+         */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        public long getLength() {
+            return mLength;
+        }
+
+        /**
+         * Writes the content of the chunk, reporting the progress of the whole upload as it goes. Can be called
+         * again to send the chunk again.
+         *
+         * @throws InterruptedIOException when the upload is cancelled.
+         */
+        public void writeTo(OutputStream output) throws IOException {
+            resetProgress();
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+                file.seek(mOffset);
+                byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, mLength))];
+                while (mSent < mLength) {
+                    if (mCancellationRequested.get()) {
+                        throw new InterruptedIOException("Upload of " + mFile.getName() + " cancelled");
+                    }
+                    int read = file.read(buffer, 0, (int) Math.min(buffer.length, mLength - mSent));
+                    if (read == -1) {
+                        throw new IOException(mFile.getName() + " is shorter than expected");
+                    }
+                    output.write(buffer, 0, read);
+                    mSent += read;
+                    onTransferProgress(read);
+                }
+            }
+        }
+
+        private void resetProgress() {
+            onTransferProgress(-mSent);
+            mSent = 0;
+        }
+    }
+}
@@ -25,17 +25,21 @@ import android.webkit.MimeTypeMap;
 
 import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.http.methods.nonwebdav.GetMethod;
+import com.owncloud.android.lib.common.network.WebdavUtils;
 import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
-import com.owncloud.android.lib.resources.files.DownloadRemoteFileOperation;
 import com.owncloud.android.utils.FileStorageUtils;
 import timber.log.Timber;
 
 import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -44,6 +48,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class DownloadFileOperation extends RemoteOperation {
 
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
     private Account mAccount;
     private OCFile mFile;
     private Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<>();
@@ -51,7 +57,10 @@ public class DownloadFileOperation extends RemoteOperation {
     private String mEtag = "";
     private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
 
-    private DownloadRemoteFileOperation mDownloadOperation;
+    /**
+     * Request in flight, aborted on cancellation so that a stalled response does not hold the download
+     */
+    private volatile GetMethod mGetMethod;
 
     public DownloadFileOperation(Account account, OCFile file) {
         if (account == null) {
@@ -136,8 +145,6 @@ public class DownloadFileOperation extends RemoteOperation {
         /// download will be performed to a temporal file, then moved to the final location
         File tmpFile = new File(getTmpPath());
 
-        String tmpFolder = getTmpFolder();
-
         /// perform the download
         synchronized (mCancellationRequested) {
             if (mCancellationRequested.get()) {
@@ -145,16 +152,55 @@ public class DownloadFileOperation extends RemoteOperation {
             }
         }
 
-        mDownloadOperation = new DownloadRemoteFileOperation(mFile.getRemotePath(), tmpFolder);
-        Iterator<OnDatatransferProgressListener> listener = mDataTransferListeners.iterator();
-        while (listener.hasNext()) {
-            mDownloadOperation.addDatatransferProgressListener(listener.next());
+        // an interrupted download left in tmpFile is resumed from where it stopped
+        RangeDownloader rangeDownloader = new RangeDownloader(tmpFile, mCancellationRequested,
+                mDataTransferListeners);
+        GetMethod getMethod;
+        try {
+            getMethod = new GetMethod(
+                    new URL(client.getUserFilesWebDavUri() + WebdavUtils.encodePath(mFile.getRemotePath())));
+        } catch (MalformedURLException e) {
+            return new RemoteOperationResult(e);
+        }
+        mGetMethod = getMethod;
+        if (mCancellationRequested.get()) {
+            // cancel() could not abort a request it did not know yet
+            mGetMethod = null;
+            return new RemoteOperationResult(new OperationCancelledException());
         }
-        result = mDownloadOperation.execute(client);
+        result = rangeDownloader.download(new RangeDownloader.GetRequest() {
+            @Override
+            public int execute(String range, String ifRange) throws Exception {
+                if (range != null) {
+                    getMethod.setRequestHeader(RangeDownloader.RANGE_HEADER, range);
+                }
+                if (ifRange != null) {
+                    getMethod.setRequestHeader(RangeDownloader.IF_RANGE_HEADER, ifRange);
+                }
+                return client.executeHttpMethod(getMethod);
+            }
+
+            @Override
+            public String getResponseHeader(String name) {
+                return getMethod.getResponseHeader(name);
+            }
+
+            @Override
+            public InputStream getResponseBodyAsStream() {
+                return getMethod.getResponseBodyAsStream();
+            }
+
+            @Override
+            public RemoteOperationResult createFailedResult() throws Exception {
+                return new RemoteOperationResult<>(getMethod);
+            }
+        });
 
         if (result.isSuccess()) {
-            mModificationTimestamp = mDownloadOperation.getModificationTimestamp();
-            mEtag = mDownloadOperation.getEtag();
+            String lastModifiedHeader = getMethod.getResponseHeader(LAST_MODIFIED_HEADER);
+            Date lastModified = (lastModifiedHeader != null) ? WebdavUtils.parseResponseDate(lastModifiedHeader) : null;
+            mModificationTimestamp = (lastModified != null) ? lastModified.getTime() : 0;
+            mEtag = rangeDownloader.getEtag();
             if (FileStorageUtils.getUsableSpace() < tmpFile.length()) {
                 Timber.w("Not enough space to copy %s", tmpFile.getAbsolutePath());
             }
@@ -173,15 +219,20 @@ public class DownloadFileOperation extends RemoteOperation {
                         RemoteOperationResult.ResultCode.LOCAL_STORAGE_NOT_MOVED);
             }
         }
+        mGetMethod = null;
         Timber.i("Download of " + mFile.getRemotePath() + " to " + getSavePath() + ": " + result.getLogMessage());
 
         return result;
     }
 
+    /**
+     * Requests the download to stop, aborting the request in flight, if any. The partial file is removed.
+     */
     public void cancel() {
         mCancellationRequested.set(true);   // atomic set; there is no need of synchronizing it
-        if (mDownloadOperation != null) {
-            mDownloadOperation.cancel();
+        GetMethod getMethod = mGetMethod;
+        if (getMethod != null) {
+            getMethod.abort();
         }
     }
 
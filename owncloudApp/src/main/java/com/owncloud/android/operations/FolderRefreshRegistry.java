@@ -0,0 +1,202 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import android.os.SystemClock;
+import android.util.Pair;
+
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.resources.files.RemoteFile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces the refreshes of the same folder requested at the same time from different places, like the list of
+ * files, the synchronization of folders and the documents provider.
+ * <p>
+ * Refreshes are identified by account and remote path. The first one requested runs; the ones requested while it
+ * is in flight wait for it and share its result, without any request to the server. A refresh that succeeded less
+ * than a given time ago is served again to the ones requested after it.
+ */
+public class FolderRefreshRegistry<T> {
+
+    /**
+     * Time a successful refresh is served again to refreshes allowing it
+     */
+    public static final long DEFAULT_FRESHNESS_MILLIS = 5_000;
+
+    /**
+     * Refreshes requested with this age are never served from a finished one; they may share one in flight
+     */
+    public static final long NOT_FRESH = 0;
+
+    private static final FolderRefreshRegistry<ArrayList<RemoteFile>> sDefaultRegistry =
+            new FolderRefreshRegistry<>();
+
+    private final Object mLock = new Object();
+
+    /**
+     * Refreshes in flight, by account name and remote path
+     */
+    private final Map<Pair<String, String>, Flight<T>> mInFlight = new HashMap<>();
+
+    /**
+     * Last successful refreshes, by account name and remote path
+     */
+    private final Map<Pair<String, String>, Flight<T>> mFinished = new HashMap<>();
+
+    /**
+     * @return Registry shared by all the refreshes of folders in the app.
+     */
+    public static FolderRefreshRegistry<ArrayList<RemoteFile>> getDefaultRegistry() {
+        return sDefaultRegistry;
+    }
+
+    /**
+     * Runs a refresh of a folder, unless the same refresh is in flight or succeeded recently.
+     *
+     * @param accountName  Name of the account of the folder.
+     * @param remotePath   Remote path of the folder.
+     * @param maxAgeMillis Maximum time since a successful refresh finished to serve its result, in milliseconds,
+     *                     up to {@link #DEFAULT_FRESHNESS_MILLIS}, or {@link #NOT_FRESH}.
+     * @param refresh      Refresh to run when no other can be shared.
+     * @return Result of the refresh run or shared.
+     */
+    public RemoteOperationResult<T> refresh(String accountName, String remotePath, long maxAgeMillis,
+                                            Refresh<T> refresh) {
+        Pair<String, String> key = Pair.create(accountName, remotePath);
+        Flight<T> flight;
+        boolean shared;
+        synchronized (mLock) {
+            Flight<T> finished = mFinished.get(key);
+            if (finished != null && SystemClock.elapsedRealtime() - finished.mFinishedAt <= maxAgeMillis) {
+                return finished.mResult;
+            }
+            flight = mInFlight.get(key);
+            shared = flight != null;
+            if (!shared) {
+                flight = new Flight<>();
+                mInFlight.put(key, flight);
+            }
+        }
+        if (shared) {
+            return flight.await();
+        }
+        return run(key, flight, refresh);
+    }
+
+    /**
+     * Runs a refresh of a folder that can not be replaced by other, like one that synchronizes the contents of the
+     * files too. Refreshes requested while it is in flight share its result.
+     *
+     * @param accountName Name of the account of the folder.
+     * @param remotePath  Remote path of the folder.
+     * @param refresh     Refresh to run.
+     * @return Result of the refresh.
+     */
+    public RemoteOperationResult<T> lead(String accountName, String remotePath, Refresh<T> refresh) {
+        Pair<String, String> key = Pair.create(accountName, remotePath);
+        Flight<T> flight = new Flight<>();
+        synchronized (mLock) {
+            // a refresh already in flight keeps its callers, but new ones wait for this
+            mInFlight.put(key, flight);
+        }
+        return run(key, flight, refresh);
+    }
+
+    /**
+     * @return 'True' if a refresh of the folder is in flight.
+     */
+    public boolean isRefreshing(String accountName, String remotePath) {
+        synchronized (mLock) {
+            return mInFlight.containsKey(Pair.create(accountName, remotePath));
+        }
+    }
+
+    /**
+     * Runs the refresh of a flight already registered and hands its result to the callers waiting for it.
+     */
+    private RemoteOperationResult<T> run(Pair<String, String> key, Flight<T> flight, Refresh<T> refresh) {
+        RemoteOperationResult<T> result = null;
+        try {
+            result = refresh.run();
+            return result;
+        } catch (RuntimeException e) {
+            result = new RemoteOperationResult<>(e);
+            throw e;
+        } finally {
+            synchronized (mLock) {
+                if (mInFlight.get(key) == flight) {
+                    mInFlight.remove(key);
+                }
+                flight.mResult = result;
+                flight.mFinishedAt = SystemClock.elapsedRealtime();
+                if (result != null && result.isSuccess()) {
+                    mFinished.put(key, flight);
+                } else {
+                    mFinished.remove(key);
+                }
+                removeStale(flight.mFinishedAt);
+            }
+            flight.mLanded.countDown();
+        }
+    }
+
+    /**
+     * Forgets the refreshes older than {@link #DEFAULT_FRESHNESS_MILLIS}; none is served again after that.
+     */
+    private void removeStale(long now) {
+        Iterator<Flight<T>> finished = mFinished.values().iterator();
+        while (finished.hasNext()) {
+            if (now - finished.next().mFinishedAt > DEFAULT_FRESHNESS_MILLIS) {
+                finished.remove();
+            }
+        }
+    }
+
+    /**
+     * Refresh of a folder, run by the first caller that requested it.
+     */
+    public interface Refresh<T> {
+        RemoteOperationResult<T> run();
+    }
+
+    /**
+     * Refresh in flight or finished, with the callers waiting for it.
+     */
+    private static class Flight<T> {
+        private final CountDownLatch mLanded = new CountDownLatch(1);
+        private volatile RemoteOperationResult<T> mResult;
+        private long mFinishedAt;
+
+        private RemoteOperationResult<T> await() {
+            try {
+                mLanded.await();
+                return mResult;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new RemoteOperationResult<>(e);
+            }
+        }
+    }
+}
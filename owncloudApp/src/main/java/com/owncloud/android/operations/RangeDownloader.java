@@ -0,0 +1,250 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import com.owncloud.android.lib.common.http.HttpConstants;
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.owncloud.android.utils.FileStorageUtils;
+import timber.log.Timber;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads a file into a temporal file that survives interruptions, so that the next attempt goes on from the
+ * bytes already there instead of from the start.
+ *
+ * The ETag of the file is kept next to the temporal file while it is partial. A later attempt asks only for the
+ * missing bytes with a Range header, conditioned with If-Range to that ETag: when the file changed in the server in
+ * between, the server answers with the whole new file, which replaces the partial one.
+ *
+ * A cancelled download removes the partial file; any other failure keeps it for the next attempt.
+ */
+public class RangeDownloader {
+
+    static final String RANGE_HEADER = "Range";
+    static final String IF_RANGE_HEADER = "If-Range";
+    static final String ETAG_HEADER = "ETag";
+    static final String CONTENT_RANGE_HEADER = "Content-Range";
+    static final String CONTENT_LENGTH_HEADER = "Content-Length";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A single GET request of the file to download.
+     */
+    public interface GetRequest {
+        /**
+         * Sends the request, with the given headers when they are not null.
+         *
+         * @return HTTP status of the response.
+         */
+        int execute(String range, String ifRange) throws Exception;
+
+        String getResponseHeader(String name);
+
+        InputStream getResponseBodyAsStream() throws IOException;
+
+        /**
+         * @return Result for a response with an unexpected status.
+         */
+        RemoteOperationResult createFailedResult() throws Exception;
+    }
+
+    private final File mTmpFile;
+    private final File mEtagFile;
+    private final AtomicBoolean mCancellationRequested;
+    private final Set<OnDatatransferProgressListener> mDataTransferListeners;
+
+    private String mEtag = "";
+
+    /**
+     * @param tmpFile               Temporal file to download into, partial if a previous attempt was interrupted.
+     * @param cancellationRequested Flag checked while the file is received; when set, the download ends as cancelled.
+     * @param dataTransferListeners Listeners to notify the progress of the download, bytes already in the temporal
+     *                              file included; the set must be synchronized on to change it.
+     */
+    public RangeDownloader(File tmpFile, AtomicBoolean cancellationRequested,
+                           Set<OnDatatransferProgressListener> dataTransferListeners) {
+        mTmpFile = tmpFile;
+        mEtagFile = new File(tmpFile.getPath() + FileStorageUtils.PARTIAL_DOWNLOAD_ETAG_SUFFIX);
+        mCancellationRequested = cancellationRequested;
+        mDataTransferListeners = dataTransferListeners;
+    }
+
+    /**
+     * @return ETag of the downloaded file, without quotes.
+     */
+    public String getEtag() {
+        return mEtag;
+    }
+
+    /**
+     * Downloads the file, or the part missing in the temporal file, blocking the calling thread until it ends.
+     *
+     * @return OK when the temporal file holds the whole file.
+     */
+    public RemoteOperationResult download(GetRequest request) {
+        String partialEtag = readPartialEtag();
+        long offset = (partialEtag != null) ? mTmpFile.length() : 0;
+        if (offset == 0) {
+            deletePartialFile();
+        }
+
+        try {
+            int status = (offset > 0) ?
+                    request.execute("bytes=" + offset + "-", partialEtag) :
+                    request.execute(null, null);
+
+            if (status == HttpConstants.HTTP_PARTIAL_CONTENT && offset > 0 &&
+                    offset == getRangeStart(request.getResponseHeader(CONTENT_RANGE_HEADER))) {
+                Timber.d("Resuming download of %s from byte %d", mTmpFile.getName(), offset);
+            } else if (status == HttpConstants.HTTP_OK) {
+                if (offset > 0) {
+                    Timber.d("%s changed in the server, downloading it from the start", mTmpFile.getName());
+                }
+                offset = 0;
+            } else {
+                if (status == HttpConstants.HTTP_PARTIAL_CONTENT ||
+                        status == HttpConstants.HTTP_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                    // the partial file does not fit the file in the server; the next attempt starts over
+                    deletePartialFile();
+                }
+                return request.createFailedResult();
+            }
+
+            String etag = request.getResponseHeader(ETAG_HEADER);
+            writePartialEtag(etag);
+            receive(request, offset);
+
+            mEtagFile.delete();
+            mEtag = (etag != null) ? etag.replace("\"", "") : "";
+            return new RemoteOperationResult(ResultCode.OK);
+
+        } catch (Exception e) {
+            if (mCancellationRequested.get()) {
+                deletePartialFile();
+                return new RemoteOperationResult(new OperationCancelledException());
+            }
+            Timber.w(e, "Download of %s interrupted with %d bytes received", mTmpFile.getName(), mTmpFile.length());
+            return new RemoteOperationResult(e);
+        }
+    }
+
+    /**
+     * Writes the body of the response in the temporal file, after the first offset bytes.
+     */
+    private void receive(GetRequest request, long offset) throws IOException {
+        String contentLength = request.getResponseHeader(CONTENT_LENGTH_HEADER);
+        long total = (contentLength != null) ? offset + Long.parseLong(contentLength.trim()) : -1;
+        long transferred = offset;
+        onTransferProgress(offset, transferred, total);
+
+        mTmpFile.getParentFile().mkdirs();
+        try (InputStream input = request.getResponseBodyAsStream();
+             OutputStream output = new FileOutputStream(mTmpFile, offset > 0)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (mCancellationRequested.get()) {
+                    throw new InterruptedIOException("Download of " + mTmpFile.getName() + " cancelled");
+                }
+                output.write(buffer, 0, read);
+                transferred += read;
+                onTransferProgress(read, transferred, total);
+            }
+        }
+
+        if (total >= 0 && transferred != total) {
+            throw new IOException("Received " + transferred + " bytes of " + total + " of " + mTmpFile.getName());
+        }
+    }
+
+    private void onTransferProgress(long read, long transferred, long total) {
+        synchronized (mDataTransferListeners) {
+            for (OnDatatransferProgressListener listener : mDataTransferListeners) {
+                listener.onTransferProgress(read, transferred, total, mTmpFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * @return ETag the partial temporal file was started against, as received; null when there is no partial file.
+     */
+    private String readPartialEtag() {
+        if (!mTmpFile.exists() || !mEtagFile.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(mEtagFile))) {
+            String etag = reader.readLine();
+            return (etag != null && !etag.isEmpty()) ? etag : null;
+        } catch (IOException e) {
+            Timber.w(e, "ETag of the partial %s could not be read", mTmpFile.getName());
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the ETag the temporal file is downloaded against, so that a later attempt can resume it. Weak ETags are
+     * not kept, If-Range does not admit them.
+     */
+    private void writePartialEtag(String etag) throws IOException {
+        if (etag == null || etag.isEmpty() || etag.startsWith("W/")) {
+            mEtagFile.delete();
+            return;
+        }
+        mEtagFile.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(mEtagFile)) {
+            writer.write(etag);
+        }
+    }
+
+    private void deletePartialFile() {
+        FileStorageUtils.deletePartialDownload(mTmpFile);
+    }
+
+    /**
+     * @param contentRange Value of a Content-Range header, as "bytes 100-199/200".
+     * @return First byte of the range; -1 if it can not be parsed.
+     */
+    private static long getRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.trim().startsWith("bytes ")) {
+            return -1;
+        }
+        String range = contentRange.trim().substring("bytes ".length());
+        int dash = range.indexOf('-');
+        try {
+            return (dash > 0) ? Long.parseLong(range.substring(0, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
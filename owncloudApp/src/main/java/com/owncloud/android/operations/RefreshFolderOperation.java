@@ -23,6 +23,7 @@ package com.owncloud.android.operations;
 import android.accounts.Account;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.owncloud.android.authentication.AccountUtils;
@@ -30,6 +31,7 @@ import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.domain.sharing.shares.model.ShareType;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.resources.files.ReadRemoteFileOperation;
 import com.owncloud.android.lib.resources.files.RemoteFile;
 import com.owncloud.android.lib.resources.shares.GetRemoteSharesForFileOperation;
 import com.owncloud.android.lib.resources.shares.RemoteShare;
@@ -38,10 +40,13 @@ import com.owncloud.android.lib.resources.status.OwnCloudVersion;
 import com.owncloud.android.lib.resources.status.RemoteCapability;
 import com.owncloud.android.operations.common.SyncOperation;
 import com.owncloud.android.syncadapter.FileSyncAdapter;
+import com.owncloud.android.syncadapter.FolderSyncMetric;
+import com.owncloud.android.syncadapter.SyncMetrics;
 import timber.log.Timber;
 
 import java.util.ArrayList;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Operation performing a REFRESH on a folder, conceived to be triggered by an action started
@@ -56,6 +61,10 @@ import java.util.Vector;
  *
  * Does NOT travel subfolders to refresh their contents also, UNLESS they are
  * set as AVAILABLE OFFLINE FOLDERS.
+ *
+ * Unless the ETag is ignored, the ETag of the folder is requested first, alone, and the LIST is not fetched
+ * when the ETag is the same stored in the last refresh; the CONTENTS of the AVAILABLE OFFLINE files and folders
+ * are synchronized anyway, as they are after a push only synchronization.
  */
 public class RefreshFolderOperation extends SyncOperation<ArrayList<RemoteFile>> {
 
@@ -79,12 +88,28 @@ public class RefreshFolderOperation extends SyncOperation<ArrayList<RemoteFile>>
      */
     private Context mContext;
 
+    /**
+     * Refreshes that did not fetch the list of files because the 'eTag' of the folder did not change,
+     * and refreshes that fetched it after checking the 'eTag', since the app started.
+     */
+    private static final AtomicLong sETagCheckHits = new AtomicLong();
+    private static final AtomicLong sETagCheckMisses = new AtomicLong();
+
+    /**
+     * Refreshes that shared the result of other refresh of the same folder, since the app started.
+     */
+    private static final AtomicLong sRefreshesShared = new AtomicLong();
+
+    /**
+     * 'True' when the last execution ran the refresh, instead of sharing the result of other one.
+     */
+    private boolean mRefreshedHere;
+
     /**
      * 'True' means that the list of files in the remote folder should
      * be fetched and merged locally even though the 'eTag' did not change.
      */
-    private boolean mIgnoreETag;    // TODO - use it prefetching ETag of folder; two PROPFINDS, but better
-    // TODO -   performance with (big) unchanged folders
+    private boolean mIgnoreETag;
 
     private LocalBroadcastManager mLocalBroadcastManager;
 
@@ -112,12 +137,36 @@ public class RefreshFolderOperation extends SyncOperation<ArrayList<RemoteFile>>
     }
 
     /**
-     * Performs the synchronization.
+     * Performs the synchronization, unless a refresh of the same folder is in flight or finished just before;
+     * its result is shared then. See {@link FolderRefreshRegistry}.
      *
      * {@inheritDoc}
      */
     @Override
     protected RemoteOperationResult<ArrayList<RemoteFile>> run(OwnCloudClient client) {
+        mRefreshedHere = false;
+        RemoteOperationResult<ArrayList<RemoteFile>> result = FolderRefreshRegistry.getDefaultRegistry().refresh(
+                mAccount.name,
+                mLocalFolder.getRemotePath(),
+                mIgnoreETag ? FolderRefreshRegistry.NOT_FRESH : FolderRefreshRegistry.DEFAULT_FRESHNESS_MILLIS,
+                () -> refresh(client)
+        );
+
+        if (!mRefreshedHere) {
+            sRefreshesShared.incrementAndGet();
+            Timber.d("Refresh of %s shared with other", mLocalFolder.getRemotePath());
+            // the listeners of this refresh may not know about the other one
+            OwnCloudVersion serverVersion = AccountUtils.getServerVersion(mAccount);
+            sendLocalBroadcast(EVENT_SINGLE_FOLDER_CONTENTS_SYNCED, mLocalFolder.getRemotePath(), serverVersion,
+                    result);
+            sendLocalBroadcast(EVENT_SINGLE_FOLDER_SHARES_SYNCED, mLocalFolder.getRemotePath(), serverVersion,
+                    result);
+        }
+        return result;
+    }
+
+    private RemoteOperationResult<ArrayList<RemoteFile>> refresh(OwnCloudClient client) {
+        mRefreshedHere = true;
         RemoteOperationResult<ArrayList<RemoteFile>> result;
         OwnCloudVersion serverVersion = null;
 
@@ -130,17 +179,55 @@ public class RefreshFolderOperation extends SyncOperation<ArrayList<RemoteFile>>
             syncUserProfile();
         }
 
-        // sync list of files, and contents of available offline files & folders
-        SynchronizeFolderOperation syncOp = new SynchronizeFolderOperation(
-                mContext,
-                mLocalFolder.getRemotePath(),
-                mAccount,
-                System.currentTimeMillis(),
-                false,
-                false,
-                false
-        );
-        result = syncOp.execute(client, getStorageManager());
+        long startedAt = System.currentTimeMillis();
+        long eTagCheckStart = SystemClock.elapsedRealtime();
+        if (!mIgnoreETag && isRemoteFolderUnchanged(client)) {
+            sETagCheckHits.incrementAndGet();
+            Timber.d("ETag of %s did not change, list of files not fetched", mLocalFolder.getRemotePath());
+            getStorageManager().scheduleFolderCheck(mLocalFolder, false);
+            SyncMetrics.record(new FolderSyncMetric(
+                    mAccount.name,
+                    mLocalFolder.getRemotePath(),
+                    SyncMetrics.OPERATION_REFRESH,
+                    SyncMetrics.NO_SYNC_RUN,
+                    startedAt,
+                    SystemClock.elapsedRealtime() - eTagCheckStart,
+                    1,
+                    0,
+                    0,
+                    0
+            ));
+
+            // local changes in available offline files & folders still need to be pushed
+            SynchronizeFolderOperation syncOp = new SynchronizeFolderOperation(
+                    mContext,
+                    mLocalFolder.getRemotePath(),
+                    mAccount,
+                    System.currentTimeMillis(),
+                    true,
+                    false,
+                    false
+            );
+            result = syncOp.execute(client, getStorageManager());
+
+        } else {
+            if (!mIgnoreETag) {
+                sETagCheckMisses.incrementAndGet();
+            }
+
+            // sync list of files, and contents of available offline files & folders
+            SynchronizeFolderOperation syncOp = new SynchronizeFolderOperation(
+                    mContext,
+                    mLocalFolder.getRemotePath(),
+                    mAccount,
+                    System.currentTimeMillis(),
+                    false,
+                    false,
+                    false
+            );
+            syncOp.setRefreshMetrics(SystemClock.elapsedRealtime() - eTagCheckStart);
+            result = syncOp.execute(client, getStorageManager());
+        }
 
         sendLocalBroadcast(EVENT_SINGLE_FOLDER_CONTENTS_SYNCED, mLocalFolder.getRemotePath(), serverVersion, result);
 
@@ -153,6 +240,48 @@ public class RefreshFolderOperation extends SyncOperation<ArrayList<RemoteFile>>
         return result;
     }
 
+    /**
+     * Requests the properties of the folder alone, without the list of its files, to compare its 'eTag'
+     * with the one stored in the last refresh.
+     *
+     * @return 'True' when the folder was listed before and its 'eTag' in the server is the same. Any error
+     * in the request is left to the full refresh.
+     */
+    private boolean isRemoteFolderUnchanged(OwnCloudClient client) {
+        String localETag = mLocalFolder.getEtag();
+        if (localETag == null || localETag.isEmpty()) {
+            // never listed
+            return false;
+        }
+        RemoteOperationResult<RemoteFile> result =
+                new ReadRemoteFileOperation(mLocalFolder.getRemotePath()).execute(client);
+        return result.isSuccess() && localETag.equals(result.getData().getEtag());
+    }
+
+    /**
+     * @return Number of refreshes that did not fetch the list of files because the 'eTag' of the folder
+     * did not change, since the app started.
+     */
+    public static long getETagCheckHits() {
+        return sETagCheckHits.get();
+    }
+
+    /**
+     * @return Number of refreshes that fetched the list of files after finding a new 'eTag' for the folder,
+     * since the app started.
+     */
+    public static long getETagCheckMisses() {
+        return sETagCheckMisses.get();
+    }
+
+    /**
+     * @return Number of refreshes that shared the result of other refresh of the same folder, in flight or just
+     * finished, since the app started.
+     */
+    public static long getRefreshesShared() {
+        return sRefreshesShared.get();
+    }
+
     private void syncUserProfile() {
         SyncProfileOperation syncProfileOperation = new SyncProfileOperation(getStorageManager().getAccount());
         syncProfileOperation.syncUserProfile();
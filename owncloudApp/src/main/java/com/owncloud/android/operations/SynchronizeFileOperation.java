@@ -41,6 +41,8 @@ import com.owncloud.android.operations.common.SyncOperation;
 import com.owncloud.android.utils.FileStorageUtils;
 import timber.log.Timber;
 
+import java.util.List;
+
 /**
  * Operation synchronizing the properties and contents of an OC file between local and remote copies.
  */
@@ -57,6 +59,11 @@ public class SynchronizeFileOperation extends SyncOperation {
     private boolean mTransferWasRequested = false;
     private boolean mRequestedFromAvOfflineJobService;
 
+    /**
+     * Remote paths of the files to download, requested at once by the caller; null to request every download
+     */
+    private List<String> mDownloadsToRequest;
+
     /**
      * Constructor for "full synchronization mode".
      *
@@ -238,12 +245,28 @@ public class SynchronizeFileOperation extends SyncOperation {
         mTransferWasRequested = true;
     }
 
+    /**
+     * Makes the operation add the file to a list when it needs to be downloaded, instead of requesting its download,
+     * so that the caller can request the downloads of several files at once.
+     *
+     * @param downloadsToRequest List to add the remote path of the file to.
+     */
+    public void setDownloadsToRequest(List<String> downloadsToRequest) {
+        mDownloadsToRequest = downloadsToRequest;
+    }
+
     /**
      * Requests for a download to the FileDownloader service
      *
      * @param file OCFile object representing the file to download
      */
     private void requestForDownload(OCFile file) {
+        if (mDownloadsToRequest != null) {
+            mDownloadsToRequest.add(file.getRemotePath());
+            mTransferWasRequested = true;
+            return;
+        }
+
         Intent intent = new Intent(mContext, FileDownloader.class);
         intent.putExtra(FileDownloader.KEY_ACCOUNT, mAccount);
         intent.putExtra(FileDownloader.KEY_FILE, file);
@@ -0,0 +1,190 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.operations;
+
+import android.accounts.Account;
+import android.content.Context;
+
+import com.owncloud.android.datamodel.OCFile;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.owncloud.android.lib.resources.files.ReadRemoteFolderOperation;
+import com.owncloud.android.lib.resources.files.RemoteFile;
+import com.owncloud.android.operations.common.SyncOperation;
+import com.owncloud.android.utils.FileStorageUtils;
+import timber.log.Timber;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Operation synchronizing the contents of several files contained in the same folder.
+ * <p>
+ * The properties of all the files are verified against a single listing of the folder in the server, instead of
+ * a request per file, and then every file is synchronized by a {@link SynchronizeFileOperation} that requests a
+ * transfer only if the file changed in the server or in the device.
+ * <p>
+ * The listing is not worth it when the files are only a few of those in the folder; then, and for files not found
+ * in the listing, the properties of every file are requested alone.
+ */
+public class SynchronizeFilesInFolderOperation extends SyncOperation {
+
+    /**
+     * Maximum number of files in the folder for every file to synchronize; above it, every file is verified alone
+     */
+    private static final int MAX_LISTED_FILES_PER_SYNCHRONIZED_FILE = 50;
+
+    /**
+     * Files synchronized and requests sent to the server to verify them, since the app started.
+     */
+    private static final AtomicLong sSynchronizedFiles = new AtomicLong();
+    private static final AtomicLong sVerificationRequests = new AtomicLong();
+
+    private final OCFile mFolder;
+    private final List<OCFile> mFiles;
+    private final Account mAccount;
+    private final Context mContext;
+    private final boolean mRequestedFromAvOfflineJobService;
+
+    private final List<OCFile> mFilesInConflict = new ArrayList<>();
+    private int mFailedFiles;
+
+    /**
+     * @param folder                           Folder containing the files.
+     * @param files                            Files to synchronize, just retrieved from local database.
+     * @param account                          ownCloud account holding the files.
+     * @param context                          Android context; needed to start transfers.
+     * @param requestedFromAvOfflineJobService When 'true' will perform some specific operations
+     */
+    public SynchronizeFilesInFolderOperation(
+            OCFile folder,
+            List<OCFile> files,
+            Account account,
+            Context context,
+            boolean requestedFromAvOfflineJobService
+    ) {
+        mFolder = folder;
+        mFiles = files;
+        mAccount = account;
+        mContext = context;
+        mRequestedFromAvOfflineJobService = requestedFromAvOfflineJobService;
+    }
+
+    @Override
+    protected RemoteOperationResult run(OwnCloudClient client) {
+        mFilesInConflict.clear();
+        mFailedFiles = 0;
+
+        Map<String, OCFile> serverFiles = new HashMap<>();
+        if (isListingWorthIt()) {
+            RemoteOperationResult<ArrayList<RemoteFile>> listingResult =
+                    new ReadRemoteFolderOperation(mFolder.getRemotePath()).execute(client);
+            sVerificationRequests.incrementAndGet();
+            if (listingResult.isSuccess()) {
+                long now = System.currentTimeMillis();
+                List<RemoteFile> remoteFiles = listingResult.getData();
+                // the first one is the folder itself
+                for (int i = 1; i < remoteFiles.size(); i++) {
+                    OCFile serverFile = FileStorageUtils.createOCFileFromRemoteFile(remoteFiles.get(i));
+                    serverFile.setLastSyncDateForProperties(now);
+                    serverFiles.put(serverFile.getRemotePath(), serverFile);
+                }
+            } else {
+                Timber.w("Listing of %s failed, files will be verified alone: %s", mFolder.getRemotePath(),
+                        listingResult.getLogMessage());
+            }
+        }
+
+        for (OCFile file : mFiles) {
+            OCFile serverFile = serverFiles.get(file.getRemotePath());
+            if (serverFile == null && file.isDown()) {
+                // the operation will request the properties of the file alone
+                sVerificationRequests.incrementAndGet();
+            }
+            SynchronizeFileOperation operation = new SynchronizeFileOperation(
+                    file,
+                    serverFile,
+                    mAccount,
+                    false,
+                    mContext,
+                    mRequestedFromAvOfflineJobService
+            );
+            RemoteOperationResult result = operation.execute(client, getStorageManager());
+            if (result.getCode() == ResultCode.SYNC_CONFLICT) {
+                mFilesInConflict.add(file);
+            } else if (!result.isSuccess()) {
+                mFailedFiles++;
+                Timber.e("Error while synchronizing file %s : %s", file.getRemotePath(), result.getLogMessage());
+            }   // won't let these fails break the synchronization of the rest of files
+        }
+        sSynchronizedFiles.addAndGet(mFiles.size());
+
+        Timber.d("Synchronized %d files in %s, %d requests sent since the app started to verify %d files",
+                mFiles.size(), mFolder.getRemotePath(), sVerificationRequests.get(), sSynchronizedFiles.get());
+
+        if (!mFilesInConflict.isEmpty()) {
+            return new RemoteOperationResult(ResultCode.SYNC_CONFLICT);
+        }
+        return new RemoteOperationResult(ResultCode.OK);
+    }
+
+    /**
+     * @return 'True' if a listing of the folder is cheaper than a request for every file.
+     */
+    private boolean isListingWorthIt() {
+        if (mFiles.size() < 2) {
+            return false;
+        }
+        int filesInFolder = getStorageManager().getFolderContentCount(mFolder.getFileId(), false);
+        return filesInFolder <= (long) mFiles.size() * MAX_LISTED_FILES_PER_SYNCHRONIZED_FILE;
+    }
+
+    /**
+     * @return Files with changes both in the device and in the server after the operation was executed.
+     */
+    public List<OCFile> getFilesInConflict() {
+        return mFilesInConflict;
+    }
+
+    /**
+     * @return Files that could not be synchronized after the operation was executed, out of conflicts.
+     */
+    public int getFailedFiles() {
+        return mFailedFiles;
+    }
+
+    /**
+     * @return Number of files synchronized by operations of this class, since the app started.
+     */
+    public static long getSynchronizedFiles() {
+        return sSynchronizedFiles.get();
+    }
+
+    /**
+     * @return Number of requests sent by operations of this class to verify the properties of the files in the
+     * server, since the app started; one per file without this operation.
+     */
+    public static long getVerificationRequests() {
+        return sVerificationRequests.get();
+    }
+}
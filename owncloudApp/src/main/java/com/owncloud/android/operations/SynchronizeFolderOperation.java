@@ -24,6 +24,8 @@ package com.owncloud.android.operations;
 import android.accounts.Account;
 import android.content.Context;
 import android.content.Intent;
+import android.os.RemoteException;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.core.util.Pair;
@@ -31,6 +33,7 @@ import com.owncloud.android.datamodel.FileDataStorageManager;
 import com.owncloud.android.datamodel.OCFile;
 import com.owncloud.android.datamodel.OCUpload;
 import com.owncloud.android.datamodel.UploadsStorageManager;
+import com.owncloud.android.files.services.TransferRequester;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
@@ -39,11 +42,15 @@ import com.owncloud.android.lib.resources.files.ReadRemoteFolderOperation;
 import com.owncloud.android.lib.resources.files.RemoteFile;
 import com.owncloud.android.operations.common.SyncOperation;
 import com.owncloud.android.services.OperationsService;
+import com.owncloud.android.syncadapter.FolderSyncMetric;
+import com.owncloud.android.syncadapter.SyncMetrics;
 import com.owncloud.android.utils.FileStorageUtils;
 import timber.log.Timber;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +69,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFile>> {
 
+    /**
+     * Maximum number of merged files saved at once
+     */
+    private static final int MERGE_CHUNK_SIZE = 500;
+
+    /**
+     * Order of remote files in the merge, the same of the local files; files without remote id go first
+     */
+    private static final Comparator<RemoteFile> REMOTE_ID_ORDER = (file1, file2) -> {
+        if (file1.getRemoteId() == null || file2.getRemoteId() == null) {
+            return Boolean.compare(file2.getRemoteId() == null, file1.getRemoteId() == null);
+        }
+        return FileDataStorageManager.compareAsStored(file1.getRemoteId(), file2.getRemoteId());
+    };
+
     /**
      * Time stamp for the synchronization process in progress
      */
@@ -131,6 +153,26 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
      */
     private final boolean mSyncContentOfRegularFiles;
 
+    /**
+     * Full synchronization this operation is part of, for the metrics; {@link SyncMetrics#NO_SYNC_RUN} if none
+     */
+    private long mSyncRunId = SyncMetrics.NO_SYNC_RUN;
+
+    /**
+     * Operation the metrics are recorded for, and time spent by it checking the folder before this one started
+     */
+    private String mMetricsOperation = SyncMetrics.OPERATION_SYNCHRONIZE;
+    private long mPreviousRequestsMillis;
+
+    /**
+     * Metrics of the last execution; see {@link FolderSyncMetric}
+     */
+    private long mPropfindMillis;
+    private int mEntries;
+    private long mMergeCpuMillis;
+    private long mSaveMillis;
+    private int mRowsWritten;
+
     /**
      * Creates a new instance of {@link SynchronizeFolderOperation}.
      *
@@ -180,6 +222,24 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
         return mForgottenLocalFiles;
     }
 
+    /**
+     * @param syncRunId Full synchronization this operation is part of, to aggregate its metrics with those of
+     *                  the rest of folders; see {@link SyncMetrics#newSyncRunId()}.
+     */
+    public void setSyncRunId(long syncRunId) {
+        mSyncRunId = syncRunId;
+    }
+
+    /**
+     * Records the metrics of this operation as part of a {@link RefreshFolderOperation}.
+     *
+     * @param eTagCheckMillis Time spent by the refresh checking the ETag of the folder, in milliseconds.
+     */
+    void setRefreshMetrics(long eTagCheckMillis) {
+        mMetricsOperation = SyncMetrics.OPERATION_REFRESH;
+        mPreviousRequestsMillis = eTagCheckMillis;
+    }
+
     /**
      * Returns the list of subfolders after the refresh, in a {@link Pair} with a boolean
      * indicating if was detected as changed in the server or not.
@@ -203,6 +263,10 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
         mFailsInFileSyncsFound = 0;
         mConflictsFound = 0;
         mForgottenLocalFiles.clear();
+        mEntries = 0;
+        mMergeCpuMillis = 0;
+        mSaveMillis = 0;
+        mRowsWritten = 0;
 
         try {
             // get locally cached information about folder
@@ -218,11 +282,21 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
 
             } else {
                 // get list of files in folder from remote server
+                long startedAt = System.currentTimeMillis();
+                long fetchStart = SystemClock.elapsedRealtime();
                 fetchFolderResult = fetchRemoteFolder(client);
+                mPropfindMillis = mPreviousRequestsMillis + SystemClock.elapsedRealtime() - fetchStart;
 
                 if (fetchFolderResult.isSuccess()) {
                     // success - merge updates in server with local state
-                    mergeRemoteFolder(fetchFolderResult.getData());
+                    mEntries = fetchFolderResult.getData().size();
+                    long mergeStart = SystemClock.currentThreadTimeMillis();
+                    try {
+                        mergeRemoteFolder(fetchFolderResult.getData());
+                    } finally {
+                        mMergeCpuMillis = SystemClock.currentThreadTimeMillis() - mergeStart;
+                        recordMetrics(startedAt);
+                    }
                     syncContents();
 
                 } else {
@@ -230,6 +304,7 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
                     if (fetchFolderResult.getCode() == ResultCode.FILE_NOT_FOUND) {
                         removeLocalFolder();
                     }
+                    recordMetrics(startedAt);
                     if (fetchFolderResult.isException()) {
                         Timber.e(fetchFolderResult.getException(),
                                 "Checked " + mAccount.name + mRemotePath + " : " + fetchFolderResult.getLogMessage());
@@ -293,6 +368,11 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
      * Synchronizes the data retrieved from the server about the contents of the target folder
      * with the current data in the local database.
      * <p>
+     * Remote and local files are walked at the same time in order of remote id, and merged files are saved
+     * in chunks of {@link #MERGE_CHUNK_SIZE} files, so that no other list of all the children is built and
+     * big folders can be merged with bounded memory. The folder itself is saved last; if the merge does not
+     * complete, its ETag does not change and the next synchronization merges it again.
+     * <p>
      * Grants that mFoldersToVisit is updated with fresh data after execution.
      *
      * @param remoteFolderAndFiles Remote folder and children files in folder
@@ -311,84 +391,177 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
 
         Timber.d("Remote folder " + mLocalFolder.getRemotePath() + " changed - starting update of local data ");
 
-        List<OCFile> updatedFiles = new Vector<>(remoteFolderAndFiles.size() - 1);
-        mFoldersToVisit = new Vector<>(remoteFolderAndFiles.size() - 1);
+        mFoldersToVisit = new Vector<>();
         mFilesToSyncContents.clear();
 
         if (mCancellationRequested.get()) {
             throw new OperationCancelledException();
         }
 
-        // get current data about local contents of the folder to synchronize
-        List<OCFile> localFiles = storageManager.getFolderContent(mLocalFolder);
-        Map<String, OCFile> localFilesMap = new HashMap<>(localFiles.size());
-        for (OCFile file : localFiles) {
-            String key = file.getRemoteId() != null ? file.getRemoteId() : file.getRemotePath();
-            if (key != null) {
-                localFilesMap.put(key, file);
-            }
+        List<RemoteFile> remoteFiles = remoteFolderAndFiles.subList(1, remoteFolderAndFiles.size());
+        Collections.sort(remoteFiles, REMOTE_ID_ORDER);
+
+        // files stored before their remote id was known are matched by path
+        Map<String, OCFile> localFilesWithoutRemoteId = new HashMap<>();
+        for (OCFile file : storageManager.getFolderContentWithoutRemoteId(mLocalFolder.getFileId())) {
+            localFilesWithoutRemoteId.put(file.getRemotePath(), file);
         }
 
         // loop to synchronize every child
-        OCFile remoteFile, localFile, updatedLocalFile;
+        List<OCFile> updatedFiles = new ArrayList<>(MERGE_CHUNK_SIZE);
+        List<OCFile> filesToRemove = new ArrayList<>();
         int foldersToExpand = 0;
-        for (int i = 1; i < remoteFolderAndFiles.size(); i++) {
-            /// new OCFile instance with the data from the server
-            remoteFile = FileStorageUtils.createOCFileFromRemoteFile(remoteFolderAndFiles.get(i));
-            /// retrieve local data for the read file
-            localFile = localFilesMap.remove(remoteFile.getRemoteId());
-
-            // Let's try with remote path if the file does not have remote id yet
-            if (localFile == null) {
-                localFile = localFilesMap.remove(remoteFile.getRemotePath());
-            }
+        try {
+            FileDataStorageManager.ChildrenByRemoteIdReader localFiles =
+                    storageManager.readChildrenByRemoteId(mLocalFolder.getFileId());
+            OCFile nextLocalFile = localFiles.next();
+            for (int i = 0; i < remoteFiles.size(); i++) {
+                RemoteFile remoteFile = remoteFiles.get(i);
+                remoteFiles.set(i, null);   // not needed anymore after merged
+                String remoteId = remoteFile.getRemoteId();
+
+                // local files sorted before the remote one are not in the server anymore
+                while (nextLocalFile != null && remoteId != null &&
+                        FileDataStorageManager.compareAsStored(nextLocalFile.getRemoteId(), remoteId) < 0) {
+                    filesToRemove.add(nextLocalFile);
+                    nextLocalFile = localFiles.next();
+                }
 
-            /// new OCFile instance to merge fresh data from server with local state
-            updatedLocalFile = FileStorageUtils.createOCFileFromRemoteFile(remoteFolderAndFiles.get(i));
-
-            /// add to updatedFile data about LOCAL STATE (not existing in server)
-            updatedLocalFile.setLastSyncDateForProperties(mCurrentSyncTime);
-            if (localFile != null) {
-                updatedLocalFile.copyLocalPropertiesFrom(localFile);
-                updatedLocalFile.setFileName(remoteFile.getFileName());
-                // remote eTag will not be set unless file CONTENTS are synchronized
-                updatedLocalFile.setEtag(localFile.getEtag());
-                if (!updatedLocalFile.isFolder() &&
-                        remoteFile.getModificationTimestamp() != localFile.getModificationTimestamp()) {
-                    updatedLocalFile.setNeedsUpdateThumbnail(true);
+                /// retrieve local data for the read file
+                OCFile localFile;
+                if (nextLocalFile != null && remoteId != null && nextLocalFile.getRemoteId().equals(remoteId)) {
+                    localFile = nextLocalFile;
+                    nextLocalFile = localFiles.next();
+                } else {
+                    // Let's try with remote path if the file does not have remote id yet
+                    localFile = localFilesWithoutRemoteId.remove(remoteFile.getRemotePath());
                 }
-            } else {
-                updatedLocalFile.setParentId(mLocalFolder.getFileId());
-                // remote eTag will not be set unless file CONTENTS are synchronized
-                updatedLocalFile.setEtag("");
-                // new files need to check av-off status of parent folder!
-                if (updatedFolder.isAvailableOffline()) {
-                    updatedLocalFile.setAvailableOfflineStatus(
-                            OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
-                    );
+
+                OCFile updatedLocalFile = mergeRemoteFile(remoteFile, localFile, updatedFolder);
+
+                /// prepare content synchronizations
+                boolean serverUnchanged = addToSyncContents(updatedLocalFile, remoteFile);
+                if (updatedLocalFile.isFolder() && !serverUnchanged) {
+                    foldersToExpand++;
                 }
-                // new files need to update thumbnails
-                updatedLocalFile.setNeedsUpdateThumbnail(true);
-            }
 
-            /// check and fix, if needed, local storage path
-            searchForLocalFileInDefaultPath(updatedLocalFile);
+                updatedFiles.add(updatedLocalFile);
+                saveChunkIfFull(updatedFolder, updatedFiles, filesToRemove);
+            }
 
-            /// prepare content synchronizations
-            boolean serverUnchanged = addToSyncContents(updatedLocalFile, remoteFile);
-            if (updatedLocalFile.isFolder() && !serverUnchanged) {
-                foldersToExpand++;
+            while (nextLocalFile != null) {
+                filesToRemove.add(nextLocalFile);
+                nextLocalFile = localFiles.next();
+                saveChunkIfFull(updatedFolder, updatedFiles, filesToRemove);
             }
 
-            updatedFiles.add(updatedLocalFile);
+        } catch (RemoteException e) {
+            Timber.e(e, "Merge of " + mAccount.name + mRemotePath + " not completed");
+            return;
         }
+        filesToRemove.addAll(localFilesWithoutRemoteId.values());
 
         // save updated contents in local database
+        saveChildren(updatedFolder, updatedFiles, filesToRemove);
         if (foldersToExpand == 0) {
             updatedFolder.setTreeEtag(updatedFolder.getEtag());
-            // TODO - propagate up
         }
-        storageManager.saveFolder(updatedFolder, updatedFiles, localFilesMap.values());
+        long saveStart = SystemClock.elapsedRealtime();
+        storageManager.saveFolder(updatedFolder, Collections.emptyList(), Collections.emptyList());
+        mRowsWritten++;
+        storageManager.scheduleFolderCheck(updatedFolder, !updatedFolder.getEtag().equals(mLocalFolder.getEtag()));
+        if (foldersToExpand == 0) {
+            // ancestors waiting for this subtree may be synchronized now
+            storageManager.propagateTreeEtagUpFrom(updatedFolder);
+        }
+        mSaveMillis += SystemClock.elapsedRealtime() - saveStart;
+    }
+
+    /**
+     * Saves the merged files and removes the missing ones when they fill a chunk, and empties both lists.
+     */
+    private void saveChunkIfFull(OCFile folder, List<OCFile> updatedFiles, List<OCFile> filesToRemove)
+            throws OperationCancelledException {
+        if (updatedFiles.size() + filesToRemove.size() < MERGE_CHUNK_SIZE) {
+            return;
+        }
+        if (mCancellationRequested.get()) {
+            throw new OperationCancelledException();
+        }
+        saveChildren(folder, updatedFiles, filesToRemove);
+        updatedFiles.clear();
+        filesToRemove.clear();
+    }
+
+    /**
+     * Saves merged files and removes missing ones, taking note of the time and rows written for the metrics.
+     */
+    private void saveChildren(OCFile folder, List<OCFile> updatedFiles, List<OCFile> filesToRemove) {
+        long saveStart = SystemClock.elapsedRealtime();
+        getStorageManager().saveFolderChildren(folder, updatedFiles, filesToRemove);
+        mSaveMillis += SystemClock.elapsedRealtime() - saveStart;
+        mRowsWritten += updatedFiles.size() + filesToRemove.size();
+    }
+
+    /**
+     * Records the metrics of the last fetch and merge of the folder in {@link SyncMetrics}.
+     *
+     * @param startedAt Wall clock time when the fetch started, in milliseconds.
+     */
+    private void recordMetrics(long startedAt) {
+        SyncMetrics.record(new FolderSyncMetric(
+                mAccount.name,
+                mRemotePath,
+                mMetricsOperation,
+                mSyncRunId,
+                startedAt,
+                mPropfindMillis,
+                mEntries,
+                mMergeCpuMillis,
+                mSaveMillis,
+                mRowsWritten
+        ));
+    }
+
+    /**
+     * Merges the data of a file read from the server with its local state.
+     *
+     * @param remoteFile    Server information of the file.
+     * @param localFile     Local information of the file, or null if it is new.
+     * @param updatedFolder Folder of the file, with the merged data.
+     * @return New {@link OCFile} instance with fresh data from server and the local state.
+     */
+    private OCFile mergeRemoteFile(RemoteFile remoteFile, OCFile localFile, OCFile updatedFolder) {
+        OCFile updatedLocalFile = FileStorageUtils.createOCFileFromRemoteFile(remoteFile);
+
+        /// add to updatedFile data about LOCAL STATE (not existing in server)
+        updatedLocalFile.setLastSyncDateForProperties(mCurrentSyncTime);
+        if (localFile != null) {
+            updatedLocalFile.copyLocalPropertiesFrom(localFile);
+            // remote eTag will not be set unless file CONTENTS are synchronized
+            updatedLocalFile.setEtag(localFile.getEtag());
+            if (!updatedLocalFile.isFolder() &&
+                    remoteFile.getModifiedTimestamp() != localFile.getModificationTimestamp()) {
+                updatedLocalFile.setNeedsUpdateThumbnail(true);
+            }
+        } else {
+            updatedLocalFile.setParentId(mLocalFolder.getFileId());
+            // remote eTag will not be set unless file CONTENTS are synchronized
+            updatedLocalFile.setEtag("");
+            // new files need to check av-off status of parent folder!
+            if (updatedFolder.isAvailableOffline()) {
+                updatedLocalFile.setAvailableOfflineStatus(
+                        OCFile.AvailableOfflineStatus.AVAILABLE_OFFLINE_PARENT
+                );
+            }
+            // new files need to update thumbnails
+            updatedLocalFile.setNeedsUpdateThumbnail(true);
+        }
+
+        /// check and fix, if needed, local storage path
+        searchForLocalFileInDefaultPath(updatedLocalFile);
+
+        return updatedLocalFile;
     }
 
     private void preparePushOfLocalChanges() {
@@ -408,11 +581,11 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
      * Stores the operations in mFoldersToSyncContents and mFilesToSyncContents.
      *
      * @param localFile  Local information about the file which contents might be sync'ed.
-     * @param remoteFile Server information of the file.
+     * @param remoteFile Server information of the file, or null to push local changes only.
      * @return 'True' when the received file was not changed in the server side from the
      * last synchronization.
      */
-    private boolean addToSyncContents(OCFile localFile, OCFile remoteFile) {
+    private boolean addToSyncContents(OCFile localFile, RemoteFile remoteFile) {
 
         boolean shouldSyncContents = (mSyncContentOfRegularFiles || localFile.isAvailableOffline());
         boolean serverUnchanged;
@@ -450,7 +623,7 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
                 /// synchronization for files
                 SynchronizeFileOperation operation = new SynchronizeFileOperation(
                         localFile,
-                        remoteFile,
+                        remoteFile != null ? FileStorageUtils.createOCFileFromRemoteFile(remoteFile) : null,
                         mAccount,
                         serverUnchanged,
                         mContext,
@@ -468,16 +641,18 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
      * or if exists conflict due to changes both in local and remote contents of the each file.
      * <p>
      * If download or upload is needed, request the operation to the corresponding service and goes
-     * on.
+     * on. The downloads of all the files are requested at once.
      */
     private void syncContents() throws OperationCancelledException {
 
         Timber.v("Starting content synchronization... ");
         RemoteOperationResult contentsResult;
-        for (SyncOperation op : mFilesToSyncContents) {
+        List<String> downloadsToRequest = new ArrayList<>();
+        for (SynchronizeFileOperation op : mFilesToSyncContents) {
             if (mCancellationRequested.get()) {
                 throw new OperationCancelledException();
             }
+            op.setDownloadsToRequest(downloadsToRequest);
             contentsResult = op.execute(getStorageManager(), mContext);
             if (!contentsResult.isSuccess()) {
                 if (contentsResult.getCode() == ResultCode.SYNC_CONFLICT) {
@@ -493,6 +668,9 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
                 }
             }   // won't let these fails break the synchronization process
         }
+        if (!downloadsToRequest.isEmpty()) {
+            new TransferRequester().downloadFiles(mContext, mAccount, downloadsToRequest);
+        }
         for (Intent intent : mFoldersToSyncContents) {
             if (mCancellationRequested.get()) {
                 throw new OperationCancelledException();
@@ -572,4 +750,11 @@ public class SynchronizeFolderOperation extends SyncOperation<ArrayList<RemoteFi
     public String getRemotePath() {
         return mRemotePath;
     }
+
+    /**
+     * @return 'True' if the operation only pushes local changes, without fetching the folder from the server.
+     */
+    public boolean isPushOnly() {
+        return mPushOnly;
+    }
 }
@@ -65,7 +65,6 @@ import java.io.File
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.util.HashMap
-import java.util.Vector
 
 class DocumentsStorageProvider : DocumentsProvider() {
     /**
@@ -273,11 +272,7 @@ class DocumentsStorageProvider : DocumentsProvider() {
 
         val result = FileCursor(projection)
 
-        val root = getFileByPath(OCFile.ROOT_PATH) ?: return result
-
-        for (f in findFiles(root, query)) {
-            result.addFile(f)
-        }
+        currentStorageManager?.searchFiles(query)?.forEach { result.addFile(it) }
 
         return result
     }
@@ -501,19 +496,6 @@ class DocumentsStorageProvider : DocumentsProvider() {
         return cancellationSignal == null || !cancellationSignal.isCanceled
     }
 
-    private fun findFiles(root: OCFile, query: String): Vector<OCFile> {
-        val result = Vector<OCFile>()
-
-        val folderContent = currentStorageManager?.getFolderContent(root) ?: return result
-        folderContent.forEach {
-            if (it.fileName.contains(query)) {
-                result.add(it)
-                if (it.isFolder) result.addAll(findFiles(it, query))
-            }
-        }
-        return result
-    }
-
     private fun notifyChangeInFolder(folderToNotify: String) {
         context?.contentResolver?.notifyChange(toNotifyUri(toUri(folderToNotify)), null)
     }
@@ -35,11 +35,14 @@ import android.content.Context
 import android.content.OperationApplicationException
 import android.content.UriMatcher
 import android.database.Cursor
+import android.database.DatabaseUtils
 import android.database.SQLException
+import android.database.sqlite.SQLiteDoneException
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import android.database.sqlite.SQLiteQueryBuilder
 import android.net.Uri
+import android.os.Bundle
 import android.os.CancellationSignal
 import android.os.ParcelFileDescriptor
 import android.provider.BaseColumns
@@ -54,11 +57,13 @@ import com.owncloud.android.data.ProviderMeta
 import com.owncloud.android.data.capabilities.datasources.implementation.OCLocalCapabilitiesDataSource
 import com.owncloud.android.data.capabilities.datasources.mapper.OCCapabilityMapper
 import com.owncloud.android.data.capabilities.db.OCCapabilityEntity
+import com.owncloud.android.data.files.db.OCFileEntity
 import com.owncloud.android.data.sharing.shares.db.OCShareEntity
 import com.owncloud.android.datamodel.OCFile
 import com.owncloud.android.datamodel.UploadsStorageManager
 import com.owncloud.android.db.ProviderMeta.ProviderTableMeta
-import com.owncloud.android.domain.files.LIST_MIME_DIR
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.domain.files.MIME_DIR_UNIX
 import com.owncloud.android.lib.common.accounts.AccountUtils
 import com.owncloud.android.utils.FileStorageUtils
 import org.koin.android.ext.android.inject
@@ -77,20 +82,14 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
 
     private lateinit var uriMatcher: UriMatcher
 
+    /**
+     * Notifications collected while a batch runs in the current thread; null out of batches.
+     */
+    private val pendingNotifications = ThreadLocal<MutableSet<Uri>>()
+
     override fun delete(uri: Uri, where: String?, whereArgs: Array<String>?): Int {
-        val count: Int
-        val db = dbHelper.writableDatabase
-        db.beginTransaction()
-        try {
-            count = delete(db, uri, where, whereArgs)
-            db.setTransactionSuccessful()
-        } finally {
-            db.endTransaction()
-        }
-        context?.contentResolver?.notifyChange(
-            uri,
-            null
-        )
+        val count = inTransaction(uri) { delete(dbHelper.writableDatabase, uri, where, whereArgs) }
+        notifyChange(uri)
         return count
     }
 
@@ -109,7 +108,7 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
                 }
                 Timber.d("Removing FILE $remoteId")
 
-                count = db.delete(
+                count = filesDb.delete(
                     ProviderTableMeta.FILE_TABLE_NAME,
                     ProviderTableMeta._ID +
                             "=" +
@@ -120,44 +119,9 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
                                 "", whereArgs
                 )
             }
-            DIRECTORY -> {
-                // deletion of folder is recursive
-                val children = query(uri, null, null, null, null)
-                if (children.moveToFirst()) {
-                    var childId: Long
-                    var isDir: Boolean
-                    while (!children.isAfterLast) {
-                        childId = children.getLong(children.getColumnIndex(ProviderTableMeta._ID))
-                        isDir = children.getString(
-                            children.getColumnIndex(ProviderTableMeta.FILE_CONTENT_TYPE)
-                        ) in LIST_MIME_DIR
-                        count += if (isDir) {
-                            delete(
-                                db,
-                                ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, childId), null, null
-                            )
-                        } else {
-                            delete(
-                                db,
-                                ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_FILE, childId), null, null
-                            )
-                        }
-                        children.moveToNext()
-                    }
-                    children.close()
-                }
-                count += db.delete(
-                    ProviderTableMeta.FILE_TABLE_NAME,
-                    ProviderTableMeta._ID + "=" +
-                            uri.pathSegments[1] +
-                            if (!TextUtils.isEmpty(where))
-                                " AND (" + where + ")"
-                            else
-                                "", whereArgs
-                )
-            }
+            DIRECTORY -> count = deleteFolderTree(uri.pathSegments[1], where, whereArgs)
             ROOT_DIRECTORY ->
-                count = db.delete(ProviderTableMeta.FILE_TABLE_NAME, where, whereArgs)
+                count = filesDb.delete(ProviderTableMeta.FILE_TABLE_NAME, where, whereArgs)
             SHARES -> count =
                 OwncloudDatabase.getDatabase(MainApp.appContext).shareDao().deleteShare(uri.pathSegments[1])
             CAPABILITIES -> count = db.delete(ProviderTableMeta.CAPABILITIES_TABLE_NAME, where, whereArgs)
@@ -169,6 +133,36 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
         return count
     }
 
+    /**
+     * Deletes a folder and all its descendants with a single statement, walking the tree through
+     * [ProviderTableMeta.FILE_PARENT].
+     *
+     * @param folderId  Id of the folder to delete.
+     * @param where     Additional condition the folder must meet to be deleted; descendants are deleted only
+     *                  together with it.
+     * @param whereArgs Arguments for the additional condition.
+     * @return Number of deleted rows, including the folder.
+     */
+    private fun deleteFolderTree(folderId: String, where: String?, whereArgs: Array<String>?): Int {
+        val folderSelection = "${ProviderTableMeta._ID}=?" + if (!TextUtils.isEmpty(where)) " AND ($where)" else ""
+        val sql = "WITH RECURSIVE subtree(id) AS (" +
+                "SELECT ${ProviderTableMeta._ID} FROM ${ProviderTableMeta.FILE_TABLE_NAME} WHERE $folderSelection " +
+                "UNION ALL " +
+                "SELECT child.${ProviderTableMeta._ID} FROM ${ProviderTableMeta.FILE_TABLE_NAME} child " +
+                "JOIN subtree ON child.${ProviderTableMeta.FILE_PARENT} = subtree.id) " +
+                "DELETE FROM ${ProviderTableMeta.FILE_TABLE_NAME} WHERE ${ProviderTableMeta._ID} IN subtree"
+
+        val statement = filesDb.compileStatement(sql)
+        return try {
+            (arrayOf(folderId) + (whereArgs ?: arrayOf())).forEachIndexed { index, arg ->
+                statement.bindString(index + 1, arg)
+            }
+            statement.executeUpdateDelete().also { Timber.d("Removed FOLDER $folderId with $it rows") }
+        } finally {
+            statement.close()
+        }
+    }
+
     override fun getType(uri: Uri): String? {
         return when (uriMatcher.match(uri)) {
             ROOT_DIRECTORY -> ProviderTableMeta.CONTENT_TYPE
@@ -178,16 +172,10 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
     }
 
     override fun insert(uri: Uri, values: ContentValues?): Uri? {
-        val newUri: Uri?
-        val db = dbHelper.writableDatabase
-        db.beginTransaction()
-        try {
-            newUri = insert(db, uri, values)
-            db.setTransactionSuccessful()
-        } finally {
-            db.endTransaction()
-        }
-        context?.contentResolver?.notifyChange(newUri!!, null)
+        val newUri = inTransaction(uri) { insert(dbHelper.writableDatabase, uri, values) }
+        notifyChange(newUri, values?.getAsLong(ProviderTableMeta.FILE_PARENT)?.takeIf {
+            uriMatcher.match(uri) == ROOT_DIRECTORY || uriMatcher.match(uri) == SINGLE_FILE
+        })
         return newUri
     }
 
@@ -211,7 +199,7 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
                 // FileDataStorageManager and bring it to FileContentProvider
                 return if (!doubleCheck.moveToFirst()) {
                     doubleCheck.close()
-                    val fileId = db.insert(ProviderTableMeta.FILE_TABLE_NAME, null, values)
+                    val fileId = filesDb.insert(ProviderTableMeta.FILE_TABLE_NAME, SQLiteDatabase.CONFLICT_NONE, values)
                     if (fileId <= 0) throw SQLException("ERROR $uri")
                     ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_FILE, fileId)
                 } else {
@@ -309,8 +297,6 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             throw IllegalArgumentException("Selection not allowed, use parameterized queries")
         }
 
-        val db: SQLiteDatabase = dbHelper.writableDatabase
-
         val sqlQuery = SQLiteQueryBuilder()
 
         sqlQuery.isStrict = true
@@ -394,13 +380,38 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             sortOrder
         }
 
-        // DB case_sensitive
-        db.execSQL("PRAGMA case_sensitive_like = true")
-        val c = sqlQuery.query(db, projection, selection, selectionArgs, null, null, order)
+        val limit = uri.getQueryParameter(ProviderTableMeta.QUERY_PARAMETER_LIMIT)
+        // with write-ahead logging, queries out of a transaction run in a pooled read connection, not
+        // waiting for the writes in progress
+        val c = if (isFileUri(uri)) {
+            queryFiles(sqlQuery, projection, selection, selectionArgs, order, limit)
+        } else {
+            sqlQuery.query(dbHelper.readableDatabase, projection, selection, selectionArgs, null, null, order, limit)
+        }
         c.setNotificationUri(context?.contentResolver, uri)
         return c
     }
 
+    /**
+     * Runs a query on the files table, in Room. [SQLiteQueryBuilder] only builds it, so the selection is checked
+     * first as the builder does in strict mode: compiled wrapped in parentheses, a selection escaping from them is
+     * rejected.
+     */
+    private fun queryFiles(
+        sqlQuery: SQLiteQueryBuilder,
+        projection: Array<String>?,
+        selection: String?,
+        selectionArgs: Array<String>?,
+        order: String?,
+        limit: String?
+    ): Cursor {
+        val db = filesDb
+        if (!selection.isNullOrEmpty()) {
+            db.compileStatement(sqlQuery.buildQuery(projection, "($selection)", null, null, order, limit)).close()
+        }
+        return db.query(sqlQuery.buildQuery(projection, selection, null, null, order, limit), selectionArgs)
+    }
+
     private fun computeProjection(projectionIn: Array<String>?): Array<String?> {
         if (!projectionIn.isNullOrEmpty()) {
             val projection = arrayOfNulls<String>(projectionIn.size)
@@ -439,16 +450,10 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
     }
 
     override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<String>?): Int {
-        val count: Int
-        val db = dbHelper.writableDatabase
-        db.beginTransaction()
-        try {
-            count = update(db, uri, values, selection, selectionArgs)
-            db.setTransactionSuccessful()
-        } finally {
-            db.endTransaction()
+        val count = inTransaction(uri) {
+            update(dbHelper.writableDatabase, uri, values, selection, selectionArgs)
         }
-        context?.contentResolver?.notifyChange(uri, null)
+        notifyChange(uri)
         return count
     }
 
@@ -476,8 +481,8 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             }
             CAMERA_UPLOADS_SYNC -> return db.update(ProviderTableMeta.CAMERA_UPLOADS_SYNC_TABLE_NAME, values, selection, selectionArgs)
             QUOTAS -> return db.update(ProviderTableMeta.USER_QUOTAS_TABLE_NAME, values, selection, selectionArgs)
-            else -> return db.update(
-                ProviderTableMeta.FILE_TABLE_NAME, values, selection, selectionArgs
+            else -> return filesDb.update(
+                ProviderTableMeta.FILE_TABLE_NAME, SQLiteDatabase.CONFLICT_NONE, values, selection, selectionArgs
             )
         }
     }
@@ -488,19 +493,337 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
         val results = arrayOfNulls<ContentProviderResult>(operations.size)
         var i = 0
 
+        withDeferredNotifications {
+            // it's supposed that transactions can be nested
+            inLegacyTransaction {
+                inFilesTransaction {
+                    for (operation in operations) {
+                        results[i] = operation.apply(this, results, i)
+                        i++
+                    }
+                }
+            }
+        }
+        Timber.d("applied batch in provider $this")
+        return results
+    }
+
+    override fun bulkInsert(uri: Uri, values: Array<ContentValues>): Int {
+        withDeferredNotifications {
+            inTransaction(uri) { values.forEach { insert(uri, it) } }
+        }
+        return values.size
+    }
+
+    /**
+     * Database of the files, in Room since version 35 of the databases; the rest of tables are still in the legacy
+     * one. The legacy database is opened first, so that its upgrade copies the files to Room before they are used.
+     */
+    private val filesDb: SupportSQLiteDatabase
+        get() {
+            dbHelper.writableDatabase
+            return OwncloudDatabase.getDatabase(context!!).openHelper.writableDatabase
+        }
+
+    private fun isFileUri(uri: Uri) = when (uriMatcher.match(uri)) {
+        ROOT_DIRECTORY, SINGLE_FILE, DIRECTORY -> true
+        else -> false
+    }
+
+    /**
+     * Runs [block] in a transaction of the database holding the table of [uri].
+     */
+    private fun <T> inTransaction(uri: Uri, block: () -> T): T =
+        if (isFileUri(uri)) inFilesTransaction(block) else inLegacyTransaction(block)
+
+    private fun <T> inLegacyTransaction(block: () -> T): T {
         val db = dbHelper.writableDatabase
-        db.beginTransaction()  // it's supposed that transactions can be nested
+        db.beginTransaction()
+        try {
+            return block().also { db.setTransactionSuccessful() }
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * When a transaction of each database is needed, the one of the legacy database is begun first, so that they can
+     * not wait for each other.
+     */
+    private fun <T> inFilesTransaction(block: () -> T): T {
+        val db = filesDb
+        db.beginTransaction()
+        try {
+            return block().also { db.setTransactionSuccessful() }
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Runs a batch of changes notifying observers once per changed folder, after the batch is committed, instead
+     * of once per change. Nothing is notified if the batch fails, since its changes are rolled back.
+     *
+     * Notifications of changes in files are merged in the notification of their parent folder when the parent
+     * is known; if the batch changed too many different URIs, a single notification of [ProviderTableMeta.CONTENT_URI]
+     * is sent, which reaches the observers of every URI in the provider.
+     */
+    private fun withDeferredNotifications(batch: () -> Unit) {
+        if (pendingNotifications.get() != null) {
+            // nested batch, the outermost one notifies
+            batch()
+            return
+        }
+        val pending = LinkedHashSet<Uri>()
+        pendingNotifications.set(pending)
         try {
-            for (operation in operations) {
-                results[i] = operation.apply(this, results, i)
-                i++
+            batch()
+        } finally {
+            pendingNotifications.remove()
+        }
+        if (pending.isNotEmpty()) {
+            refreshFolderContentSources()
+        }
+        if (pending.size > MAX_PENDING_NOTIFICATIONS) {
+            context?.contentResolver?.notifyChange(ProviderTableMeta.CONTENT_URI, null)
+        } else {
+            pending.forEach { context?.contentResolver?.notifyChange(it, null) }
+        }
+    }
+
+    /**
+     * Notifies a change in [uri] to its observers, or defers it to the end of the running batch, if any.
+     *
+     * @param parentId Id of the folder containing the changed file, if known; used to merge the notifications of
+     * changes in the same folder while in a batch.
+     */
+    private fun notifyChange(uri: Uri, parentId: Long? = null) {
+        val pending = pendingNotifications.get()
+        if (pending == null) {
+            refreshFolderContentSources()
+            context?.contentResolver?.notifyChange(uri, null)
+        } else {
+            pending.add(parentId?.let { ContentUris.withAppendedId(ProviderTableMeta.CONTENT_URI_DIR, it) } ?: uri)
+        }
+    }
+
+    /**
+     * Room only checks the changes done out of its DAOs when asked to; the paged sources of folder content read with
+     * [com.owncloud.android.data.files.db.FileDao] are invalidated then.
+     */
+    private fun refreshFolderContentSources() {
+        OwncloudDatabase.getDatabase(context!!).invalidationTracker.refreshVersionsAsync()
+    }
+
+    override fun call(method: String, arg: String?, extras: Bundle?): Bundle? =
+        when (method) {
+            ProviderTableMeta.METHOD_MOVE_FILE_TREE -> {
+                val count = moveFileTree(requireNotNull(extras) { "Missing arguments for $method" })
+                notifyChange(ProviderTableMeta.CONTENT_URI)
+                Bundle().apply { putInt(ProviderTableMeta.RESULT_COUNT, count) }
+            }
+            ProviderTableMeta.METHOD_PROPAGATE_TREE_ETAG -> {
+                val folderId = requireNotNull(extras) { "Missing arguments for $method" }
+                    .getLong(ProviderTableMeta.ARG_FILE_ID)
+                // tree ETags are not shown, observers are not notified
+                Bundle().apply { putInt(ProviderTableMeta.RESULT_COUNT, propagateTreeEtag(folderId)) }
+            }
+            // the synchronization frontier is not shown either
+            ProviderTableMeta.METHOD_ADVANCE_SYNC_FRONTIER -> {
+                advanceSyncFrontier(requireNotNull(extras) { "Missing arguments for $method" })
+                null
             }
+            ProviderTableMeta.METHOD_CLEAR_SYNC_FRONTIER -> {
+                val accountName = requireNotNull(extras) { "Missing arguments for $method" }
+                    .getString(ProviderTableMeta.ARG_ACCOUNT_NAME)
+                Bundle().apply { putInt(ProviderTableMeta.RESULT_COUNT, clearSyncFrontier(accountName)) }
+            }
+            // neither are the checks scheduled for folders
+            ProviderTableMeta.METHOD_SCHEDULE_FOLDER_CHECK -> {
+                val args = requireNotNull(extras) { "Missing arguments for $method" }
+                val values = ContentValues().apply {
+                    put(ProviderTableMeta.FILE_CHECK_INTERVAL, args.getLong(ProviderTableMeta.ARG_CHECK_INTERVAL))
+                    put(ProviderTableMeta.FILE_NEXT_CHECK, args.getLong(ProviderTableMeta.ARG_NEXT_CHECK))
+                }
+                val count = filesDb.update(
+                    ProviderTableMeta.FILE_TABLE_NAME,
+                    SQLiteDatabase.CONFLICT_NONE,
+                    values,
+                    "${ProviderTableMeta._ID}=?",
+                    arrayOf(args.getLong(ProviderTableMeta.ARG_FILE_ID).toString())
+                )
+                Bundle().apply { putInt(ProviderTableMeta.RESULT_COUNT, count) }
+            }
+            else -> super.call(method, arg, extras)
+        }
+
+    /**
+     * Moves a file, or a folder with all its descendants, to a new remote path with a single UPDATE.
+     *
+     * Remote paths and the local paths of downloaded files are rewritten replacing the source path prefix,
+     * the moved file is linked to its new parent, and available offline status is set to
+     * [ProviderTableMeta.ARG_KEEP_IN_SYNC] when that is given. The local files are not moved here.
+     *
+     * @param extras Arguments of the move; [ProviderTableMeta.ARG_SELECTION] and
+     * [ProviderTableMeta.ARG_SELECTION_ARGS] choose the rows of the moved tree.
+     * @return Number of updated rows.
+     */
+    private fun moveFileTree(extras: Bundle): Int {
+        val sourcePath = extras.getString(ProviderTableMeta.ARG_SOURCE_PATH)!!
+        val targetPath = extras.getString(ProviderTableMeta.ARG_TARGET_PATH)!!
+        val selection = extras.getString(ProviderTableMeta.ARG_SELECTION)!!
+        val selectionArgs = extras.getStringArray(ProviderTableMeta.ARG_SELECTION_ARGS)
+            ?: throw IllegalArgumentException("Selection not allowed, use parameterized queries")
+        val savePath = FileStorageUtils.getSavePath(extras.getString(ProviderTableMeta.ARG_ACCOUNT_NAME))
+        // substr() counts characters, not the UTF-16 units of String.length
+        val sourcePathLength = sourcePath.codePointCount(0, sourcePath.length).toLong()
+        val savePathLength = savePath.codePointCount(0, savePath.length).toLong()
+
+        val sql = "UPDATE ${ProviderTableMeta.FILE_TABLE_NAME} SET " +
+                "${ProviderTableMeta.FILE_PATH} = ? || substr(${ProviderTableMeta.FILE_PATH}, ?), " +
+                "${ProviderTableMeta.FILE_STORAGE_PATH} = CASE " +
+                "WHEN substr(${ProviderTableMeta.FILE_STORAGE_PATH}, 1, ?) = ? " +
+                "THEN ? || substr(${ProviderTableMeta.FILE_STORAGE_PATH}, ?) " +
+                "ELSE ${ProviderTableMeta.FILE_STORAGE_PATH} END, " +
+                "${ProviderTableMeta.FILE_PARENT} = CASE " +
+                "WHEN ${ProviderTableMeta.FILE_PATH} = ? THEN ? ELSE ${ProviderTableMeta.FILE_PARENT} END, " +
+                "${ProviderTableMeta.FILE_KEEP_IN_SYNC} = coalesce(?, ${ProviderTableMeta.FILE_KEEP_IN_SYNC}) " +
+                "WHERE $selection"
+
+        val db = filesDb
+        val statement = db.compileStatement(sql)
+        db.beginTransaction()
+        try {
+            statement.bindString(1, targetPath)
+            statement.bindLong(2, sourcePathLength + 1)
+            statement.bindLong(3, savePathLength)
+            statement.bindString(4, savePath)
+            statement.bindString(5, savePath + targetPath)
+            statement.bindLong(6, savePathLength + sourcePathLength + 1)
+            statement.bindString(7, sourcePath)
+            statement.bindLong(8, extras.getLong(ProviderTableMeta.ARG_TARGET_PARENT_ID))
+            if (extras.containsKey(ProviderTableMeta.ARG_KEEP_IN_SYNC)) {
+                statement.bindLong(9, extras.getInt(ProviderTableMeta.ARG_KEEP_IN_SYNC).toLong())
+            } else {
+                statement.bindNull(9)
+            }
+            selectionArgs.forEachIndexed { index, selectionArg -> statement.bindString(10 + index, selectionArg) }
+
+            val count = statement.executeUpdateDelete()
             db.setTransactionSuccessful()
+            Timber.d("Moved $count rows from $sourcePath to $targetPath")
+            return count
         } finally {
             db.endTransaction()
+            statement.close()
+        }
+    }
+
+    /**
+     * Marks as synchronized the ancestors of a folder whose subtree was just synchronized, from its parent
+     * towards the root.
+     *
+     * An ancestor is marked, copying its ETag to its tree ETag, when its ETag was fetched from the server and all
+     * its subfolders are marked. The walk stops at the first ancestor that can not be marked. Every ancestor is
+     * checked and marked by a single UPDATE in the same transaction, so sibling folders finishing at the same
+     * time can not miss each other.
+     *
+     * @param folderId Id of the folder whose tree ETag was just set to its ETag.
+     * @return Number of marked ancestors.
+     */
+    private fun propagateTreeEtag(folderId: Long): Int {
+        val db = filesDb
+        val markFolder = db.compileStatement(MARK_FOLDER_TREE_SYNCHRONIZED)
+        val selectParent = db.compileStatement(
+            "SELECT ${ProviderTableMeta.FILE_PARENT} FROM ${ProviderTableMeta.FILE_TABLE_NAME} " +
+                    "WHERE ${ProviderTableMeta._ID} = ?"
+        )
+        fun parentOf(id: Long): Long {
+            selectParent.bindLong(1, id)
+            return try {
+                selectParent.simpleQueryForLong()
+            } catch (e: SQLiteDoneException) {
+                0
+            }
+        }
+
+        db.beginTransaction()
+        try {
+            var count = 0
+            var ancestorId = parentOf(folderId)
+            while (ancestorId > 0) {
+                markFolder.bindLong(1, ancestorId)
+                if (markFolder.executeUpdateDelete() == 0) {
+                    break
+                }
+                count++
+                ancestorId = parentOf(ancestorId)
+            }
+            db.setTransactionSuccessful()
+            Timber.d("Tree ETag of folder $folderId propagated to $count ancestors")
+            return count
+        } finally {
+            db.endTransaction()
+            markFolder.close()
+            selectParent.close()
+        }
+    }
+
+    /**
+     * Records the visit of a folder in a full synchronization: the folder leaves the synchronization frontier and
+     * its subfolders to visit enter it, in a single transaction.
+     *
+     * @param extras Arguments with the id of the visited folder in [ProviderTableMeta.ARG_FILE_ID], and the ids of
+     * its subfolders to visit in [ProviderTableMeta.ARG_SUBFOLDER_IDS], with the flags of changes in the server at
+     * the same positions in [ProviderTableMeta.ARG_SUBFOLDERS_CHANGED].
+     */
+    private fun advanceSyncFrontier(extras: Bundle) {
+        val folderId = extras.getLong(ProviderTableMeta.ARG_FILE_ID)
+        val subfolderIds = extras.getLongArray(ProviderTableMeta.ARG_SUBFOLDER_IDS) ?: LongArray(0)
+        val subfoldersChanged = extras.getBooleanArray(ProviderTableMeta.ARG_SUBFOLDERS_CHANGED) ?: BooleanArray(0)
+        require(subfolderIds.size == subfoldersChanged.size) { "Every subfolder needs a flag of changes" }
+
+        val db = filesDb
+        val setSyncPending = db.compileStatement(
+            "UPDATE ${ProviderTableMeta.FILE_TABLE_NAME} SET ${ProviderTableMeta.FILE_SYNC_PENDING} = ? " +
+                    "WHERE ${ProviderTableMeta._ID} = ?"
+        )
+        db.beginTransaction()
+        try {
+            setSyncPending.bindLong(1, ProviderTableMeta.SYNC_NOT_PENDING.toLong())
+            setSyncPending.bindLong(2, folderId)
+            setSyncPending.executeUpdateDelete()
+            subfolderIds.forEachIndexed { index, subfolderId ->
+                val syncPending = if (subfoldersChanged[index]) {
+                    ProviderTableMeta.SYNC_PENDING_CHANGED_IN_SERVER
+                } else {
+                    ProviderTableMeta.SYNC_PENDING_PUSH_ONLY
+                }
+                setSyncPending.bindLong(1, syncPending.toLong())
+                setSyncPending.bindLong(2, subfolderId)
+                setSyncPending.executeUpdateDelete()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+            setSyncPending.close()
         }
-        Timber.d("applied batch in provider $this")
-        return results
+    }
+
+    /**
+     * @return Number of folders that left the synchronization frontier of the account.
+     */
+    private fun clearSyncFrontier(accountName: String?): Int {
+        val values = ContentValues().apply {
+            put(ProviderTableMeta.FILE_SYNC_PENDING, ProviderTableMeta.SYNC_NOT_PENDING)
+        }
+        return filesDb.update(
+            ProviderTableMeta.FILE_TABLE_NAME,
+            SQLiteDatabase.CONFLICT_NONE,
+            values,
+            "${ProviderTableMeta.FILE_ACCOUNT_OWNER}=? AND ${ProviderTableMeta.FILE_IS_SYNC_PENDING}",
+            arrayOf(accountName)
+        )
     }
 
     private inner class DataBaseHelper internal constructor(context: Context?) :
@@ -511,10 +834,19 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             ProviderMeta.DB_VERSION
         ) {
 
+        init {
+            // readers are not blocked by writers, nor writers by readers
+            setWriteAheadLoggingEnabled(true)
+        }
+
+        override fun onConfigure(db: SQLiteDatabase) {
+            // DB case_sensitive; only reaches the primary connection, not the pooled read ones
+            db.execSQL("PRAGMA case_sensitive_like = true")
+        }
+
         override fun onCreate(db: SQLiteDatabase) {
-            // files table
+            // files table is created by Room
             Timber.i("SQL : Entering in onCreate")
-            createFilesTable(db)
 
             // Create capabilities table
             createCapabilitiesTable(db)
@@ -995,41 +1327,132 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
                 }
             }
 
+            if (oldVersion < 34 && newVersion >= 34) {
+                Timber.i("SQL : Entering in the #34 ADD indexes to files table")
+                db.beginTransaction()
+                try {
+                    createFilesIndexes(db)
+                    db.setTransactionSuccessful()
+                    upgraded = true
+                } finally {
+                    db.endTransaction()
+                }
+            }
+
+            if (oldVersion < 35 && newVersion >= 35) {
+                Timber.i("SQL : Entering in #35 to migrate files from SQLite to Room")
+                db.beginTransaction()
+                try {
+                    copyFilesToRoom(db)
+                    // Drop old files table from old database
+                    db.execSQL("DROP TABLE IF EXISTS " + ProviderTableMeta.FILE_TABLE_NAME + ";")
+                    db.setTransactionSuccessful()
+                    upgraded = true
+                } finally {
+                    db.endTransaction()
+                }
+            }
+
+            if (oldVersion < 40 && newVersion >= 40) {
+                Timber.i("SQL : Entering in the #40 ADD chunks uploaded to uploads table")
+                db.beginTransaction()
+                try {
+                    db.execSQL(
+                        "ALTER TABLE " + ProviderTableMeta.UPLOADS_TABLE_NAME +
+                                " ADD COLUMN " + ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED + " INTEGER DEFAULT 0"
+                    )
+                    db.setTransactionSuccessful()
+                    upgraded = true
+                } finally {
+                    db.endTransaction()
+                }
+            }
+
+            if (oldVersion < 41 && newVersion >= 41) {
+                Timber.i("SQL : Entering in the #41 ADD chunks last modified to uploads table")
+                db.beginTransaction()
+                try {
+                    db.execSQL(
+                        "ALTER TABLE " + ProviderTableMeta.UPLOADS_TABLE_NAME +
+                                " ADD COLUMN " + ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED + " INTEGER DEFAULT 0"
+                    )
+                    db.setTransactionSuccessful()
+                    upgraded = true
+                } finally {
+                    db.endTransaction()
+                }
+            }
+
             if (!upgraded) {
                 Timber.i("SQL : OUT of the ADD in onUpgrade; oldVersion == $oldVersion, newVersion == $newVersion")
             }
         }
     }
 
-    private fun createFilesTable(db: SQLiteDatabase) {
+    /**
+     * Copies the files of the legacy database to the table in Room, in a single transaction there. The legacy
+     * columns not in Room are left behind.
+     */
+    private fun copyFilesToRoom(db: SQLiteDatabase) {
+        val roomDb = OwncloudDatabase.getDatabase(context!!).openHelper.writableDatabase
+        val cursor = db.query(ProviderTableMeta.FILE_TABLE_NAME, OCFileEntity.COLUMNS, null, null, null, null, null)
+        roomDb.beginTransaction()
+        try {
+            cursor.use {
+                val values = ContentValues()
+                while (it.moveToNext()) {
+                    DatabaseUtils.cursorRowToContentValues(it, values)
+                    roomDb.insert(ProviderTableMeta.FILE_TABLE_NAME, SQLiteDatabase.CONFLICT_REPLACE, values)
+                }
+                Timber.d("SQL : Copied ${it.count} files to Room")
+            }
+            roomDb.setTransactionSuccessful()
+        } finally {
+            roomDb.endTransaction()
+        }
+    }
+
+    /**
+     * Indexes for the lookups done by [com.owncloud.android.datamodel.FileDataStorageManager]; without them,
+     * every folder listing or lookup by path is a full scan of the files table.
+     *
+     * Folder listings are filtered only by parent id, which is unique across accounts, and sorted by name, so
+     * that index also covers the default sort order. Available offline and shared by link flags are only set
+     * in a few rows, so they go to partial indexes.
+     *
+     * Only created by the upgrades of the legacy database; since version 35 the files table and its indexes are
+     * in Room, see [com.owncloud.android.data.files.db.OCFileIndexes].
+     */
+    private fun createFilesIndexes(db: SQLiteDatabase) {
         db.execSQL(
-            "CREATE TABLE " + ProviderTableMeta.FILE_TABLE_NAME + "(" +
-                    ProviderTableMeta._ID + " INTEGER PRIMARY KEY, " +
-                    ProviderTableMeta.FILE_NAME + " TEXT, " +
-                    ProviderTableMeta.FILE_PATH + " TEXT, " +
-                    ProviderTableMeta.FILE_PARENT + " INTEGER, " +
-                    ProviderTableMeta.FILE_CREATION + " INTEGER, " +
-                    ProviderTableMeta.FILE_MODIFIED + " INTEGER, " +
-                    ProviderTableMeta.FILE_CONTENT_TYPE + " TEXT, " +
-                    ProviderTableMeta.FILE_CONTENT_LENGTH + " INTEGER, " +
-                    ProviderTableMeta.FILE_STORAGE_PATH + " TEXT, " +
-                    ProviderTableMeta.FILE_ACCOUNT_OWNER + " TEXT, " +
-                    ProviderTableMeta.FILE_LAST_SYNC_DATE + " INTEGER, " +
-                    ProviderTableMeta.FILE_KEEP_IN_SYNC + " INTEGER, " +
-                    ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA + " INTEGER, " +
-                    ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA + " INTEGER, " +
-                    ProviderTableMeta.FILE_ETAG + " TEXT, " +
-                    ProviderTableMeta.FILE_TREE_ETAG + " TEXT, " +
-                    ProviderTableMeta.FILE_SHARED_VIA_LINK + " INTEGER, " +
-                    ProviderTableMeta.FILE_PUBLIC_LINK + " TEXT, " +
-                    ProviderTableMeta.FILE_PERMISSIONS + " TEXT null," +
-                    ProviderTableMeta.FILE_REMOTE_ID + " TEXT null," +
-                    ProviderTableMeta.FILE_UPDATE_THUMBNAIL + " INTEGER," + //boolean
-                    ProviderTableMeta.FILE_IS_DOWNLOADING + " INTEGER," + //boolean
-
-                    ProviderTableMeta.FILE_ETAG_IN_CONFLICT + " TEXT," +
-                    ProviderTableMeta.FILE_SHARED_WITH_SHAREE + " INTEGER," +
-                    ProviderTableMeta.FILE_PRIVATE_LINK + " TEXT );"
+            "CREATE INDEX IF NOT EXISTS " + FILES_PARENT_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME + "(" +
+                    ProviderTableMeta.FILE_PARENT + ", " +
+                    ProviderTableMeta.FILE_NAME + " COLLATE NOCASE);"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS " + FILES_PATH_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME + "(" +
+                    ProviderTableMeta.FILE_ACCOUNT_OWNER + ", " +
+                    ProviderTableMeta.FILE_PATH + ");"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS " + FILES_REMOTE_ID_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME + "(" +
+                    ProviderTableMeta.FILE_ACCOUNT_OWNER + ", " +
+                    ProviderTableMeta.FILE_REMOTE_ID + ");"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS " + FILES_STORAGE_PATH_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME +
+                    "(" + ProviderTableMeta.FILE_STORAGE_PATH + ")" +
+                    " WHERE " + ProviderTableMeta.FILE_STORAGE_PATH + " IS NOT NULL;"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS " + FILES_AVAILABLE_OFFLINE_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME +
+                    "(" + ProviderTableMeta.FILE_KEEP_IN_SYNC + ", " + ProviderTableMeta.FILE_ACCOUNT_OWNER + ")" +
+                    " WHERE " + ProviderTableMeta.FILE_IS_AVAILABLE_OFFLINE + ";"
+        )
+        db.execSQL(
+            "CREATE INDEX IF NOT EXISTS " + FILES_SHARED_VIA_LINK_INDEX + " ON " + ProviderTableMeta.FILE_TABLE_NAME +
+                    "(" + ProviderTableMeta.FILE_ACCOUNT_OWNER + ")" +
+                    " WHERE " + ProviderTableMeta.FILE_IS_SHARED_VIA_LINK + ";"
         )
     }
 
@@ -1114,7 +1537,11 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
 
                     ProviderTableMeta.UPLOADS_CREATED_BY + " INTEGER, " +  // Upload createdBy
 
-                    ProviderTableMeta.UPLOADS_TRANSFER_ID + " TEXT );"    // Upload chunkedUploadId
+                    ProviderTableMeta.UPLOADS_TRANSFER_ID + " TEXT, " +    // Upload chunkedUploadId
+
+                    ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED + " INTEGER DEFAULT 0, " +    // chunks uploaded in order
+
+                    ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED + " INTEGER DEFAULT 0 );"    // local file of chunks
         )
     }
 
@@ -1325,6 +1752,28 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
 
         private const val MAX_SUCCESSFUL_UPLOADS = "30"
 
+        private const val MAX_PENDING_NOTIFICATIONS = 100
+
+        private const val FILES_PARENT_INDEX = "filelist_parent_idx"
+        private const val FILES_PATH_INDEX = "filelist_path_idx"
+        private const val FILES_REMOTE_ID_INDEX = "filelist_remote_id_idx"
+        private const val FILES_STORAGE_PATH_INDEX = "filelist_storage_path_idx"
+        private const val FILES_AVAILABLE_OFFLINE_INDEX = "filelist_available_offline_idx"
+        private const val FILES_SHARED_VIA_LINK_INDEX = "filelist_shared_via_link_idx"
+
+        // sets the tree ETag of a folder when its ETag is known and every subfolder has its own tree ETag set
+        private const val MARK_FOLDER_TREE_SYNCHRONIZED =
+            "UPDATE " + ProviderTableMeta.FILE_TABLE_NAME + " SET " + ProviderTableMeta.FILE_TREE_ETAG + " = " +
+                    ProviderTableMeta.FILE_ETAG + " WHERE " + ProviderTableMeta._ID + " = ? AND " +
+                    ProviderTableMeta.FILE_ETAG + " != '' AND " +
+                    ProviderTableMeta.FILE_TREE_ETAG + " IS NOT " + ProviderTableMeta.FILE_ETAG +
+                    " AND NOT EXISTS (SELECT 1 FROM " + ProviderTableMeta.FILE_TABLE_NAME + " AS subfolder WHERE " +
+                    "subfolder." + ProviderTableMeta.FILE_PARENT + " = " + ProviderTableMeta.FILE_TABLE_NAME + "." +
+                    ProviderTableMeta._ID + " AND subfolder." + ProviderTableMeta.FILE_CONTENT_TYPE +
+                    " IN ('" + MIME_DIR + "', '" + MIME_DIR_UNIX + "') AND (coalesce(subfolder." +
+                    ProviderTableMeta.FILE_ETAG + ", '') = '' OR subfolder." + ProviderTableMeta.FILE_TREE_ETAG +
+                    " IS NOT subfolder." + ProviderTableMeta.FILE_ETAG + "))"
+
         private val fileProjectionMap = HashMap<String, String>()
 
         init {
@@ -1355,6 +1804,11 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             fileProjectionMap[ProviderTableMeta.FILE_IS_DOWNLOADING] = ProviderTableMeta.FILE_IS_DOWNLOADING
             fileProjectionMap[ProviderTableMeta.FILE_ETAG_IN_CONFLICT] = ProviderTableMeta.FILE_ETAG_IN_CONFLICT
             fileProjectionMap[ProviderTableMeta.FILE_PRIVATE_LINK] = ProviderTableMeta.FILE_PRIVATE_LINK
+            fileProjectionMap[ProviderTableMeta.FILE_SYNC_PENDING] = ProviderTableMeta.FILE_SYNC_PENDING
+            fileProjectionMap[ProviderTableMeta.FILE_CHECK_INTERVAL] = ProviderTableMeta.FILE_CHECK_INTERVAL
+            fileProjectionMap[ProviderTableMeta.FILE_NEXT_CHECK] = ProviderTableMeta.FILE_NEXT_CHECK
+            // not included when no projection is requested
+            fileProjectionMap[BaseColumns._COUNT] = "count(*) AS ${BaseColumns._COUNT}"
         }
 
         private val shareProjectionMap = HashMap<String, String>()
@@ -1459,6 +1913,9 @@ class FileContentProvider(val executors: Executors = Executors()) : ContentProvi
             uploadProjectionMap[ProviderTableMeta.UPLOADS_LAST_RESULT] = ProviderTableMeta.UPLOADS_LAST_RESULT
             uploadProjectionMap[ProviderTableMeta.UPLOADS_CREATED_BY] = ProviderTableMeta.UPLOADS_CREATED_BY
             uploadProjectionMap[ProviderTableMeta.UPLOADS_TRANSFER_ID] = ProviderTableMeta.UPLOADS_TRANSFER_ID
+            uploadProjectionMap[ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED] = ProviderTableMeta.UPLOADS_CHUNKS_UPLOADED
+            uploadProjectionMap[ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED] =
+                ProviderTableMeta.UPLOADS_CHUNKS_LAST_MODIFIED
         }
 
         private val cameraUploadSyncProjectionMap = HashMap<String, String>()
@@ -60,6 +60,8 @@ import com.owncloud.android.operations.common.SyncOperation;
 import timber.log.Timber;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
@@ -111,7 +113,11 @@ public class OperationsService extends Service {
     private ServiceHandler mOperationsHandler;
     private OperationsServiceBinder mOperationsBinder;
 
-    private SyncFolderHandler mSyncFolderHandler;
+    /**
+     * Workers for synchronization of folders, one per account, so that a big synchronization in an account does
+     * not delay the rest of accounts
+     */
+    private final Map<String, SyncFolderHandler> mSyncFolderHandlers = new HashMap<>();
 
     private LocalBroadcastManager mLocalBroadcastManager;
 
@@ -129,11 +135,6 @@ public class OperationsService extends Service {
         mOperationsHandler = new ServiceHandler(thread.getLooper(), this);
         mOperationsBinder = new OperationsServiceBinder(mOperationsHandler);
 
-        /// Separated worker thread for download of folders (WIP)
-        thread = new HandlerThread("Syncfolder thread", Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
-        mSyncFolderHandler = new SyncFolderHandler(thread.getLooper(), this);
-
         // create manager for local broadcasts
         mLocalBroadcastManager = LocalBroadcastManager.getInstance(this);
     }
@@ -163,11 +164,12 @@ public class OperationsService extends Service {
 
             Pair<Target, RemoteOperation> itemToQueue = newOperation(intent);
             if (itemToQueue != null) {
-                mSyncFolderHandler.add(account, remotePath, (SynchronizeFolderOperation) itemToQueue.second);
-                Message msg = mSyncFolderHandler.obtainMessage();
+                SyncFolderHandler syncFolderHandler = getOrCreateSyncFolderHandler(account);
+                syncFolderHandler.add(account, remotePath, (SynchronizeFolderOperation) itemToQueue.second);
+                Message msg = syncFolderHandler.obtainMessage();
                 msg.arg1 = startId;
                 msg.obj = itemSyncKey;
-                mSyncFolderHandler.sendMessage(msg);
+                syncFolderHandler.sendMessage(msg);
             }
 
         } else {
@@ -190,12 +192,52 @@ public class OperationsService extends Service {
         mOperationsHandler.getLooper().quit();
         mOperationsHandler = null;
 
-        mSyncFolderHandler.getLooper().quit();
-        mSyncFolderHandler = null;
+        synchronized (mSyncFolderHandlers) {
+            for (SyncFolderHandler syncFolderHandler : mSyncFolderHandlers.values()) {
+                syncFolderHandler.getLooper().quit();
+            }
+            mSyncFolderHandlers.clear();
+        }
 
         super.onDestroy();
     }
 
+    /**
+     * Returns the worker for synchronization of folders of an account, created with a new thread if needed.
+     *
+     * Only called when a synchronization is requested, so that queries about the synchronizations of an account
+     * do not start a thread for it.
+     *
+     * @param account ownCloud account where the folders are stored.
+     * @return Worker for the account.
+     */
+    private SyncFolderHandler getOrCreateSyncFolderHandler(Account account) {
+        synchronized (mSyncFolderHandlers) {
+            SyncFolderHandler syncFolderHandler = mSyncFolderHandlers.get(account.name);
+            if (syncFolderHandler == null) {
+                HandlerThread thread = new HandlerThread(
+                        "Syncfolder thread " + account.name,
+                        Process.THREAD_PRIORITY_BACKGROUND
+                );
+                thread.start();
+                syncFolderHandler = new SyncFolderHandler(thread.getLooper(), this);
+                mSyncFolderHandlers.put(account.name, syncFolderHandler);
+            }
+            return syncFolderHandler;
+        }
+    }
+
+    /**
+     * @param account ownCloud account where the folders are stored.
+     * @return Worker for synchronization of folders of the account, or null if no synchronization was requested
+     * for it yet.
+     */
+    private SyncFolderHandler getSyncFolderHandler(Account account) {
+        synchronized (mSyncFolderHandlers) {
+            return mSyncFolderHandlers.get(account.name);
+        }
+    }
+
     /**
      * Provides a binder object that clients can use to perform actions on the queue of operations,
      * except the addition of new operations.
@@ -240,7 +282,14 @@ public class OperationsService extends Service {
          * @param file    A folder in the queue of pending synchronizations
          */
         public void cancel(Account account, OCFile file) {
-            mSyncFolderHandler.cancel(account, file);
+            if (account == null) {
+                Timber.e("Cannot cancel with NULL account");
+                return;
+            }
+            SyncFolderHandler syncFolderHandler = getSyncFolderHandler(account);
+            if (syncFolderHandler != null) {
+                syncFolderHandler.cancel(account, file);
+            }
         }
 
         void clearListeners() {
@@ -317,7 +366,11 @@ public class OperationsService extends Service {
          *                / downloading / uploading inside.
          */
         public boolean isSynchronizing(Account account, OCFile file) {
-            return mSyncFolderHandler.isSynchronizing(account, file.getRemotePath());
+            if (account == null) {
+                return false;
+            }
+            SyncFolderHandler syncFolderHandler = getSyncFolderHandler(account);
+            return syncFolderHandler != null && syncFolderHandler.isSynchronizing(account, file.getRemotePath());
         }
 
     }
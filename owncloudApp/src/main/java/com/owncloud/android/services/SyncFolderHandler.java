@@ -35,7 +35,9 @@ import com.owncloud.android.lib.common.OwnCloudAccount;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.SingleSessionManager;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.operations.FolderRefreshRegistry;
 import com.owncloud.android.operations.SynchronizeFolderOperation;
+import com.owncloud.android.syncadapter.FolderSyncScheduler;
 import com.owncloud.android.utils.Extras;
 import com.owncloud.android.utils.FileStorageUtils;
 import timber.log.Timber;
@@ -43,10 +45,11 @@ import timber.log.Timber;
 import java.io.IOException;
 
 /**
- * SyncFolder worker. Performs the pending operations in the order they were requested.
+ * SyncFolder worker. Performs the pending operations of an account in the order they were requested.
  * <p>
- * Created with the Looper of a new thread, started in
- * {@link com.owncloud.android.services.OperationsService#onCreate()}.
+ * Created with the Looper of a new thread for its account, started in
+ * {@link com.owncloud.android.services.OperationsService#onStartCommand(Intent, int, int)} when the first
+ * synchronization of a folder of the account is requested.
  */
 class SyncFolderHandler extends Handler {
 
@@ -119,10 +122,30 @@ class SyncFolderHandler extends Handler {
                 mOwnCloudClient = SingleSessionManager.getDefaultSingleton().
                         getClientFor(ocAccount, mService);
 
-                result = mCurrentSyncOperation.execute(mOwnCloudClient, mStorageManager);
+                // folders of all the accounts take turns, also with full synchronizations
+                FolderSyncScheduler scheduler = FolderSyncScheduler.getDefaultScheduler();
+                scheduler.acquire(account.name);
+                try {
+                    if (mCurrentSyncOperation.isPushOnly()) {
+                        result = mCurrentSyncOperation.execute(mOwnCloudClient, mStorageManager);
+                    } else {
+                        // refreshes of the same folder requested meanwhile share this synchronization
+                        SynchronizeFolderOperation operation = mCurrentSyncOperation;
+                        result = FolderRefreshRegistry.getDefaultRegistry().lead(
+                                account.name,
+                                remotePath,
+                                () -> operation.execute(mOwnCloudClient, mStorageManager)
+                        );
+                    }
+                } finally {
+                    scheduler.release();
+                }
 
             } catch (AccountsException | IOException e) {
                 Timber.e(e, "Error while trying to get authorization");
+            } catch (InterruptedException e) {
+                Timber.w("Interrupted waiting to synchronize %s", remotePath);
+                Thread.currentThread().interrupt();
             } finally {
                 mPendingOperations.removePayload(account.name, remotePath);
 
@@ -0,0 +1,747 @@
+/**
+ * ownCloud Android client application
+ *
+ * @author Bartek Przybylski
+ * @author David A. Velasco
+ * @author David González Verdugo
+ * Copyright (C) 2011  Bartek Przybylski
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter;
+
+import android.accounts.Account;
+import android.accounts.AccountsException;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SyncResult;
+import android.os.Bundle;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.util.Pair;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import at.bitfire.dav4jvm.exception.DavException;
+import com.owncloud.android.R;
+import com.owncloud.android.datamodel.FileDataStorageManager;
+import com.owncloud.android.datamodel.OCFile;
+import com.owncloud.android.files.services.FolderCheckJobService;
+import com.owncloud.android.lib.common.OwnCloudAccount;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.SingleSessionManager;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.owncloud.android.lib.resources.files.ReadRemoteFileOperation;
+import com.owncloud.android.lib.resources.files.RemoteFile;
+import com.owncloud.android.operations.SyncCapabilitiesOperation;
+import com.owncloud.android.operations.SynchronizeFolderOperation;
+import com.owncloud.android.presentation.ui.authentication.AuthenticatorConstants;
+import com.owncloud.android.presentation.ui.authentication.LoginActivity;
+import com.owncloud.android.ui.activity.ErrorsWhileCopyingHandlerActivity;
+import com.owncloud.android.utils.NotificationUtils;
+import timber.log.Timber;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.owncloud.android.utils.NotificationConstantsKt.FILE_SYNC_NOTIFICATION_CHANNEL_ID;
+
+/**
+ * Full synchronization of an ownCloud account, requested to {@link FileSyncAdapter}.
+ * <p>
+ * Holds all the state of the synchronization, so that several accounts can be synchronized at the same time,
+ * each one with its own cancellation and failure counters. Folders of all the accounts take turns in a
+ * {@link FolderSyncScheduler}.
+ */
+class AccountSynchronization {
+
+    /**
+     * Maximum number of failed folder synchronizations that are supported before finishing
+     * the synchronization operation
+     */
+    private static final int MAX_FAILED_RESULTS = 3;
+
+    private static final int DEFAULT_MAX_FOLDERS_IN_FLIGHT = 4;
+    private static final int MAX_FOLDERS_IN_FLIGHT = 8;
+
+    private final Context mContext;
+    private final Account mAccount;
+    private final FileDataStorageManager mStorageManager;
+    private OwnCloudClient mClient;
+
+    /**
+     * Time stamp for the current synchronization process, used to distinguish fresh data
+     */
+    private long mCurrentSyncTime;
+
+    /**
+     * Id of the current synchronization in the metrics of its folders; see {@link SyncMetrics}
+     */
+    private long mSyncRunId = SyncMetrics.NO_SYNC_RUN;
+
+    /**
+     * Folders whose list of files was fetched in this synchronization, by id
+     */
+    private final Set<Long> mFetchedFolderIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Flag made 'true' when a request to cancel the synchronization is received
+     */
+    private volatile boolean mCancellation;
+
+    /**
+     * Maximum number of folders of the account synchronized at the same time
+     */
+    private final int mMaxFoldersInFlight;
+
+    /**
+     * Turns to synchronize folders, shared with the synchronizations of other accounts
+     */
+    private final FolderSyncScheduler mScheduler;
+
+    /**
+     * Lock on the results of the synchronization, updated by the synchronization of every folder
+     */
+    private final Object mResultsLock = new Object();
+
+    /**
+     * When 'true' the process was requested by the user through the user interface;
+     * when 'false', it was requested automatically by the system
+     */
+    private final boolean mIsManualSync;
+
+    /**
+     * Counter for failed operations in the synchronization process
+     */
+    private int mFailedResultsCounter;
+
+    /**
+     * Result of the last failed operation
+     */
+    private RemoteOperationResult mLastFailedResult;
+
+    /**
+     * Counter of conflicts found between local and remote files
+     */
+    private int mConflictsFound;
+
+    /**
+     * Counter of failed operations in synchronization of kept-in-sync files
+     */
+    private int mFailsInFavouritesFound;
+
+    /**
+     * Map of remote and local paths to files that where locally stored in a location out
+     * of the ownCloud folder and couldn't be copied automatically into it
+     */
+    private final Map<String, String> mForgottenLocalFiles = new HashMap<>();
+
+    /**
+     * {@link SyncResult} instance to return to the system when the synchronization finish
+     */
+    private final SyncResult mSyncResult;
+
+    /**
+     * To send broadcast messages not visible out of the app
+     */
+    private final LocalBroadcastManager mLocalBroadcastManager;
+
+    /**
+     * @param context        Android context.
+     * @param account        Account to synchronize.
+     * @param extras         Extras of the synchronization request.
+     * @param providerClient Client of the files provider.
+     * @param syncResult     Result to return to the system when the synchronization finishes.
+     * @param scheduler      Turns to synchronize folders.
+     */
+    AccountSynchronization(Context context, Account account, Bundle extras, ContentProviderClient providerClient,
+                           SyncResult syncResult, FolderSyncScheduler scheduler) {
+        mContext = context;
+        mAccount = account;
+        mStorageManager = new FileDataStorageManager(context, account, providerClient);
+        mIsManualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        mMaxFoldersInFlight = Math.min(
+                Math.max(extras.getInt(FileSyncAdapter.EXTRA_MAX_FOLDERS_IN_FLIGHT, DEFAULT_MAX_FOLDERS_IN_FLIGHT), 1),
+                Math.min(MAX_FOLDERS_IN_FLIGHT, scheduler.getMaxFoldersInFlight())
+        );
+        mScheduler = scheduler;
+        mSyncResult = syncResult;
+        mLocalBroadcastManager = LocalBroadcastManager.getInstance(context);
+    }
+
+    Account getAccount() {
+        return mAccount;
+    }
+
+    /**
+     * Performs the synchronization in the calling thread, and returns when finished.
+     */
+    void run() {
+
+        mSyncResult.fullSyncRequested = false;
+        mSyncResult.delayUntil = (System.currentTimeMillis() / 1000) + 3 * 60 * 60; // avoid too many automatic
+        // synchronizations
+
+        try {
+            OwnCloudAccount ocAccount = new OwnCloudAccount(mAccount, mContext);
+            mClient = SingleSessionManager.getDefaultSingleton().getClientFor(ocAccount, mContext);
+        } catch (IOException | AccountsException e) {
+            /// the account is unknown for the Synchronization Manager, unreachable this context,
+            // or can not be authenticated; don't try this again
+            mSyncResult.tooManyRetries = true;
+            notifyFailedSynchronization();
+            return;
+        }
+
+        Timber.d("Synchronization of ownCloud account " + mAccount.name + " starting");
+        sendLocalBroadcast(FileSyncAdapter.EVENT_FULL_SYNC_START, null, null);  // message to signal the start
+        // of the synchronization to the UI
+        try {
+            updateCapabilities();
+            mCurrentSyncTime = System.currentTimeMillis();
+            mSyncRunId = SyncMetrics.newSyncRunId();
+            if (!mCancellation) {
+                FolderTreeTraversal traversal = new FolderTreeTraversal(
+                        mMaxFoldersInFlight,
+                        this::synchronizeFolderInTurn,
+                        this::shouldStopSynchronization
+                );
+
+                // folders left pending by an interrupted synchronization are synchronized first
+                List<Pair<OCFile, Boolean>> frontier = mStorageManager.getSyncFrontier();
+                if (!frontier.isEmpty()) {
+                    Timber.i("Resuming synchronization of %s from %d pending folders", mAccount.name,
+                            frontier.size());
+                    traversal.traverse(frontier);
+                }
+                if (!shouldStopSynchronization()) {
+                    if ((mIsManualSync && frontier.isEmpty()) || !isAccountSynchronized()) {
+                        // manual synchronizations walk from the root, as incomplete ones do to complete
+                        traversal.traverse(mStorageManager.getFileByPath(OCFile.ROOT_PATH), false);
+                    } else if (frontier.isEmpty()) {
+                        // automatic synchronizations check only the folders due in the schedule
+                        checkDueFolders(traversal);
+                    }
+                }
+                if (!shouldStopSynchronization() && isAccountSynchronized()) {
+                    int discarded = mStorageManager.clearSyncFrontier();
+                    if (discarded > 0) {
+                        Timber.d("Discarded %d pending folders of %s", discarded, mAccount.name);
+                    }
+                }
+
+                // next automatic synchronization when the next folder is due; the system would not run it
+                // before its own period, so it is requested then
+                long nextCheck = mStorageManager.getNextFolderCheck();
+                if (nextCheck > 0) {
+                    long earliest = System.currentTimeMillis() +
+                            FolderCheckSchedule.getDefaultSchedule().getMinIntervalMillis();
+                    long checkTime = Math.max(nextCheck, earliest);
+                    mSyncResult.delayUntil = checkTime / 1000;
+                    FolderCheckJobService.schedule(mContext, mAccount, checkTime);
+                }
+
+            } else {
+                Timber.d("Leaving synchronization before synchronizing the root folder because cancelation request");
+            }
+
+        } finally {
+            // it's important making this although very unexpected errors occur;
+            // that's the reason for the finally
+
+            if (mFailedResultsCounter > 0 && mIsManualSync) {
+                /// don't let the system synchronization manager retries MANUAL synchronizations
+                //      (be careful: "MANUAL" currently includes the synchronization requested when
+                //      a new account is created and when the user changes the current account)
+                mSyncResult.tooManyRetries = true;
+
+                /// notify the user about the failure of MANUAL synchronization
+                notifyFailedSynchronization();
+            }
+            if (mConflictsFound > 0 || mFailsInFavouritesFound > 0) {
+                notifyFailsInFavourites();
+            }
+            if (mForgottenLocalFiles.size() > 0) {
+                notifyForgottenLocalFiles();
+            }
+            if (mSyncRunId != SyncMetrics.NO_SYNC_RUN) {
+                SyncRunMetric metric = SyncMetrics.finishSyncRun(mSyncRunId, mAccount.name, mCurrentSyncTime,
+                        System.currentTimeMillis() - mCurrentSyncTime);
+                Timber.i("Synchronization of %s took %d ms: %d folders fetched in %d ms, %d entries merged " +
+                                "in %d ms of CPU, %d rows written in %d ms, %d ETags unchanged and %d changed",
+                        mAccount.name, metric.getElapsedMillis(), metric.getFolders(), metric.getPropfindMillis(),
+                        metric.getEntries(), metric.getMergeCpuMillis(), metric.getRowsWritten(),
+                        metric.getSaveMillis(), metric.getETagCheckHits(), metric.getETagCheckMisses());
+            }
+            sendLocalBroadcast(FileSyncAdapter.EVENT_FULL_SYNC_END, null, mLastFailedResult);   // message to signal
+            // the end to the UI
+        }
+
+    }
+
+    /**
+     * Requests the synchronization to stop. It will be stopped later, before a new folder is fetched. Data of the
+     * folders being synchronized at that moment will be still locally saved.
+     */
+    void cancel() {
+        Timber.d("Synchronization of " + mAccount.name + " has been requested to cancel");
+        mCancellation = true;
+    }
+
+    /**
+     * Updates the local copy of capabilities information of the ownCloud server
+     */
+    private void updateCapabilities() {
+        SyncCapabilitiesOperation getCapabilities = new SyncCapabilitiesOperation();
+        RemoteOperationResult result = getCapabilities.execute(mStorageManager, mContext);
+        if (!result.isSuccess()) {
+            mLastFailedResult = result;
+        }
+    }
+
+    /**
+     * Checks the ETags of the folders due in the schedule of the account, with a request for the properties of
+     * every folder alone, and then synchronizes the folders that changed with their changed descendants, all of them
+     * in a single traversal. Folders that changed in every recent check are synchronized without checking them
+     * first; see {@link FolderCheckSchedule}.
+     * <p>
+     * Changes in a folder change the ETags of all its ancestors too, so a due folder under one found unchanged is
+     * unchanged also, and a due folder under one that changed is synchronized with it, if changed; neither is
+     * checked, and they are scheduled again unless the traversal fetched them.
+     */
+    private void checkDueFolders(FolderTreeTraversal traversal) {
+        FolderCheckSchedule schedule = FolderCheckSchedule.getDefaultSchedule();
+        List<Pair<OCFile, Long>> dueFolders = mStorageManager.getFoldersDueForCheck(System.currentTimeMillis());
+        Timber.d("%d folders of %s due for check", dueFolders.size(), mAccount.name);
+
+        List<String> checkedPaths = new ArrayList<>();
+        List<Pair<OCFile, Boolean>> changedFolders = new ArrayList<>();
+        List<OCFile> skippedFolders = new ArrayList<>();
+        for (Pair<OCFile, Long> dueFolder : dueFolders) {
+            OCFile folder = dueFolder.first;
+            if (shouldStopSynchronization()) {
+                break;
+            }
+            if (isUnderAny(folder, checkedPaths)) {
+                skippedFolders.add(folder);
+                continue;
+            }
+
+            String localETag = folder.getEtag();
+            boolean changed = localETag == null || localETag.isEmpty() || !schedule.isCheckWorthIt(dueFolder.second);
+            if (!changed) {
+                RemoteOperationResult<RemoteFile> result =
+                        new ReadRemoteFileOperation(folder.getRemotePath()).execute(mClient);
+                if (!result.isSuccess()) {
+                    // removed folders are left to the synchronization of their parents
+                    Timber.w("Check of %s failed: %s", folder.getRemotePath(), result.getLogMessage());
+                    continue;
+                }
+                changed = !localETag.equals(result.getData().getEtag());
+                SyncMetrics.recordETagCheck(mSyncRunId, changed);
+            }
+            checkedPaths.add(folder.getRemotePath());
+
+            if (changed) {
+                changedFolders.add(new Pair<>(folder, true));
+            } else {
+                mStorageManager.scheduleFolderCheck(folder, false);
+            }
+        }
+
+        if (!changedFolders.isEmpty()) {
+            Timber.d("%d folders of %s changed", changedFolders.size(), mAccount.name);
+            traversal.traverse(changedFolders);
+        }
+        if (shouldStopSynchronization()) {
+            return;
+        }
+        for (OCFile folder : skippedFolders) {
+            if (!mFetchedFolderIds.contains(folder.getFileId())) {
+                mStorageManager.scheduleFolderCheck(folder, false);
+            }
+        }
+    }
+
+    private static boolean isUnderAny(OCFile folder, List<String> paths) {
+        for (String path : paths) {
+            if (folder.getRemotePath().startsWith(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Synchronizes a folder when the scheduler gives a turn to this account.
+     * <p>
+     * An interrupted wait for the turn leaves the folder pending, as a cancellation does.
+     */
+    private List<Pair<OCFile, Boolean>> synchronizeFolderInTurn(OCFile folder, boolean pushOnly) {
+        try {
+            mScheduler.acquire(mAccount.name);
+        } catch (InterruptedException e) {
+            Timber.d("Interrupted waiting to synchronize %s", folder.getRemotePath());
+            mCancellation = true;
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        try {
+            return synchronizeFolder(folder, pushOnly);
+        } finally {
+            mScheduler.release();
+        }
+    }
+
+    /**
+     * Synchronizes the list of files contained in a folder identified with its remote path.
+     * <p>
+     * Fetches the list and properties of the files contained in the given folder, including their
+     * properties, and updates the local database with them.
+     * <p>
+     * Called by a {@link FolderTreeTraversal} for every folder in the account, maybe for several
+     * folders at the same time, in different threads.
+     *
+     * @param folder   Folder to synchronize.
+     * @param pushOnly When 'true', it's assumed that the folder did not change in the
+     *                 server, so data will not be fetched. Only local changes of
+     *                 available offline files will be pushed.
+     * @return Child folders to synchronize next, with boolean value signaling if there are
+     * pending changes to sync in the server.
+     */
+    private List<Pair<OCFile, Boolean>> synchronizeFolder(OCFile folder, boolean pushOnly) {
+
+        if (shouldStopForFailures()) {
+            return Collections.emptyList();
+        }
+
+        // folder synchronization
+        SynchronizeFolderOperation synchFolderOp = new SynchronizeFolderOperation(
+                mContext,
+                folder.getRemotePath(),
+                mAccount,
+                mCurrentSyncTime,
+                pushOnly,
+                true,       // sync full account
+                false       // only sync contents of available offline files
+        );
+        synchFolderOp.setSyncRunId(mSyncRunId);
+
+        RemoteOperationResult result;
+        boolean repeat;
+        do {
+            repeat = false;
+
+            result = synchFolderOp.execute(mClient, mStorageManager);
+
+        } while (repeat);
+
+        // synchronized folder -> notice to UI - ALWAYS, although !result.isSuccess
+        sendLocalBroadcast(FileSyncAdapter.EVENT_FULL_SYNC_FOLDER_CONTENTS_SYNCED, folder.getRemotePath(), result);
+
+        // check the result of synchronizing the folder
+        if (result.isSuccess() || result.getCode() == ResultCode.SYNC_CONFLICT) {
+
+            synchronized (mResultsLock) {
+                if (result.getCode() == ResultCode.SYNC_CONFLICT) {
+                    mConflictsFound += synchFolderOp.getConflictsFound();
+                    mFailsInFavouritesFound += synchFolderOp.getFailsInFileSyncsFound();
+                }
+                if (synchFolderOp.getForgottenLocalFiles().size() > 0) {
+                    mForgottenLocalFiles.putAll(synchFolderOp.getForgottenLocalFiles());
+                }
+            }
+            if (result.isSuccess()) {
+                if (!pushOnly) {
+                    mFetchedFolderIds.add(folder.getFileId());
+                }
+                // synchronize children folders; recorded first, so that an interrupted synchronization
+                // resumes from them
+                List<Pair<OCFile, Boolean>> subfolders = getSubfolders(synchFolderOp.getFoldersToVisit());
+                mStorageManager.advanceSyncFrontier(folder, subfolders);
+                return subfolders;
+            }
+
+        } else if (result.getCode() != ResultCode.FILE_NOT_FOUND) {
+            // in failures, the statistics for the global result are updated
+            synchronized (mResultsLock) {
+                if (RemoteOperationResult.ResultCode.UNAUTHORIZED.equals(result.getCode())) {
+                    mSyncResult.stats.numAuthExceptions++;
+
+                } else if (result.getException() instanceof DavException) {
+                    mSyncResult.stats.numParseExceptions++;
+
+                } else if (result.getException() instanceof IOException) {
+                    mSyncResult.stats.numIoExceptions++;
+                }
+                mFailedResultsCounter++;
+                mLastFailedResult = result;
+            }
+
+        } // else, ResultCode.FILE_NOT_FOUND is ignored, remote folder was
+        // removed from other thread or other client during the synchronization,
+        // before this thread fetched its contents
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return 'True' if the tree ETag of the root folder confirms that the whole account is
+     * synchronized with the server, as known from the last visit of every folder
+     */
+    private boolean isAccountSynchronized() {
+        OCFile root = mStorageManager.getFileByPath(OCFile.ROOT_PATH);
+        return root != null && root.getEtag() != null && !root.getEtag().isEmpty() &&
+                root.getEtag().equals(root.getTreeEtag());
+    }
+
+    /**
+     * @return 'True' if no more folders should be synchronized, because the synchronization was
+     * cancelled or failed too much
+     */
+    private boolean shouldStopSynchronization() {
+        if (mCancellation) {
+            Timber.d("Leaving synchronization due to cancelation request");
+            return true;
+        }
+        return shouldStopForFailures();
+    }
+
+    private boolean shouldStopForFailures() {
+        synchronized (mResultsLock) {
+            return mFailedResultsCounter > MAX_FAILED_RESULTS || isFinisher(mLastFailedResult);
+        }
+    }
+
+    /**
+     * Checks if a failed result should terminate the synchronization process immediately,
+     * according to OUR OWN POLICY
+     *
+     * @param failedResult Remote operation result to check.
+     * @return 'True' if the result should immediately finish the
+     * synchronization
+     */
+    private boolean isFinisher(RemoteOperationResult failedResult) {
+        if (failedResult != null) {
+            RemoteOperationResult.ResultCode code = failedResult.getCode();
+            return (code.equals(RemoteOperationResult.ResultCode.SSL_ERROR) ||
+                    code.equals(RemoteOperationResult.ResultCode.SSL_RECOVERABLE_PEER_UNVERIFIED) ||
+                    code.equals(RemoteOperationResult.ResultCode.BAD_OC_VERSION) ||
+                    code.equals(RemoteOperationResult.ResultCode.INSTANCE_NOT_CONFIGURED) ||
+                    code.equals(ResultCode.ACCOUNT_NOT_FOUND) ||
+                    code.equals(ResultCode.ACCOUNT_EXCEPTION)
+            );
+        }
+        return false;
+    }
+
+    /**
+     * Filters the folders contained in the list of received files.
+     * <p>
+     * Every subfolder comes with a boolean flag, set to true if the previous sync operation detected
+     * that there are pending changes in the file.
+     *
+     * @param files Children to filter, with boolean value signaling if there are pending changes to
+     *              sync in the server.
+     * @return Subfolders in the list, with the same flags.
+     */
+    private List<Pair<OCFile, Boolean>> getSubfolders(List<Pair<OCFile, Boolean>> files) {
+        List<Pair<OCFile, Boolean>> folders = new ArrayList<>(files.size());
+        for (Pair<OCFile, Boolean> pair : files) {
+            if (pair.first.isFolder()) {
+                folders.add(pair);
+            }
+        }
+        return folders;
+    }
+
+    /**
+     * Sends a message to any application component interested in the progress of the
+     * synchronization.
+     *
+     * @param event         Event in the process of synchronization to be notified.
+     * @param dirRemotePath Remote path of the folder target of the event occurred.
+     * @param result        Result of an individual folder synchronization,
+     *                      if completed; may be null.
+     */
+    private void sendLocalBroadcast(String event, String dirRemotePath,
+                                    RemoteOperationResult result) {
+        Timber.d("Send broadcast %s", event);
+        Intent intent = new Intent(event);
+        intent.putExtra(FileSyncAdapter.EXTRA_ACCOUNT_NAME, mAccount.name);
+        if (dirRemotePath != null) {
+            intent.putExtra(FileSyncAdapter.EXTRA_FOLDER_PATH, dirRemotePath);
+        }
+        if (result != null) {
+            intent.putExtra(FileSyncAdapter.EXTRA_RESULT, result);
+        }
+        mLocalBroadcastManager.sendBroadcast(intent);
+    }
+
+    /**
+     * Notifies the user about a failed synchronization through the status notification bar
+     */
+    private void notifyFailedSynchronization() {
+        NotificationCompat.Builder notificationBuilder = createNotificationBuilder();
+        boolean needsToUpdateCredentials = (
+                mLastFailedResult != null &&
+                        ResultCode.UNAUTHORIZED.equals(mLastFailedResult.getCode())
+        );
+        if (needsToUpdateCredentials) {
+            // let the user update credentials with one click
+            Intent updateAccountCredentials = new Intent(mContext, LoginActivity.class);
+            updateAccountCredentials.putExtra(AuthenticatorConstants.EXTRA_ACCOUNT, mAccount);
+            updateAccountCredentials.putExtra(AuthenticatorConstants.EXTRA_ACTION,
+                    AuthenticatorConstants.ACTION_UPDATE_EXPIRED_TOKEN);
+            updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            updateAccountCredentials.addFlags(Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
+            updateAccountCredentials.addFlags(Intent.FLAG_FROM_BACKGROUND);
+            notificationBuilder
+                    .setTicker(i18n(R.string.sync_fail_ticker_unauthorized))
+                    .setContentTitle(i18n(R.string.sync_fail_ticker_unauthorized))
+                    .setContentIntent(PendingIntent.getActivity(
+                            mContext, (int) System.currentTimeMillis(), updateAccountCredentials,
+                            PendingIntent.FLAG_ONE_SHOT
+                    ))
+                    .setContentText(i18n(R.string.sync_fail_content_unauthorized, mAccount.name));
+        } else {
+            notificationBuilder
+                    .setTicker(i18n(R.string.sync_fail_ticker))
+                    .setContentTitle(i18n(R.string.sync_fail_ticker))
+                    .setContentText(i18n(R.string.sync_fail_content, mAccount.name));
+        }
+
+        showNotification(R.string.sync_fail_ticker, notificationBuilder);
+    }
+
+    /**
+     * Notifies the user about conflicts and strange fails when trying to synchronize the contents
+     * of kept-in-sync files.
+     * <p>
+     * By now, we won't consider a failed synchronization.
+     */
+    private void notifyFailsInFavourites() {
+        if (mFailedResultsCounter > 0) {
+            NotificationCompat.Builder notificationBuilder = createNotificationBuilder();
+            notificationBuilder.setTicker(i18n(R.string.sync_fail_in_favourites_ticker));
+
+            // TODO put something smart in the contentIntent below
+            notificationBuilder
+                    .setContentIntent(PendingIntent.getActivity(
+                            mContext, (int) System.currentTimeMillis(), new Intent(), 0
+                    ))
+                    .setContentTitle(i18n(R.string.sync_fail_in_favourites_ticker))
+                    .setContentText(i18n(R.string.sync_fail_in_favourites_content,
+                            mFailedResultsCounter + mConflictsFound, mConflictsFound));
+
+            showNotification(R.string.sync_fail_in_favourites_ticker, notificationBuilder);
+        } else {
+            NotificationCompat.Builder notificationBuilder = createNotificationBuilder();
+            notificationBuilder.setTicker(i18n(R.string.sync_conflicts_in_favourites_ticker));
+
+            // TODO put something smart in the contentIntent below
+            notificationBuilder
+                    .setContentIntent(PendingIntent.getActivity(
+                            mContext, (int) System.currentTimeMillis(), new Intent(), 0
+                    ))
+                    .setContentTitle(i18n(R.string.sync_conflicts_in_favourites_ticker))
+                    .setContentText(i18n(R.string.sync_conflicts_in_favourites_ticker, mConflictsFound));
+
+            showNotification(R.string.sync_conflicts_in_favourites_ticker, notificationBuilder);
+        }
+    }
+
+    /**
+     * Notifies the user about local copies of files out of the ownCloud local directory that
+     * were 'forgotten' because copying them inside the ownCloud local directory was not possible.
+     * <p>
+     * We don't want links to files out of the ownCloud local directory (foreign files) anymore.
+     * It's easy to have synchronization problems if a local file is linked to more than one
+     * remote file.
+     * <p>
+     * We won't consider a synchronization as failed when foreign files can not be copied to
+     * the ownCloud local directory.
+     */
+    private void notifyForgottenLocalFiles() {
+        NotificationCompat.Builder notificationBuilder = createNotificationBuilder();
+        notificationBuilder.setTicker(i18n(R.string.sync_foreign_files_forgotten_ticker));
+
+        /// includes a pending intent in the notification showing a more detailed explanation
+        Intent explanationIntent = new Intent(mContext, ErrorsWhileCopyingHandlerActivity.class);
+        explanationIntent.putExtra(ErrorsWhileCopyingHandlerActivity.EXTRA_ACCOUNT, mAccount);
+        ArrayList<String> remotePaths = new ArrayList<>();
+        ArrayList<String> localPaths = new ArrayList<>();
+        remotePaths.addAll(mForgottenLocalFiles.keySet());
+        localPaths.addAll(mForgottenLocalFiles.values());
+        explanationIntent.putExtra(ErrorsWhileCopyingHandlerActivity.EXTRA_LOCAL_PATHS, localPaths);
+        explanationIntent.putExtra(ErrorsWhileCopyingHandlerActivity.EXTRA_REMOTE_PATHS, remotePaths);
+        explanationIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+
+        notificationBuilder
+                .setContentIntent(PendingIntent.getActivity(
+                        mContext, (int) System.currentTimeMillis(), explanationIntent, 0
+                ))
+                .setContentTitle(i18n(R.string.sync_foreign_files_forgotten_ticker))
+                .setContentText(i18n(R.string.sync_foreign_files_forgotten_content,
+                        mForgottenLocalFiles.size(), i18n(R.string.app_name)));
+
+        showNotification(R.string.sync_foreign_files_forgotten_ticker, notificationBuilder);
+    }
+
+    /**
+     * Creates a notification builder with some commonly used settings
+     *
+     * @return a notification builder with some commonly used settings.
+     */
+    private NotificationCompat.Builder createNotificationBuilder() {
+        NotificationCompat.Builder notificationBuilder = NotificationUtils.newNotificationBuilder(mContext,
+                FILE_SYNC_NOTIFICATION_CHANNEL_ID);
+        notificationBuilder.setAutoCancel(true);
+        return notificationBuilder;
+    }
+
+    /**
+     * Builds and shows the notification
+     *
+     * @param id      Id for the notification to build.
+     * @param builder Notification builder, already set up.
+     */
+    private void showNotification(int id, NotificationCompat.Builder builder) {
+
+        NotificationManager mNotificationManager = ((NotificationManager) mContext.
+                getSystemService(Context.NOTIFICATION_SERVICE));
+
+        mNotificationManager.notify(id, builder.build());
+    }
+
+    /**
+     * Shorthand translation
+     *
+     * @param key  String key.
+     * @param args Arguments to replace in a formatted string.
+     * @return
+     */
+    private String i18n(int key, Object... args) {
+        return mContext.getString(key, args);
+    }}
@@ -43,7 +43,7 @@ public class FileSyncService extends Service {
     public void onCreate() {
         synchronized (sSyncAdapterLock) {
             if (sSyncAdapter == null) {
-                sSyncAdapter = new FileSyncAdapter(getApplicationContext(), true);
+                sSyncAdapter = new FileSyncAdapter(getApplicationContext(), true, true);
             }
         }
     }
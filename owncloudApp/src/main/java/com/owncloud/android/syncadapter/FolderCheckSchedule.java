@@ -0,0 +1,110 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter;
+
+/**
+ * Decides how often the ETag of a folder is checked in the server, learning from the changes found in the last
+ * checks.
+ * <p>
+ * Every check finding a new ETag halves the interval until the next one, down to a minimum, and every check
+ * finding the same ETag doubles it. A folder whose interval grows over the maximum is not checked on its own
+ * anymore; its changes are found through the ETags of its ancestors, which change with it. A folder not checked
+ * on its own enters the schedule again the first time it is found changed, half the maximum away.
+ * <p>
+ * Folders checked always, like the root folder, are checked at least every maximum interval.
+ * <p>
+ * A folder checked at the minimum interval changed in its last checks and will most likely change again, so
+ * it is fetched directly, without checking its ETag first.
+ */
+public class FolderCheckSchedule {
+
+    /**
+     * Interval of the folders not checked on their own
+     */
+    public static final long NOT_SCHEDULED = 0;
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 15 * 60 * 1000;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 3 * 60 * 60 * 1000;
+
+    private static final FolderCheckSchedule sDefaultSchedule =
+            new FolderCheckSchedule(DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+
+    private final long mMinIntervalMillis;
+    private final long mMaxIntervalMillis;
+
+    /**
+     * @return Schedule used by the synchronizations of the app.
+     */
+    public static FolderCheckSchedule getDefaultSchedule() {
+        return sDefaultSchedule;
+    }
+
+    /**
+     * @param minIntervalMillis Minimum time between two checks of a folder, in milliseconds.
+     * @param maxIntervalMillis Maximum time between two checks of a folder checked always, in milliseconds.
+     */
+    public FolderCheckSchedule(long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Invalid intervals: " + minIntervalMillis + ", " + maxIntervalMillis);
+        }
+        mMinIntervalMillis = minIntervalMillis;
+        mMaxIntervalMillis = maxIntervalMillis;
+    }
+
+    public long getMinIntervalMillis() {
+        return mMinIntervalMillis;
+    }
+
+    public long getMaxIntervalMillis() {
+        return mMaxIntervalMillis;
+    }
+
+    /**
+     * @param intervalMillis Interval that led to the current check of a folder, or {@link #NOT_SCHEDULED}.
+     * @return 'True' if the ETag of the folder should be checked before fetching it; 'false' if it should be
+     * fetched directly.
+     */
+    public boolean isCheckWorthIt(long intervalMillis) {
+        return intervalMillis == NOT_SCHEDULED || intervalMillis > mMinIntervalMillis;
+    }
+
+    /**
+     * @param intervalMillis  Interval that led to the last check of the folder, or {@link #NOT_SCHEDULED}.
+     * @param changed         'True' if the last check found a new ETag.
+     * @param alwaysScheduled 'True' if the folder is checked even when it does not change.
+     * @return Interval until the next check of the folder, or {@link #NOT_SCHEDULED} if it should not be checked
+     * on its own.
+     */
+    public long nextInterval(long intervalMillis, boolean changed, boolean alwaysScheduled) {
+        if (changed) {
+            if (intervalMillis == NOT_SCHEDULED) {
+                return Math.max(mMinIntervalMillis, mMaxIntervalMillis / 2);
+            }
+            return Math.max(mMinIntervalMillis, intervalMillis / 2);
+        }
+        if (intervalMillis == NOT_SCHEDULED) {
+            return alwaysScheduled ? mMaxIntervalMillis : NOT_SCHEDULED;
+        }
+        long doubled = intervalMillis * 2;
+        if (doubled > mMaxIntervalMillis) {
+            return alwaysScheduled ? mMaxIntervalMillis : NOT_SCHEDULED;
+        }
+        return doubled;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of folders synchronized at the same time in all the accounts.
+ * <p>
+ * Every folder synchronization takes a turn before starting and gives it back when done. When all the turns are
+ * taken, the next free one goes to the account after the last one served, round robin, and every account is served
+ * in the order its folders asked; an account with a big synchronization in progress can not keep the turns away
+ * from the rest.
+ */
+public class FolderSyncScheduler {
+
+    /**
+     * Maximum number of folders synchronized at the same time in all the accounts
+     */
+    public static final int DEFAULT_MAX_FOLDERS_IN_FLIGHT = 8;
+
+    private static FolderSyncScheduler sDefaultScheduler;
+
+    private final int mMaxFoldersInFlight;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mTurnGiven = mLock.newCondition();
+
+    /**
+     * Folders being synchronized
+     */
+    private int mFoldersInFlight;
+
+    /**
+     * Accounts with folders waiting for a turn, in the order they will be served
+     */
+    private final ArrayDeque<String> mAccountsWaiting = new ArrayDeque<>();
+
+    /**
+     * Turns asked and not given yet, by account
+     */
+    private final Map<String, ArrayDeque<Turn>> mTurnsWaiting = new HashMap<>();
+
+    /**
+     * @return Scheduler shared by all the synchronizations of folders in the app.
+     */
+    public static synchronized FolderSyncScheduler getDefaultScheduler() {
+        if (sDefaultScheduler == null) {
+            sDefaultScheduler = new FolderSyncScheduler(DEFAULT_MAX_FOLDERS_IN_FLIGHT);
+        }
+        return sDefaultScheduler;
+    }
+
+    /**
+     * @param maxFoldersInFlight Maximum number of folders synchronized at the same time in all the accounts.
+     */
+    public FolderSyncScheduler(int maxFoldersInFlight) {
+        mMaxFoldersInFlight = Math.max(1, maxFoldersInFlight);
+    }
+
+    /**
+     * @return Maximum number of folders synchronized at the same time in all the accounts.
+     */
+    public int getMaxFoldersInFlight() {
+        return mMaxFoldersInFlight;
+    }
+
+    /**
+     * Waits for a turn to synchronize a folder of an account. Every turn taken must be given back with
+     * {@link #release()}.
+     *
+     * @param accountName Name of the account of the folder.
+     * @throws InterruptedException If the thread was interrupted while waiting; no turn was taken then.
+     */
+    public void acquire(String accountName) throws InterruptedException {
+        mLock.lock();
+        try {
+            if (mFoldersInFlight < mMaxFoldersInFlight && mAccountsWaiting.isEmpty()) {
+                mFoldersInFlight++;
+                return;
+            }
+
+            Turn turn = new Turn();
+            ArrayDeque<Turn> turnsOfAccount = mTurnsWaiting.get(accountName);
+            if (turnsOfAccount == null) {
+                turnsOfAccount = new ArrayDeque<>();
+                mTurnsWaiting.put(accountName, turnsOfAccount);
+                mAccountsWaiting.addLast(accountName);
+            }
+            turnsOfAccount.addLast(turn);
+
+            try {
+                while (!turn.mGiven) {
+                    mTurnGiven.await();
+                }
+            } catch (InterruptedException e) {
+                if (turn.mGiven) {
+                    // given at the same time; not used, so it goes to the next one
+                    mFoldersInFlight--;
+                } else {
+                    turnsOfAccount.remove(turn);
+                    if (turnsOfAccount.isEmpty()) {
+                        mTurnsWaiting.remove(accountName);
+                        mAccountsWaiting.remove(accountName);
+                    }
+                }
+                giveTurns();
+                throw e;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a turn taken with {@link #acquire(String)}.
+     */
+    public void release() {
+        mLock.lock();
+        try {
+            mFoldersInFlight--;
+            giveTurns();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gives the free turns to the waiting accounts, one per account in round robin.
+     */
+    private void giveTurns() {
+        boolean given = false;
+        while (mFoldersInFlight < mMaxFoldersInFlight && !mAccountsWaiting.isEmpty()) {
+            String accountName = mAccountsWaiting.pollFirst();
+            ArrayDeque<Turn> turnsOfAccount = mTurnsWaiting.get(accountName);
+            turnsOfAccount.pollFirst().mGiven = true;
+            mFoldersInFlight++;
+            given = true;
+            if (turnsOfAccount.isEmpty()) {
+                mTurnsWaiting.remove(accountName);
+            } else {
+                mAccountsWaiting.addLast(accountName);
+            }
+        }
+        if (given) {
+            mTurnGiven.signalAll();
+        }
+    }
+
+    private static class Turn {
+        private boolean mGiven;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter;
+
+import androidx.core.util.Pair;
+import com.owncloud.android.datamodel.OCFile;
+import timber.log.Timber;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a tree of folders visiting a bounded number of folders at the same time.
+ * <p>
+ * Every visit returns the subfolders to visit next. With more than one folder in flight, the subfolders found by a
+ * thread are queued to that same thread, which goes on depth first, while idle threads steal the oldest folders
+ * queued by the busy ones. With one folder in flight, the tree is walked depth first in the calling thread.
+ * <p>
+ * The stop condition is checked before visiting every folder; folders already in flight are completed.
+ */
+public class FolderTreeTraversal {
+
+    /**
+     * Visits a folder of the tree.
+     */
+    public interface FolderVisitor {
+        /**
+         * @param folder   Folder to visit.
+         * @param pushOnly When 'true', the folder has no changes to fetch from the server.
+         * @return Subfolders to visit, each one with 'true' if it has changes to fetch from the server. May be
+         * empty, but never null.
+         */
+        List<Pair<OCFile, Boolean>> visit(OCFile folder, boolean pushOnly);
+    }
+
+    /**
+     * Condition to stop the traversal before visiting more folders.
+     */
+    public interface StopCondition {
+        boolean shouldStop();
+    }
+
+    private final int mMaxFoldersInFlight;
+    private final FolderVisitor mVisitor;
+    private final StopCondition mStopCondition;
+
+    /**
+     * @param maxFoldersInFlight Maximum number of folders visited at the same time.
+     * @param visitor            Visitor of every folder.
+     * @param stopCondition      Condition to stop the traversal.
+     */
+    public FolderTreeTraversal(int maxFoldersInFlight, FolderVisitor visitor, StopCondition stopCondition) {
+        mMaxFoldersInFlight = Math.max(1, maxFoldersInFlight);
+        mVisitor = visitor;
+        mStopCondition = stopCondition;
+    }
+
+    /**
+     * Visits the root folder and its subfolders, recursively, and waits until all the visits are done.
+     *
+     * @param root     Folder to start the traversal from.
+     * @param pushOnly Value of pushOnly for the visit of the root folder.
+     */
+    public void traverse(OCFile root, boolean pushOnly) {
+        traverse(Collections.singletonList(new Pair<>(root, !pushOnly)));
+    }
+
+    /**
+     * Visits several folders and their subfolders, recursively, and waits until all the visits are done.
+     *
+     * @param folders Folders to start the traversal from, each one with 'true' if it has changes to fetch from the
+     *                server. None of them should be a descendant of another one.
+     */
+    public void traverse(List<Pair<OCFile, Boolean>> folders) {
+        if (folders.isEmpty()) {
+            return;
+        }
+        if (mMaxFoldersInFlight == 1) {
+            int i;
+            for (i = 0; i < folders.size() && (i == 0 || !mStopCondition.shouldStop()); i++) {
+                visitSerially(folders.get(i).first, !folders.get(i).second);
+            }
+            if (i < folders.size()) {
+                Timber.d("Leaving traversal before visiting %s", folders.get(i).first.getRemotePath());
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(mMaxFoldersInFlight);
+        Traversal traversal = new Traversal();
+        traversal.mPendingVisits.addAndGet(folders.size());
+        for (Pair<OCFile, Boolean> folder : folders) {
+            pool.execute(new VisitTask(traversal, folder.first, !folder.second));
+        }
+
+        // in-flight visits write to the database; never leave while any of them is running
+        boolean interrupted = false;
+        while (true) {
+            try {
+                traversal.mDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        pool.shutdown();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void visitSerially(OCFile folder, boolean pushOnly) {
+        List<Pair<OCFile, Boolean>> subfolders = mVisitor.visit(folder, pushOnly);
+        int i;
+        for (i = 0; i < subfolders.size() && !mStopCondition.shouldStop(); i++) {
+            Pair<OCFile, Boolean> subfolder = subfolders.get(i);
+            visitSerially(subfolder.first, !subfolder.second);
+        }
+        if (i < subfolders.size()) {
+            Timber.d("Leaving traversal before visiting %s", subfolders.get(i).first.getRemotePath());
+        }
+    }
+
+    /**
+     * State shared by the tasks of a traversal.
+     */
+    private static class Traversal {
+        private final AtomicInteger mPendingVisits = new AtomicInteger();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+    }
+
+    private class VisitTask extends RecursiveAction {
+
+        private final Traversal mTraversal;
+        private final OCFile mFolder;
+        private final boolean mPushOnly;
+
+        VisitTask(Traversal traversal, OCFile folder, boolean pushOnly) {
+            mTraversal = traversal;
+            mFolder = folder;
+            mPushOnly = pushOnly;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (mStopCondition.shouldStop()) {
+                    Timber.d("Leaving traversal before visiting %s", mFolder.getRemotePath());
+                    return;
+                }
+                for (Pair<OCFile, Boolean> subfolder : mVisitor.visit(mFolder, mPushOnly)) {
+                    mTraversal.mPendingVisits.incrementAndGet();
+                    // queued to this thread; not joined, completion is tracked by the pending visits
+                    new VisitTask(mTraversal, subfolder.first, !subfolder.second).fork();
+                }
+            } catch (RuntimeException e) {
+                Timber.e(e, "Unexpected error visiting %s", mFolder.getRemotePath());
+            } finally {
+                if (mTraversal.mPendingVisits.decrementAndGet() == 0) {
+                    mTraversal.mDone.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import com.owncloud.android.operations.RefreshFolderOperation
+import org.json.JSONArray
+import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Metrics of the synchronization of a folder.
+ *
+ * @property accountName    Account of the folder.
+ * @property remotePath     Remote path of the folder.
+ * @property operation      Operation that synchronized the folder, one of [SyncMetrics.OPERATION_SYNCHRONIZE] or
+ *                          [SyncMetrics.OPERATION_REFRESH].
+ * @property syncRunId      Full synchronization the folder was part of, or [SyncMetrics.NO_SYNC_RUN].
+ * @property startedAt      Wall clock time when the synchronization of the folder started, in milliseconds.
+ * @property propfindMillis Time waiting for the PROPFIND request, in milliseconds.
+ * @property entries        Files and folders parsed from the response, the folder itself included.
+ * @property mergeCpuMillis CPU time of the thread merging the response with the local files, in milliseconds.
+ * @property saveMillis     Time writing the merged files to the database, in milliseconds.
+ * @property rowsWritten    Files saved or removed in the database.
+ */
+data class FolderSyncMetric(
+    val accountName: String,
+    val remotePath: String,
+    val operation: String,
+    val syncRunId: Long,
+    val startedAt: Long,
+    val propfindMillis: Long,
+    val entries: Int,
+    val mergeCpuMillis: Long,
+    val saveMillis: Long,
+    val rowsWritten: Int
+) {
+    fun toJson(): JSONObject = JSONObject().apply {
+        put("account", accountName)
+        put("path", remotePath)
+        put("operation", operation)
+        put("syncRun", syncRunId)
+        put("startedAt", startedAt)
+        put("propfindMs", propfindMillis)
+        put("entries", entries)
+        put("mergeCpuMs", mergeCpuMillis)
+        put("saveMs", saveMillis)
+        put("rowsWritten", rowsWritten)
+    }
+}
+
+/**
+ * Metrics of a full synchronization of an account, aggregated from the metrics of its folders.
+ *
+ * @property eTagCheckHits   Due folders whose ETag was checked and found unchanged, so they were not fetched.
+ * @property eTagCheckMisses Due folders whose ETag was checked and found changed.
+ * @property slowestFolder   Folder that took the longest PROPFIND, merge and save, if any.
+ */
+data class SyncRunMetric(
+    val syncRunId: Long,
+    val accountName: String,
+    val startedAt: Long,
+    val elapsedMillis: Long,
+    val folders: Int,
+    val propfindMillis: Long,
+    val entries: Int,
+    val mergeCpuMillis: Long,
+    val saveMillis: Long,
+    val rowsWritten: Int,
+    val eTagCheckHits: Int,
+    val eTagCheckMisses: Int,
+    val slowestFolder: FolderSyncMetric?
+) {
+    fun toJson(): JSONObject = JSONObject().apply {
+        put("syncRun", syncRunId)
+        put("account", accountName)
+        put("startedAt", startedAt)
+        put("elapsedMs", elapsedMillis)
+        put("folders", folders)
+        put("propfindMs", propfindMillis)
+        put("entries", entries)
+        put("mergeCpuMs", mergeCpuMillis)
+        put("saveMs", saveMillis)
+        put("rowsWritten", rowsWritten)
+        put("eTagCheckHits", eTagCheckHits)
+        put("eTagCheckMisses", eTagCheckMisses)
+        slowestFolder?.let { put("slowestFolder", it.toJson()) }
+    }
+}
+
+/**
+ * Ring buffer keeping the last items added, written by many threads without locks.
+ *
+ * A reader may miss an item being written at the same time, or see it in the place of an older one; metrics
+ * can live with that.
+ */
+class MetricsRingBuffer<T>(private val capacity: Int) {
+    private val items = AtomicReferenceArray<T>(capacity)
+    private val added = AtomicLong()
+
+    fun add(item: T) {
+        val index = added.getAndIncrement()
+        items.set((index % capacity).toInt(), item)
+    }
+
+    /**
+     * @return Items kept, from the oldest to the newest.
+     */
+    fun snapshot(): List<T> {
+        val end = added.get()
+        val start = maxOf(0, end - capacity)
+        return (start until end).mapNotNull { items.get((it % capacity).toInt()) }
+    }
+}
+
+/**
+ * Totals of the folders synchronized so far in a full synchronization, updated by many threads without locks.
+ */
+private class SyncRunAccumulator {
+    private val folders = AtomicInteger()
+    private val propfindMillis = AtomicLong()
+    private val entries = AtomicInteger()
+    private val mergeCpuMillis = AtomicLong()
+    private val saveMillis = AtomicLong()
+    private val rowsWritten = AtomicInteger()
+    private val eTagCheckHits = AtomicInteger()
+    private val eTagCheckMisses = AtomicInteger()
+    private val slowestFolder = AtomicReference<FolderSyncMetric?>()
+
+    fun add(metric: FolderSyncMetric) {
+        folders.incrementAndGet()
+        propfindMillis.addAndGet(metric.propfindMillis)
+        entries.addAndGet(metric.entries)
+        mergeCpuMillis.addAndGet(metric.mergeCpuMillis)
+        saveMillis.addAndGet(metric.saveMillis)
+        rowsWritten.addAndGet(metric.rowsWritten)
+        // compare and set instead of accumulateAndGet, only available from API 24
+        while (true) {
+            val slowest = slowestFolder.get()
+            if (slowest != null && metric.totalMillis() <= slowest.totalMillis()) return
+            if (slowestFolder.compareAndSet(slowest, metric)) return
+        }
+    }
+
+    fun addETagCheck(changed: Boolean) {
+        if (changed) eTagCheckMisses.incrementAndGet() else eTagCheckHits.incrementAndGet()
+    }
+
+    fun toSyncRunMetric(syncRunId: Long, accountName: String, startedAt: Long, elapsedMillis: Long) = SyncRunMetric(
+        syncRunId = syncRunId,
+        accountName = accountName,
+        startedAt = startedAt,
+        elapsedMillis = elapsedMillis,
+        folders = folders.get(),
+        propfindMillis = propfindMillis.get(),
+        entries = entries.get(),
+        mergeCpuMillis = mergeCpuMillis.get(),
+        saveMillis = saveMillis.get(),
+        rowsWritten = rowsWritten.get(),
+        eTagCheckHits = eTagCheckHits.get(),
+        eTagCheckMisses = eTagCheckMisses.get(),
+        slowestFolder = slowestFolder.get()
+    )
+
+    private fun FolderSyncMetric.totalMillis() = propfindMillis + mergeCpuMillis + saveMillis
+}
+
+/**
+ * Metrics of the synchronizations of folders since the app started, kept in memory for developers.
+ *
+ * The metrics of every folder are added to the totals of its full synchronization as they are recorded, so the
+ * totals count all the folders however many the synchronization has; the buffer of folders only keeps the last
+ * ones, for their history.
+ */
+object SyncMetrics {
+    const val OPERATION_SYNCHRONIZE = "synchronize"
+    const val OPERATION_REFRESH = "refresh"
+
+    const val NO_SYNC_RUN = 0L
+
+    private const val FOLDERS_KEPT = 2_048
+    private const val SYNC_RUNS_KEPT = 64
+
+    private val folders = MetricsRingBuffer<FolderSyncMetric>(FOLDERS_KEPT)
+    private val syncRuns = MetricsRingBuffer<SyncRunMetric>(SYNC_RUNS_KEPT)
+    private val syncRunsInProgress = ConcurrentHashMap<Long, SyncRunAccumulator>()
+    private val lastSyncRunId = AtomicLong(NO_SYNC_RUN)
+
+    /**
+     * Starts a full synchronization, that must be finished with [finishSyncRun].
+     *
+     * @return New id for a full synchronization.
+     */
+    @JvmStatic
+    fun newSyncRunId(): Long = lastSyncRunId.incrementAndGet().also { syncRunsInProgress[it] = SyncRunAccumulator() }
+
+    /**
+     * Keeps the metrics of a folder, and adds them to the totals of its full synchronization if still in progress.
+     */
+    @JvmStatic
+    fun record(metric: FolderSyncMetric) {
+        folders.add(metric)
+        if (metric.syncRunId != NO_SYNC_RUN) {
+            syncRunsInProgress[metric.syncRunId]?.add(metric)
+        }
+    }
+
+    /**
+     * Counts a check of the ETag of a folder in the totals of its full synchronization, if still in progress.
+     *
+     * @param changed 'True' if the check found a new ETag.
+     */
+    @JvmStatic
+    fun recordETagCheck(syncRunId: Long, changed: Boolean) {
+        syncRunsInProgress[syncRunId]?.addETagCheck(changed)
+    }
+
+    /**
+     * Aggregates the metrics of the folders synchronized in a full synchronization, and keeps the result.
+     *
+     * Folders recorded after this are not counted in the full synchronization.
+     */
+    @JvmStatic
+    fun finishSyncRun(syncRunId: Long, accountName: String, startedAt: Long, elapsedMillis: Long): SyncRunMetric =
+        (syncRunsInProgress.remove(syncRunId) ?: SyncRunAccumulator())
+            .toSyncRunMetric(syncRunId, accountName, startedAt, elapsedMillis)
+            .also { syncRuns.add(it) }
+
+    fun getFolders(): List<FolderSyncMetric> = folders.snapshot()
+
+    fun getSyncRuns(): List<SyncRunMetric> = syncRuns.snapshot()
+
+    /**
+     * @return Report with all the metrics kept, and the checks of ETags done by refreshes since the app started,
+     * in JSON.
+     */
+    fun toJsonReport(): String = JSONObject().apply {
+        put("generatedAt", System.currentTimeMillis())
+        put("refreshETagChecks", JSONObject().apply {
+            put("hits", RefreshFolderOperation.getETagCheckHits())
+            put("misses", RefreshFolderOperation.getETagCheckMisses())
+            put("shared", RefreshFolderOperation.getRefreshesShared())
+        })
+        put("syncRuns", JSONArray().apply { getSyncRuns().forEach { put(it.toJson()) } })
+        put("folders", JSONArray().apply { getFolders().forEach { put(it.toJson()) } })
+    }.toString(2)
+}
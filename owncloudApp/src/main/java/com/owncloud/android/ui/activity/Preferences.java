@@ -97,6 +97,7 @@ public class Preferences extends PreferenceActivity {
     private static final String PREFERENCE_FEEDBACK = "feedback";
     private static final String PREFERENCE_PRIVACY_POLICY = "privacyPolicy";
     private static final String PREFERENCE_LOGGER = "logger";
+    private static final String PREFERENCE_SYNC_METRICS = "sync_metrics";
     private static final String PREFERENCE_IMPRINT = "imprint";
     private static final String PREFERENCE_ABOUT_APP = "about_app";
     private static final String PREFERENCE_LOG_HTTP = "set_httpLogs";
@@ -389,6 +390,10 @@ public class Preferences extends PreferenceActivity {
 
             return true;
         });
+        findPreference(PREFERENCE_SYNC_METRICS).setOnPreferenceClickListener(preference -> {
+            startActivity(new Intent(getApplicationContext(), SyncMetricsActivity.class));
+            return true;
+        });
         showDeveloperItems(pCategoryLogs);
 
         /*
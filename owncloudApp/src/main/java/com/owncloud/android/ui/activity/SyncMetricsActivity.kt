@@ -0,0 +1,140 @@
+/*
+ *   ownCloud Android client application
+ *
+ *   Copyright (C) 2021 ownCloud GmbH.
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License version 2,
+ *   as published by the Free Software Foundation.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.owncloud.android.ui.activity
+
+import android.content.Intent
+import android.os.Bundle
+import android.widget.Button
+import android.widget.TextView
+import androidx.core.content.FileProvider
+import com.owncloud.android.R
+import com.owncloud.android.syncadapter.FolderSyncMetric
+import com.owncloud.android.syncadapter.SyncMetrics
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+
+/**
+ * Developer screen with the metrics of the last synchronizations of folders, from [SyncMetrics], that can be
+ * shared as a JSON report. The report is written to a file in the cache and shared through the file provider of the
+ * app, since it can be too long for the text of an intent.
+ */
+class SyncMetricsActivity : ToolbarActivity() {
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+
+        setContentView(R.layout.sync_metrics)
+
+        setupStandardToolbar(
+            title = getString(R.string.sync_metrics_title),
+            displayHomeAsUpEnabled = true,
+            displayShowTitleEnabled = true,
+            homeButtonEnabled = true,
+        )
+
+        findViewById<Button>(R.id.syncMetricsShareButton).setOnClickListener { shareReport() }
+    }
+
+    override fun onResume() {
+        super.onResume()
+        findViewById<TextView>(R.id.syncMetricsText).text = summary()
+    }
+
+    override fun onSupportNavigateUp(): Boolean {
+        finish()
+        return true
+    }
+
+    private fun summary(): String {
+        val syncRuns = SyncMetrics.getSyncRuns()
+        val folders = SyncMetrics.getFolders()
+        if (syncRuns.isEmpty() && folders.isEmpty()) {
+            return getString(R.string.sync_metrics_empty)
+        }
+        return buildString {
+            syncRuns.asReversed().forEach { run ->
+                appendLine(getString(R.string.sync_metrics_run, run.syncRunId, run.accountName, run.elapsedMillis))
+                appendLine(
+                    INDENT + getString(
+                        R.string.sync_metrics_run_totals,
+                        run.folders,
+                        run.propfindMillis,
+                        run.entries,
+                        run.mergeCpuMillis,
+                        run.saveMillis,
+                        run.rowsWritten
+                    )
+                )
+                appendLine(
+                    INDENT + getString(R.string.sync_metrics_run_etag_checks, run.eTagCheckHits, run.eTagCheckMisses)
+                )
+                run.slowestFolder?.let { appendLine(INDENT + getString(R.string.sync_metrics_slowest, it.remotePath)) }
+            }
+            appendLine()
+            folders.takeLast(MAX_FOLDERS_SHOWN).asReversed().forEach { appendLine(describe(it)) }
+        }
+    }
+
+    private fun describe(folder: FolderSyncMetric) =
+        getString(
+            R.string.sync_metrics_folder,
+            folder.operation,
+            folder.accountName + folder.remotePath,
+            folder.propfindMillis,
+            folder.entries,
+            folder.mergeCpuMillis,
+            folder.saveMillis,
+            folder.rowsWritten
+        )
+
+    private fun shareReport() {
+        val reportFile = File(File(cacheDir, REPORT_FOLDER), REPORT_FILE_NAME)
+        try {
+            reportFile.parentFile?.mkdirs()
+            reportFile.writeText(SyncMetrics.toJsonReport())
+        } catch (e: IOException) {
+            Timber.e(e, "Could not write the synchronization metrics report")
+            showSnackMessage(getString(R.string.sync_metrics_share_error))
+            return
+        }
+        val reportUri = FileProvider.getUriForFile(this, getString(R.string.file_provider_authority), reportFile)
+
+        val sendIntent = Intent(Intent.ACTION_SEND).apply {
+            type = "application/json"
+            putExtra(
+                Intent.EXTRA_SUBJECT,
+                getString(R.string.sync_metrics_report_subject, getString(R.string.app_name))
+            )
+            putExtra(Intent.EXTRA_STREAM, reportUri)
+            addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        }
+        startActivity(Intent.createChooser(sendIntent, getString(R.string.sync_metrics_share)))
+    }
+
+    companion object {
+        private const val MAX_FOLDERS_SHOWN = 200
+        private const val INDENT = "  "
+
+        // only this folder of the cache is exposed by the file provider, see exposed_filepaths.xml
+        private const val REPORT_FOLDER = "sync_metrics"
+        private const val REPORT_FILE_NAME = "sync_metrics.json"
+    }
+}
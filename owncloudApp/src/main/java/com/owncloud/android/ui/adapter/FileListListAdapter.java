@@ -48,6 +48,7 @@ import com.owncloud.android.R;
 import com.owncloud.android.authentication.AccountUtils;
 import com.owncloud.android.datamodel.FileDataStorageManager;
 import com.owncloud.android.datamodel.OCFile;
+import com.owncloud.android.datamodel.PagedFolderContent;
 import com.owncloud.android.datamodel.ThumbnailsCacheManager;
 import com.owncloud.android.db.PreferenceManager;
 import com.owncloud.android.extensions.VectorExtKt;
@@ -72,6 +73,8 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
     private Context mContext;
     private Vector<OCFile> mImmutableFilesList = null; // List containing the database files, doesn't change with search
     private Vector<OCFile> mFiles = null; // List that can be changed when using search
+    private PagedFolderContent mPagedFiles = null; // Content of a regular folder, shown when mFiles is null
+    private OCFile mFolder = null;
     private boolean mJustFolders;
     private boolean mOnlyAvailableOffline;
     private boolean mSharedByLinkFiles;
@@ -116,28 +119,34 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
     @Override
     public boolean isEnabled(int position) {
         // Disable click for files when selecting a folder in copying and moving operations
-        return !mFolderPicker || mFiles.get(position).isFolder();
+        OCFile file = getFile(position);
+        return !mFolderPicker || (file != null && file.isFolder());
     }
 
     @Override
     public int getCount() {
-        return mFiles != null ? mFiles.size() : 0;
+        if (mFiles != null) {
+            return mFiles.size();
+        }
+        return mPagedFiles != null ? mPagedFiles.getSize() : 0;
     }
 
     @Override
     public Object getItem(int position) {
-        if (mFiles == null || mFiles.size() <= position) {
-            return null;
-        }
-        return mFiles.get(position);
+        return getFile(position);
     }
 
     @Override
     public long getItemId(int position) {
-        if (mFiles == null || mFiles.size() <= position) {
-            return 0;
+        OCFile file = getFile(position);
+        return file != null ? file.getFileId() : 0;
+    }
+
+    private OCFile getFile(int position) {
+        if (mFiles != null) {
+            return position < mFiles.size() ? mFiles.get(position) : null;
         }
-        return mFiles.get(position).getFileId();
+        return mPagedFiles != null ? mPagedFiles.get(position) : null;
     }
 
     @Override
@@ -149,14 +158,10 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
     public View getView(int position, View convertView, ViewGroup parent) {
 
         View view = convertView;
-        OCFile file = null;
+        OCFile file = getFile(position);
         LayoutInflater inflator = (LayoutInflater) mContext
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
-        if (mFiles != null && mFiles.size() > position) {
-            file = mFiles.get(position);
-        }
-
         // Find out which layout should be displayed
         final ViewType viewType;
         if (parent instanceof GridView) {
@@ -376,7 +381,39 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
 
     @Override
     public boolean isEmpty() {
-        return (mFiles == null || mFiles.isEmpty());
+        return getCount() == 0;
+    }
+
+    /**
+     * @return Number of folders in the adapted content
+     */
+    public int getFoldersCount() {
+        if (mFiles == null) {
+            return mPagedFiles != null ? mPagedFiles.getFoldersCount() : 0;
+        }
+        int foldersCount = 0;
+        for (OCFile file : mFiles) {
+            if (file.isFolder()) {
+                foldersCount++;
+            }
+        }
+        return foldersCount;
+    }
+
+    /**
+     * @return Number of files in the adapted content, not counting folders nor hidden files
+     */
+    public int getVisibleFilesCount() {
+        if (mFiles == null) {
+            return mPagedFiles != null ? mPagedFiles.getVisibleFilesCount() : 0;
+        }
+        int filesCount = 0;
+        for (OCFile file : mFiles) {
+            if (!file.isFolder() && !file.isHidden()) {
+                filesCount++;
+            }
+        }
+        return filesCount;
     }
 
     /**
@@ -395,29 +432,59 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
 
         boolean isRootFolder = folder.equals(updatedStorageManager.getFileByPath(OCFile.ROOT_PATH));
 
+        mFolder = folder;
+        mImmutableFilesList = null;
+        mFiles = null;
+        release();
+
         if (mStorageManager != null) {
             if (mOnlyAvailableOffline && (isRootFolder || !folder.isAvailableOffline())) {
                 mImmutableFilesList = updatedStorageManager.getAvailableOfflineFilesFromCurrentAccount();
             } else if (mSharedByLinkFiles && isRootFolder) {
                 mImmutableFilesList = updatedStorageManager.getSharedByLinkFilesFromCurrentAccount();
             } else {
-                mImmutableFilesList = mStorageManager.getFolderContent(folder);
+                // regular folders can be huge; read them page by page, as they are shown
+                mPagedFiles = createPagedFolderContent();
             }
 
-            mFiles = mImmutableFilesList;
-
-            if (mJustFolders) {
-                mFiles = getFolders(mFiles);
+            if (mImmutableFilesList != null) {
+                mImmutableFilesList = sortFiles(mImmutableFilesList);
+                mFiles = (Vector<OCFile>) mImmutableFilesList.clone();
             }
-        } else {
-            mFiles = null;
         }
 
-        mFiles = FileStorageUtils.sortFolder(mFiles, FileStorageUtils.mSortOrderFileDisp,
-                FileStorageUtils.mSortAscendingFileDisp);
         notifyDataSetChanged();
     }
 
+    private PagedFolderContent createPagedFolderContent() {
+        return new PagedFolderContent(
+                mStorageManager,
+                mFolder.getFileId(),
+                FileStorageUtils.mSortOrderFileDisp,
+                FileStorageUtils.mSortAscendingFileDisp,
+                mJustFolders,
+                this::notifyDataSetChanged
+        );
+    }
+
+    /**
+     * Stops loading the content of the current folder; to call when the adapter is not shown anymore.
+     */
+    public void release() {
+        if (mPagedFiles != null) {
+            mPagedFiles.close();
+            mPagedFiles = null;
+        }
+    }
+
+    private Vector<OCFile> sortFiles(Vector<OCFile> files) {
+        if (mJustFolders) {
+            files = getFolders(files);
+        }
+        return FileStorageUtils.sortFolder(files, FileStorageUtils.mSortOrderFileDisp,
+                FileStorageUtils.mSortAscendingFileDisp);
+    }
+
     /**
      * Filter for getting only the folders
      *
@@ -444,8 +511,18 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
         FileStorageUtils.mSortOrderFileDisp = order;
         FileStorageUtils.mSortAscendingFileDisp = ascending;
 
-        mFiles = FileStorageUtils.sortFolder(mFiles, FileStorageUtils.mSortOrderFileDisp,
-                FileStorageUtils.mSortAscendingFileDisp);
+        if (mPagedFiles != null) {
+            mPagedFiles.close();
+            mPagedFiles = createPagedFolderContent();
+        }
+        if (mImmutableFilesList != null) {
+            FileStorageUtils.sortFolder(mImmutableFilesList, FileStorageUtils.mSortOrderFileDisp,
+                    FileStorageUtils.mSortAscendingFileDisp);
+        }
+        if (mFiles != null) {
+            mFiles = FileStorageUtils.sortFolder(mFiles, FileStorageUtils.mSortOrderFileDisp,
+                    FileStorageUtils.mSortAscendingFileDisp);
+        }
         notifyDataSetChanged();
     }
 
@@ -465,14 +542,29 @@ public class FileListListAdapter extends BaseAdapter implements ListAdapter {
     }
 
     public void filterBySearch(String query) {
-        clearFilterBySearch();
+        if (mPagedFiles != null) {
+            // regular folders are searched with the name search index, without reading the whole content
+            mFiles = query.trim().isEmpty() ? null :
+                    sortFiles(new Vector<>(mStorageManager.searchFiles(query, mFolder.getFileId())));
+            notifyDataSetChanged();
+            return;
+        }
+        if (mImmutableFilesList == null) {
+            return;
+        }
+        mFiles = (Vector<OCFile>) mImmutableFilesList.clone();
         VectorExtKt.filterByQuery(mFiles, query);
 
         notifyDataSetChanged();
     }
 
     public void clearFilterBySearch() {
-        mFiles = (Vector<OCFile>) mImmutableFilesList.clone();
+        if (mPagedFiles != null) {
+            // back to the paged content
+            mFiles = null;
+        } else if (mImmutableFilesList != null) {
+            mFiles = (Vector<OCFile>) mImmutableFilesList.clone();
+        }
         notifyDataSetChanged();
     }
 
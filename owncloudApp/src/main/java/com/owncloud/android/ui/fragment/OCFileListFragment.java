@@ -235,6 +235,14 @@ public class OCFileListFragment extends ExtendedListFragment implements
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        if (mFileListAdapter != null) {
+            mFileListAdapter.release();
+        }
+        super.onDestroyView();
+    }
+
     @Override
     public void onDetach() {
         setOnRefreshListener(null);
@@ -290,6 +298,9 @@ public class OCFileListFragment extends ExtendedListFragment implements
 
         boolean folderPicker = isPickingAFolder();
 
+        if (mFileListAdapter != null) {
+            mFileListAdapter.release();
+        }
         mFileListAdapter = new FileListListAdapter(
                 justFolders,
                 fileListOption.isAvailableOffline(),
@@ -1080,19 +1091,9 @@ public class OCFileListFragment extends ExtendedListFragment implements
 
     private void updateLayout() {
         if (!isShowingJustFolders()) {
-            int filesCount = 0, foldersCount = 0;
             int count = mFileListAdapter.getCount();
-            OCFile file;
-            for (int i = 0; i < count; i++) {
-                file = (OCFile) mFileListAdapter.getItem(i);
-                if (file.isFolder()) {
-                    foldersCount++;
-                } else {
-                    if (!file.isHidden()) {
-                        filesCount++;
-                    }
-                }
-            }
+            int filesCount = mFileListAdapter.getVisibleFilesCount();
+            int foldersCount = mFileListAdapter.getFoldersCount();
 
             if (count == 0) {
                 int emptyMessage;
@@ -38,6 +38,7 @@ import com.owncloud.android.domain.sharing.shares.model.OCShare;
 import com.owncloud.android.files.services.AvailableOfflineHandler;
 import com.owncloud.android.files.services.FileDownloader.FileDownloaderBinder;
 import com.owncloud.android.files.services.FileUploader.FileUploaderBinder;
+import com.owncloud.android.files.services.TransferRequester;
 import com.owncloud.android.presentation.ui.sharing.ShareActivity;
 import com.owncloud.android.services.OperationsService;
 import com.owncloud.android.ui.activity.FileActivity;
@@ -241,6 +242,9 @@ public class FileOperationsHelper {
                     true
             );
             mFileActivity.startService(intent);
+
+            // the files already known start downloading at once, while the folder is synchronized
+            new TransferRequester().downloadFolder(mFileActivity, mFileActivity.getAccount(), file);
         }
     }
 
@@ -23,6 +23,7 @@
 
 package com.owncloud.android.utils;
 
+import android.accounts.Account;
 import android.annotation.SuppressLint;
 import android.net.Uri;
 import android.os.Environment;
@@ -35,6 +36,8 @@ import timber.log.Timber;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
 /**
@@ -49,6 +52,12 @@ public class FileStorageUtils {
     public static Integer mSortOrderFileDisp = SORT_NAME;
     public static Boolean mSortAscendingFileDisp = true;
 
+    /**
+     * Suffix of the file kept next to a partial download in the temporal folder, with the ETag the download was
+     * started against
+     */
+    public static final String PARTIAL_DOWNLOAD_ETAG_SUFFIX = ".etag";
+
     /**
      * Get local owncloud storage path for accountName.
      */
@@ -72,13 +81,19 @@ public class FileStorageUtils {
      * Get absolute path to tmp folder inside datafolder in sd-card for given accountName.
      */
     public static String getTemporalPath(String accountName) {
-        File sdCard = Environment.getExternalStorageDirectory();
-        return sdCard.getAbsolutePath() + "/" + MainApp.Companion.getDataFolder() + "/tmp/" + Uri.encode(accountName,
-                "@");
+        return getTemporalRootPath() + "/" + Uri.encode(accountName, "@");
         // URL encoding is an 'easy fix' to overcome that NTFS and FAT32 don't allow ":" in file names,
         // that can be in the accountName since 0.1.190B
     }
 
+    /**
+     * Get absolute path to tmp folder inside datafolder in sd-card, parent of the tmp folders of all the accounts.
+     */
+    private static String getTemporalRootPath() {
+        File sdCard = Environment.getExternalStorageDirectory();
+        return sdCard.getAbsolutePath() + "/" + MainApp.Companion.getDataFolder() + "/tmp";
+    }
+
     /**
      * Optimistic number of bytes available on sd-card.
      *
@@ -217,6 +232,67 @@ public class FileStorageUtils {
         return (result != null) ? result : "";
     }
 
+    /**
+     * Removes a partial download left in a temporal file to resume it later, with its ETag.
+     */
+    public static void deletePartialDownload(File tmpFile) {
+        tmpFile.delete();
+        new File(tmpFile.getPath() + PARTIAL_DOWNLOAD_ETAG_SUFFIX).delete();
+    }
+
+    /**
+     * Removes the partial download of a file left to resume it later, or those of all the files in a folder. Other
+     * temporal files in the folder, as the copies of files being uploaded, are kept.
+     */
+    public static void deletePartialDownloads(String accountName, OCFile file) {
+        File tmpFile = new File(getTemporalPath(accountName) + file.getRemotePath());
+        if (file.isFolder()) {
+            deletePartialDownloadsIn(tmpFile);
+        } else {
+            deletePartialDownload(tmpFile);
+        }
+    }
+
+    /**
+     * Removes the partial downloads left to resume later by the accounts no longer in the device. Other temporal
+     * files of those accounts, as the copies of files being uploaded, are kept.
+     *
+     * @param accounts Accounts in the device.
+     */
+    public static void deletePartialDownloadsOfRemovedAccounts(Account[] accounts) {
+        Set<String> accountFolders = new HashSet<>();
+        for (Account account : accounts) {
+            accountFolders.add(new File(getTemporalPath(account.name)).getName());
+        }
+        File[] tmpFolders = new File(getTemporalRootPath()).listFiles();
+        if (tmpFolders == null) {
+            return;
+        }
+        for (File tmpFolder : tmpFolders) {
+            if (tmpFolder.isDirectory() && !accountFolders.contains(tmpFolder.getName())) {
+                Timber.d("Removing partial downloads of removed account in %s", tmpFolder.getName());
+                deletePartialDownloadsIn(tmpFolder);
+            }
+        }
+    }
+
+    private static void deletePartialDownloadsIn(File tmpFolder) {
+        File[] tmpFiles = tmpFolder.listFiles();
+        if (tmpFiles == null) {
+            return;
+        }
+        for (File tmpFile : tmpFiles) {
+            String tmpPath = tmpFile.getPath();
+            if (tmpFile.isDirectory()) {
+                deletePartialDownloadsIn(tmpFile);
+            } else if (tmpPath.endsWith(PARTIAL_DOWNLOAD_ETAG_SUFFIX)) {
+                deletePartialDownload(
+                        new File(tmpPath.substring(0, tmpPath.length() - PARTIAL_DOWNLOAD_ETAG_SUFFIX.length()))
+                );
+            }
+        }
+    }
+
     public static boolean deleteDir(File dir) {
         if (dir != null && dir.isDirectory()) {
             String[] children = dir.list();
@@ -0,0 +1,248 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import com.owncloud.android.syncadapter.FolderCheckSchedule.NOT_SCHEDULED
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.math.ln
+import kotlin.random.Random
+
+/**
+ * Replays a synthetic trace of changes in an account with automatic synchronizations driven by a fixed period, as
+ * before, and by [FolderCheckSchedule], and reports the requests spent and the staleness of every strategy: the
+ * time between every change in the server and its synchronization.
+ *
+ * The account has a few hot folders changing during working hours, some warm ones changing every few days and
+ * many cold archives changing every few months, all children of the root folder. Every change changes the ETag
+ * of the root folder too, as in the server.
+ */
+class FolderCheckScheduleSimulationTest {
+
+    @Test
+    fun adaptiveScheduleSpendsLessRequestsThanFrequentPollingWithFresherDataThanDefaultPeriod() {
+        val trace = ChangeTrace(Random(SEED))
+
+        val frequent = FixedPeriodSynchronization(trace, FolderCheckSchedule.DEFAULT_MIN_INTERVAL_MILLIS).run()
+        val default = FixedPeriodSynchronization(trace, DEFAULT_PERIOD).run()
+        val adaptive = AdaptiveSynchronization(trace, FolderCheckSchedule.getDefaultSchedule()).run()
+
+        listOf(frequent, default, adaptive).forEach { println(it) }
+        assertTrue("$adaptive vs $frequent", adaptive.requests < frequent.requests * 2 / 3)
+        assertTrue("$adaptive vs $default", adaptive.hotStalenessMinutes < default.hotStalenessMinutes / 2)
+        assertTrue("$adaptive vs $default", adaptive.stalenessMinutes < default.stalenessMinutes)
+    }
+
+    @Test
+    fun intervalShrinksWithChangesAndGrowsWithoutThem() {
+        val schedule = FolderCheckSchedule(MINUTE, 16 * MINUTE)
+
+        assertEquals(8 * MINUTE, schedule.nextInterval(NOT_SCHEDULED, true, false))
+        assertEquals(MINUTE, schedule.nextInterval(MINUTE, true, false))
+        assertEquals(4 * MINUTE, schedule.nextInterval(2 * MINUTE, false, false))
+        assertEquals(NOT_SCHEDULED, schedule.nextInterval(16 * MINUTE, false, false))
+        assertEquals(16 * MINUTE, schedule.nextInterval(16 * MINUTE, false, true))
+        assertEquals(NOT_SCHEDULED, schedule.nextInterval(NOT_SCHEDULED, false, false))
+        assertEquals(16 * MINUTE, schedule.nextInterval(NOT_SCHEDULED, false, true))
+        assertTrue(schedule.isCheckWorthIt(NOT_SCHEDULED))
+        assertTrue(schedule.isCheckWorthIt(2 * MINUTE))
+        assertFalse(schedule.isCheckWorthIt(MINUTE))
+    }
+
+    data class Report(
+        val strategy: String,
+        val requests: Int,
+        val stalenessMinutes: Long,
+        val hotStalenessMinutes: Long
+    ) {
+        override fun toString() =
+            "$strategy: $requests requests, mean staleness $stalenessMinutes min, " +
+                    "$hotStalenessMinutes min in hot folders"
+    }
+
+    /**
+     * Times of the changes in every folder, sorted.
+     */
+    private class ChangeTrace(random: Random) {
+        val folders: List<Folder> =
+            (0 until HOT_FOLDERS).map { Folder(true, changes(random, HOT_MEAN_GAP, workingHoursOnly = true)) } +
+                    (0 until WARM_FOLDERS).map { Folder(false, changes(random, WARM_MEAN_GAP)) } +
+                    (0 until COLD_FOLDERS).map { Folder(false, changes(random, COLD_MEAN_GAP)) }
+
+        private fun changes(random: Random, meanGap: Long, workingHoursOnly: Boolean = false): List<Long> {
+            val changes = ArrayList<Long>()
+            var time = 0L
+            while (true) {
+                time += (-ln(1 - random.nextDouble()) * meanGap).toLong()
+                if (time >= DURATION) return changes
+                if (!workingHoursOnly || isWorkingTime(time)) changes.add(time)
+            }
+        }
+
+        private fun isWorkingTime(time: Long): Boolean =
+            (time / DAY) % 7 < 5 && (time % DAY) in 9 * HOUR until 18 * HOUR
+    }
+
+    private class Folder(val hot: Boolean, val changes: List<Long>)
+
+    /**
+     * Changes of every folder not synchronized yet, with the staleness of the synchronized ones.
+     */
+    private open class Replay(val trace: ChangeTrace) {
+        private val nextChange = IntArray(trace.folders.size)
+        private var staleness = 0L
+        private var hotStaleness = 0L
+        private var synchronizedChanges = 0
+        private var synchronizedHotChanges = 0
+        var requests = 0
+
+        /**
+         * @return 'True' if the folder changed after its last synchronization, until the given time.
+         */
+        fun changedUntil(folder: Int, time: Long): Boolean {
+            val changes = trace.folders[folder].changes
+            return nextChange[folder] < changes.size && changes[nextChange[folder]] <= time
+        }
+
+        fun anyChangedUntil(time: Long) = trace.folders.indices.any { changedUntil(it, time) }
+
+        /**
+         * Fetches the folder, synchronizing all its changes until the given time.
+         */
+        fun fetch(folder: Int, time: Long) {
+            requests++
+            val changes = trace.folders[folder].changes
+            while (changedUntil(folder, time)) {
+                val delay = time - changes[nextChange[folder]++]
+                staleness += delay
+                synchronizedChanges++
+                if (trace.folders[folder].hot) {
+                    hotStaleness += delay
+                    synchronizedHotChanges++
+                }
+            }
+        }
+
+        fun report(strategy: String) = Report(
+            strategy,
+            requests,
+            TimeUnit.MILLISECONDS.toMinutes(staleness / maxOf(1, synchronizedChanges)),
+            TimeUnit.MILLISECONDS.toMinutes(hotStaleness / maxOf(1, synchronizedHotChanges))
+        )
+    }
+
+    /**
+     * Synchronizations every fixed period, fetching the root folder and every changed child.
+     */
+    private class FixedPeriodSynchronization(trace: ChangeTrace, private val period: Long) : Replay(trace) {
+        fun run(): Report {
+            var time = period
+            while (time <= DURATION) {
+                requests++  // the root folder
+                trace.folders.indices.filter { changedUntil(it, time) }.forEach { fetch(it, time) }
+                time += period
+            }
+            return report("Every ${TimeUnit.MILLISECONDS.toMinutes(period)} min")
+        }
+    }
+
+    /**
+     * Synchronizations when the next folder is due, as [AccountSynchronization] does: every due folder gets its
+     * ETag checked, the root first, unless it changed in every recent check; the root folder and the folders that
+     * changed are fetched.
+     */
+    private class AdaptiveSynchronization(trace: ChangeTrace, private val schedule: FolderCheckSchedule) :
+        Replay(trace) {
+        private val intervals = LongArray(trace.folders.size)
+        private val nextChecks = LongArray(trace.folders.size)
+        private var rootInterval = NOT_SCHEDULED
+        private var rootNextCheck = 0L
+        private var rootFetched = true
+
+        fun run(): Report {
+            var time = 0L
+            while (time <= DURATION) {
+                synchronize(time)
+                val nextCheck = (nextChecks.filter { it > 0 } + rootNextCheck).minOrNull()!!
+                time = maxOf(nextCheck, time + schedule.minIntervalMillis)
+            }
+            return report("Adaptive")
+        }
+
+        private fun synchronize(time: Long) {
+            val due = trace.folders.indices.filter { nextChecks[it] in 1..time }
+            if (rootNextCheck <= time) {
+                val changed = anyChangedUntil(time) || !rootFetched
+                val checked = schedule.isCheckWorthIt(rootInterval)
+                if (checked) requests++  // ETag of the root folder
+                if (changed || !checked) {
+                    requests++  // the root folder
+                    trace.folders.indices.filter { changedUntil(it, time) }.forEach {
+                        fetch(it, time)
+                        reschedule(it, true, time)
+                    }
+                    rootFetched = true
+                }
+                // due children were fetched with the root if changed, and did not change otherwise
+                due.filter { nextChecks[it] in 1..time }.forEach { reschedule(it, false, time) }
+                rootInterval = schedule.nextInterval(rootInterval, changed, true)
+                rootNextCheck = time + rootInterval
+                return
+            }
+            due.forEach {
+                val changed = changedUntil(it, time)
+                val checked = schedule.isCheckWorthIt(intervals[it])
+                if (checked) requests++  // ETag of the folder
+                if (changed) {
+                    fetch(it, time)
+                    rootFetched = false  // its ETag changed with the folder
+                } else if (!checked) {
+                    requests++  // fetched for nothing
+                }
+                reschedule(it, changed, time)
+            }
+        }
+
+        private fun reschedule(folder: Int, changed: Boolean, time: Long) {
+            intervals[folder] = schedule.nextInterval(intervals[folder], changed, false)
+            nextChecks[folder] =
+                if (intervals[folder] == NOT_SCHEDULED) 0 else time + intervals[folder]
+        }
+    }
+
+    companion object {
+        private const val SEED = 42
+
+        private val MINUTE = TimeUnit.MINUTES.toMillis(1)
+        private val HOUR = TimeUnit.HOURS.toMillis(1)
+        private val DAY = TimeUnit.DAYS.toMillis(1)
+        private val DURATION = TimeUnit.DAYS.toMillis(28)
+        private val DEFAULT_PERIOD = TimeUnit.HOURS.toMillis(3)
+
+        private const val HOT_FOLDERS = 3
+        private const val WARM_FOLDERS = 10
+        private const val COLD_FOLDERS = 200
+        private val HOT_MEAN_GAP = TimeUnit.MINUTES.toMillis(30)
+        private val WARM_MEAN_GAP = TimeUnit.DAYS.toMillis(3)
+        private val COLD_MEAN_GAP = TimeUnit.DAYS.toMillis(90)
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class MetricsRingBufferTest {
+
+    @Test
+    fun keepsItemsInOrderUntilFull() {
+        val buffer = MetricsRingBuffer<Int>(CAPACITY)
+        (1..3).forEach { buffer.add(it) }
+
+        assertEquals(listOf(1, 2, 3), buffer.snapshot())
+    }
+
+    @Test
+    fun keepsLastItemsWhenFull() {
+        val buffer = MetricsRingBuffer<Int>(CAPACITY)
+        (1..CAPACITY * 2 + 3).forEach { buffer.add(it) }
+
+        assertEquals((CAPACITY + 4..CAPACITY * 2 + 3).toList(), buffer.snapshot())
+    }
+
+    @Test
+    fun concurrentWritersFillTheBuffer() {
+        val buffer = MetricsRingBuffer<Int>(WRITERS * ITEMS_PER_WRITER)
+        (0 until WRITERS).map { writer ->
+            thread { (0 until ITEMS_PER_WRITER).forEach { buffer.add(writer * ITEMS_PER_WRITER + it) } }
+        }.forEach { it.join() }
+
+        assertEquals((0 until WRITERS * ITEMS_PER_WRITER).toList(), buffer.snapshot().sorted())
+    }
+
+    companion object {
+        private const val CAPACITY = 8
+        private const val WRITERS = 4
+        private const val ITEMS_PER_WRITER = 1_000
+    }
+}
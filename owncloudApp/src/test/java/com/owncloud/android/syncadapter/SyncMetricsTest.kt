@@ -0,0 +1,91 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.syncadapter
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class SyncMetricsTest {
+
+    @Test
+    fun syncRunCountsFoldersNoLongerKept() {
+        val syncRunId = SyncMetrics.newSyncRunId()
+        (0 until WRITERS).map { writer ->
+            thread { (0 until FOLDERS_PER_WRITER).forEach { SyncMetrics.record(folder(syncRunId, writer, it)) } }
+        }.forEach { it.join() }
+
+        val metric = SyncMetrics.finishSyncRun(syncRunId, ACCOUNT, 0, 1)
+
+        assertEquals(WRITERS * FOLDERS_PER_WRITER, metric.folders)
+        assertEquals(WRITERS * FOLDERS_PER_WRITER * 2, metric.entries)
+        assertEquals(WRITERS * FOLDERS_PER_WRITER.toLong(), metric.saveMillis)
+        assertEquals("/slowest/", metric.slowestFolder?.remotePath)
+    }
+
+    @Test
+    fun foldersOfOtherSyncRunsAreNotCounted() {
+        val syncRunId = SyncMetrics.newSyncRunId()
+        val otherSyncRunId = SyncMetrics.newSyncRunId()
+        SyncMetrics.record(folder(syncRunId, 0, 0))
+        SyncMetrics.record(folder(otherSyncRunId, 0, 1))
+        SyncMetrics.record(folder(SyncMetrics.NO_SYNC_RUN, 0, 2))
+
+        val metric = SyncMetrics.finishSyncRun(syncRunId, ACCOUNT, 0, 1)
+        SyncMetrics.record(folder(syncRunId, 0, 3))
+
+        assertEquals(1, metric.folders)
+        assertEquals(1, SyncMetrics.finishSyncRun(otherSyncRunId, ACCOUNT, 0, 1).folders)
+    }
+
+    @Test
+    fun eTagChecksAreCountedInTheirSyncRun() {
+        val syncRunId = SyncMetrics.newSyncRunId()
+        SyncMetrics.recordETagCheck(syncRunId, false)
+        SyncMetrics.recordETagCheck(syncRunId, false)
+        SyncMetrics.recordETagCheck(syncRunId, true)
+        SyncMetrics.recordETagCheck(SyncMetrics.NO_SYNC_RUN, true)
+
+        val metric = SyncMetrics.finishSyncRun(syncRunId, ACCOUNT, 0, 1)
+
+        assertEquals(2, metric.eTagCheckHits)
+        assertEquals(1, metric.eTagCheckMisses)
+    }
+
+    private fun folder(syncRunId: Long, writer: Int, index: Int) = FolderSyncMetric(
+        accountName = ACCOUNT,
+        remotePath = if (writer == 0 && index == FOLDERS_PER_WRITER / 2) "/slowest/" else "/$writer/$index/",
+        operation = SyncMetrics.OPERATION_SYNCHRONIZE,
+        syncRunId = syncRunId,
+        startedAt = 0,
+        propfindMillis = if (writer == 0 && index == FOLDERS_PER_WRITER / 2) 1_000 else 10,
+        entries = 2,
+        mergeCpuMillis = 1,
+        saveMillis = 1,
+        rowsWritten = 1
+    )
+
+    companion object {
+        private const val ACCOUNT = "admin@server"
+        private const val WRITERS = 4
+
+        // more folders than the buffer keeps
+        private const val FOLDERS_PER_WRITER = 1_000
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.roommigrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.filters.SmallTest
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.files.db.OCFileIndexes
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Test the migration from database to version 35, which only creates the files table and its indexes; the legacy
+ * database copies its files into it.
+ */
+@SmallTest
+class MigrationToDB35Test : MigrationTest() {
+
+    @Test
+    fun migrationFrom34to35_createsFilesTableAndIndexes() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_34,
+            currentVersion = DB_VERSION_35,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { database -> validateMigrationTo35(database) },
+            listOfMigrations = OwncloudDatabase.ALL_MIGRATIONS
+        )
+    }
+
+    @Test
+    fun startInVersion35_containsCorrectData() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_35,
+            currentVersion = DB_VERSION_35,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { Unit },
+            listOfMigrations = arrayOf()
+        )
+    }
+
+    private fun validateMigrationTo35(database: SupportSQLiteDatabase) {
+        assertEquals(0, getCount(database, FILES_TABLE_NAME))
+
+        assertTrue(getIndexSql(database, OCFileIndexes.PARENT_INDEX).contains("COLLATE NOCASE"))
+        assertTrue(getIndexSql(database, OCFileIndexes.STORAGE_PATH_INDEX).contains("WHERE"))
+        assertTrue(getIndexSql(database, OCFileIndexes.AVAILABLE_OFFLINE_INDEX).contains(OCFileIndexes.IS_AVAILABLE_OFFLINE))
+        assertTrue(getIndexSql(database, OCFileIndexes.SHARED_VIA_LINK_INDEX).contains(OCFileIndexes.IS_SHARED_VIA_LINK))
+        database.close()
+    }
+
+    private fun getIndexSql(database: SupportSQLiteDatabase, name: String): String =
+        database.query("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?", arrayOf(name)).use {
+            it.moveToFirst()
+            it.getString(0)
+        }
+}
@@ -0,0 +1,87 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.roommigrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.filters.SmallTest
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_NAME_SEARCH_TABLE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PATH
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Test the migration from database to version 36, which adds the full text index on the names of the files.
+ */
+@SmallTest
+class MigrationToDB36Test : MigrationTest() {
+
+    @Test
+    fun migrationFrom35to36_indexesExistingAndNewFiles() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_35,
+            currentVersion = DB_VERSION_36,
+            insertData = { database -> insertFile(database, "Holidays report.pdf") },
+            validateMigration = { database -> validateMigrationTo36(database) },
+            listOfMigrations = OwncloudDatabase.ALL_MIGRATIONS
+        )
+    }
+
+    @Test
+    fun startInVersion36_containsCorrectData() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_36,
+            currentVersion = DB_VERSION_36,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { Unit },
+            listOfMigrations = arrayOf()
+        )
+    }
+
+    private fun insertFile(database: SupportSQLiteDatabase, name: String) {
+        database.execSQL(
+            "INSERT INTO `$FILES_TABLE_NAME`($FILE_PARENT, $FILE_NAME, $FILE_PATH, $FILE_ACCOUNT_OWNER) " +
+                    "VALUES (?, ?, ?, ?)",
+            arrayOf(1, name, "/$name", "user@server")
+        )
+    }
+
+    private fun validateMigrationTo36(database: SupportSQLiteDatabase) {
+        assertEquals(1, countMatches(database, "report*"))
+
+        insertFile(database, "Annual report.pdf")
+        assertEquals(2, countMatches(database, "report*"))
+        assertEquals(1, countMatches(database, "annual*"))
+        database.close()
+    }
+
+    private fun countMatches(database: SupportSQLiteDatabase, query: String): Long =
+        database.query(
+            "SELECT COUNT(*) FROM $FILES_NAME_SEARCH_TABLE_NAME WHERE $FILES_NAME_SEARCH_TABLE_NAME MATCH ?",
+            arrayOf(query)
+        ).use {
+            it.moveToFirst()
+            it.getLong(0)
+        }
+}
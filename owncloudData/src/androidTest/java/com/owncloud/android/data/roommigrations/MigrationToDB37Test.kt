@@ -0,0 +1,63 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.roommigrations
+
+import androidx.test.filters.SmallTest
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.data.files.db.OCFileIndexes
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Test the migration from database to version 37, which adds an index by parent and remote id to the files table.
+ */
+@SmallTest
+class MigrationToDB37Test : MigrationTest() {
+
+    @Test
+    fun migrationFrom36to37_addsParentRemoteIdIndex() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_36,
+            currentVersion = DB_VERSION_37,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { database ->
+                val indexes = database.compileStatement(
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = " +
+                            "'${OCFileIndexes.PARENT_REMOTE_ID_INDEX}'"
+                ).simpleQueryForLong()
+                assertEquals(1, indexes)
+                database.close()
+            },
+            listOfMigrations = OwncloudDatabase.ALL_MIGRATIONS
+        )
+    }
+
+    @Test
+    fun startInVersion37_containsCorrectData() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_37,
+            currentVersion = DB_VERSION_37,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { Unit },
+            listOfMigrations = arrayOf()
+        )
+    }
+}
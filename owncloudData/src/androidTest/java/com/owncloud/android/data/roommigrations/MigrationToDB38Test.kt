@@ -0,0 +1,84 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.roommigrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.filters.SmallTest
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_SYNC_PENDING
+import com.owncloud.android.data.files.db.OCFileIndexes
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Test the migration from database to version 38, which adds the frontier of interrupted full synchronizations to
+ * the files table.
+ */
+@SmallTest
+class MigrationToDB38Test : MigrationTest() {
+
+    @Test
+    fun migrationFrom37to38_leavesExistingFilesOutOfFrontier() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_37,
+            currentVersion = DB_VERSION_38,
+            insertData = { database -> insertFolder(database) },
+            validateMigration = { database -> validateMigrationTo38(database) },
+            listOfMigrations = OwncloudDatabase.ALL_MIGRATIONS
+        )
+    }
+
+    @Test
+    fun startInVersion38_containsCorrectData() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_38,
+            currentVersion = DB_VERSION_38,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { Unit },
+            listOfMigrations = arrayOf()
+        )
+    }
+
+    private fun insertFolder(database: SupportSQLiteDatabase) {
+        database.execSQL(
+            "INSERT INTO `$FILES_TABLE_NAME`($FILE_PARENT, $FILE_NAME, $FILE_PATH, $FILE_ACCOUNT_OWNER) " +
+                    "VALUES (?, ?, ?, ?)",
+            arrayOf(1, "Photos", "/Photos/", "user@server")
+        )
+    }
+
+    private fun validateMigrationTo38(database: SupportSQLiteDatabase) {
+        val notPending = database.compileStatement(
+            "SELECT COUNT(*) FROM `$FILES_TABLE_NAME` WHERE $FILE_SYNC_PENDING = 0"
+        ).simpleQueryForLong()
+        assertEquals(1, notPending)
+
+        val indexes = database.compileStatement(
+            "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = '${OCFileIndexes.SYNC_PENDING_INDEX}'"
+        ).simpleQueryForLong()
+        assertEquals(1, indexes)
+        database.close()
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.roommigrations
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.filters.SmallTest
+import com.owncloud.android.data.OwncloudDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_ACCOUNT_OWNER
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_CHECK_INTERVAL
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_NEXT_CHECK
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PARENT
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_PATH
+import com.owncloud.android.data.files.db.OCFileIndexes
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Test the migration from database to version 39, which adds the schedule of folder checks to the files table.
+ */
+@SmallTest
+class MigrationToDB39Test : MigrationTest() {
+
+    @Test
+    fun migrationFrom38to39_leavesExistingFoldersUnscheduled() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_38,
+            currentVersion = DB_VERSION_39,
+            insertData = { database -> insertFolder(database) },
+            validateMigration = { database -> validateMigrationTo39(database) },
+            listOfMigrations = OwncloudDatabase.ALL_MIGRATIONS
+        )
+    }
+
+    @Test
+    fun startInVersion39_containsCorrectData() {
+        performMigrationTest(
+            previousVersion = DB_VERSION_39,
+            currentVersion = DB_VERSION_39,
+            recoverPreviousData = false,
+            insertData = { Unit },
+            validateMigration = { Unit },
+            listOfMigrations = arrayOf()
+        )
+    }
+
+    private fun insertFolder(database: SupportSQLiteDatabase) {
+        database.execSQL(
+            "INSERT INTO `$FILES_TABLE_NAME`($FILE_PARENT, $FILE_NAME, $FILE_PATH, $FILE_ACCOUNT_OWNER) " +
+                    "VALUES (?, ?, ?, ?)",
+            arrayOf(1, "Photos", "/Photos/", "user@server")
+        )
+    }
+
+    private fun validateMigrationTo39(database: SupportSQLiteDatabase) {
+        val unscheduled = database.compileStatement(
+            "SELECT COUNT(*) FROM `$FILES_TABLE_NAME` WHERE $FILE_CHECK_INTERVAL = 0 AND $FILE_NEXT_CHECK = 0"
+        ).simpleQueryForLong()
+        assertEquals(1, unscheduled)
+
+        val indexes = database.compileStatement(
+            "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = '${OCFileIndexes.NEXT_CHECK_INDEX}'"
+        ).simpleQueryForLong()
+        assertEquals(1, indexes)
+        database.close()
+    }
+}
@@ -27,14 +27,27 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.owncloud.android.data.capabilities.db.OCCapabilityDao
 import com.owncloud.android.data.capabilities.db.OCCapabilityEntity
+import com.owncloud.android.data.files.db.FileDao
+import com.owncloud.android.data.files.db.OCFileEntity
+import com.owncloud.android.data.files.db.OCFileIndexes
+import com.owncloud.android.data.files.db.OCFileNameSearch
 import com.owncloud.android.data.migrations.MIGRATION_27_28
 import com.owncloud.android.data.migrations.MIGRATION_28_29
 import com.owncloud.android.data.migrations.MIGRATION_29_30
 import com.owncloud.android.data.migrations.MIGRATION_30_31
 import com.owncloud.android.data.migrations.MIGRATION_31_32
 import com.owncloud.android.data.migrations.MIGRATION_32_33
+import com.owncloud.android.data.migrations.MIGRATION_33_34
+import com.owncloud.android.data.migrations.MIGRATION_34_35
+import com.owncloud.android.data.migrations.MIGRATION_35_36
+import com.owncloud.android.data.migrations.MIGRATION_36_37
+import com.owncloud.android.data.migrations.MIGRATION_37_38
+import com.owncloud.android.data.migrations.MIGRATION_38_39
+import com.owncloud.android.data.migrations.MIGRATION_39_40
+import com.owncloud.android.data.migrations.MIGRATION_40_41
 import com.owncloud.android.data.sharing.shares.db.OCShareDao
 import com.owncloud.android.data.sharing.shares.db.OCShareEntity
 import com.owncloud.android.data.user.db.UserDao
@@ -44,7 +57,8 @@ import com.owncloud.android.data.user.db.UserQuotaEntity
     entities = [
         OCShareEntity::class,
         OCCapabilityEntity::class,
-        UserQuotaEntity::class
+        UserQuotaEntity::class,
+        OCFileEntity::class
     ],
     version = ProviderMeta.DB_VERSION,
     exportSchema = true
@@ -53,6 +67,7 @@ abstract class OwncloudDatabase : RoomDatabase() {
     abstract fun shareDao(): OCShareDao
     abstract fun capabilityDao(): OCCapabilityDao
     abstract fun userDao(): UserDao
+    abstract fun fileDao(): FileDao
 
     companion object {
         @Volatile
@@ -64,9 +79,28 @@ abstract class OwncloudDatabase : RoomDatabase() {
             MIGRATION_29_30,
             MIGRATION_30_31,
             MIGRATION_31_32,
-            MIGRATION_32_33
+            MIGRATION_32_33,
+            MIGRATION_33_34,
+            MIGRATION_34_35,
+            MIGRATION_35_36,
+            MIGRATION_36_37,
+            MIGRATION_37_38,
+            MIGRATION_38_39,
+            MIGRATION_39_40,
+            MIGRATION_40_41
         )
 
+        /**
+         * Sets the definitions of the indexes of the files table that Room can not declare, and creates the full text
+         * index on the names of the files, which is not a Room entity.
+         */
+        private val CALLBACK = object : Callback() {
+            override fun onCreate(db: SupportSQLiteDatabase) {
+                OCFileIndexes.create(db)
+                OCFileNameSearch.create(db)
+            }
+        }
+
         fun getDatabase(
             context: Context
         ): OwncloudDatabase {
@@ -78,6 +112,9 @@ abstract class OwncloudDatabase : RoomDatabase() {
                     OwncloudDatabase::class.java,
                     ProviderMeta.NEW_DB_NAME
                 ).addMigrations(*ALL_MIGRATIONS)
+                    .addCallback(CALLBACK)
+                    // reads of the files out of transactions are not blocked by the writes of a synchronization
+                    .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
                     .build()
                 INSTANCE = instance
                 instance
@@ -90,6 +127,7 @@ abstract class OwncloudDatabase : RoomDatabase() {
                 context.applicationContext,
                 OwncloudDatabase::class.java
             ).addMigrations(*migrations)
+                .addCallback(CALLBACK)
                 .build()
         }
     }
@@ -31,7 +31,7 @@ public class ProviderMeta {
 
     public static final String DB_NAME = "filelist";
     public static final String NEW_DB_NAME = "owncloud_database";
-    public static final int DB_VERSION = 33;
+    public static final int DB_VERSION = 41;
 
     private ProviderMeta() {
     }
@@ -40,6 +40,37 @@ public class ProviderMeta {
         public static final String OCSHARES_TABLE_NAME = "ocshares";
         public static final String CAPABILITIES_TABLE_NAME = "capabilities";
         public static final String USER_QUOTAS_TABLE_NAME = "user_quotas";
+        public static final String FILES_TABLE_NAME = "filelist";
+        // Full text index on the names of the files in filelist table, kept up to date by triggers
+        public static final String FILES_NAME_SEARCH_TABLE_NAME = "filelist_name_search";
+
+        // Columns of filelist table
+        public static final String FILE_PARENT = "parent";
+        public static final String FILE_NAME = "filename";
+        public static final String FILE_CREATION = "created";
+        public static final String FILE_MODIFIED = "modified";
+        public static final String FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA = "modified_at_last_sync_for_data";
+        public static final String FILE_CONTENT_LENGTH = "content_length";
+        public static final String FILE_CONTENT_TYPE = "content_type";
+        public static final String FILE_STORAGE_PATH = "media_path";
+        public static final String FILE_PATH = "path";
+        public static final String FILE_ACCOUNT_OWNER = "file_owner";
+        public static final String FILE_LAST_SYNC_DATE = "last_sync_date";
+        public static final String FILE_LAST_SYNC_DATE_FOR_DATA = "last_sync_date_for_data";
+        public static final String FILE_KEEP_IN_SYNC = "keep_in_sync";
+        public static final String FILE_ETAG = "etag";
+        public static final String FILE_TREE_ETAG = "tree_etag";
+        public static final String FILE_SHARED_VIA_LINK = "share_by_link";
+        public static final String FILE_SHARED_WITH_SHAREE = "shared_via_users";
+        public static final String FILE_PERMISSIONS = "permissions";
+        public static final String FILE_REMOTE_ID = "remote_id";
+        public static final String FILE_UPDATE_THUMBNAIL = "update_thumbnail";
+        public static final String FILE_IS_DOWNLOADING = "is_downloading";
+        public static final String FILE_ETAG_IN_CONFLICT = "etag_in_conflict";
+        public static final String FILE_PRIVATE_LINK = "private_link";
+        public static final String FILE_SYNC_PENDING = "sync_pending";
+        public static final String FILE_CHECK_INTERVAL = "check_interval";
+        public static final String FILE_NEXT_CHECK = "next_check";
 
         // Columns of ocshares table
         public static final String OCSHARES_SHARE_TYPE = "share_type";
@@ -0,0 +1,60 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.files.db
+
+import androidx.paging.PagingSource
+import androidx.room.Dao
+import androidx.room.RawQuery
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta
+import com.owncloud.android.domain.files.MIME_DIR
+import com.owncloud.android.domain.files.MIME_DIR_UNIX
+
+@Dao
+abstract class FileDao {
+
+    companion object {
+        private const val SELECT_FOLDER_CONTENT =
+            "SELECT * " +
+                    "FROM ${ProviderTableMeta.FILES_TABLE_NAME} " +
+                    "WHERE ${ProviderTableMeta.FILE_PARENT} = ?"
+        private const val IS_FOLDER =
+            "${ProviderTableMeta.FILE_CONTENT_TYPE} IN ('$MIME_DIR', '$MIME_DIR_UNIX')"
+    }
+
+    /**
+     * Reads the content of a folder a page at a time. The source is invalidated when the files table changes.
+     *
+     * @param folderId    Id of the folder.
+     * @param justFolders 'true' to read only the folders in it.
+     * @param orderBy     ORDER BY clause of the content, without the keywords; it must give a total order, so
+     *                    pages do not overlap.
+     */
+    fun getFolderContent(folderId: Long, justFolders: Boolean, orderBy: String): PagingSource<Int, OCFileEntity> =
+        getFolderContent(
+            SimpleSQLiteQuery(
+                SELECT_FOLDER_CONTENT + (if (justFolders) " AND $IS_FOLDER" else "") + " ORDER BY $orderBy",
+                arrayOf(folderId)
+            )
+        )
+
+    @RawQuery(observedEntities = [OCFileEntity::class])
+    protected abstract fun getFolderContent(query: SupportSQLiteQuery): PagingSource<Int, OCFileEntity>
+}
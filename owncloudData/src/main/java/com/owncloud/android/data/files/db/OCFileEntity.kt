@@ -0,0 +1,163 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.files.db
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta
+
+/**
+ * Represents one record of the Files table.
+ *
+ * Columns keep the types and nullability of the legacy table they come from. Room only knows the columns of the
+ * indexes; the collation of the names and the predicates of the partial indexes are set by [OCFileIndexes].
+ */
+@Entity(
+    tableName = ProviderTableMeta.FILES_TABLE_NAME,
+    indices = [
+        Index(
+            name = OCFileIndexes.PARENT_INDEX,
+            value = [ProviderTableMeta.FILE_PARENT, ProviderTableMeta.FILE_NAME]
+        ),
+        Index(
+            name = OCFileIndexes.PARENT_REMOTE_ID_INDEX,
+            value = [ProviderTableMeta.FILE_PARENT, ProviderTableMeta.FILE_REMOTE_ID]
+        ),
+        Index(
+            name = OCFileIndexes.PATH_INDEX,
+            value = [ProviderTableMeta.FILE_ACCOUNT_OWNER, ProviderTableMeta.FILE_PATH]
+        ),
+        Index(
+            name = OCFileIndexes.REMOTE_ID_INDEX,
+            value = [ProviderTableMeta.FILE_ACCOUNT_OWNER, ProviderTableMeta.FILE_REMOTE_ID]
+        ),
+        Index(
+            name = OCFileIndexes.STORAGE_PATH_INDEX,
+            value = [ProviderTableMeta.FILE_STORAGE_PATH]
+        ),
+        Index(
+            name = OCFileIndexes.AVAILABLE_OFFLINE_INDEX,
+            value = [ProviderTableMeta.FILE_KEEP_IN_SYNC, ProviderTableMeta.FILE_ACCOUNT_OWNER]
+        ),
+        Index(
+            name = OCFileIndexes.SHARED_VIA_LINK_INDEX,
+            value = [ProviderTableMeta.FILE_ACCOUNT_OWNER]
+        ),
+        Index(
+            name = OCFileIndexes.SYNC_PENDING_INDEX,
+            value = [ProviderTableMeta.FILE_ACCOUNT_OWNER]
+        ),
+        Index(
+            name = OCFileIndexes.NEXT_CHECK_INDEX,
+            value = [ProviderTableMeta.FILE_ACCOUNT_OWNER, ProviderTableMeta.FILE_NEXT_CHECK]
+        )
+    ]
+)
+data class OCFileEntity(
+    @ColumnInfo(name = ProviderTableMeta.FILE_PARENT)
+    val parentId: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_NAME)
+    val name: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_PATH)
+    val remotePath: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_ACCOUNT_OWNER)
+    val accountOwner: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_CREATION)
+    val creationTimestamp: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_MODIFIED)
+    val modificationTimestamp: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA)
+    val modificationTimestampAtLastSyncForData: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_CONTENT_TYPE)
+    val mimeType: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_CONTENT_LENGTH)
+    val length: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_STORAGE_PATH)
+    val storagePath: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_LAST_SYNC_DATE)
+    val lastSyncDateForProperties: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA)
+    val lastSyncDateForData: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_KEEP_IN_SYNC)
+    val availableOfflineStatus: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_ETAG)
+    val etag: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_TREE_ETAG)
+    val treeEtag: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_SHARED_VIA_LINK)
+    val sharedViaLink: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_SHARED_WITH_SHAREE)
+    val sharedWithSharee: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_PERMISSIONS)
+    val permissions: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_REMOTE_ID)
+    val remoteId: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_UPDATE_THUMBNAIL)
+    val needsToUpdateThumbnail: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_IS_DOWNLOADING)
+    val isDownloading: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_ETAG_IN_CONFLICT)
+    val etagInConflict: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_PRIVATE_LINK)
+    val privateLink: String?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_SYNC_PENDING, defaultValue = "0")
+    val syncPending: Int?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_CHECK_INTERVAL, defaultValue = "0")
+    val checkInterval: Long?,
+    @ColumnInfo(name = ProviderTableMeta.FILE_NEXT_CHECK, defaultValue = "0")
+    val nextCheck: Long?
+) {
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = ProviderTableMeta._ID)
+    var id: Long = 0
+
+    companion object {
+        /**
+         * Columns copied from the legacy table, in its order.
+         */
+        val COLUMNS = arrayOf(
+            ProviderTableMeta._ID,
+            ProviderTableMeta.FILE_NAME,
+            ProviderTableMeta.FILE_PATH,
+            ProviderTableMeta.FILE_PARENT,
+            ProviderTableMeta.FILE_CREATION,
+            ProviderTableMeta.FILE_MODIFIED,
+            ProviderTableMeta.FILE_CONTENT_TYPE,
+            ProviderTableMeta.FILE_CONTENT_LENGTH,
+            ProviderTableMeta.FILE_STORAGE_PATH,
+            ProviderTableMeta.FILE_ACCOUNT_OWNER,
+            ProviderTableMeta.FILE_LAST_SYNC_DATE,
+            ProviderTableMeta.FILE_KEEP_IN_SYNC,
+            ProviderTableMeta.FILE_LAST_SYNC_DATE_FOR_DATA,
+            ProviderTableMeta.FILE_MODIFIED_AT_LAST_SYNC_FOR_DATA,
+            ProviderTableMeta.FILE_ETAG,
+            ProviderTableMeta.FILE_TREE_ETAG,
+            ProviderTableMeta.FILE_SHARED_VIA_LINK,
+            ProviderTableMeta.FILE_PERMISSIONS,
+            ProviderTableMeta.FILE_REMOTE_ID,
+            ProviderTableMeta.FILE_UPDATE_THUMBNAIL,
+            ProviderTableMeta.FILE_IS_DOWNLOADING,
+            ProviderTableMeta.FILE_ETAG_IN_CONFLICT,
+            ProviderTableMeta.FILE_SHARED_WITH_SHAREE,
+            ProviderTableMeta.FILE_PRIVATE_LINK
+        )
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.files.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta
+
+/**
+ * Indexes of the files table, for the lookups done by the content provider and the folder listings; without them,
+ * every folder listing or lookup by path is a full scan of the table.
+ *
+ * Folder listings are filtered only by parent id, which is unique across accounts, and sorted by name regardless
+ * of case, so that index also covers the default sort order. Merges of folder listings from the server read the
+ * children of a folder in order of remote id. Available offline, shared by link and downloaded files, and folders
+ * pending synchronization or with a check scheduled, are only a few rows, so they go to partial indexes; queries
+ * need to include their predicates verbatim so that SQLite can choose them.
+ *
+ * Room declares these indexes in [OCFileEntity] only by name and columns, which is all it validates, and creates
+ * them without collation nor predicate; [create] sets the right definitions.
+ */
+object OCFileIndexes {
+
+    const val PARENT_INDEX = "filelist_parent_idx"
+    const val PARENT_REMOTE_ID_INDEX = "filelist_parent_remote_id_idx"
+    const val PATH_INDEX = "filelist_path_idx"
+    const val REMOTE_ID_INDEX = "filelist_remote_id_idx"
+    const val STORAGE_PATH_INDEX = "filelist_storage_path_idx"
+    const val AVAILABLE_OFFLINE_INDEX = "filelist_available_offline_idx"
+    const val SHARED_VIA_LINK_INDEX = "filelist_shared_via_link_idx"
+    const val SYNC_PENDING_INDEX = "filelist_sync_pending_idx"
+    const val NEXT_CHECK_INDEX = "filelist_next_check_idx"
+
+    const val IS_AVAILABLE_OFFLINE = "${ProviderTableMeta.FILE_KEEP_IN_SYNC} > 0"
+    const val IS_SHARED_VIA_LINK = "${ProviderTableMeta.FILE_SHARED_VIA_LINK} = 1"
+    const val IS_SYNC_PENDING = "${ProviderTableMeta.FILE_SYNC_PENDING} > 0"
+    const val IS_CHECK_SCHEDULED = "${ProviderTableMeta.FILE_NEXT_CHECK} > 0"
+
+    private val DEFINITIONS = mapOf(
+        PARENT_INDEX to "(${ProviderTableMeta.FILE_PARENT}, ${ProviderTableMeta.FILE_NAME} COLLATE NOCASE)",
+        PARENT_REMOTE_ID_INDEX to "(${ProviderTableMeta.FILE_PARENT}, ${ProviderTableMeta.FILE_REMOTE_ID})",
+        PATH_INDEX to "(${ProviderTableMeta.FILE_ACCOUNT_OWNER}, ${ProviderTableMeta.FILE_PATH})",
+        REMOTE_ID_INDEX to "(${ProviderTableMeta.FILE_ACCOUNT_OWNER}, ${ProviderTableMeta.FILE_REMOTE_ID})",
+        STORAGE_PATH_INDEX to "(${ProviderTableMeta.FILE_STORAGE_PATH}) " +
+                "WHERE ${ProviderTableMeta.FILE_STORAGE_PATH} IS NOT NULL",
+        AVAILABLE_OFFLINE_INDEX to "(${ProviderTableMeta.FILE_KEEP_IN_SYNC}, ${ProviderTableMeta.FILE_ACCOUNT_OWNER}) " +
+                "WHERE $IS_AVAILABLE_OFFLINE",
+        SHARED_VIA_LINK_INDEX to "(${ProviderTableMeta.FILE_ACCOUNT_OWNER}) WHERE $IS_SHARED_VIA_LINK",
+        SYNC_PENDING_INDEX to "(${ProviderTableMeta.FILE_ACCOUNT_OWNER}) WHERE $IS_SYNC_PENDING",
+        NEXT_CHECK_INDEX to "(${ProviderTableMeta.FILE_ACCOUNT_OWNER}, ${ProviderTableMeta.FILE_NEXT_CHECK}) " +
+                "WHERE $IS_CHECK_SCHEDULED"
+    )
+
+    /**
+     * Creates the indexes with the given names, all of them by default, replacing the ones created by Room.
+     */
+    fun create(database: SupportSQLiteDatabase, names: Collection<String> = DEFINITIONS.keys) {
+        names.forEach { name ->
+            database.execSQL("DROP INDEX IF EXISTS `$name`")
+            database.execSQL(
+                "CREATE INDEX `$name` ON `${ProviderTableMeta.FILES_TABLE_NAME}` ${DEFINITIONS.getValue(name)}"
+            )
+        }
+    }
+}
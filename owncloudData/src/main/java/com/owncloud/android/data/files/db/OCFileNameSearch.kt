@@ -0,0 +1,70 @@
+/**
+ * ownCloud Android client application
+ *
+ * Copyright (C) 2021 ownCloud GmbH.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.owncloud.android.data.files.db
+
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta
+
+/**
+ * Full text index on the names of the files, to search them by the words in their names.
+ *
+ * The index takes the names from the files table itself, so it only stores the words; the triggers keep it updated
+ * when files are inserted, renamed or deleted. It is not a Room entity: the searches are run by the content provider
+ * with its own selections.
+ */
+object OCFileNameSearch {
+
+    private const val BEFORE_DELETE_TRIGGER = "filelist_name_search_bd"
+    private const val BEFORE_UPDATE_TRIGGER = "filelist_name_search_bu"
+    private const val AFTER_UPDATE_TRIGGER = "filelist_name_search_au"
+    private const val AFTER_INSERT_TRIGGER = "filelist_name_search_ai"
+
+    private const val DELETE_FROM_INDEX =
+        "DELETE FROM ${ProviderTableMeta.FILES_NAME_SEARCH_TABLE_NAME} WHERE docid = old.${ProviderTableMeta._ID};"
+    private const val INSERT_INTO_INDEX =
+        "INSERT INTO ${ProviderTableMeta.FILES_NAME_SEARCH_TABLE_NAME}(docid, ${ProviderTableMeta.FILE_NAME}) " +
+                "VALUES (new.${ProviderTableMeta._ID}, new.${ProviderTableMeta.FILE_NAME});"
+
+    /**
+     * Creates the index and its triggers, empty; files inserted later are added by the triggers.
+     */
+    fun create(database: SupportSQLiteDatabase) {
+        database.execSQL(
+            "CREATE VIRTUAL TABLE IF NOT EXISTS ${ProviderTableMeta.FILES_NAME_SEARCH_TABLE_NAME} " +
+                    "USING fts4(content=\"${ProviderTableMeta.FILES_TABLE_NAME}\", ${ProviderTableMeta.FILE_NAME}, " +
+                    "tokenize=unicode61);"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS $BEFORE_DELETE_TRIGGER BEFORE DELETE ON " +
+                    "${ProviderTableMeta.FILES_TABLE_NAME} BEGIN $DELETE_FROM_INDEX END;"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS $BEFORE_UPDATE_TRIGGER BEFORE UPDATE OF ${ProviderTableMeta.FILE_NAME} " +
+                    "ON ${ProviderTableMeta.FILES_TABLE_NAME} BEGIN $DELETE_FROM_INDEX END;"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS $AFTER_UPDATE_TRIGGER AFTER UPDATE OF ${ProviderTableMeta.FILE_NAME} " +
+                    "ON ${ProviderTableMeta.FILES_TABLE_NAME} BEGIN $INSERT_INTO_INDEX END;"
+        )
+        database.execSQL(
+            "CREATE TRIGGER IF NOT EXISTS $AFTER_INSERT_TRIGGER AFTER INSERT ON " +
+                    "${ProviderTableMeta.FILES_TABLE_NAME} BEGIN $INSERT_INTO_INDEX END;"
+        )
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ *   ownCloud Android client application
+ *
+ *   Copyright (C) 2021 ownCloud GmbH.
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License version 2,
+ *   as published by the Free Software Foundation.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.owncloud.android.data.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.files.db.OCFileIndexes
+
+val MIGRATION_34_35 = object : Migration(34, 35) {
+    override fun migrate(database: SupportSQLiteDatabase) {
+        // Version 35 moves the files table from the legacy database to Room. This only creates the table and its
+        // indexes; the files are copied by the upgrade of the legacy database, which opens this one before dropping
+        // its own table
+        database.execSQL("CREATE TABLE IF NOT EXISTS `$FILES_TABLE_NAME` (`parent` INTEGER, `filename` TEXT, `path` TEXT, `file_owner` TEXT, `created` INTEGER, `modified` INTEGER, `modified_at_last_sync_for_data` INTEGER, `content_type` TEXT, `content_length` INTEGER, `media_path` TEXT, `last_sync_date` INTEGER, `last_sync_date_for_data` INTEGER, `keep_in_sync` INTEGER, `etag` TEXT, `tree_etag` TEXT, `share_by_link` INTEGER, `shared_via_users` INTEGER, `permissions` TEXT, `remote_id` TEXT, `update_thumbnail` INTEGER, `is_downloading` INTEGER, `etag_in_conflict` TEXT, `private_link` TEXT, `_id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL)")
+        OCFileIndexes.create(database)
+    }
+}
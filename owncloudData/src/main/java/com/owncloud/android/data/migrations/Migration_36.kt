@@ -0,0 +1,33 @@
+/**
+ *   ownCloud Android client application
+ *
+ *   Copyright (C) 2021 ownCloud GmbH.
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License version 2,
+ *   as published by the Free Software Foundation.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.owncloud.android.data.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_NAME_SEARCH_TABLE_NAME
+import com.owncloud.android.data.files.db.OCFileNameSearch
+
+val MIGRATION_35_36 = object : Migration(35, 36) {
+    override fun migrate(database: SupportSQLiteDatabase) {
+        // Version 36 adds a full text index on the names of the files; it is filled with the files already in the
+        // table, the triggers keep it updated from then on
+        OCFileNameSearch.create(database)
+        database.execSQL("INSERT INTO $FILES_NAME_SEARCH_TABLE_NAME($FILES_NAME_SEARCH_TABLE_NAME) VALUES('rebuild')")
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ *   ownCloud Android client application
+ *
+ *   Copyright (C) 2021 ownCloud GmbH.
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License version 2,
+ *   as published by the Free Software Foundation.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.owncloud.android.data.migrations
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILES_TABLE_NAME
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_CHECK_INTERVAL
+import com.owncloud.android.data.ProviderMeta.ProviderTableMeta.FILE_NEXT_CHECK
+import com.owncloud.android.data.files.db.OCFileIndexes
+
+val MIGRATION_38_39 = object : Migration(38, 39) {
+    override fun migrate(database: SupportSQLiteDatabase) {
+        // Version 39 adds the schedule of folder checks to the files table
+        database.execSQL("ALTER TABLE `$FILES_TABLE_NAME` ADD COLUMN `$FILE_CHECK_INTERVAL` INTEGER DEFAULT 0")
+        database.execSQL("ALTER TABLE `$FILES_TABLE_NAME` ADD COLUMN `$FILE_NEXT_CHECK` INTEGER DEFAULT 0")
+        OCFileIndexes.create(database, listOf(OCFileIndexes.NEXT_CHECK_INDEX))
+    }
+}